@@ -0,0 +1,396 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2016 The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.dav;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Moves DAV bodies with Servlet 3.1 non-blocking I/O, so that a slow client holds on to a connection but not to one of
+ * the container's request threads. The container calls back whenever the network is ready for more and the callbacks
+ * only do as much as the network will take without blocking.
+ */
+class AsyncTransfer
+{
+	private static final Logger M_log = LoggerFactory.getLogger(AsyncTransfer.class);
+
+	/**
+	 * What to do with a request body once it has all arrived.
+	 */
+	interface BodyHandler
+	{
+		/**
+		 * Called on one of the servlet's worker threads, with the body spooled to a file which is deleted afterwards.
+		 */
+		void received(File body, HttpServletResponse response) throws IOException;
+	}
+
+	private AsyncTransfer()
+	{
+	}
+
+	/**
+	 * Send length bytes from body as the response, then close body. Headers and status must already be set.
+	 */
+	static void send(HttpServletRequest request, HttpServletResponse response, ReadableByteChannel body, long length,
+			int bufferSize, long timeout) throws IOException
+	{
+		AsyncContext context = request.startAsync(request, response);
+		context.setTimeout(timeout);
+
+		ChannelWriter writer = new ChannelWriter(context, response.getOutputStream(), body, length, bufferSize);
+		context.addListener(writer);
+		response.getOutputStream().setWriteListener(writer);
+	}
+
+	/**
+	 * Spool the request body to a temporary file as it arrives, then hand it to handler on executor. The request is
+	 * completed once the handler returns. The upload holds one of spools until then; when none is free it is turned
+	 * away (503) without reading any of it. A body that goes over maxLength bytes is turned away (403, as for being
+	 * over quota) once it does.
+	 */
+	static void receive(HttpServletRequest request, HttpServletResponse response, ExecutorService executor,
+			Semaphore spools, long maxLength, BodyHandler handler, int bufferSize, long timeout) throws IOException
+	{
+		if (!spools.tryAcquire())
+		{
+			M_log.warn("DAV upload refused: too many uploads in progress");
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			return;
+		}
+
+		File spool = null;
+		FileSpooler spooler = null;
+		try
+		{
+			spool = File.createTempFile("dav-put", ".tmp");
+
+			AsyncContext context = request.startAsync(request, response);
+			context.setTimeout(timeout);
+
+			spooler = new FileSpooler(context, request.getInputStream(), spool, spools, maxLength, executor, handler,
+					bufferSize);
+			context.addListener(spooler);
+			request.getInputStream().setReadListener(spooler);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			if (spooler != null)
+			{
+				spooler.finish();
+			}
+			else
+			{
+				spools.release();
+				if (spool != null) spool.delete();
+			}
+			throw e;
+		}
+	}
+
+	private static class ChannelWriter implements WriteListener, AsyncListener
+	{
+		private final AsyncContext context;
+		private final ServletOutputStream out;
+		private final ReadableByteChannel body;
+		private final ByteBuffer buffer;
+		private long remaining;
+		private boolean finished = false;
+
+		ChannelWriter(AsyncContext context, ServletOutputStream out, ReadableByteChannel body, long length, int bufferSize)
+		{
+			this.context = context;
+			this.out = out;
+			this.body = body;
+			this.remaining = length;
+			this.buffer = ByteBuffer.allocate(bufferSize);
+		}
+
+		public void onWritePossible() throws IOException
+		{
+			while (!finished && out.isReady())
+			{
+				buffer.clear();
+				if (remaining < buffer.capacity())
+				{
+					buffer.limit((int) remaining);
+				}
+
+				int read = (remaining > 0) ? body.read(buffer) : -1;
+				if (read < 0)
+				{
+					// Either everything's gone or the file was shorter than the resource said. Either way, we're done.
+					finish();
+					return;
+				}
+
+				remaining -= read;
+				out.write(buffer.array(), 0, read);
+			}
+		}
+
+		public void onError(Throwable t)
+		{
+			// Usually the client going away part way through
+			if (M_log.isDebugEnabled()) M_log.debug("DAV download failed: " + t);
+			finish();
+		}
+
+		private synchronized void finish()
+		{
+			if (finished) return;
+			finished = true;
+
+			try
+			{
+				body.close();
+			}
+			catch (IOException ignore)
+			{
+			}
+
+			try
+			{
+				context.complete();
+			}
+			catch (IllegalStateException ignore)
+			{
+				// Already completed by the container (timeout or error)
+			}
+		}
+
+		public void onComplete(AsyncEvent event)
+		{
+			finish();
+		}
+
+		public void onTimeout(AsyncEvent event)
+		{
+			M_log.warn("DAV download timed out with " + remaining + " bytes to go");
+			finish();
+		}
+
+		public void onError(AsyncEvent event)
+		{
+			onError(event.getThrowable());
+		}
+
+		public void onStartAsync(AsyncEvent event)
+		{
+		}
+	}
+
+	private static class FileSpooler implements ReadListener, AsyncListener
+	{
+		private final AsyncContext context;
+		private final ServletInputStream in;
+		private final File spool;
+		private final FileChannel out;
+		private final Semaphore spools;
+		private final long maxLength;
+		private final ExecutorService executor;
+		private final BodyHandler handler;
+		private final byte[] buffer;
+		private long received = 0;
+		private volatile boolean finished = false;
+		/** Set while a worker has the spool and the response; it finishes up once the handler returns (guarded by this) */
+		private boolean handingOff = false;
+
+		FileSpooler(AsyncContext context, ServletInputStream in, File spool, Semaphore spools, long maxLength,
+				ExecutorService executor, BodyHandler handler, int bufferSize) throws IOException
+		{
+			this.context = context;
+			this.in = in;
+			this.spool = spool;
+			this.out = new FileOutputStream(spool).getChannel();
+			this.spools = spools;
+			this.maxLength = maxLength;
+			this.executor = executor;
+			this.handler = handler;
+			this.buffer = new byte[bufferSize];
+		}
+
+		public void onDataAvailable() throws IOException
+		{
+			while (!finished && in.isReady())
+			{
+				int read = in.read(buffer);
+				if (read < 0) return;
+
+				received += read;
+				if (received > maxLength)
+				{
+					M_log.warn("DAV upload refused: body is over quota after " + received + " bytes");
+					((HttpServletResponse) context.getResponse()).sendError(HttpServletResponse.SC_FORBIDDEN);
+					finish();
+					return;
+				}
+
+				ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+				while (chunk.hasRemaining())
+				{
+					out.write(chunk);
+				}
+			}
+		}
+
+		public void onAllDataRead() throws IOException
+		{
+			out.close();
+
+			try
+			{
+				executor.execute(new Runnable()
+				{
+					public void run()
+					{
+						HttpServletResponse response;
+						synchronized (FileSpooler.this)
+						{
+							// Timed out or dropped while waiting for a worker
+							if (finished) return;
+							handingOff = true;
+							response = (HttpServletResponse) context.getResponse();
+						}
+
+						try
+						{
+							handler.received(spool, response);
+						}
+						catch (Throwable t)
+						{
+							M_log.warn("DAV upload failed: " + t, t);
+							try
+							{
+								response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+							}
+							catch (Exception ignore)
+							{
+							}
+						}
+						finally
+						{
+							handedBack();
+						}
+					}
+				});
+			}
+			catch (RejectedExecutionException e)
+			{
+				M_log.warn("DAV upload refused: no worker free to store it");
+				((HttpServletResponse) context.getResponse()).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+				finish();
+			}
+		}
+
+		public void onError(Throwable t)
+		{
+			if (M_log.isDebugEnabled()) M_log.debug("DAV upload failed: " + t);
+			finish();
+		}
+
+		/**
+		 * Give back the spool permit and complete the request, unless a worker is still using them, in which case it
+		 * does so when it is done.
+		 */
+		private synchronized void finish()
+		{
+			if (finished || handingOff) return;
+			finished = true;
+
+			try
+			{
+				out.close();
+			}
+			catch (IOException ignore)
+			{
+			}
+
+			spool.delete();
+			spools.release();
+
+			try
+			{
+				context.complete();
+			}
+			catch (IllegalStateException ignore)
+			{
+				// Already completed by the container (timeout or error)
+			}
+		}
+
+		private synchronized void handedBack()
+		{
+			handingOff = false;
+			finish();
+		}
+
+		public void onComplete(AsyncEvent event)
+		{
+			finish();
+		}
+
+		public void onTimeout(AsyncEvent event)
+		{
+			synchronized (this)
+			{
+				if (handingOff)
+				{
+					// Leave the spool to the worker, which is still storing it
+					M_log.warn("DAV upload timed out while being stored");
+					return;
+				}
+			}
+			M_log.warn("DAV upload timed out after " + spool.length() + " bytes");
+			finish();
+		}
+
+		public void onError(AsyncEvent event)
+		{
+			onError(event.getThrowable());
+		}
+
+		public void onStartAsync(AsyncEvent event)
+		{
+		}
+	}
+}
@@ -0,0 +1,82 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2016 The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.dav;
+
+/**
+ * Works out which part of a body a Range header (RFC 7233) asks for. Only a single byte range is served. A header that
+ * can't be used - several ranges, another unit, or a range that isn't valid - gets the whole body, which is what the
+ * RFC says to do with a Range header the server doesn't understand.
+ */
+final class ByteRange
+{
+	/** What parse() returns when none of the requested range is in the body. */
+	static final long[] UNSATISFIABLE = new long[0];
+
+	private ByteRange()
+	{
+	}
+
+	/**
+	 * @param header
+	 *        The Range header, or null.
+	 * @param length
+	 *        The length of the body.
+	 * @return the first and last byte positions (inclusive), null for the whole body, or UNSATISFIABLE.
+	 */
+	static long[] parse(String header, long length)
+	{
+		if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0)
+		{
+			return null;
+		}
+
+		String spec = header.substring("bytes=".length()).trim();
+		int dash = spec.indexOf('-');
+		if (dash < 0) return null;
+
+		try
+		{
+			if (dash == 0)
+			{
+				// The last n bytes
+				long suffix = Long.parseLong(spec.substring(1).trim());
+				if (suffix < 0) return null;
+				if (suffix == 0 || length == 0) return UNSATISFIABLE;
+				return new long[] { Math.max(0, length - suffix), length - 1 };
+			}
+
+			long first = Long.parseLong(spec.substring(0, dash).trim());
+			String rest = spec.substring(dash + 1).trim();
+			long last = (rest.length() == 0) ? Long.MAX_VALUE : Long.parseLong(rest);
+
+			// Not a valid range (like 5-3), so it's ignored rather than unsatisfiable
+			if (first < 0 || last < first) return null;
+			if (first >= length) return UNSATISFIABLE;
+
+			return new long[] { first, Math.min(last, length - 1) };
+		}
+		catch (NumberFormatException e)
+		{
+			return null;
+		}
+	}
+}
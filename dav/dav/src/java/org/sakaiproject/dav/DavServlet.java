@@ -80,6 +80,8 @@ package org.sakaiproject.dav;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -87,6 +89,8 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.Principal;
@@ -105,6 +109,13 @@ import java.util.Properties;
 import java.util.Stack;
 import java.util.TimeZone;
 import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.naming.NamingException;
 import javax.naming.directory.DirContext;
@@ -112,6 +123,7 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
@@ -150,9 +162,12 @@ import org.sakaiproject.exception.PermissionException;
 import org.sakaiproject.exception.ServerOverloadException;
 import org.sakaiproject.exception.TypeException;
 import org.sakaiproject.site.cover.SiteService;
+import org.sakaiproject.thread_local.cover.ThreadLocalManager;
 import org.sakaiproject.time.api.Time;
 import org.sakaiproject.time.api.TimeBreakdown;
 import org.sakaiproject.time.cover.TimeService;
+import org.sakaiproject.tool.api.Session;
+import org.sakaiproject.tool.cover.SessionManager;
 import org.sakaiproject.user.api.Authentication;
 import org.sakaiproject.user.api.AuthenticationException;
 import org.sakaiproject.user.api.Evidence;
@@ -276,6 +291,21 @@ public class DavServlet extends HttpServlet
 	 */
 	protected static final int MAX_XML_STREAM_LENGTH = 4096;
 
+	/** Configuration: move large GET and PUT bodies with non-blocking I/O, off the request threads. */
+	protected boolean asyncEnabled = true;
+
+	/** Configuration: bodies smaller than this (bytes) are just copied on the request thread. */
+	protected long asyncThreshold = 1024 * 1024;
+
+	/** Configuration: how long (ms) an asynchronous transfer may take in total. */
+	protected long asyncTimeout = 3600000;
+
+	/** Stores uploaded bodies once they have arrived. */
+	protected ExecutorService putExecutor = null;
+
+	/** One for each upload being spooled to disk or waiting to be stored. */
+	protected Semaphore putSpools = null;
+
 	/** Configuration: allow use of alias for site id in references. */
 	protected boolean m_siteAlias = true;        
 
@@ -631,6 +661,46 @@ public class DavServlet extends HttpServlet
 		if (nonDavUserAgent == null) {
 		    nonDavUserAgent = new String[] {  "Mozilla", "Opera", "BlackBerry" };
 		}
+
+		asyncEnabled = ServerConfigurationService.getBoolean("webdav.async.enabled", true);
+		asyncThreshold = ServerConfigurationService.getInt("webdav.async.threshold", 1024 * 1024);
+		asyncTimeout = ServerConfigurationService.getInt("webdav.async.timeout", 3600000);
+
+		if (asyncEnabled)
+		{
+			// Each upload takes a spool before any of it is read and keeps it until it's stored, so a burst of uploads
+			// gets turned away (503) rather than piling up on disk. The queue has room for every spool.
+			int putThreads = ServerConfigurationService.getInt("webdav.async.put.threads", 8);
+			int putSpoolCount = ServerConfigurationService.getInt("webdav.async.put.spools", putThreads * 4);
+			putSpools = new Semaphore(putSpoolCount);
+			putExecutor = new ThreadPoolExecutor(putThreads, putThreads, 60, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<Runnable>(Math.max(putSpoolCount, 1)), new ThreadFactory()
+			{
+				private final AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread(Runnable r)
+				{
+					Thread t = new Thread(r, "dav-put-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			M_log.info("async transfers for bodies over " + asyncThreshold + " bytes, " + putThreads + " upload workers, "
+					+ putSpoolCount + " uploads spooled at once");
+		}
+	}
+
+	/**
+	 * Shut down this servlet.
+	 */
+	public void destroy()
+	{
+		if (putExecutor != null)
+		{
+			putExecutor.shutdown();
+			putExecutor = null;
+		}
+		super.destroy();
 	}
 
 	/** create the info */
@@ -1909,14 +1979,47 @@ public class DavServlet extends HttpServlet
 
 					if (!processHead(req, res)) return rb.getString("error_setting_header_values");
 
+					res.setHeader("Accept-Ranges", "bytes");
+
+					long start = 0;
+					long count = len;
+
+					long[] range = parseRange(req, len, resource.getProperties());
+					if (range == ByteRange.UNSATISFIABLE)
+					{
+						res.setHeader("Content-Range", "bytes */" + len);
+						res.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+						return null;
+					}
+					else if (range != null)
+					{
+						start = range[0];
+						count = range[1] - range[0] + 1;
+						res.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+						res.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + len);
+						res.setHeader("Content-Length", Long.toString(count));
+					}
+
+					if (asyncEnabled && count >= asyncThreshold && req.isAsyncSupported())
+					{
+						// Hand the body over, and with it the job of closing it
+						ReadableByteChannel body = openChannel(contentStream, start);
+						contentStream = null;
+						AsyncTransfer.send(req, res, body, count, STREAM_BUFFER_SIZE, asyncTimeout);
+						return null;
+					}
+
+					skipFully(contentStream, start);
+
 					out = res.getOutputStream();
-					
+
 					// chunk content stream to response
 					byte[] chunk = new byte[STREAM_BUFFER_SIZE];
 					int lenRead;
-					while ((lenRead = contentStream.read(chunk)) != -1)
+					while (count > 0 && (lenRead = contentStream.read(chunk, 0, (int) Math.min(chunk.length, count))) != -1)
 					{
 						out.write(chunk, 0, lenRead);
+						count -= lenRead;
 					}
 				}
 			}
@@ -1960,6 +2063,70 @@ public class DavServlet extends HttpServlet
 
 	} // doContent
 
+	/**
+	 * Work out which part of a body of the given length the request's Range header asks for (see ByteRange). A range
+	 * whose If-Range no longer matches gets the whole body.
+	 *
+	 * @return the first and last byte positions (inclusive), null for the whole body, or ByteRange.UNSATISFIABLE.
+	 */
+	private long[] parseRange(HttpServletRequest req, long length, ResourceProperties props)
+	{
+		String header = req.getHeader("Range");
+		if (header == null)
+		{
+			return null;
+		}
+
+		String ifRange = req.getHeader("If-Range");
+		if (ifRange != null)
+		{
+			try
+			{
+				// Last-Modified goes out to the second, so that's all we can compare
+				long modified = props.getTimeProperty(ResourceProperties.PROP_MODIFIED_DATE).getTime();
+				if (req.getDateHeader("If-Range") / 1000 != modified / 1000) return null;
+			}
+			catch (Exception e)
+			{
+				// An entity tag (which we don't send) or a date we can't check
+				return null;
+			}
+		}
+
+		return ByteRange.parse(header, length);
+	}
+
+	/**
+	 * Get a channel reading a resource body from the given offset.
+	 */
+	private ReadableByteChannel openChannel(InputStream in, long start) throws IOException
+	{
+		// Plain files can be positioned and read straight into our buffer. Subclasses (like the telemetry stream) get
+		// wrapped instead, so that they still see what is read.
+		if (in.getClass() == FileInputStream.class)
+		{
+			return ((FileInputStream) in).getChannel().position(start);
+		}
+
+		skipFully(in, start);
+		return Channels.newChannel(in);
+	}
+
+	private void skipFully(InputStream in, long count) throws IOException
+	{
+		while (count > 0)
+		{
+			long skipped = in.skip(count);
+			if (skipped <= 0)
+			{
+				// skip() may give up early without being at the end, so make sure
+				if (in.read() < 0) return;
+				skipped = 1;
+			}
+			count -= skipped;
+		}
+	}
+
 	// Sometimes we are the root applet and other times, we are a sub-applet
 	// We have to trim off the part of the path which gets to us
 	// Also we have to deal with the fact that SAKAI likes collections with trailing slashes
@@ -2713,6 +2880,7 @@ public class DavServlet extends HttpServlet
 		{
 			// No content range header is supported
 			resp.sendError(SakaidavStatus.SC_NOT_IMPLEMENTED);
+			return;
 		}
 
 		String name = justName(path);
@@ -2735,7 +2903,6 @@ public class DavServlet extends HttpServlet
 		// Update the resource
 
 		String contentType = "";
-		InputStream inputStream = req.getInputStream();
 		contentType = req.getContentType();
 
 		// For MS office, ignore the supplied content type if we can figure out one from file type
@@ -2766,6 +2933,89 @@ public class DavServlet extends HttpServlet
 			contentType = ""; // Still cannot figure it out
 		}
 
+		HttpSession httpSession = req.getSession(false);
+		final String resourceType = (httpSession == null) ? null : (String) httpSession.getAttribute("resourceType");
+
+		// Large (or unknown length) bodies are read as they arrive without holding this thread, and stored once
+		// they're all here
+		long length = req.getContentLengthLong();
+		if (putExecutor != null && (length < 0 || length >= asyncThreshold) && req.isAsyncSupported())
+		{
+			// Don't spool what can't be stored; a body of unknown length is cut off once it's too big
+			long room = quotaRoom(adjustId(path));
+			if (length > room)
+			{
+				resp.sendError(SakaidavStatus.SC_FORBIDDEN);
+				return;
+			}
+
+			final Session session = SessionManager.getCurrentSession();
+			final String putContentType = contentType;
+
+			AsyncTransfer.receive(req, resp, putExecutor, putSpools, room, new AsyncTransfer.BodyHandler()
+			{
+				public void received(File body, HttpServletResponse response) throws IOException
+				{
+					SessionManager.setCurrentSession(session);
+					InputStream inputStream = new FileInputStream(body);
+					try
+					{
+						storeResource(path, name, putContentType, resourceType, inputStream, response);
+					}
+					finally
+					{
+						inputStream.close();
+						ThreadLocalManager.clear();
+					}
+				}
+			}, STREAM_BUFFER_SIZE, asyncTimeout);
+			return;
+		}
+
+		storeResource(path, name, contentType, resourceType, req.getInputStream(), resp);
+	}
+
+	/**
+	 * How many bytes a PUT body for the resource could be without putting its site (or user) over quota, or
+	 * Long.MAX_VALUE if there's no quota to check. Content hosting still checks when the body is stored.
+	 */
+	private long quotaRoom(String resourcePath)
+	{
+		String[] parts = StringUtil.split(resourcePath, Entity.SEPARATOR);
+		if (parts.length <= 2 || !("group".equals(parts[1]) || "user".equals(parts[1]))) return Long.MAX_VALUE;
+
+		try
+		{
+			ContentCollection collection = contentHostingService.getCollection(Entity.SEPARATOR + parts[1] + Entity.SEPARATOR
+					+ parts[2] + Entity.SEPARATOR);
+			long quota = contentHostingService.getQuota(collection);
+			if (quota == 0) return Long.MAX_VALUE;
+
+			long room = (quota - collection.getBodySizeK()) * 1024;
+			try
+			{
+				// Replacing a resource frees up its current body
+				room += contentHostingService.getResource(resourcePath).getContentLength();
+			}
+			catch (IdUnusedException e)
+			{
+			}
+			return Math.max(room, 0);
+		}
+		catch (Exception e)
+		{
+			// Can't tell from here, so leave it to content hosting
+			if (M_log.isDebugEnabled()) M_log.debug("quotaRoom: " + resourcePath + " : " + e);
+			return Long.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * Store a PUT body as the resource at path, setting the response status to say how it went.
+	 */
+	private void storeResource(String path, String name, String contentType, String resourceType, InputStream inputStream,
+			HttpServletResponse resp) throws IOException
+	{
 		try
 		{
 
@@ -2788,7 +3038,6 @@ public class DavServlet extends HttpServlet
 			{
 				edit = contentHostingService.addResource(resourcePath);
 
-				String resourceType = (String) req.getSession().getAttribute("resourceType");
 				if ("org.sakaiproject.citation.impl.CitationList".equalsIgnoreCase(resourceType))
 				{
 					edit.setResourceType(resourceType);
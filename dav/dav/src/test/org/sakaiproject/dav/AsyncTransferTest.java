@@ -0,0 +1,206 @@
+package org.sakaiproject.dav;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Drives an async PUT through the callbacks the container would make, from this thread, while the body is stored on
+ * a worker thread.
+ */
+public class AsyncTransferTest
+{
+	private static final byte[] BODY = "hello".getBytes();
+
+	private ExecutorService executor;
+	private Semaphore spools;
+	private HttpServletRequest request;
+	private HttpServletResponse response;
+	private AsyncContext context;
+	private ServletInputStream in;
+	private CountDownLatch completed;
+
+	private ReadListener readListener;
+	private AsyncListener asyncListener;
+
+	@Before
+	public void setUp() throws IOException
+	{
+		executor = Executors.newSingleThreadExecutor();
+		spools = new Semaphore(1);
+		request = mock(HttpServletRequest.class);
+		response = mock(HttpServletResponse.class);
+		context = mock(AsyncContext.class);
+		in = mock(ServletInputStream.class);
+		completed = new CountDownLatch(1);
+
+		when(request.startAsync(request, response)).thenReturn(context);
+		when(request.getInputStream()).thenReturn(in);
+		when(context.getResponse()).thenReturn(response);
+		doAnswer(invocation -> {
+			completed.countDown();
+			return null;
+		}).when(context).complete();
+
+		// the whole body is there at once
+		when(in.isReady()).thenReturn(true);
+		when(in.read(any(byte[].class))).thenAnswer(invocation -> {
+			byte[] buffer = (byte[]) invocation.getArguments()[0];
+			System.arraycopy(BODY, 0, buffer, 0, BODY.length);
+			return BODY.length;
+		}).thenReturn(-1);
+	}
+
+	@After
+	public void tearDown()
+	{
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testBodyIsStoredOnAWorkerThread() throws Exception
+	{
+		AtomicReference<Thread> storedOn = new AtomicReference<Thread>();
+		AtomicReference<File> stored = new AtomicReference<File>();
+		start((body, bodyResponse) -> {
+			storedOn.set(Thread.currentThread());
+			stored.set(body);
+			assertEquals("hello", new String(Files.readAllBytes(body.toPath())));
+		});
+
+		readListener.onDataAvailable();
+		readListener.onAllDataRead();
+
+		assertTrue(completed.await(5, TimeUnit.SECONDS));
+		assertNotSame(Thread.currentThread(), storedOn.get());
+		assertFalse(stored.get().exists());
+		assertEquals(1, spools.availablePermits());
+	}
+
+	@Test
+	public void testTimeoutWhileStoringLeavesTheSpoolToTheWorker() throws Exception
+	{
+		CountDownLatch storing = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicReference<File> stored = new AtomicReference<File>();
+		start((body, bodyResponse) -> {
+			stored.set(body);
+			storing.countDown();
+			try
+			{
+				release.await(5, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			// still there to be read after the timeout
+			assertEquals("hello", new String(Files.readAllBytes(body.toPath())));
+		});
+
+		readListener.onDataAvailable();
+		readListener.onAllDataRead();
+		assertTrue(storing.await(5, TimeUnit.SECONDS));
+
+		// the container times the request out, and completes it, while the worker is storing the body
+		asyncListener.onTimeout(null);
+		asyncListener.onComplete(null);
+		assertTrue(stored.get().exists());
+		assertEquals(0, spools.availablePermits());
+		verify(context, never()).complete();
+
+		release.countDown();
+		assertTrue(completed.await(5, TimeUnit.SECONDS));
+		assertFalse(stored.get().exists());
+		assertEquals(1, spools.availablePermits());
+		verify(context, times(1)).complete();
+	}
+
+	@Test
+	public void testTimeoutWaitingForAWorkerDropsTheUpload() throws Exception
+	{
+		// keep the only worker busy
+		CountDownLatch busy = new CountDownLatch(1);
+		executor.execute(() -> {
+			try
+			{
+				busy.await(5, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		});
+
+		CountDownLatch handled = new CountDownLatch(1);
+		start((body, bodyResponse) -> handled.countDown());
+
+		readListener.onDataAvailable();
+		readListener.onAllDataRead();
+		asyncListener.onTimeout(null);
+
+		assertEquals(0, completed.getCount());
+		assertEquals(1, spools.availablePermits());
+
+		busy.countDown();
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+		assertEquals(1, handled.getCount());
+	}
+
+	@Test
+	public void testNoSpoolFreeIsRefusedBeforeGoingAsync() throws Exception
+	{
+		spools = new Semaphore(0);
+
+		AsyncTransfer.receive(request, response, executor, spools, 1000, (body, bodyResponse) -> {
+		}, 16, 60000);
+
+		verify(response).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		verify(request, never()).startAsync(request, response);
+	}
+
+	private void start(AsyncTransfer.BodyHandler handler) throws IOException
+	{
+		AsyncTransfer.receive(request, response, executor, spools, 1000, handler, 16, 60000);
+		assertEquals(0, spools.availablePermits());
+
+		ArgumentCaptor<ReadListener> read = ArgumentCaptor.forClass(ReadListener.class);
+		verify(in).setReadListener(read.capture());
+		readListener = read.getValue();
+
+		ArgumentCaptor<AsyncListener> async = ArgumentCaptor.forClass(AsyncListener.class);
+		verify(context).addListener(async.capture());
+		asyncListener = async.getValue();
+	}
+}
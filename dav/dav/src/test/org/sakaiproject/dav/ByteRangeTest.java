@@ -0,0 +1,68 @@
+package org.sakaiproject.dav;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class ByteRangeTest
+{
+	@Test
+	public void testSingleRange()
+	{
+		assertArrayEquals(new long[] { 0, 499 }, ByteRange.parse("bytes=0-499", 10000));
+		assertArrayEquals(new long[] { 500, 999 }, ByteRange.parse("bytes= 500 - 999", 10000));
+		assertArrayEquals(new long[] { 9999, 9999 }, ByteRange.parse("bytes=9999-9999", 10000));
+	}
+
+	@Test
+	public void testLastPositionPastTheEndIsClipped()
+	{
+		assertArrayEquals(new long[] { 9500, 9999 }, ByteRange.parse("bytes=9500-20000", 10000));
+	}
+
+	@Test
+	public void testSuffixRange()
+	{
+		assertArrayEquals(new long[] { 9500, 9999 }, ByteRange.parse("bytes=-500", 10000));
+		// longer than the body means all of it
+		assertArrayEquals(new long[] { 0, 9 }, ByteRange.parse("bytes=-500", 10));
+		assertSame(ByteRange.UNSATISFIABLE, ByteRange.parse("bytes=-0", 10000));
+		assertSame(ByteRange.UNSATISFIABLE, ByteRange.parse("bytes=-500", 0));
+	}
+
+	@Test
+	public void testOpenEndedRange()
+	{
+		assertArrayEquals(new long[] { 9500, 9999 }, ByteRange.parse("bytes=9500-", 10000));
+		assertArrayEquals(new long[] { 0, 9999 }, ByteRange.parse("bytes=0-", 10000));
+	}
+
+	@Test
+	public void testSeveralRangesGetTheWholeBody()
+	{
+		assertNull(ByteRange.parse("bytes=0-99,200-299", 10000));
+		assertNull(ByteRange.parse("bytes=0-99, -100", 10000));
+	}
+
+	@Test
+	public void testInvalidRangesGetTheWholeBody()
+	{
+		assertNull(ByteRange.parse("bytes=5-3", 10000));
+		assertNull(ByteRange.parse("bytes=3--5", 10000));
+		assertNull(ByteRange.parse("bytes=a-b", 10000));
+		assertNull(ByteRange.parse("bytes=500", 10000));
+		assertNull(ByteRange.parse("bytes=--5", 10000));
+		assertNull(ByteRange.parse("items=0-499", 10000));
+		assertNull(ByteRange.parse(null, 10000));
+	}
+
+	@Test
+	public void testRangesPastTheEndAreUnsatisfiable()
+	{
+		assertSame(ByteRange.UNSATISFIABLE, ByteRange.parse("bytes=10000-", 10000));
+		assertSame(ByteRange.UNSATISFIABLE, ByteRange.parse("bytes=20000-30000", 10000));
+		assertSame(ByteRange.UNSATISFIABLE, ByteRange.parse("bytes=0-", 0));
+	}
+}
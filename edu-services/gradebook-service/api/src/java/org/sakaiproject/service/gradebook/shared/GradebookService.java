@@ -578,6 +578,22 @@ public interface GradebookService {
 	 */
 	public List<GradeDefinition> getGradesForStudentsForItem(String gradebookUid, Long assignmentId, List<String> studentIds);
 
+	/**
+	 * Get the grade records for the given list of students for all of the given assignments, in one pass over the
+	 * gradebook's grades. The results are what {@link #getGradesForStudentsForItem} would return for each assignment,
+	 * comments included, but without a round trip per assignment. Students the current user can't see for an assignment
+	 * are left out of that assignment's list.
+	 * This can only be called by an instructor or TA that has access, not student.
+	 *
+	 * @param gradebookUid
+	 * @param assignmentIds
+	 * @param studentIds
+	 * @return a Map of assignment id to the list of GradeDefinitions for that assignment. Assignments with no grades or
+	 * comments have no entry.
+	 * @throws SecurityException if the current user is not authorized to grade in this gradebook
+	 */
+	public Map<Long, List<GradeDefinition>> getGradesForStudentsForItems(String gradebookUid, List<Long> assignmentIds, List<String> studentIds);
+
 	/**
 	 * This method gets grades for multiple gradebook items with emphasis on performance. This is particularly useful for reporting tools
 	 * @param gradebookUid
@@ -49,6 +49,8 @@ import org.slf4j.LoggerFactory;
 import org.hibernate.Hibernate;
 import org.hibernate.HibernateException;
 import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.StaleObjectStateException;
 import org.sakaiproject.section.api.coursemanagement.CourseSection;
@@ -1847,6 +1849,189 @@ public class GradebookServiceHibernateImpl extends BaseHibernateManager implemen
 	  return studentGrades;
   }
 
+	@Override
+	public Map<Long, List<GradeDefinition>> getGradesForStudentsForItems(final String gradebookUid, final List<Long> assignmentIds, final List<String> studentIds)
+	{
+		if (assignmentIds == null)
+		{
+			throw new IllegalArgumentException("null assignmentIds passed to getGradesForStudentsForItems");
+		}
+
+		final Map<Long, List<GradeDefinition>> gradesMap = new HashMap<Long, List<GradeDefinition>>();
+		if (studentIds == null || studentIds.isEmpty() || assignmentIds.isEmpty())
+		{
+			return gradesMap;
+		}
+
+		if (!authz.isUserAbleToGrade(gradebookUid))
+		{
+			throw new SecurityException("User " + authn.getUserUid() +
+					" attempted to access grade information without permission in gb " +
+					gradebookUid + " using gradebookService.getGradesForStudentsForItems");
+		}
+
+		final Gradebook gradebook = getGradebook(gradebookUid);
+		final LetterGradePercentMapping letterGradeMapping = (gradebook.getGrade_type() == GradebookService.GRADE_TYPE_LETTER) ?
+				getLetterGradePercentMapping(gradebook) : null;
+
+		getHibernateTemplate().execute(new HibernateCallback()
+		{
+			@Override
+			public Object doInHibernate(Session session) throws HibernateException
+			{
+				final Set<Long> wanted = new HashSet<Long>(assignmentIds);
+				final Set<String> requested = new HashSet<String>(studentIds);
+
+				// Which students can be seen depends on the item's category, so only ask once per category
+				final Map<Long, Assignment> assignments = new HashMap<Long, Assignment>();
+				final Map<Long, Set<String>> visibleByCategory = new HashMap<Long, Set<String>>();
+				final Map<Long, Set<String>> visibleByAssignment = new HashMap<Long, Set<String>>();
+				for (Object o : getAssignments(gradebook.getId(), session))
+				{
+					Assignment assignment = (Assignment) o;
+					if (!wanted.contains(assignment.getId()))
+					{
+						continue;
+					}
+
+					Long categoryId = assignment.getCategory() != null ? assignment.getCategory().getId() : null;
+					Set<String> visible = visibleByCategory.get(categoryId);
+					if (visible == null)
+					{
+						visible = new HashSet<String>();
+						Map enrRecFunctionMap = authz.findMatchingEnrollmentsForItem(gradebookUid, categoryId, gradebook.getCategory_type(), null, null);
+						for (Object enr : enrRecFunctionMap.keySet())
+						{
+							if (enr != null && requested.contains(((EnrollmentRecord) enr).getUser().getUserUid()))
+							{
+								visible.add(((EnrollmentRecord) enr).getUser().getUserUid());
+							}
+						}
+						visibleByCategory.put(categoryId, visible);
+					}
+
+					assignments.put(assignment.getId(), assignment);
+					visibleByAssignment.put(assignment.getId(), visible);
+				}
+
+				// Only the items asked for, a slice at a time to stay inside the database's limit on 'in' lists
+				final List<Long> assignmentIdList = new ArrayList<Long>(assignments.keySet());
+				final List<List<Long>> assignmentIdSlices = new ArrayList<List<Long>>();
+				for (int i = 0; i < assignmentIdList.size(); i += MAX_NUMBER_OF_SQL_PARAMETERS_IN_LIST)
+				{
+					assignmentIdSlices.add(assignmentIdList.subList(i, Math.min(i + MAX_NUMBER_OF_SQL_PARAMETERS_IN_LIST, assignmentIdList.size())));
+				}
+
+				// Comments first, so that each grade can pick its comment up as it goes by
+				final Map<Long, Map<String, String>> comments = new HashMap<Long, Map<String, String>>();
+				for (List<Long> slice : assignmentIdSlices)
+				{
+					ScrollableResults commentRecs = session.createQuery(
+							"from Comment as c where c.gradableObject.gradebook.id=:gradebookId and c.gradableObject.removed=false" +
+							" and c.gradableObject.id in (:assignmentIds)")
+							.setLong("gradebookId", gradebook.getId())
+							.setParameterList("assignmentIds", slice)
+							.scroll(ScrollMode.FORWARD_ONLY);
+					try
+					{
+						while (commentRecs.next())
+						{
+							Comment comment = (Comment) commentRecs.get(0);
+							Long assignmentId = comment.getGradableObject().getId();
+							Set<String> visible = visibleByAssignment.get(assignmentId);
+							if (visible != null && visible.contains(comment.getStudentId()))
+							{
+								Map<String, String> assignmentComments = comments.get(assignmentId);
+								if (assignmentComments == null)
+								{
+									assignmentComments = new HashMap<String, String>();
+									comments.put(assignmentId, assignmentComments);
+								}
+								assignmentComments.put(comment.getStudentId(), comment.getCommentText());
+							}
+							session.evict(comment);
+						}
+					}
+					finally
+					{
+						commentRecs.close();
+					}
+				}
+
+				// Then the grades, streamed so the session doesn't fill up with them
+				for (List<Long> slice : assignmentIdSlices)
+				{
+					ScrollableResults gradeRecs = session.createQuery(
+							"from AssignmentGradeRecord as agr where agr.gradableObject.gradebook.id=:gradebookId and agr.gradableObject.removed=false" +
+							" and agr.gradableObject.id in (:assignmentIds)")
+							.setLong("gradebookId", gradebook.getId())
+							.setParameterList("assignmentIds", slice)
+							.scroll(ScrollMode.FORWARD_ONLY);
+					try
+					{
+						while (gradeRecs.next())
+						{
+							AssignmentGradeRecord agr = (AssignmentGradeRecord) gradeRecs.get(0);
+							Long assignmentId = agr.getGradableObject().getId();
+							Set<String> visible = visibleByAssignment.get(assignmentId);
+							if (visible != null && visible.contains(agr.getStudentId()))
+							{
+								Assignment assignment = assignments.get(assignmentId);
+								Double pointsPossible = assignment.getPointsPossible();
+								boolean noScore = pointsPossible == null || agr.getPointsEarned() == null;
+
+								// as convertPointsToLetterGrade and convertPointsToPercentage do for whole lists
+								if (letterGradeMapping != null)
+								{
+									agr.setLetterEarned(noScore ? null : letterGradeMapping.getGrade(calculateEquivalentPercent(pointsPossible, agr.getPointsEarned())));
+								}
+								else if (gradebook.getGrade_type() == GradebookService.GRADE_TYPE_PERCENTAGE)
+								{
+									agr.setPercentEarned(noScore ? null : calculateEquivalentPercent(pointsPossible, agr.getPointsEarned()));
+								}
+
+								Map<String, String> assignmentComments = comments.get(assignmentId);
+								String commentText = (assignmentComments != null) ? assignmentComments.remove(agr.getStudentId()) : null;
+								addGradeDefinition(gradesMap, assignmentId, convertGradeRecordToGradeDefinition(agr, assignment, gradebook, commentText));
+							}
+							session.evict(agr);
+						}
+					}
+					finally
+					{
+						gradeRecs.close();
+					}
+				}
+
+				// if student has a comment but no grade add an empty grade definition with the comment
+				for (Map.Entry<Long, Map<String, String>> assignmentComments : comments.entrySet())
+				{
+					Assignment assignment = assignments.get(assignmentComments.getKey());
+					for (Map.Entry<String, String> comment : assignmentComments.getValue().entrySet())
+					{
+						AssignmentGradeRecord emptyGradeRecord = new AssignmentGradeRecord(assignment, comment.getKey(), null);
+						addGradeDefinition(gradesMap, assignment.getId(), convertGradeRecordToGradeDefinition(emptyGradeRecord, assignment, gradebook, comment.getValue()));
+					}
+				}
+
+				return null;
+			}
+		});
+
+		return gradesMap;
+	}
+
+	private void addGradeDefinition(Map<Long, List<GradeDefinition>> gradesMap, Long assignmentId, GradeDefinition gradeDef)
+	{
+		List<GradeDefinition> gradeList = gradesMap.get(assignmentId);
+		if (gradeList == null)
+		{
+			gradeList = new ArrayList<GradeDefinition>();
+			gradesMap.put(assignmentId, gradeList);
+		}
+		gradeList.add(gradeDef);
+	}
+
 	@Override
 	public Map<Long, List<GradeDefinition>> getGradesWithoutCommentsForStudentsForItems(final String gradebookUid, final List<Long> gradableObjectIds, List<String> studentIds)
 	{
@@ -1,6 +1,7 @@
 package org.sakaiproject.gradebookng.business;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -13,7 +14,6 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.stream.Collectors;
 
 import javax.xml.bind.JAXBException;
@@ -32,6 +32,7 @@ import org.sakaiproject.gradebookng.business.model.GbCourseGrade;
 import org.sakaiproject.gradebookng.business.model.GbGradeCell;
 import org.sakaiproject.gradebookng.business.model.GbGradeInfo;
 import org.sakaiproject.gradebookng.business.model.GbGradeLog;
+import org.sakaiproject.gradebookng.business.model.GbGradeMatrix;
 import org.sakaiproject.gradebookng.business.model.GbGroup;
 import org.sakaiproject.gradebookng.business.model.GbStudentGradeInfo;
 import org.sakaiproject.gradebookng.business.model.GbStudentNameSortOrder;
@@ -715,9 +716,52 @@ public class GradebookNgBusinessService {
 
 		stopwatch.timeWithContext("buildGradeMatrix", "getSiteCourseGrades", stopwatch.getTime());
 
-		// setup a map because we progressively build this up by adding grades
-		// to a student's entry
+		// get categories. This call is filtered for TAs as well.
+		final List<CategoryDefinition> categories = this.getGradebookCategories();
+
+		// for TA's, build a lookup set of visible categoryIds so we can filter
+		// the assignment list to not fetch grades
+		// for assignments we don't have category level access to.
+		// for everyone else this will just be an empty set that is unused
+		final Set<Long> categoryIds = new HashSet<>();
+
+		if (role == GbRole.TA) {
+			for (final CategoryDefinition category : categories) {
+				categoryIds.add(category.getId());
+			}
+		}
+
+		// the assignments we fetch grades for, in column order
+		// TA permission check. If there are categories and they don't have
+		// access to an assignment's category, skip it
+		final List<Assignment> columns = new ArrayList<>();
+		final List<Long> assignmentIds = new ArrayList<>();
+		for (final Assignment assignment : assignments) {
+			final Long categoryId = assignment.getCategoryId();
+
+			if (role == GbRole.TA) {
+				log.debug("TA processing category: " + categoryId);
+
+				if (!categoryIds.isEmpty() && categoryId != null && !categoryIds.contains(categoryId)) {
+					continue;
+				}
+			}
+
+			columns.add(assignment);
+			assignmentIds.add(assignment.getId());
+		}
+
+		final List<Long> categoryColumns = new ArrayList<>();
+		for (final CategoryDefinition category : categories) {
+			categoryColumns.add(category.getId());
+		}
+
+		// every student's grades go into one matrix, a row per student
+		final GbGradeMatrix gradeMatrix = new GbGradeMatrix(students.size(), assignmentIds, categoryColumns);
+
+		// setup a map so we can find a student's row from their uuid
 		final Map<String, GbStudentGradeInfo> matrix = new LinkedHashMap<>();
+		final Map<String, Integer> rows = new HashMap<>();
 
 		// setup the course grade formatter
 		// TODO we want the override except in certain cases. Can we hard code this?
@@ -728,13 +772,13 @@ public class GradebookNgBusinessService {
 				settings.getShowPoints(),
 				true);
 
-		// seed the map for all students so we can progresseively add grades
+		// seed the matrix for all students so we can progressively add grades
 		// also add the course grade here, to save an iteration later
 		// TA permissions already included in course grade visibility
 		for (final User student : students) {
 
 			// create and add the user info
-			final GbStudentGradeInfo sg = new GbStudentGradeInfo(student);
+			final GbStudentGradeInfo sg = gradeMatrix.addStudent(student);
 
 			// add the course grade, including the display
 			final CourseGrade courseGrade = courseGrades.get(student.getId());
@@ -743,140 +787,89 @@ public class GradebookNgBusinessService {
 			sg.setCourseGrade(gbCourseGrade);
 
 			// add to map so we can build on it later
+			rows.put(student.getId(), rows.size());
 			matrix.put(student.getId(), sg);
 		}
 		stopwatch.timeWithContext("buildGradeMatrix", "matrix seeded", stopwatch.getTime());
 
-		// get categories. This call is filtered for TAs as well.
-		final List<CategoryDefinition> categories = this.getGradebookCategories();
-
-		// for TA's, build a lookup map of visible categoryIds so we can filter
-		// the assignment list to not fetch grades
-		// for assignments we don't have category level access to.
-		// for everyone else this will just be an empty list that is unused
-		final List<Long> categoryIds = new ArrayList<>();
-
+		// TA stub out. So that we can support 'per grade' permissions for a
+		// TA, we need a stub record for every student
+		// This is because getGradesForStudentsForItems only returns records
+		// where there is a grade (even if blank)
+		// So this iteration for TAs allows the matrix to be fully
+		// populated.
+		// This is later updated to be a real grade entry if there is one.
 		if (role == GbRole.TA) {
-			for (final CategoryDefinition category : categories) {
-				categoryIds.add(category.getId());
+			for (int row = 0; row < students.size(); row++) {
+				for (int column = 0; column < columns.size(); column++) {
+					gradeMatrix.setGrade(row, column, new GbGradeInfo(null));
+				}
 			}
 		}
 
-		// this holds a map of categoryId and the list of assignment ids in each
-		// we build this whilst iterating below to save further iterations when
-		// building the category list
-		final Map<Long, Set<Long>> categoryAssignments = new TreeMap<>();
-
-		// iterate over assignments and get the grades for each
-		// note, the returned list only includes entries where there is a grade
+		// get the grades for every assignment at once
+		// note, the returned lists only include entries where there is a grade
 		// for the user
-		// we also build the category lookup map here
-		for (final Assignment assignment : assignments) {
-
-			final Long categoryId = assignment.getCategoryId();
-			final Long assignmentId = assignment.getId();
-
-			// TA permission check. If there are categories and they don't have
-			// access to this one, skip it
-			if (role == GbRole.TA) {
+		final Map<Long, List<GradeDefinition>> defsByAssignment = assignmentIds.isEmpty() ? Collections.emptyMap()
+				: this.gradebookService.getGradesForStudentsForItems(gradebook.getUid(), assignmentIds, studentUuids);
+		stopwatch.timeWithContext("buildGradeMatrix", "getGradesForStudentsForItems", stopwatch.getTime());
 
-				log.debug("TA processing category: " + categoryId);
+		// iterate the definitions returned and update the record for each
+		// student with the grades
+		for (final Map.Entry<Long, List<GradeDefinition>> entry : defsByAssignment.entrySet()) {
+			final int column = gradeMatrix.getAssignmentColumn(entry.getKey());
 
-				if (!categoryIds.isEmpty() && categoryId != null && !categoryIds.contains(categoryId)) {
-					continue;
-				}
-			}
+			for (final GradeDefinition def : entry.getValue()) {
+				final Integer row = rows.get(def.getStudentUid());
 
-			// TA stub out. So that we can support 'per grade' permissions for a
-			// TA, we need a stub record for every student
-			// This is because getGradesForStudentsForItem only returns records
-			// where there is a grade (even if blank)
-			// So this iteration for TAs allows the matrix to be fully
-			// populated.
-			// This is later updated to be a real grade entry if there is one.
-			if (role == GbRole.TA) {
-				for (final User student : students) {
-					final GbStudentGradeInfo sg = matrix.get(student.getId());
-					sg.addGrade(assignment.getId(), new GbGradeInfo(null));
-				}
-			}
-
-			// build the category map (if assignment is categorised)
-			if (categoryId != null) {
-				Set<Long> values;
-				if (categoryAssignments.containsKey(categoryId)) {
-					values = categoryAssignments.get(categoryId);
-					values.add(assignmentId);
-				} else {
-					values = new HashSet<Long>();
-					values.add(assignmentId);
-				}
-				categoryAssignments.put(categoryId, values);
-			}
-
-			// get grades
-			final List<GradeDefinition> defs = this.gradebookService.getGradesForStudentsForItem(gradebook.getUid(),
-					assignment.getId(), studentUuids);
-			stopwatch.timeWithContext("buildGradeMatrix", "getGradesForStudentsForItem: " + assignment.getId(),
-					stopwatch.getTime());
-
-			// iterate the definitions returned and update the record for each
-			// student with the grades
-			for (final GradeDefinition def : defs) {
-				final GbStudentGradeInfo sg = matrix.get(def.getStudentUid());
-
-				if (sg == null) {
+				if (row == null) {
 					log.warn("No matrix entry seeded for: " + def.getStudentUid()
 							+ ". This user may be been removed from the site");
 				} else {
 					// this will overwrite the stub entry for the TA matrix if
 					// need be
-					sg.addGrade(assignment.getId(), new GbGradeInfo(def));
+					gradeMatrix.setGrade(row, column, new GbGradeInfo(def));
 				}
 			}
-			stopwatch.timeWithContext("buildGradeMatrix", "updatedStudentGradeInfo: " + assignment.getId(),
-					stopwatch.getTime());
 		}
 		stopwatch.timeWithContext("buildGradeMatrix", "matrix built", stopwatch.getTime());
 
 		// build category columns
-		for (final CategoryDefinition category : categories) {
+		// the columns of each category's assignments are worked out once, up front
+		final Map<Long, List<Integer>> categoryAssignmentColumns = new HashMap<>();
+		for (int column = 0; column < columns.size(); column++) {
+			final Long categoryId = columns.get(column).getCategoryId();
+			if (categoryId != null) {
+				categoryAssignmentColumns.computeIfAbsent(categoryId, k -> new ArrayList<>()).add(column);
+			}
+		}
 
-			// use the category mappings for faster lookup of the assignmentIds
-			// and grades in the category
-			final Set<Long> categoryAssignmentIds = categoryAssignments.get(category.getId());
+		for (int categoryColumn = 0; categoryColumn < categories.size(); categoryColumn++) {
+			final CategoryDefinition category = categories.get(categoryColumn);
 
 			// if there are no assignments in the category (ie its a new
 			// category) this will be null, so skip
-			if (categoryAssignmentIds != null) {
-
-				for (final User student : students) {
-
-					final GbStudentGradeInfo sg = matrix.get(student.getId());
+			final List<Integer> categoryAssignmentIds = categoryAssignmentColumns.get(category.getId());
+			if (categoryAssignmentIds == null) {
+				continue;
+			}
 
-					// get grades
-					final Map<Long, GbGradeInfo> grades = sg.getGrades();
+			for (int row = 0; row < students.size(); row++) {
 
-					// build map of just the grades we want
-					final Map<Long, String> gradeMap = new HashMap<>();
-					for (final Long assignmentId : categoryAssignmentIds) {
-						final GbGradeInfo gradeInfo = grades.get(assignmentId);
-						if (gradeInfo != null) {
-							gradeMap.put(assignmentId, gradeInfo.getGrade());
-						}
+				// build map of just the grades we want
+				final Map<Long, String> gradeMap = new HashMap<>();
+				for (final int column : categoryAssignmentIds) {
+					final GbGradeInfo gradeInfo = gradeMatrix.getGrade(row, column);
+					if (gradeInfo != null) {
+						gradeMap.put(assignmentIds.get(column), gradeInfo.getGrade());
 					}
+				}
 
-					final Double categoryScore = this.gradebookService.calculateCategoryScore(gradebook,
-							student.getId(), category, category.getAssignmentList(), gradeMap);
-
-					// add to GbStudentGradeInfo
-					sg.addCategoryAverage(category.getId(), categoryScore);
-
-					// TODO the TA permission check could reuse this iteration... check performance.
+				final Double categoryScore = this.gradebookService.calculateCategoryScore(gradebook,
+						students.get(row).getId(), category, category.getAssignmentList(), gradeMap);
 
-				}
+				gradeMatrix.setCategoryAverage(row, categoryColumn, categoryScore);
 			}
-
 		}
 		stopwatch.timeWithContext("buildGradeMatrix", "categories built", stopwatch.getTime());
 
@@ -910,85 +903,59 @@ public class GradebookNgBusinessService {
 			// need to enrich the students grades
 			if (!permissions.isEmpty()) {
 
-				// first need a lookup map of assignment id to category so we
-				// can link up permissions by category
-				final Map<Long, Long> assignmentCategoryMap = new HashMap<>();
-				for (final Assignment assignment : assignments) {
-					assignmentCategoryMap.put(assignment.getId(), assignment.getCategoryId());
+				// a grade is gradeable if any permission passes both the category check (which depends only on the
+				// assignment) and the group check (which depends only on the student), so work both out once
+				// and then just intersect them for each grade
+
+				// if permissions category is null (can grade all categories) or they match (can grade this category)
+				final BitSet[] columnPermissions = new BitSet[columns.size()];
+				for (int column = 0; column < columns.size(); column++) {
+					final Long gradeCategoryId = columns.get(column).getCategoryId();
+					columnPermissions[column] = new BitSet(permissions.size());
+
+					for (int p = 0; p < permissions.size(); p++) {
+						final Long permissionCategoryId = permissions.get(p).getCategoryId();
+						if (!categoriesEnabled || (permissionCategoryId == null || permissionCategoryId.equals(gradeCategoryId))) {
+							columnPermissions[column].set(p);
+						}
+					}
 				}
 
-				// get the group membership for the students
+				// if group reference is null (can grade all groups) the members are null,
+				// otherwise group membership must contain student (can grade this group)
 				final Map<String, List<String>> groupMembershipsMap = getGroupMemberships();
+				final List<Set<String>> permissionMembers = new ArrayList<>();
+				for (final PermissionDefinition permission : permissions) {
+					final String permissionGroupReference = permission.getGroupReference();
+
+					if (StringUtils.isBlank(permissionGroupReference)) {
+						permissionMembers.add(null);
+					} else {
+						final List<String> groupMembers = groupMembershipsMap.get(permissionGroupReference);
+						permissionMembers.add(groupMembers == null ? Collections.emptySet() : new HashSet<>(groupMembers));
+					}
+				}
 
 				// for every student
-				for (final User student : students) {
+				for (int row = 0; row < students.size(); row++) {
+					final User student = students.get(row);
 
 					log.debug("Processing student: " + student.getEid());
 
-					final GbStudentGradeInfo sg = matrix.get(student.getId());
-
-					// get their assignment/grade list
-					final Map<Long, GbGradeInfo> gradeMap = sg.getGrades();
-
-					// for every assignment that has a grade
-					for (final Map.Entry<Long, GbGradeInfo> entry : gradeMap.entrySet()) {
-
-						// categoryId
-						final Long gradeCategoryId = assignmentCategoryMap.get(entry.getKey());
-
-						log.debug("Grade: " + entry.getValue());
-
-						// iterate the permissions
-						// if category, compare the category,
-						// then check the group and find the user in the group
-						// if all ok, mark it as GRADEABLE
-
-						boolean gradeable = false;
-
-						for (final PermissionDefinition permission : permissions) {
-							// we know they are all GRADE so no need to check
-							// here
-
-							boolean categoryOk = false;
-							boolean groupOk = false;
-
-							final Long permissionCategoryId = permission.getCategoryId();
-							final String permissionGroupReference = permission.getGroupReference();
-
-							log.debug("permissionCategoryId: " + permissionCategoryId);
-							log.debug("permissionGroupReference: " + permissionGroupReference);
-
-							// if permissions category is null (can grade all categories) or they match (can grade this category)
-							if (!categoriesEnabled || (permissionCategoryId == null || permissionCategoryId.equals(gradeCategoryId))) {
-								categoryOk = true;
-								log.debug("Category check passed");
-							}
-
-							// if group reference is null (can grade all groups)
-							// or group membership contains student (can grade
-							// this group)
-							if (StringUtils.isBlank(permissionGroupReference)) {
-								groupOk = true;
-								log.debug("Group check passed #1");
-							} else {
-								final List<String> groupMembers = groupMembershipsMap.get(permissionGroupReference);
-								log.debug("groupMembers: " + groupMembers);
-
-								if (groupMembers != null && groupMembers.contains(student.getId())) {
-									groupOk = true;
-									log.debug("Group check passed #2");
-								}
-							}
-
-							if (categoryOk && groupOk) {
-								gradeable = true;
-								break;
-							}
+					final BitSet studentPermissions = new BitSet(permissions.size());
+					for (int p = 0; p < permissions.size(); p++) {
+						final Set<String> members = permissionMembers.get(p);
+						if (members == null || members.contains(student.getId())) {
+							studentPermissions.set(p);
 						}
+					}
 
-						// set the gradeable flag on this grade instance
-						final GbGradeInfo gradeInfo = entry.getValue();
-						gradeInfo.setGradeable(gradeable);
+					// for every assignment that has a grade, set the gradeable flag on this grade instance
+					for (int column = 0; column < columns.size(); column++) {
+						final GbGradeInfo gradeInfo = gradeMatrix.getGrade(row, column);
+						if (gradeInfo != null) {
+							gradeInfo.setGradeable(columnPermissions[column].intersects(studentPermissions));
+						}
 					}
 				}
 			}
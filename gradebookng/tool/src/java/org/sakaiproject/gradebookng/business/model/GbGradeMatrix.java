@@ -0,0 +1,291 @@
+package org.sakaiproject.gradebookng.business.model;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.sakaiproject.user.api.User;
+
+/**
+ * Grades and category averages for a whole set of students, held in flat arrays indexed by student and column rather
+ * than in a pair of maps per student. The column index is shared by every student.
+ *
+ * Each student's {@link GbStudentGradeInfo} sees its own row through map views, so nothing using GbStudentGradeInfo
+ * needs to know how the grades are stored.
+ */
+public class GbGradeMatrix implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final Long[] assignmentIds;
+	private final Map<Long, Integer> assignmentColumns;
+
+	private final Long[] categoryIds;
+	private final Map<Long, Integer> categoryColumns;
+
+	private final int capacity;
+	private int students = 0;
+
+	// row-major, one row per student. A null grade is no grade; NaN is no category average
+	private final GbGradeInfo[] grades;
+	private final double[] categoryAverages;
+
+	/**
+	 * @param capacity the number of students the matrix will hold
+	 * @param assignmentIds the assignments that may have grades
+	 * @param categoryIds the categories that may have averages
+	 */
+	public GbGradeMatrix(final int capacity, final List<Long> assignmentIds, final List<Long> categoryIds) {
+		this.capacity = capacity;
+
+		this.assignmentIds = assignmentIds.toArray(new Long[assignmentIds.size()]);
+		this.assignmentColumns = columnIndex(this.assignmentIds);
+
+		this.categoryIds = categoryIds.toArray(new Long[categoryIds.size()]);
+		this.categoryColumns = columnIndex(this.categoryIds);
+
+		this.grades = new GbGradeInfo[capacity * this.assignmentIds.length];
+		this.categoryAverages = new double[capacity * this.categoryIds.length];
+		Arrays.fill(this.categoryAverages, Double.NaN);
+	}
+
+	private static Map<Long, Integer> columnIndex(final Long[] ids) {
+		final Map<Long, Integer> index = new HashMap<>(ids.length * 2);
+		for (int i = 0; i < ids.length; i++) {
+			index.put(ids[i], i);
+		}
+		return index;
+	}
+
+	/**
+	 * Add the next student's row.
+	 *
+	 * @return the student's grade info, backed by the new row
+	 */
+	public GbStudentGradeInfo addStudent(final User user) {
+		if (this.students == this.capacity) {
+			throw new IllegalStateException("Grade matrix is already full with " + this.capacity + " students");
+		}
+		return new GbStudentGradeInfo(user, this, this.students++);
+	}
+
+	public int getStudentCount() {
+		return this.students;
+	}
+
+	/**
+	 * @return the column for the assignment, or -1 if it isn't in the matrix
+	 */
+	public int getAssignmentColumn(final Long assignmentId) {
+		final Integer column = this.assignmentColumns.get(assignmentId);
+		return (column == null) ? -1 : column;
+	}
+
+	/**
+	 * @return the column for the category, or -1 if it isn't in the matrix
+	 */
+	public int getCategoryColumn(final Long categoryId) {
+		final Integer column = this.categoryColumns.get(categoryId);
+		return (column == null) ? -1 : column;
+	}
+
+	public GbGradeInfo getGrade(final int row, final int column) {
+		return this.grades[row * this.assignmentIds.length + column];
+	}
+
+	public void setGrade(final int row, final int column, final GbGradeInfo gradeInfo) {
+		this.grades[row * this.assignmentIds.length + column] = gradeInfo;
+	}
+
+	/**
+	 * @return the average, or NaN if there isn't one
+	 */
+	public double getCategoryAverage(final int row, final int column) {
+		return this.categoryAverages[row * this.categoryIds.length + column];
+	}
+
+	/**
+	 * @param score the average, or null if there isn't one
+	 */
+	public void setCategoryAverage(final int row, final int column, final Double score) {
+		this.categoryAverages[row * this.categoryIds.length + column] = (score == null) ? Double.NaN : score;
+	}
+
+	Map<Long, GbGradeInfo> gradesFor(final int row) {
+		return new GradeRow(row);
+	}
+
+	Map<Long, Double> categoryAveragesFor(final int row) {
+		return new CategoryAverageRow(row);
+	}
+
+	private static int columnOf(final Map<Long, Integer> index, final Object key) {
+		final Integer column = index.get(key);
+		return (column == null) ? -1 : column;
+	}
+
+	/**
+	 * One student's grades, keyed by assignment id. Only assignments in the matrix can be added.
+	 */
+	private class GradeRow extends AbstractMap<Long, GbGradeInfo> implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final int row;
+
+		GradeRow(final int row) {
+			this.row = row;
+		}
+
+		@Override
+		public GbGradeInfo get(final Object assignmentId) {
+			final int column = columnOf(GbGradeMatrix.this.assignmentColumns, assignmentId);
+			return (column < 0) ? null : getGrade(this.row, column);
+		}
+
+		@Override
+		public boolean containsKey(final Object assignmentId) {
+			return get(assignmentId) != null;
+		}
+
+		@Override
+		public GbGradeInfo put(final Long assignmentId, final GbGradeInfo gradeInfo) {
+			final int column = columnOf(GbGradeMatrix.this.assignmentColumns, assignmentId);
+			if (column < 0) {
+				throw new IllegalArgumentException("Assignment " + assignmentId + " is not in the grade matrix");
+			}
+			final GbGradeInfo previous = getGrade(this.row, column);
+			setGrade(this.row, column, gradeInfo);
+			return previous;
+		}
+
+		@Override
+		public Set<Map.Entry<Long, GbGradeInfo>> entrySet() {
+			return new AbstractSet<Map.Entry<Long, GbGradeInfo>>() {
+				@Override
+				public Iterator<Map.Entry<Long, GbGradeInfo>> iterator() {
+					return new RowIterator<GbGradeInfo>(GbGradeMatrix.this.assignmentIds) {
+						@Override
+						GbGradeInfo valueAt(final int column) {
+							return getGrade(GradeRow.this.row, column);
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					int size = 0;
+					for (int column = 0; column < GbGradeMatrix.this.assignmentIds.length; column++) {
+						if (getGrade(GradeRow.this.row, column) != null) {
+							size++;
+						}
+					}
+					return size;
+				}
+			};
+		}
+	}
+
+	/**
+	 * One student's category averages, keyed by category id. Only categories in the matrix can be added.
+	 */
+	private class CategoryAverageRow extends AbstractMap<Long, Double> implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final int row;
+
+		CategoryAverageRow(final int row) {
+			this.row = row;
+		}
+
+		@Override
+		public Double get(final Object categoryId) {
+			final int column = columnOf(GbGradeMatrix.this.categoryColumns, categoryId);
+			return (column < 0) ? null : averageAt(column);
+		}
+
+		@Override
+		public boolean containsKey(final Object categoryId) {
+			return get(categoryId) != null;
+		}
+
+		@Override
+		public Double put(final Long categoryId, final Double score) {
+			final int column = columnOf(GbGradeMatrix.this.categoryColumns, categoryId);
+			if (column < 0) {
+				throw new IllegalArgumentException("Category " + categoryId + " is not in the grade matrix");
+			}
+			final Double previous = averageAt(column);
+			setCategoryAverage(this.row, column, score);
+			return previous;
+		}
+
+		private Double averageAt(final int column) {
+			final double average = getCategoryAverage(this.row, column);
+			return Double.isNaN(average) ? null : average;
+		}
+
+		@Override
+		public Set<Map.Entry<Long, Double>> entrySet() {
+			return new AbstractSet<Map.Entry<Long, Double>>() {
+				@Override
+				public Iterator<Map.Entry<Long, Double>> iterator() {
+					return new RowIterator<Double>(GbGradeMatrix.this.categoryIds) {
+						@Override
+						Double valueAt(final int column) {
+							return averageAt(column);
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					int size = 0;
+					for (int column = 0; column < GbGradeMatrix.this.categoryIds.length; column++) {
+						if (averageAt(column) != null) {
+							size++;
+						}
+					}
+					return size;
+				}
+			};
+		}
+	}
+
+	/**
+	 * Walks the columns of a row that have a value.
+	 */
+	private abstract static class RowIterator<V> implements Iterator<Map.Entry<Long, V>> {
+		private final Long[] ids;
+		private int next = 0;
+
+		RowIterator(final Long[] ids) {
+			this.ids = ids;
+		}
+
+		abstract V valueAt(int column);
+
+		@Override
+		public boolean hasNext() {
+			while (this.next < this.ids.length && valueAt(this.next) == null) {
+				this.next++;
+			}
+			return this.next < this.ids.length;
+		}
+
+		@Override
+		public Map.Entry<Long, V> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			final Map.Entry<Long, V> entry = new AbstractMap.SimpleImmutableEntry<>(this.ids[this.next], valueAt(this.next));
+			this.next++;
+			return entry;
+		}
+	}
+}
@@ -47,13 +47,24 @@ public class GbStudentGradeInfo implements Serializable {
 	}
 
 	public GbStudentGradeInfo(final User u) {
+		this(u, new HashMap<Long, GbGradeInfo>(), new HashMap<Long, Double>());
+	}
+
+	/**
+	 * A student whose grades are kept in a row of a {@link GbGradeMatrix}
+	 */
+	GbStudentGradeInfo(final User u, final GbGradeMatrix matrix, final int row) {
+		this(u, matrix.gradesFor(row), matrix.categoryAveragesFor(row));
+	}
+
+	private GbStudentGradeInfo(final User u, final Map<Long, GbGradeInfo> grades, final Map<Long, Double> categoryAverages) {
 		this.studentUuid = u.getId();
 		this.studentEid = u.getEid();
 		this.studentFirstName = u.getFirstName();
 		this.studentLastName = u.getLastName();
 		this.studentDisplayName = u.getDisplayName();
-		this.grades = new HashMap<Long, GbGradeInfo>();
-		this.categoryAverages = new HashMap<Long, Double>();
+		this.grades = grades;
+		this.categoryAverages = categoryAverages;
 	}
 
 	/**
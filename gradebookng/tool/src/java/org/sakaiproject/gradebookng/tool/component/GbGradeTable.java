@@ -3,6 +3,7 @@ package org.sakaiproject.gradebookng.tool.component;
 import java.io.IOException;
 
 import org.apache.wicket.Component;
+import org.apache.wicket.behavior.AbstractAjaxBehavior;
 import org.apache.wicket.ajax.AjaxEventBehavior;
 import org.apache.wicket.ajax.AjaxRequestTarget;
 import org.apache.wicket.ajax.attributes.AjaxRequestAttributes;
@@ -15,6 +16,9 @@ import org.apache.wicket.markup.head.OnDomReadyHeaderItem;
 import org.apache.wicket.markup.html.panel.Panel;
 
 import org.apache.wicket.model.IModel;
+import org.apache.wicket.request.IRequestCycle;
+import org.apache.wicket.request.IRequestHandler;
+import org.apache.wicket.request.http.WebResponse;
 import org.sakaiproject.gradebookng.tool.model.GbGradeTableData;
 import org.sakaiproject.component.cover.ServerConfigurationService;
 
@@ -34,6 +38,8 @@ public class GbGradeTable extends Panel implements IHeaderContributor {
 
 	private Component component;
 
+	private AbstractAjaxBehavior tableDataBehavior;
+
 	/*
 	    - Students: id, first name, last name, netid
 	    - Course grades column: is released?, course grade
@@ -87,23 +93,42 @@ public class GbGradeTable extends Panel implements IHeaderContributor {
 			}
 		});
 
+		// the table data can run to megabytes for a large site, so rather than inlining it in the page
+		// the script fetches it from here and we write it straight to the response
+		tableDataBehavior = new AbstractAjaxBehavior() {
+			@Override
+			public void onRequest() {
+				final GbGradebookData gradebookData = createGradebookData();
+
+				getRequestCycle().scheduleRequestHandlerAfterCurrent(new IRequestHandler() {
+					@Override
+					public void respond(IRequestCycle requestCycle) {
+						WebResponse response = (WebResponse) requestCycle.getResponse();
+						response.setContentType("application/json; charset=UTF-8");
+						response.disableCaching();
+
+						try {
+							gradebookData.writeTo(response.getOutputStream());
+						} catch (IOException e) {
+							throw new RuntimeException(e);
+						}
+					}
+
+					@Override
+					public void detach(IRequestCycle requestCycle) {
+					}
+				});
+			}
+		};
+		component.add(tableDataBehavior);
+
 		add(component);
 	}
 
-	public void renderHead(IHeaderResponse response) {
+	private GbGradebookData createGradebookData() {
 		GbGradeTableData gbGradeTableData = (GbGradeTableData)getDefaultModelObject();
 
-		final String version = ServerConfigurationService.getString("portal.cdn.version", "");
-
-		response.render(
-			JavaScriptHeaderItem.forUrl(String.format("/gradebookng-tool/scripts/gradebook-gbgrade-table.js?version=%s", version)));
-
-		response.render(
-			JavaScriptHeaderItem.forUrl(String.format("/gradebookng-tool/scripts/handsontable.full.min.js?version=%s", version)));
-
-		response.render(CssHeaderItem.forUrl(String.format("/gradebookng-tool/styles/handsontable.full.min.css?version=%s", version)));
-
-		GbGradebookData gradebookData = new GbGradebookData(
+		return new GbGradebookData(
 				gbGradeTableData.getGrades(),
 				gbGradeTableData.getAssignments(),
 				gbGradeTableData.getCategories(),
@@ -114,10 +139,20 @@ public class GbGradeTable extends Panel implements IHeaderContributor {
 				gbGradeTableData.getDefaultIconCSS(),
 				gbGradeTableData.getCourseGradeMap(),
 				this);
+	}
 
-		response.render(OnDomReadyHeaderItem.forScript(String.format("var tableData = %s", gradebookData.toScript())));
+	public void renderHead(IHeaderResponse response) {
+		final String version = ServerConfigurationService.getString("portal.cdn.version", "");
+
+		response.render(
+			JavaScriptHeaderItem.forUrl(String.format("/gradebookng-tool/scripts/gradebook-gbgrade-table.js?version=%s", version)));
+
+		response.render(
+			JavaScriptHeaderItem.forUrl(String.format("/gradebookng-tool/scripts/handsontable.full.min.js?version=%s", version)));
+
+		response.render(CssHeaderItem.forUrl(String.format("/gradebookng-tool/styles/handsontable.full.min.css?version=%s", version)));
 
-		response.render(OnDomReadyHeaderItem.forScript(String.format("GbGradeTable.renderTable('%s', tableData)",
-									     component.getMarkupId())));
+		response.render(OnDomReadyHeaderItem.forScript(String.format("GbGradeTable.loadTable('%s', '%s')",
+									     component.getMarkupId(), tableDataBehavior.getCallbackUrl())));
 	}
 }
@@ -5,7 +5,6 @@ import lombok.Setter;
 import lombok.Value;
 import org.apache.commons.collections.map.HashedMap;
 import org.apache.commons.lang.StringUtils;
-import org.apache.commons.lang.builder.CompareToBuilder;
 import org.apache.wicket.model.StringResourceModel;
 import org.sakaiproject.gradebookng.business.GbCategoryType;
 import org.sakaiproject.gradebookng.business.GbRole;
@@ -17,10 +16,13 @@ import org.sakaiproject.gradebookng.business.model.GbStudentGradeInfo;
 import org.apache.wicket.Component;
 import org.sakaiproject.gradebookng.business.util.FormatHelper;
 import org.sakaiproject.gradebookng.business.model.GbGradeInfo;
-import java.io.UnsupportedEncodingException;
+import java.io.IOException;
+import java.io.OutputStream;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import org.sakaiproject.service.gradebook.shared.Assignment;
 import org.sakaiproject.service.gradebook.shared.CategoryDefinition;
 import org.sakaiproject.service.gradebook.shared.CourseGrade;
@@ -28,15 +30,16 @@ import org.sakaiproject.service.gradebook.shared.GradebookInformation;
 import org.sakaiproject.service.gradebook.shared.GradingType;
 
 import java.util.ArrayList;
-import java.util.Base64;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 public class GbGradebookData {
 
-    private int NULL_SENTINEL = 127;
+    private static final int NULL_SENTINEL = 127;
+
+    // scores this big don't fit the packed encoding
+    static final double LARGE_SCORE = 16384;
 
     @Data
     private class StudentDefinition {
@@ -50,13 +53,14 @@ public class GbGradebookData {
         private String readonly;
     }
 
-    private interface ColumnDefinition {
+    interface ColumnDefinition {
         public String getType();
-        public Score getValueFor(GbStudentGradeInfo studentGradeInfo, boolean isInstructor);
+        public String getValueFor(GbStudentGradeInfo studentGradeInfo);
+        public boolean isEditableFor(GbStudentGradeInfo studentGradeInfo, boolean isInstructor);
     }
 
     @Value
-    private class AssignmentDefinition implements ColumnDefinition {
+    static class AssignmentDefinition implements ColumnDefinition {
         private Long assignmentId;
         private String title;
         private String abbrevTitle;
@@ -85,22 +89,17 @@ public class GbGradebookData {
         }
 
         @Override
-        public Score getValueFor(GbStudentGradeInfo studentGradeInfo, boolean isInstructor) {
-            Map<Long, GbGradeInfo> studentGrades = studentGradeInfo.getGrades();
+        public String getValueFor(GbStudentGradeInfo studentGradeInfo) {
+            GbGradeInfo gradeInfo = studentGradeInfo.getGrades().get(assignmentId);
 
-            GbGradeInfo gradeInfo = studentGrades.get(assignmentId);
+            return (gradeInfo == null) ? null : gradeInfo.getGrade();
+        }
 
-            if (gradeInfo == null) {
-                return new ReadOnlyScore(null);
-            } else {
-                String grade = gradeInfo.getGrade();
+        @Override
+        public boolean isEditableFor(GbStudentGradeInfo studentGradeInfo, boolean isInstructor) {
+            GbGradeInfo gradeInfo = studentGradeInfo.getGrades().get(assignmentId);
 
-                if (isInstructor || gradeInfo.isGradeable()) {
-                    return new EditableScore(grade);
-                } else {
-                    return new ReadOnlyScore(grade);
-                }
-            }
+            return gradeInfo != null && (isInstructor || gradeInfo.isGradeable());
         }
     }
 
@@ -120,43 +119,15 @@ public class GbGradebookData {
         }
 
         @Override
-        public Score getValueFor(GbStudentGradeInfo studentGradeInfo, boolean isInstructor) {
-            Map<Long, Double> categoryAverages = studentGradeInfo.getCategoryAverages();
+        public String getValueFor(GbStudentGradeInfo studentGradeInfo) {
+            Double average = studentGradeInfo.getCategoryAverages().get(categoryId);
 
-            Double average = categoryAverages.get(categoryId);
-
-            if (average == null) {
-                return new ReadOnlyScore(null);
-            } else {
-                return new ReadOnlyScore(FormatHelper.formatDoubleToDecimal(average));
-            }
+            return (average == null) ? null : FormatHelper.formatDoubleToDecimal(average);
         }
-    }
 
-    @Value
-    private class DataSet {
-        private List<StudentDefinition> students;
-        private List<ColumnDefinition> columns;
-        private List<String[]> courseGrades;
-        private String serializedGrades;
-        private Map<String, Object> settings;
-
-        private int rowCount;
-        private int columnCount;
-
-        public DataSet(List<StudentDefinition> students,
-                       List<ColumnDefinition> columns,
-                       List<String[]> courseGrades,
-                       String serializedGrades,
-                       Map<String, Object> settings) {
-            this.students = students;
-            this.columns = columns;
-            this.courseGrades = courseGrades;
-            this.serializedGrades = serializedGrades;
-            this.settings = settings;
-
-            this.rowCount = students.size();
-            this.columnCount = columns.size();
+        @Override
+        public boolean isEditableFor(GbStudentGradeInfo studentGradeInfo, boolean isInstructor) {
+            return false;
         }
     }
 
@@ -200,56 +171,116 @@ public class GbGradebookData {
         this.students = loadStudents(studentGradeInfoList);
     }
 
-    public String toScript() {
+    /**
+     * Write the table data as JSON straight to the given stream. Students and course grades are written out one at a
+     * time and scores are packed from the grade matrix without an intermediate list, so nothing the size of the whole
+     * document is built in memory.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        ObjectMapper mapper = createMapper();
+
+        JsonGenerator generator = mapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+        write(mapper, generator);
+        generator.close();
+    }
+
+    private ObjectMapper createMapper() {
         ObjectMapper mapper = new ObjectMapper();
 
-        List<Score> grades = gradeList();
+        // we write many small values to the one generator, let it buffer them
+        mapper.disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+        return mapper;
+    }
+
+    private void write(ObjectMapper mapper, JsonGenerator generator) throws IOException {
+        byte[] packedGrades = serializeSmallGrades(this.studentGradeInfoList, this.columns);
 
         // if we can't edit one of the items,
         // we need to serialize this into the data
-        if (!isInstructor() && grades.stream().anyMatch(g -> !g.canEdit())) {
-            int i = 0;
-            for(StudentDefinition student : this.students) {
-                String readonly = "";
-                for (ColumnDefinition column : this.columns) {
-                    Score score = grades.get(i);
-                    readonly += score.canEdit() ? "0" : "1";
-                    i = i + 1;
-                }
-                student.setReadonly(readonly);
-            }
+        if (!isInstructor()) {
+            markReadOnly();
         }
 
-        DataSet dataset = new DataSet(
-            this.students, 
-            this.columns,
-            courseGrades(),
-            serializeGrades(grades),
-            serializeSettings());
-
-        try {
-            return mapper.writeValueAsString(dataset);
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
+        generator.writeStartObject();
+
+        generator.writeArrayFieldStart("students");
+        for (StudentDefinition student : this.students) {
+            mapper.writeValue(generator, student);
         }
-    }
+        generator.writeEndArray();
 
-    private String serializeGrades(List<Score> gradeList) {
-        if (gradeList.stream().anyMatch(score -> score.isLarge())) {
-            return "json:" + serializeLargeGrades(gradeList);
+        generator.writeArrayFieldStart("columns");
+        for (ColumnDefinition column : this.columns) {
+            mapper.writeValue(generator, column);
+        }
+        generator.writeEndArray();
+
+        generator.writeArrayFieldStart("courseGrades");
+        writeCourseGrades(generator);
+        generator.writeEndArray();
+
+        // packed scores go out base64 encoded, anything too large to pack as a plain array of numbers
+        if (packedGrades == null) {
+            generator.writeStringField("gradesFormat", "json");
+            generator.writeArrayFieldStart("serializedGrades");
+            writeLargeGrades(generator);
+            generator.writeEndArray();
         } else {
-            return "packed:" + serializeSmallGrades(gradeList);
+            generator.writeStringField("gradesFormat", "packed");
+            generator.writeFieldName("serializedGrades");
+            generator.writeBinary(packedGrades);
         }
+
+        generator.writeFieldName("settings");
+        mapper.writeValue(generator, serializeSettings());
+
+        generator.writeNumberField("rowCount", this.students.size());
+        generator.writeNumberField("columnCount", this.columns.size());
+
+        generator.writeEndObject();
     }
 
-    private String serializeLargeGrades(List<Score> gradeList) {
-        List<Double> scores = gradeList.stream().map(score -> score.isNull() ? -1 : score.getScore()).collect(Collectors.toList());
+    private void markReadOnly() {
+        List<String> readonly = readOnlyFlags(this.studentGradeInfoList, this.columns);
 
-        try {
-            ObjectMapper mapper = new ObjectMapper();
-            return mapper.writeValueAsString(scores);
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
+        if (readonly != null) {
+            for (int i = 0; i < this.students.size(); i++) {
+                this.students.get(i).setReadonly(readonly.get(i));
+            }
+        }
+    }
+
+    // One string per student with a '1' for each column they can't edit, or
+    // null if they can edit every column.
+    static List<String> readOnlyFlags(List<GbStudentGradeInfo> studentGradeInfoList, List<ColumnDefinition> columns) {
+        List<String> readonly = new ArrayList<String>(studentGradeInfoList.size());
+        char[] flags = new char[columns.size()];
+        boolean anyReadOnly = false;
+
+        for (GbStudentGradeInfo studentGradeInfo : studentGradeInfoList) {
+            for (int i = 0; i < flags.length; i++) {
+                if (columns.get(i).isEditableFor(studentGradeInfo, false)) {
+                    flags[i] = '0';
+                } else {
+                    flags[i] = '1';
+                    anyReadOnly = true;
+                }
+            }
+            readonly.add(new String(flags));
+        }
+
+        return anyReadOnly ? readonly : null;
+    }
+
+    private void writeLargeGrades(JsonGenerator generator) throws IOException {
+        for (GbStudentGradeInfo studentGradeInfo : this.studentGradeInfoList) {
+            for (ColumnDefinition column : this.columns) {
+                String score = column.getValueFor(studentGradeInfo);
+                generator.writeNumber(score == null ? -1 : Double.valueOf(score));
+            }
         }
     }
 
@@ -274,55 +305,72 @@ public class GbGradebookData {
     // Having all the data available up front helps keep the scroll performance
     // fast.
     //
-    private String serializeSmallGrades(List<Score> gradeList) {
-        StringBuilder sb = new StringBuilder();
+    // Returns null if any score is too large to pack, in which case the
+    // caller falls back to JSON.
+    //
+    static byte[] serializeSmallGrades(List<GbStudentGradeInfo> studentGradeInfoList, List<ColumnDefinition> columns) {
+        // one byte per score in the usual case, grown if we see fractions
+        byte[] packed = new byte[Math.max(studentGradeInfoList.size() * columns.size(), 16)];
+        int length = 0;
+
+        for (GbStudentGradeInfo studentGradeInfo : studentGradeInfoList) {
+            for (ColumnDefinition column : columns) {
+                if (packed.length - length < 3) {
+                    packed = Arrays.copyOf(packed, packed.length + (packed.length >> 1));
+                }
 
-        for (Score score : gradeList) {
-            if (score == null || score.isNull()) {
-                // No grade set.  Use a sentinel value.
-                sb.appendCodePoint(NULL_SENTINEL);
-                continue;
-            }
+                String score = column.getValueFor(studentGradeInfo);
 
-            double grade = score.getScore();
-
-            boolean hasFraction = ((int)grade != grade);
-
-            if (grade < 127 && !hasFraction) {
-                // single byte, no fraction
-                //
-                // input number like 0nnnnnnn serialized as 0nnnnnnn
-                sb.appendCodePoint((int)grade & 0xFF);
-            } else if (grade < 16384 && !hasFraction) {
-                // two byte, no fraction
-                //
-                // input number like 00nnnnnn nnnnnnnn serialized as 10nnnnnn nnnnnnnn
-                //
-                // where leading '10' means 'two bytes, no fraction part'
-                sb.appendCodePoint(((int)grade >> 8) | 0b10000000);
-                sb.appendCodePoint(((int)grade & 0xFF));
-            } else if (grade < 16384) {
-                // three byte encoding, fraction
-                //
-                // input number like 00nnnnnn nnnnnnnn.25 serialized as 11nnnnnn nnnnnnnn 00011001
-                //
-                // where leading '11' means 'two bytes plus a fraction part',
-                // and the fraction part is stored as an integer between 0-99,
-                // where 50 represents 0.5, 25 represents .25, etc.
-
-                sb.appendCodePoint(((int)grade >> 8) | 0b11000000);
-                sb.appendCodePoint((int)grade & 0xFF);
-                sb.appendCodePoint((int)Math.round((grade * 100) - ((int)grade * 100)));
-            } else {
-                throw new RuntimeException("Grade too large: " + grade);
+                if (score == null) {
+                    // No grade set.  Use a sentinel value.
+                    packed[length++] = (byte) NULL_SENTINEL;
+                    continue;
+                }
+
+                double grade = Double.valueOf(score);
+
+                if (grade >= LARGE_SCORE) {
+                    return null;
+                }
+
+                length = packScore(packed, length, grade);
             }
         }
 
-        try {
-            return Base64.getEncoder().encodeToString(sb.toString().getBytes("ISO-8859-1"));
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);
+        return Arrays.copyOf(packed, length);
+    }
+
+    static int packScore(byte[] packed, int offset, double grade) {
+        boolean hasFraction = ((int)grade != grade);
+
+        if (grade < 127 && !hasFraction) {
+            // single byte, no fraction
+            //
+            // input number like 0nnnnnnn serialized as 0nnnnnnn
+            packed[offset++] = (byte)((int)grade & 0xFF);
+        } else if (!hasFraction) {
+            // two byte, no fraction
+            //
+            // input number like 00nnnnnn nnnnnnnn serialized as 10nnnnnn nnnnnnnn
+            //
+            // where leading '10' means 'two bytes, no fraction part'
+            packed[offset++] = (byte)(((int)grade >> 8) | 0b10000000);
+            packed[offset++] = (byte)((int)grade & 0xFF);
+        } else {
+            // three byte encoding, fraction
+            //
+            // input number like 00nnnnnn nnnnnnnn.25 serialized as 11nnnnnn nnnnnnnn 00011001
+            //
+            // where leading '11' means 'two bytes plus a fraction part',
+            // and the fraction part is stored as an integer between 0-99,
+            // where 50 represents 0.5, 25 represents .25, etc.
+
+            packed[offset++] = (byte)(((int)grade >> 8) | 0b11000000);
+            packed[offset++] = (byte)((int)grade & 0xFF);
+            packed[offset++] = (byte)Math.round((grade * 100) - ((int)grade * 100));
         }
+
+        return offset;
     }
 
     private Map<String, Object> serializeSettings() {
@@ -345,26 +393,13 @@ public class GbGradebookData {
         return result;
     };
 
-    private List<String[]> courseGrades() {
-        List<String[]> result = new ArrayList<String[]>();
-
-
-        final Map<String, Double> gradeMap = settings.getSelectedGradingScaleBottomPercents();
-        final List<String> ascendingGrades = new ArrayList<>(gradeMap.keySet());
-        ascendingGrades.sort(new Comparator<String>() {
-            @Override
-            public int compare(final String a, final String b) {
-                return new CompareToBuilder()
-                    .append(gradeMap.get(a), gradeMap.get(b))
-                    .toComparison();
-            }
-        });
+    private void writeCourseGrades(JsonGenerator generator) throws IOException {
+        String[] gradeData = new String[3];
 
         for (GbStudentGradeInfo studentGradeInfo : this.studentGradeInfoList) {
             // String[0] = A+ (95%) [133/140] -- display string
             // String[1] = 95 -- raw percentage for sorting
             // String[2] = 1 -- '1' if an override, '0' if calculated
-            String[] gradeData = new String[3];
 
             GbCourseGrade gbCourseGrade = studentGradeInfo.getCourseGrade();
             CourseGrade courseGrade = gbCourseGrade.getCourseGrade();
@@ -391,25 +426,12 @@ public class GbGradebookData {
                 }
             }
 
-            result.add(gradeData);
-        }
-
-        return result;
-    }
-
-
-    private List<Score> gradeList() {
-        List<Score> result = new ArrayList<Score>();
-
-        for (GbStudentGradeInfo studentGradeInfo : this.studentGradeInfoList) {
-            for (ColumnDefinition column : this.columns) {
-                Score grade = column.getValueFor(studentGradeInfo, isInstructor());
-                result.add(grade);
+            generator.writeStartArray();
+            for (String value : gradeData) {
+                generator.writeString(value);
             }
+            generator.writeEndArray();
         }
-
-        return result;
-
     }
 
     private String getString(String key) {
@@ -419,6 +441,12 @@ public class GbGradebookData {
     private List<StudentDefinition> loadStudents(List<GbStudentGradeInfo> studentInfo) {
         List<StudentDefinition> result = new ArrayList<StudentDefinition>();
 
+        // The JavaScript will ultimately set this when it detects
+        // concurrent edits.  Initialize to zeroes.
+        char[] zeroes = new char[this.columns.size()];
+        Arrays.fill(zeroes, '0');
+        String noConcurrentEdits = new String(zeroes);
+
         for (GbStudentGradeInfo student : studentInfo) {
             StudentDefinition studentDefinition = new StudentDefinition();
             studentDefinition.setEid(student.getStudentEid());
@@ -426,14 +454,7 @@ public class GbGradebookData {
             studentDefinition.setFirstName(student.getStudentFirstName());
             studentDefinition.setLastName(student.getStudentLastName());
             studentDefinition.setHasComments(formatCommentData(student));
-
-            // The JavaScript will ultimately set this when it detects
-            // concurrent edits.  Initialize to zeroo.
-            StringBuilder zeroes = new StringBuilder();
-            for (ColumnDefinition column : this.columns) {
-                zeroes.append("0");
-            }
-            studentDefinition.setHasConcurrentEdit(zeroes.toString());
+            studentDefinition.setHasConcurrentEdit(noConcurrentEdits);
 
             result.add(studentDefinition);
         }
@@ -559,51 +580,6 @@ public class GbGradebookData {
         return GbRole.INSTRUCTOR.equals(role);
     }
 
-    private abstract class Score {
-        private String score;
-
-        public Score(String score) {
-            this.score = score;
-        }
-
-        abstract boolean canEdit();
-
-        // We assume you'll check isNull() prior to calling this
-        public double getScore() {
-            return Double.valueOf(score);
-        };
-
-        public boolean isNull() {
-            return score == null;
-        }
-
-        public boolean isLarge() {
-            return score != null && Double.valueOf(score) > 16384;
-        }
-    }
-
-    private class EditableScore extends Score {
-        public EditableScore(String score) {
-            super(score);
-        }
-
-        @Override
-        public boolean canEdit() {
-            return true;
-        }
-    }
-
-    private class ReadOnlyScore extends Score {
-        public ReadOnlyScore(String score) {
-            super(score);
-        }
-
-        @Override
-        public boolean canEdit() {
-            return false;
-        }
-    }
-
     private String getIconCSSForExternalAppName(String externalAppName) {
         if (toolNameIconCSSMap.containsKey(externalAppName)) {
             return toolNameIconCSSMap.get(externalAppName);
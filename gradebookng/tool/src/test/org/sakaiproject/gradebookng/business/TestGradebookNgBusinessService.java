@@ -1,23 +1,247 @@
 package org.sakaiproject.gradebookng.business;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
+import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.sakaiproject.gradebookng.business.model.GbGradeInfo;
+import org.sakaiproject.gradebookng.business.model.GbStudentGradeInfo;
+import org.sakaiproject.gradebookng.business.model.GbTestData;
+import org.sakaiproject.service.gradebook.shared.Assignment;
+import org.sakaiproject.service.gradebook.shared.CategoryDefinition;
+import org.sakaiproject.service.gradebook.shared.CourseGrade;
+import org.sakaiproject.service.gradebook.shared.GradeDefinition;
+import org.sakaiproject.service.gradebook.shared.GradebookService;
+import org.sakaiproject.service.gradebook.shared.GraderPermission;
+import org.sakaiproject.service.gradebook.shared.PermissionDefinition;
+import org.sakaiproject.tool.gradebook.Gradebook;
+import org.sakaiproject.user.api.User;
 
 public class TestGradebookNgBusinessService {
 
 	@InjectMocks
 	GradebookNgBusinessService service;
-	
+
+	private GradebookService gradebookService;
+
 	@Before
 	public void initMocks() {
 		MockitoAnnotations.initMocks(this);
 	}
-	
+
 	@Test
 	public void injectionOk() {
 		Assert.assertNotNull(service);
 	}
+
+	@Test
+	public void when_instructorBuildsMatrix_thenGradesFromOneBulkQuery() throws Exception {
+		final GradebookNgBusinessService matrixService = matrixService(GbRole.INSTRUCTOR, false, students("s0", "s1", "s2"),
+				Collections.emptyList(), Collections.emptyList());
+		final List<Assignment> assignments = Arrays.asList(assignment(10L, null), assignment(20L, null));
+
+		final Map<Long, List<GradeDefinition>> defs = new HashMap<>();
+		defs.put(10L, Arrays.asList(GbTestData.grade("s0", "5"), GbTestData.grade("s2", "7")));
+		defs.put(20L, Arrays.asList(GbTestData.grade("s2", "9"), GbTestData.grade("gone", "1")));
+		Mockito.when(this.gradebookService.getGradesForStudentsForItems("gb", Arrays.asList(10L, 20L), uuids("s0", "s1", "s2")))
+				.thenReturn(defs);
+
+		final List<GbStudentGradeInfo> matrix = matrixService.buildGradeMatrix(assignments, uuids("s0", "s1", "s2"));
+
+		Mockito.verify(this.gradebookService, Mockito.times(1)).getGradesForStudentsForItems(Mockito.anyString(),
+				Mockito.anyList(), Mockito.anyList());
+		Assert.assertEquals(Arrays.asList("s0", "s1", "s2"), studentUuids(matrix));
+		Assert.assertEquals("5", matrix.get(0).getGrades().get(10L).getGrade());
+		Assert.assertNull(matrix.get(0).getGrades().get(20L));
+		Assert.assertTrue(matrix.get(1).getGrades().isEmpty());
+		Assert.assertEquals("7", matrix.get(2).getGrades().get(10L).getGrade());
+		Assert.assertEquals("9", matrix.get(2).getGrades().get(20L).getGrade());
+	}
+
+	@Test
+	public void when_categoryScoresCalculated_thenOnlyTheCategorysGradesPassed() throws Exception {
+		final CategoryDefinition first = category(1L);
+		final CategoryDefinition empty = category(2L);
+		final GradebookNgBusinessService matrixService = matrixService(GbRole.INSTRUCTOR, true, students("s0"),
+				Arrays.asList(first, empty), Collections.emptyList());
+		final List<Assignment> assignments = Arrays.asList(assignment(10L, 1L), assignment(20L, null), assignment(30L, 1L));
+
+		final Map<Long, List<GradeDefinition>> defs = new HashMap<>();
+		defs.put(10L, Arrays.asList(GbTestData.grade("s0", "4")));
+		defs.put(20L, Arrays.asList(GbTestData.grade("s0", "8")));
+		Mockito.when(this.gradebookService.getGradesForStudentsForItems(Mockito.anyString(), Mockito.anyList(), Mockito.anyList()))
+				.thenReturn(defs);
+		Mockito.when(this.gradebookService.calculateCategoryScore(Mockito.any(), Mockito.eq("s0"), Mockito.eq(first), Mockito.anyList(),
+				Mockito.anyMap())).thenReturn(40.0);
+
+		final List<GbStudentGradeInfo> matrix = matrixService.buildGradeMatrix(assignments, uuids("s0"));
+
+		@SuppressWarnings("unchecked")
+		final ArgumentCaptor<Map<Long, String>> gradeMap = ArgumentCaptor.forClass(Map.class);
+		Mockito.verify(this.gradebookService).calculateCategoryScore(Mockito.any(), Mockito.eq("s0"), Mockito.eq(first),
+				Mockito.anyList(), gradeMap.capture());
+		Assert.assertEquals(Collections.singletonMap(10L, "4"), gradeMap.getValue());
+		Assert.assertEquals(Double.valueOf(40.0), matrix.get(0).getCategoryAverages().get(1L));
+		Assert.assertNull(matrix.get(0).getCategoryAverages().get(2L));
+	}
+
+	@Test
+	public void when_taBuildsMatrix_thenEveryVisibleGradeStubbed() throws Exception {
+		// the TA can only see the first category, so the second category's item is left out
+		final GradebookNgBusinessService matrixService = matrixService(GbRole.TA, true, students("s0", "s1"),
+				Arrays.asList(category(1L)), Collections.emptyList());
+		final List<Assignment> assignments = Arrays.asList(assignment(10L, 1L), assignment(20L, 2L), assignment(30L, null));
+
+		final Map<Long, List<GradeDefinition>> defs = new HashMap<>();
+		defs.put(10L, Arrays.asList(GbTestData.grade("s1", "3")));
+		Mockito.when(this.gradebookService.getGradesForStudentsForItems("gb", Arrays.asList(10L, 30L), uuids("s0", "s1")))
+				.thenReturn(defs);
+
+		final List<GbStudentGradeInfo> matrix = matrixService.buildGradeMatrix(assignments, uuids("s0", "s1"));
+
+		for (final GbStudentGradeInfo student : matrix) {
+			Assert.assertEquals(Arrays.asList(10L, 30L), new ArrayList<>(student.getGrades().keySet()));
+			Assert.assertNull(student.getGrades().get(30L).getGrade());
+			Assert.assertFalse(student.getGrades().get(10L).isGradeable());
+		}
+		Assert.assertNull(matrix.get(0).getGrades().get(10L).getGrade());
+		Assert.assertEquals("3", matrix.get(1).getGrades().get(10L).getGrade());
+	}
+
+	@Test
+	public void when_taHasGradePermissions_thenGradeableByCategoryAndGroup() throws Exception {
+		final List<PermissionDefinition> permissions = Arrays.asList(
+				// any student in the first category
+				permission(GraderPermission.GRADE, 1L, null),
+				// only the group's students in the second category
+				permission(GraderPermission.GRADE, 2L, "/site/site1/group/g1"),
+				// viewing doesn't make anything gradeable
+				permission(GraderPermission.VIEW, 2L, null));
+		final GradebookNgBusinessService matrixService = matrixService(GbRole.TA, true, students("s0", "s1", "s2"),
+				Arrays.asList(category(1L), category(2L)), permissions);
+		Mockito.doReturn(Collections.singletonMap("/site/site1/group/g1", Arrays.asList("s1"))).when(matrixService)
+				.getGroupMemberships();
+		final List<Assignment> assignments = Arrays.asList(assignment(10L, 1L), assignment(20L, 2L));
+
+		final Map<Long, List<GradeDefinition>> defs = new HashMap<>();
+		defs.put(20L, Arrays.asList(GbTestData.grade("s1", "6"), GbTestData.grade("s2", "2")));
+		Mockito.when(this.gradebookService.getGradesForStudentsForItems(Mockito.anyString(), Mockito.anyList(), Mockito.anyList()))
+				.thenReturn(defs);
+
+		final List<GbStudentGradeInfo> matrix = matrixService.buildGradeMatrix(assignments, uuids("s0", "s1", "s2"));
+
+		for (final GbStudentGradeInfo student : matrix) {
+			Assert.assertTrue(student.getGrades().get(10L).isGradeable());
+		}
+		Assert.assertFalse(matrix.get(0).getGrades().get(20L).isGradeable());
+		Assert.assertTrue(matrix.get(1).getGrades().get(20L).isGradeable());
+		Assert.assertFalse(matrix.get(2).getGrades().get(20L).isGradeable());
+		Assert.assertEquals("2", matrix.get(2).getGrades().get(20L).getGrade());
+	}
+
+	@Test
+	public void when_taPermissionIgnoresCategory_thenEveryGradeGradeable() throws Exception {
+		final GradebookNgBusinessService matrixService = matrixService(GbRole.TA, false, students("s0", "s1"),
+				Collections.emptyList(), Arrays.asList(permission(GraderPermission.GRADE, 2L, null)));
+		final List<Assignment> assignments = Arrays.asList(assignment(10L, 1L), assignment(20L, null));
+		Mockito.when(this.gradebookService.getGradesForStudentsForItems(Mockito.anyString(), Mockito.anyList(), Mockito.anyList()))
+				.thenReturn(Collections.emptyMap());
+
+		final List<GbStudentGradeInfo> matrix = matrixService.buildGradeMatrix(assignments, uuids("s0", "s1"));
+
+		// with categories off, a permission's category doesn't limit it
+		for (final GbStudentGradeInfo student : matrix) {
+			for (final GbGradeInfo gradeInfo : student.getGrades().values()) {
+				Assert.assertTrue(gradeInfo.isGradeable());
+			}
+		}
+	}
+
+	/**
+	 * The real service, reading the gradebook through a mock gradebook service, with the site, user and role lookups
+	 * buildGradeMatrix makes around it stubbed out
+	 */
+	private GradebookNgBusinessService matrixService(final GbRole role, final boolean categoriesEnabled, final List<User> students,
+			final List<CategoryDefinition> categories, final List<PermissionDefinition> permissions) throws Exception {
+		this.gradebookService = Mockito.mock(GradebookService.class);
+		final GradebookNgBusinessService matrixService = Mockito.spy(new GradebookNgBusinessService());
+		matrixService.setGradebookService(this.gradebookService);
+
+		final Gradebook gradebook = new Gradebook();
+		gradebook.setUid("gb");
+		final User currentUser = GbTestData.mockUser("grader");
+		final List<String> studentUuids = new ArrayList<>();
+		for (final User student : students) {
+			studentUuids.add(student.getId());
+		}
+
+		final Map<String, CourseGrade> courseGrades = new HashMap<>();
+		for (final String studentUuid : studentUuids) {
+			courseGrades.put(studentUuid, new CourseGrade());
+		}
+
+		Mockito.doReturn(gradebook).when(matrixService).getGradebook();
+		Mockito.doReturn(categoriesEnabled).when(matrixService).categoriesAreEnabled();
+		Mockito.doReturn(currentUser).when(matrixService).getCurrentUser();
+		Mockito.doReturn(role).when(matrixService).getUserRole();
+		Mockito.doReturn(new ArrayList<>(students)).when(matrixService).getUsers(studentUuids);
+		Mockito.doReturn(courseGrades).when(matrixService).getCourseGrades(studentUuids);
+		Mockito.doReturn(categories).when(matrixService).getGradebookCategories();
+		Mockito.doReturn(true).when(matrixService).isCourseGradeVisible("grader");
+		Mockito.doReturn(new ArrayList<>(permissions)).when(matrixService).getPermissionsForUser("grader");
+		Mockito.doReturn(Collections.emptyMap()).when(matrixService).getGroupMemberships();
+		return matrixService;
+	}
+
+	private static List<User> students(final String... uuids) {
+		final List<User> students = new ArrayList<>();
+		for (final String uuid : uuids) {
+			students.add(GbTestData.mockUser(uuid));
+		}
+		return students;
+	}
+
+	private static List<String> uuids(final String... uuids) {
+		return Arrays.asList(uuids);
+	}
+
+	private static List<String> studentUuids(final List<GbStudentGradeInfo> matrix) {
+		final List<String> uuids = new ArrayList<>();
+		for (final GbStudentGradeInfo student : matrix) {
+			uuids.add(student.getStudentUuid());
+		}
+		return uuids;
+	}
+
+	private static Assignment assignment(final Long id, final Long categoryId) {
+		final Assignment assignment = new Assignment();
+		assignment.setId(id);
+		assignment.setCategoryId(categoryId);
+		return assignment;
+	}
+
+	private static CategoryDefinition category(final Long id) {
+		final CategoryDefinition category = new CategoryDefinition();
+		category.setId(id);
+		category.setAssignmentList(new ArrayList<>());
+		return category;
+	}
+
+	private static PermissionDefinition permission(final GraderPermission function, final Long categoryId, final String groupReference) {
+		final PermissionDefinition permission = new PermissionDefinition();
+		permission.setFunction(function.toString());
+		permission.setCategoryId(categoryId);
+		permission.setGroupReference(groupReference);
+		return permission;
+	}
 }
@@ -0,0 +1,52 @@
+package org.sakaiproject.gradebookng.business.model;
+
+import org.mockito.Mockito;
+import org.sakaiproject.service.gradebook.shared.GradeDefinition;
+import org.sakaiproject.user.api.User;
+
+/**
+ * Users and grades shared by the gradebook tests.
+ */
+public final class GbTestData {
+
+	private GbTestData() {
+	}
+
+	/**
+	 * A grade as the gradebook service hands it back
+	 */
+	public static GradeDefinition grade(final String grade) {
+		final GradeDefinition def = new GradeDefinition();
+		def.setGrade(grade);
+		return def;
+	}
+
+	/**
+	 * A grade for a student as the gradebook service hands it back
+	 */
+	public static GradeDefinition grade(final String studentUuid, final String grade) {
+		final GradeDefinition def = grade(grade);
+		def.setStudentUid(studentUuid);
+		return def;
+	}
+
+	/**
+	 * A grade info for a grade the current user can edit
+	 */
+	public static GbGradeInfo gradeable(final String grade) {
+		final GbGradeInfo gradeInfo = new GbGradeInfo(grade(grade));
+		gradeInfo.setGradeable(true);
+		return gradeInfo;
+	}
+
+	/**
+	 * A user whose id and eid are both the given id, and whose last name is the id too so users sort by id
+	 */
+	public static User mockUser(final String id) {
+		final User user = Mockito.mock(User.class);
+		Mockito.when(user.getId()).thenReturn(id);
+		Mockito.when(user.getEid()).thenReturn(id);
+		Mockito.when(user.getLastName()).thenReturn(id);
+		return user;
+	}
+}
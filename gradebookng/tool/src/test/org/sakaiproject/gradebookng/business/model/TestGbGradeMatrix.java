@@ -0,0 +1,95 @@
+package org.sakaiproject.gradebookng.business.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the GbGradeMatrix class.
+ */
+public class TestGbGradeMatrix {
+
+	@Test
+	public void when_gradesAdded_thenRowsSeeOnlyTheirOwn() {
+		final GbGradeMatrix matrix = new GbGradeMatrix(2, Arrays.asList(10L, 20L, 30L), Arrays.asList(1L, 2L));
+		final GbStudentGradeInfo first = matrix.addStudent(GbTestData.mockUser("user1"));
+		final GbStudentGradeInfo second = matrix.addStudent(GbTestData.mockUser("user2"));
+
+		first.addGrade(20L, new GbGradeInfo(GbTestData.grade("5")));
+		second.addGrade(10L, new GbGradeInfo(GbTestData.grade("7")));
+		second.addGrade(30L, new GbGradeInfo(null));
+		first.addCategoryAverage(2L, 85.5);
+		second.addCategoryAverage(1L, null);
+
+		Assert.assertEquals("user1", first.getStudentUuid());
+		Assert.assertEquals("5", first.getGrades().get(20L).getGrade());
+		Assert.assertNull(first.getGrades().get(10L));
+		Assert.assertNull(first.getGrades().get(99L));
+		Assert.assertEquals(1, first.getGrades().size());
+
+		Assert.assertEquals(2, second.getGrades().size());
+		Assert.assertEquals(Arrays.asList(10L, 30L), new ArrayList<>(second.getGrades().keySet()));
+		Assert.assertNull(second.getGrades().get(30L).getGrade());
+
+		Assert.assertEquals(Double.valueOf(85.5), first.getCategoryAverages().get(2L));
+		Assert.assertNull(first.getCategoryAverages().get(1L));
+		Assert.assertTrue(second.getCategoryAverages().isEmpty());
+	}
+
+	@Test
+	public void when_gradeInfoChanged_thenRowSeesChange() {
+		final GbGradeMatrix matrix = new GbGradeMatrix(1, Arrays.asList(10L), Arrays.asList());
+		final GbStudentGradeInfo student = matrix.addStudent(GbTestData.mockUser("user1"));
+		student.addGrade(10L, new GbGradeInfo(null));
+
+		for (final Map.Entry<Long, GbGradeInfo> entry : student.getGrades().entrySet()) {
+			entry.getValue().setGradeable(true);
+		}
+
+		Assert.assertTrue(matrix.getGrade(0, matrix.getAssignmentColumn(10L)).isGradeable());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void when_assignmentNotInMatrix_thenAddFails() {
+		final GbGradeMatrix matrix = new GbGradeMatrix(1, Arrays.asList(10L), Arrays.asList());
+		matrix.addStudent(GbTestData.mockUser("user1")).addGrade(11L, new GbGradeInfo(null));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void when_matrixFull_thenAddStudentFails() {
+		final GbGradeMatrix matrix = new GbGradeMatrix(1, Arrays.asList(10L), Arrays.asList());
+		matrix.addStudent(GbTestData.mockUser("user1"));
+		matrix.addStudent(GbTestData.mockUser("user2"));
+	}
+
+	@Test
+	public void when_serialized_thenRowsStillShareTheMatrix() throws Exception {
+		final GbGradeMatrix matrix = new GbGradeMatrix(2, Arrays.asList(10L), Arrays.asList(1L));
+		final List<GbStudentGradeInfo> students = new ArrayList<>();
+		students.add(matrix.addStudent(GbTestData.mockUser("user1")));
+		students.add(matrix.addStudent(GbTestData.mockUser("user2")));
+		students.get(1).addGrade(10L, new GbGradeInfo(GbTestData.grade("3")));
+		students.get(1).addCategoryAverage(1L, 50.0);
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(new ArrayList<>(students));
+		}
+
+		@SuppressWarnings("unchecked")
+		final List<GbStudentGradeInfo> copy = (List<GbStudentGradeInfo>) new ObjectInputStream(
+				new ByteArrayInputStream(bytes.toByteArray())).readObject();
+
+		Assert.assertNull(copy.get(0).getGrades().get(10L));
+		Assert.assertEquals("3", copy.get(1).getGrades().get(10L).getGrade());
+		Assert.assertEquals(Double.valueOf(50.0), copy.get(1).getCategoryAverages().get(1L));
+	}
+}
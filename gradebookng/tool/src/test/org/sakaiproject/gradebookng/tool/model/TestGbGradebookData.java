@@ -0,0 +1,146 @@
+package org.sakaiproject.gradebookng.tool.model;
+
+import static org.sakaiproject.gradebookng.business.model.GbTestData.grade;
+import static org.sakaiproject.gradebookng.business.model.GbTestData.gradeable;
+import static org.sakaiproject.gradebookng.business.model.GbTestData.mockUser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.sakaiproject.gradebookng.business.model.GbGradeInfo;
+import org.sakaiproject.gradebookng.business.model.GbGradeMatrix;
+import org.sakaiproject.gradebookng.business.model.GbStudentGradeInfo;
+
+/**
+ * Tests for the score packing and read only flags of the GbGradebookData class.
+ */
+public class TestGbGradebookData {
+
+	@Test
+	public void when_scorePacked_thenSmallestEncodingUsed() {
+		assertPacked(0, 0);
+		assertPacked(126, 126);
+		// 127 is the null sentinel, so it takes two bytes
+		assertPacked(127, 0x80, 0x7F);
+		assertPacked(300, 0x81, 0x2C);
+		assertPacked(2.25, 0xC0, 0x02, 25);
+		assertPacked(99.5, 0xC0, 0x63, 50);
+	}
+
+	@Test
+	public void when_scoreJustBelowLargeScore_thenPacked() {
+		assertPacked(GbGradebookData.LARGE_SCORE - 1, 0xBF, 0xFF);
+		assertPacked(GbGradebookData.LARGE_SCORE - 0.5, 0xFF, 0xFF, 50);
+
+		final List<GbStudentGradeInfo> students = students(1, 10L);
+		students.get(0).addGrade(10L, new GbGradeInfo(grade("16383.5")));
+
+		Assert.assertArrayEquals(bytes(0xFF, 0xFF, 50), GbGradebookData.serializeSmallGrades(students, columns(10L)));
+	}
+
+	@Test
+	public void when_scoreIsLargeScore_thenNotPacked() {
+		final List<GbStudentGradeInfo> students = students(2, 10L, 20L);
+		students.get(0).addGrade(10L, new GbGradeInfo(grade("5")));
+		students.get(1).addGrade(20L, new GbGradeInfo(grade(String.valueOf(GbGradebookData.LARGE_SCORE))));
+
+		Assert.assertNull(GbGradebookData.serializeSmallGrades(students, columns(10L, 20L)));
+	}
+
+	@Test
+	public void when_gradesSerialized_thenRowByRowWithSentinelForMissing() {
+		final List<GbStudentGradeInfo> students = students(2, 10L, 20L);
+		students.get(0).addGrade(10L, new GbGradeInfo(grade("5")));
+		students.get(0).addGrade(20L, new GbGradeInfo(grade("200")));
+		students.get(1).addGrade(20L, new GbGradeInfo(null));
+
+		Assert.assertArrayEquals(bytes(5, 0x80, 0xC8, 127, 127), GbGradebookData.serializeSmallGrades(students, columns(10L, 20L)));
+	}
+
+	@Test
+	public void when_fractionsOverflowInitialBuffer_thenBufferGrows() {
+		final List<GbStudentGradeInfo> students = students(20, 10L, 20L);
+		for (final GbStudentGradeInfo student : students) {
+			student.addGrade(10L, new GbGradeInfo(grade("1.5")));
+			student.addGrade(20L, new GbGradeInfo(grade("2.75")));
+		}
+
+		final byte[] packed = GbGradebookData.serializeSmallGrades(students, columns(10L, 20L));
+
+		Assert.assertEquals(20 * 2 * 3, packed.length);
+		for (int i = 0; i < packed.length; i += 6) {
+			Assert.assertArrayEquals(bytes(0xC0, 1, 50, 0xC0, 2, 75), Arrays.copyOfRange(packed, i, i + 6));
+		}
+	}
+
+	@Test
+	public void when_noGrades_thenEmpty() {
+		Assert.assertEquals(0, GbGradebookData.serializeSmallGrades(students(0, 10L), columns(10L)).length);
+		Assert.assertEquals(0, GbGradebookData.serializeSmallGrades(students(3), columns()).length);
+	}
+
+	@Test
+	public void when_everyColumnEditable_thenNoReadOnlyFlags() {
+		final List<GbStudentGradeInfo> students = students(2, 10L, 20L);
+		for (final GbStudentGradeInfo student : students) {
+			student.addGrade(10L, gradeable("1"));
+			student.addGrade(20L, gradeable(null));
+		}
+
+		Assert.assertNull(GbGradebookData.readOnlyFlags(students, columns(10L, 20L)));
+	}
+
+	@Test
+	public void when_someColumnsNotEditable_thenFlaggedPerStudent() {
+		final List<GbStudentGradeInfo> students = students(3, 10L, 20L);
+		students.get(0).addGrade(10L, gradeable("1"));
+		students.get(0).addGrade(20L, gradeable("2"));
+		students.get(1).addGrade(10L, new GbGradeInfo(grade("3")));
+		students.get(1).addGrade(20L, gradeable("4"));
+		// no grade info at all for the third student
+
+		Assert.assertEquals(Arrays.asList("00", "10", "11"), GbGradebookData.readOnlyFlags(students, columns(10L, 20L)));
+	}
+
+	private static void assertPacked(final double grade, final int... expected) {
+		final byte[] packed = new byte[4];
+		final int length = GbGradebookData.packScore(packed, 1, grade);
+
+		Assert.assertEquals(1 + expected.length, length);
+		Assert.assertArrayEquals(bytes(expected), Arrays.copyOfRange(packed, 1, length));
+	}
+
+	private static byte[] bytes(final int... values) {
+		final byte[] result = new byte[values.length];
+		for (int i = 0; i < values.length; i++) {
+			result[i] = (byte) values[i];
+		}
+		return result;
+	}
+
+	private static List<GbStudentGradeInfo> students(final int count, final Long... assignmentIds) {
+		final GbGradeMatrix matrix = new GbGradeMatrix(count, Arrays.asList(assignmentIds), new ArrayList<>());
+		final List<GbStudentGradeInfo> result = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			result.add(matrix.addStudent(mockUser("user" + i)));
+		}
+		return result;
+	}
+
+	/**
+	 * Assignment columns of the table, for the given assignments
+	 */
+	private static List<GbGradebookData.ColumnDefinition> columns(final Long... assignmentIds) {
+		final List<GbGradebookData.ColumnDefinition> result = new ArrayList<>();
+		for (final Long assignmentId : assignmentIds) {
+			result.add(new GbGradebookData.AssignmentDefinition(assignmentId, "Assignment " + assignmentId, "Assignment " + assignmentId, "10", null,
+					true, true, false, false, null, null, null,
+					null, null, null, null, false,
+					false));
+		}
+		return result;
+	}
+}
@@ -2,18 +2,17 @@ GbGradeTable = {};
 
 GbGradeTable._onReadyCallbacks = [];
 
-GbGradeTable.unpack = function (s, rowCount, columnCount) {
-  if (/^packed:/.test(s)) {
+GbGradeTable.unpack = function (format, s, rowCount, columnCount) {
+  if (format == 'packed') {
       return GbGradeTable.unpackPackedScores(s, rowCount, columnCount);
-  } else if (/^json:/.test(s)) {
+  } else if (format == 'json') {
       return GbGradeTable.unpackJsonScores(s, rowCount, columnCount);
   } else {
       console.log("Unknown data format");
   }
 };
 
-GbGradeTable.unpackJsonScores = function (s, rowCount, columnCount) {
-    var parsedArray = JSON.parse(s.substring('json:'.length));
+GbGradeTable.unpackJsonScores = function (parsedArray, rowCount, columnCount) {
     var result = [];
     var currentRow = [];
 
@@ -32,7 +31,7 @@ GbGradeTable.unpackJsonScores = function (s, rowCount, columnCount) {
 }
 
 GbGradeTable.unpackPackedScores = function (s, rowCount, columnCount) {
-    var blob = atob(s.substring('packed:'.length));
+    var blob = atob(s);
 
     // Our result will be an array of Float64Array rows
     var result = [];
@@ -561,13 +560,29 @@ $(document).ajaxError(function(event, jqXHR, ajaxSettings, thrownError) {
   }
 });
 
+GbGradeTable.loadTable = function (elementId, url) {
+  $.ajax({
+    url: url,
+    dataType: 'json',
+    cache: false,
+    success: function (tableData) {
+      GbGradeTable.renderTable(elementId, tableData);
+    },
+    error: function () {
+      /* error! */
+      $('#gbGradeTableLoadFailed').show();
+    }
+  });
+};
+
 // FIXME: Hard-coded stuff here
 GbGradeTable.renderTable = function (elementId, tableData) {
   GbGradeTable.domElement = $('#' + elementId);
   GbGradeTable.students = tableData.students;
   GbGradeTable.columns = tableData.columns;
   GbGradeTable.settings = tableData.settings;
-  GbGradeTable.grades = GbGradeTable.mergeColumns(GbGradeTable.unpack(tableData.serializedGrades,
+  GbGradeTable.grades = GbGradeTable.mergeColumns(GbGradeTable.unpack(tableData.gradesFormat,
+                                                                      tableData.serializedGrades,
                                                                       tableData.rowCount,
                                                                       tableData.columnCount),
                                                   [
@@ -23,6 +23,7 @@ package org.sakaiproject.authz.api;
 
 import java.util.Collection;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -320,6 +321,52 @@ public interface AuthzGroupService extends EntityProducer
 	 * @return true if this user is allowed to perform the function in the named AuthzGroups, false if not.
 	 */
 	boolean isAllowed(String userId, String function, Collection<String> azGroups);
+
+	/**
+	 * Test, in one go, if this user is allowed to perform the function for each of a number of entities, each with its own AuthzGroups.
+	 * Each entity is answered as {@link #isAllowed(String, String, Collection)} would answer it for its AuthzGroups.
+	 * Use this rather than calling isAllowed() once per entity when checking a list of entities.
+	 * 
+	 * @param userId
+	 *        The user id.
+	 * @param function
+	 *        The function to open.
+	 * @param azGroupsByReference
+	 *        For each entity reference, the collection of AuthzGroup ids to consult.
+	 * @return the Set of the entity references (keys of azGroupsByReference) for which the user is allowed.
+	 */
+	default Set<String> getAllowedReferences(String userId, String function, Map<String, ? extends Collection<String>> azGroupsByReference)
+	{
+		Set<String> rv = new HashSet<String>();
+		for (Map.Entry<String, ? extends Collection<String>> entry : azGroupsByReference.entrySet())
+		{
+			if (isAllowed(userId, function, entry.getValue())) rv.add(entry.getKey());
+		}
+		return rv;
+	}
+
+	/**
+	 * Test, in one go, which of these users are allowed to perform the function in the named AuthzGroups.
+	 * Each user is answered as {@link #isAllowed(String, String, Collection)} would answer it, including the
+	 * roles (like .auth) that every user has; this is unlike {@link #getUsersIsAllowed(String, Collection)}.
+	 * 
+	 * @param userIds
+	 *        The user ids to check.
+	 * @param function
+	 *        The function to open.
+	 * @param azGroups
+	 *        A collection of AuthzGroup ids to consult.
+	 * @return the Set of the user ids (from userIds) that are allowed.
+	 */
+	default Set<String> getAllowedUsers(Collection<String> userIds, String function, Collection<String> azGroups)
+	{
+		Set<String> rv = new HashSet<String>();
+		for (String userId : userIds)
+		{
+			if (isAllowed(userId, function, azGroups)) rv.add(userId);
+		}
+		return rv;
+	}
 	
 	/**
 	 * Encode the role id to form the dummy user id that will be used to perform role checks.
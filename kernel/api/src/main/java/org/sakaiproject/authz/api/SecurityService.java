@@ -22,7 +22,9 @@
 package org.sakaiproject.authz.api;
 
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.sakaiproject.user.api.User;
 
@@ -88,6 +90,52 @@ public interface SecurityService
 	 */
 	boolean unlock(String userId, String lock, String reference, Collection<String> authzGroupIds);
 
+	/**
+	 * Can the specified user id unlock the lock for use with each of these resources?
+	 * This answers the same as calling {@link #unlock(String, String, String)} for each resource, but resolves the
+	 * resources that are not already cached in as few queries as possible - use it for list views.
+	 * 
+	 * @param userId
+	 *        The user id.
+	 * @param lock
+	 *        The lock id string.
+	 * @param references
+	 *        The resource reference strings.
+	 * @return A Map of each resource reference to true if the user can unlock the lock for it, false otherwise.
+	 */
+	default Map<String, Boolean> unlockAll(String userId, String lock, Collection<String> references)
+	{
+		Map<String, Boolean> rv = new LinkedHashMap<String, Boolean>();
+		for (String reference : references)
+		{
+			rv.put(reference, unlock(userId, lock, reference));
+		}
+		return rv;
+	}
+
+	/**
+	 * Can each of these user ids unlock the lock for use with this resource?
+	 * This answers the same as calling {@link #unlock(String, String, String)} for each user, but resolves the
+	 * users that are not already cached in as few queries as possible - use it for roster views.
+	 * 
+	 * @param userIds
+	 *        The user ids.
+	 * @param lock
+	 *        The lock id string.
+	 * @param reference
+	 *        The resource reference string.
+	 * @return A Map of each user id to true if the user can unlock the lock, false otherwise.
+	 */
+	default Map<String, Boolean> unlockAllUsers(Collection<String> userIds, String lock, String reference)
+	{
+		Map<String, Boolean> rv = new LinkedHashMap<String, Boolean>();
+		for (String userId : userIds)
+		{
+			rv.put(userId, unlock(userId, lock, reference));
+		}
+		return rv;
+	}
+
 	/**
 	 * Access the List of Users who can unlock the lock for use with this resource.
 	 * 
@@ -26,6 +26,7 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.GregorianCalendar;
 import java.util.List;
+import java.util.stream.Stream;
 
 import org.sakaiproject.exception.ServerOverloadException;
 
@@ -121,6 +122,32 @@ public interface SqlService
 	 */
 	<T> List<T> dbRead(Connection conn, String sql, Object[] fields, SqlReader<T> reader);
 
+	/**
+	 * Process a query, filling in with fields, and return the results as a Stream, one per record read, read from the database as the stream is
+	 * consumed rather than all at once. If a reader is provided, it will be called for each record to prepare the Object placed into the Stream.
+	 * Otherwise, the first field of each record, as a String, will be placed in the Stream.
+	 * <p>
+	 * The stream holds a database connection until it is closed, so always use it in a try-with-resources block. It releases the connection on
+	 * its own once the last record has been read.
+	 * </p>
+	 *
+	 * @param sql
+	 *        The sql statement.
+	 * @param fields
+	 *        The array of fields for parameters.
+	 * @param fetchSize
+	 *        The number of records to fetch from the database at a time, or 0 for the service default.
+	 * @param reader
+	 *        The reader object to read each record.
+	 * @param <T>
+	 *        The type of objects being returned by the SqlReader.
+	 * @return The Stream of things read, one per record.
+	 */
+	default <T> Stream<T> dbStream(String sql, Object[] fields, int fetchSize, SqlReader<T> reader)
+	{
+		return dbRead(sql, fields, reader).stream();
+	}
+
 	/**
 	 * Read a single field from the db, from multiple record - concatenating the binary values into value.
 	 * 
@@ -269,6 +296,31 @@ public interface SqlService
 	 */
 	boolean dbWriteFailQuiet(Connection connection, String sql, Object[] fields);
 
+	/**
+	 * Execute the "write" sql - no response, once for each set of fields, sending them to the database in batches rather than one at a time.
+	 * As with dbWrite(), a set of fields that would duplicate an existing record is skipped (and false returned) while the others are still
+	 * written. Any other failure throws, and (outside of a transaction) then none are written.
+	 * 
+	 * @param connection
+	 *        The connection to use, or null to use the transaction connection or a new one.
+	 * @param sql
+	 *        The sql statement.
+	 * @param fieldsList
+	 *        The arrays of fields for parameters, one for each time the statement is to be run.
+	 * @return true if all were written, false if any were skipped.
+	 */
+	default boolean dbWriteBatch(Connection connection, String sql, List<Object[]> fieldsList)
+	{
+		boolean allWritten = true;
+		for (Object[] fields : fieldsList)
+		{
+			boolean ok = (connection == null) ? dbWrite(sql, fields) : dbWrite(connection, sql, fields);
+			if (!ok) allWritten = false;
+		}
+
+		return allWritten;
+	}
+
 	/**
 	 * Execute the "write" sql - no response, using a set of fields from an array plus one more as params.
 	 * 
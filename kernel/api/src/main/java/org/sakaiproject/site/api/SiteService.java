@@ -450,6 +450,41 @@ public interface SiteService extends EntityProducer
 	 */
 	Site getSiteVisit(String id) throws IdUnusedException, PermissionException;
 
+	/**
+	 * Access a read only view of a site, for code which only reads the site (rendering, permission checks, tool lookups).
+	 * The view may share its pages, tools, groups and properties with the site cache instead of copying them, so it
+	 * is much cheaper than {@link #getSite(String)} for large sites. Any method which would change the site, or anything
+	 * reached through it, throws UnsupportedOperationException - use {@link #getSite(String)} for a site to change and save.
+	 * This method does not perform any security/permission checks.
+	 *
+	 * @param id
+	 *        The site id string.
+	 * @return A read only site object.
+	 * @exception IdUnusedException
+	 *            if not found.
+	 */
+	default Site getSiteSnapshot(String id) throws IdUnusedException
+	{
+		return getSite(id);
+	}
+
+	/**
+	 * Access a read only view of a site for purposes of having the user visit the site - visitation permissions are in effect.
+	 * See {@link #getSiteSnapshot(String)}.
+	 *
+	 * @param id
+	 *        The site id string.
+	 * @return A read only site object.
+	 * @exception IdUnusedException
+	 *            if not found.
+	 * @exception PermissionException
+	 *            if the current user does not have permission to visit this site.
+	 */
+	default Site getSiteVisitSnapshot(String id) throws IdUnusedException, PermissionException
+	{
+		return getSiteVisit(id);
+	}
+
 	/**
 	 * check permissions for updating a site
 	 * 
@@ -157,6 +157,15 @@ public class SiteService
 		return service.getSiteVisit(param0);
 	}
 
+	public static org.sakaiproject.site.api.Site getSiteVisitSnapshot(java.lang.String param0)
+			throws org.sakaiproject.exception.IdUnusedException, org.sakaiproject.exception.PermissionException
+	{
+		org.sakaiproject.site.api.SiteService service = getInstance();
+		if (service == null) return null;
+
+		return service.getSiteVisitSnapshot(param0);
+	}
+
 	public static boolean allowUpdateSite(java.lang.String param0)
 	{
 		org.sakaiproject.site.api.SiteService service = getInstance();
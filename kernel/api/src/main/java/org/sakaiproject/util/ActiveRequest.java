@@ -0,0 +1,129 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2016 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.util;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A request being handled by RequestFilter, registered against the thread handling it so that monitoring can find the
+ * request threads (and what they are serving) without walking every thread in the JVM.
+ */
+public final class ActiveRequest
+{
+	private static final Map<Long, ActiveRequest> active = new ConcurrentHashMap<Long, ActiveRequest>();
+
+	private final long threadId;
+
+	private final long startTime;
+
+	private final String method;
+
+	private final String uri;
+
+	private final String context;
+
+	private ActiveRequest(long threadId, long startTime, String method, String uri, String context)
+	{
+		this.threadId = threadId;
+		this.startTime = startTime;
+		this.method = method;
+		this.uri = uri;
+		this.context = context;
+	}
+
+	/**
+	 * Record that the current thread has started on a request. When a request is passed on to another webapp (as the
+	 * portal does to tools) the outer request's start time and URI are kept and only the context changes.
+	 *
+	 * @return whatever was registered for the thread before, to be handed back to {@link #end(ActiveRequest)}.
+	 */
+	static ActiveRequest begin(long startTime, String method, String uri, String context)
+	{
+		long threadId = Thread.currentThread().getId();
+		ActiveRequest outer = active.get(threadId);
+
+		if (outer != null)
+		{
+			active.put(threadId, new ActiveRequest(threadId, outer.startTime, outer.method, outer.uri, context));
+		}
+		else
+		{
+			active.put(threadId, new ActiveRequest(threadId, startTime, method, uri, context));
+		}
+
+		return outer;
+	}
+
+	/**
+	 * Record that the current thread has finished with a request, going back to the outer one if there was one.
+	 */
+	static void end(ActiveRequest outer)
+	{
+		if (outer != null)
+		{
+			active.put(outer.threadId, outer);
+		}
+		else
+		{
+			active.remove(Thread.currentThread().getId());
+		}
+	}
+
+	/**
+	 * @return the requests in progress right now.
+	 */
+	public static Collection<ActiveRequest> list()
+	{
+		return Collections.unmodifiableCollection(active.values());
+	}
+
+	public long getThreadId()
+	{
+		return threadId;
+	}
+
+	/** When the request started (ms since the epoch). */
+	public long getStartTime()
+	{
+		return startTime;
+	}
+
+	public String getMethod()
+	{
+		return method;
+	}
+
+	/** The request URI, without the query string. */
+	public String getUri()
+	{
+		return uri;
+	}
+
+	/** The context of the webapp currently handling the request, as RequestFilter knows it. */
+	public String getContext()
+	{
+		return context;
+	}
+}
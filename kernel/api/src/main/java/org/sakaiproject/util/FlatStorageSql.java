@@ -62,6 +62,8 @@ public interface FlatStorageSql
 
 	public Object[] getSelectFieldsFields(int first, int last);
 
+	public String getSelectFieldsKeysetSql(String table, String fieldList, String idField, boolean first, int count);
+
 	public String getSelectNameValueSql(String table, String idField);
 
 	public String getUpdateSql(String table, String fieldList, String idField);
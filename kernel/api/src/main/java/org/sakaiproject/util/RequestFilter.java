@@ -351,6 +351,9 @@ public class RequestFilter implements Filter
 		boolean threadRenamed = false;
 		String thisThreadName = Thread.currentThread().getName();
 
+		boolean requestTracked = false;
+		ActiveRequest outerRequest = null;
+
 
 		try
 		{
@@ -377,6 +380,9 @@ public class RequestFilter implements Filter
 			HttpServletRequest req = (HttpServletRequest) requestObj;
 			HttpServletResponse resp = (HttpServletResponse) responseObj;
 
+			outerRequest = ActiveRequest.begin(startTime, req.getMethod(), req.getRequestURI(), m_contextId);
+			requestTracked = true;
+
 			// knl-640
 			// The AppDomain should reject:
 			// 1) all GET URL's starting with contentPaths
@@ -560,6 +566,10 @@ public class RequestFilter implements Filter
 			if (threadRenamed) {
 				Thread.currentThread().setName(thisThreadName);
 			}
+
+			if (requestTracked) {
+				ActiveRequest.end(outerRequest);
+			}
 		}
 	}
 
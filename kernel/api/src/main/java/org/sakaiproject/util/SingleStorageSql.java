@@ -81,6 +81,13 @@ public interface SingleStorageSql
 	 */
 	public Object[] getXmlFields(int first, int last);
 
+	/**
+	 * returns the sql statement which retrieves the specified field and the xml field from the specified table, in order by the field, for
+	 * the count records after the value bound to the statement (or from the start, without a value, if first), and matching the where clause
+	 * if there is one.
+	 */
+	public String getXmlKeysetSql(String field, String table, String where, boolean first, int count);
+
 	/**
 	 * returns the sql statement which retrieves the number of rows in the specified table.
 	 */
@@ -960,6 +960,22 @@ public abstract class BaseAuthzGroupService implements AuthzGroupService
 		return m_storage.isAllowed(user, function, azGroups);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public Set<String> getAllowedReferences(String userId, String function, Map<String, ? extends Collection<String>> azGroupsByReference)
+	{
+		return m_storage.getAllowedReferences(userId, function, azGroupsByReference);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public Set<String> getAllowedUsers(Collection<String> userIds, String function, Collection<String> azGroups)
+	{
+		return m_storage.getAllowedUsers(userIds, function, azGroups);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -1468,6 +1484,32 @@ public abstract class BaseAuthzGroupService implements AuthzGroupService
 		 */
 		boolean isAllowed(String userId, String function, Collection<String> realms);
 
+		/**
+		 * Test, in one go, if this user is allowed to perform the function for each of a number of entities.
+		 * 
+		 * @param userId
+		 *        The user id.
+		 * @param function
+		 *        The function to open.
+		 * @param azGroupsByReference
+		 *        For each entity reference, the collection of AuthzGroup ids to consult.
+		 * @return the Set of the entity references for which the user is allowed.
+		 */
+		Set<String> getAllowedReferences(String userId, String function, Map<String, ? extends Collection<String>> azGroupsByReference);
+
+		/**
+		 * Test, in one go, which of these users are allowed to perform the function in the named AuthzGroups.
+		 * 
+		 * @param userIds
+		 *        The user ids to check.
+		 * @param function
+		 *        The function to open.
+		 * @param azGroups
+		 *        A collection of AuthzGroup ids to consult.
+		 * @return the Set of the user ids that are allowed.
+		 */
+		Set<String> getAllowedUsers(Collection<String> userIds, String function, Collection<String> azGroups);
+
 		/**
 		 * Get the set of user ids of users who are allowed to perform the function in the named AuthzGroups.
 		 * 
@@ -37,6 +37,7 @@ import org.sakaiproject.memory.api.Cache;
 import org.sakaiproject.memory.api.MemoryService;
 import org.sakaiproject.site.api.SiteService;
 import org.sakaiproject.time.api.Time;
+import org.sakaiproject.tool.api.Session;
 import org.sakaiproject.user.api.UserNotDefinedException;
 import org.sakaiproject.util.BaseDbFlatStorage;
 import org.sakaiproject.util.BaseResourceProperties;
@@ -1490,28 +1491,28 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 				}
 			});
 
-			fields = new Object[3];
-			fields[0] = caseId(azg.getId());
+			Object realmId = caseId(azg.getId());
 
 			// delete what we need to
 			sql = dbAuthzGroupSql.getDeleteRealmRoleFunction1Sql();
+			List<Object[]> rows = new ArrayList<Object[]>();
 			for (RoleAndFunction raf : toDelete)
 			{
-				fields[1] = raf.role;
-				fields[2] = raf.function;
-				m_sql.dbWrite(sql, fields);
+				rows.add(new Object[] { realmId, raf.role, raf.function });
 			}
+			m_sql.dbWriteBatch(null, sql, rows);
 
 			// add what we need to
 			sql = dbAuthzGroupSql.getInsertRealmRoleFunctionSql();
 
-			fields[0] = getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleFunction1Sql(), fields[0]);
+			realmId = getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleFunction1Sql(), realmId);
+			rows = new ArrayList<Object[]>();
 			for (RoleAndFunction raf : toAdd)
 			{
-				fields[1] = getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleFunction2Sql(), raf.role);
-				fields[2] = getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleFunction3Sql(), raf.function);
-				m_sql.dbWrite(sql, fields);
+				rows.add(new Object[] { realmId, getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleFunction2Sql(), raf.role),
+						getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleFunction3Sql(), raf.function) });
 			}
+			m_sql.dbWriteBatch(null, sql, rows);
 
             // KNL-1230 need to be able to tell when changes occur in the AZG
             HashSet<RoleAndFunction> lastChanged = new HashSet<RoleAndFunction>();
@@ -1575,31 +1576,27 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 				}
 			});
 
-			fields = new Object[5];
-			fields[0] = caseId(azg.getId());
+			Object realmId = caseId(azg.getId());
 
 			// delete what we need to
 			sql = dbAuthzGroupSql.getDeleteRealmRoleGroup1Sql();
+			List<Object[]> rows = new ArrayList<Object[]>();
 			for (UserAndRole uar : toDelete)
 			{
-				fields[1] = uar.role;
-				fields[2] = uar.userId;
-				fields[3] = uar.active ? "1" : "0";
-				fields[4] = uar.provided ? "1" : "0";
-				m_sql.dbWrite(sql, fields);
+				rows.add(new Object[] { realmId, uar.role, uar.userId, uar.active ? "1" : "0", uar.provided ? "1" : "0" });
 			}
+			m_sql.dbWriteBatch(null, sql, rows);
 
 			// add what we need to
 			sql = dbAuthzGroupSql.getInsertRealmRoleGroup1Sql();
-			fields[0] = getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleGroup1_1Sql(), fields[0]);
+			realmId = getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleGroup1_1Sql(), realmId);
+			rows = new ArrayList<Object[]>();
 			for (UserAndRole uar : toAdd)
 			{
-				fields[1] = uar.userId;
-				fields[2] = getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleGroup1_2Sql(), uar.role);
-				fields[3] = uar.active ? "1" : "0";
-				fields[4] = uar.provided ? "1" : "0";
-				m_sql.dbWrite(sql, fields);
+				rows.add(new Object[] { realmId, uar.userId, getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleGroup1_2Sql(), uar.role),
+						uar.active ? "1" : "0", uar.provided ? "1" : "0" });
 			}
+			m_sql.dbWriteBatch(null, sql, rows);
 		}
 
 		protected void save_REALM_PROVIDER(AuthzGroup azg)
@@ -1661,24 +1658,25 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 				}
 			});
 
-			fields = new Object[2];
-			fields[0] = caseId(azg.getId());
+			Object realmId = caseId(azg.getId());
 
 			// delete what we need to
 			sql = dbAuthzGroupSql.getDeleteRealmProvider2Sql();
+			List<Object[]> rows = new ArrayList<Object[]>();
 			for (String provider : toDelete)
 			{
-				fields[1] = provider;
-				m_sql.dbWrite(sql, fields);
+				rows.add(new Object[] { realmId, provider });
 			}
+			m_sql.dbWriteBatch(null, sql, rows);
 
 			// add what we need to
 			sql = dbAuthzGroupSql.getInsertRealmProviderSql();
+			rows = new ArrayList<Object[]>();
 			for (String provider : toAdd)
 			{
-				fields[1] = provider;
-				m_sql.dbWrite(sql, fields);
+				rows.add(new Object[] { realmId, provider });
 			}
+			m_sql.dbWriteBatch(null, sql, rows);
 		}
 
 		protected void save_REALM_ROLE_DESC(AuthzGroup azg)
@@ -1730,30 +1728,27 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 				}
 			});
 
-			fields = new Object[2];
-			fields[0] = caseId(azg.getId());
+			Object realmId = caseId(azg.getId());
 
 			// delete what we need to
 			sql = dbAuthzGroupSql.getDeleteRealmRoleDescription1Sql();
+			List<Object[]> rows = new ArrayList<Object[]>();
 			for (RoleAndDescription rad : toDelete)
 			{
-				fields[1] = rad.role;
-				m_sql.dbWrite(sql, fields);
+				rows.add(new Object[] { realmId, rad.role });
 			}
-
-			fields = new Object[4];
-			fields[0] = caseId(azg.getId());
+			m_sql.dbWriteBatch(null, sql, rows);
 
 			// add what we need to
 			sql = dbAuthzGroupSql.getInsertRealmRoleDescriptionSql();
-			fields[0] = getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleDescription1Sql(), fields[0]);
+			realmId = getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleDescription1Sql(), realmId);
+			rows = new ArrayList<Object[]>();
 			for (RoleAndDescription rad : toAdd)
 			{
-				fields[1] = getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleDescription2Sql(), rad.role);
-				fields[2] = rad.description;
-				fields[3] = rad.providerOnly ? "1" : "0";
-				m_sql.dbWrite(sql, fields);
+				rows.add(new Object[] { realmId, getValueForSubquery(dbAuthzGroupSql.getInsertRealmRoleDescription2Sql(), rad.role),
+						rad.description, rad.providerOnly ? "1" : "0" });
 			}
+			m_sql.dbWriteBatch(null, sql, rows);
 		}
 
 		public void cancel(AuthzGroup edit)
@@ -2159,6 +2154,275 @@ public abstract class DbAuthzGroupService extends BaseAuthzGroupService implemen
 		    return delegatedAccessGroupAndRole;
 		}
 
+		/**
+		 * {@inheritDoc}
+		 */
+		public Set<String> getAllowedReferences(String userId, String lock, Map<String, ? extends Collection<String>> azGroupsByReference)
+		{
+			Set<String> rv = new HashSet<String>();
+			if ((lock == null) || (azGroupsByReference == null) || azGroupsByReference.isEmpty()) return rv;
+
+			// roleswap and delegated access are worked out per site by isAllowed()
+			if ((userId != null) && userId.equals(sessionRoleOverrideUserId()))
+			{
+				for (Map.Entry<String, ? extends Collection<String>> entry : azGroupsByReference.entrySet())
+				{
+					if ((entry.getValue() != null) && !entry.getValue().isEmpty() && isAllowed(userId, lock, entry.getValue()))
+					{
+						rv.add(entry.getKey());
+					}
+				}
+				return rv;
+			}
+
+			Set<String> realms = new HashSet<String>();
+			for (Collection<String> azGroups : azGroupsByReference.values())
+			{
+				if (azGroups != null) realms.addAll(azGroups);
+			}
+			if (realms.isEmpty()) return rv;
+
+			Map<String, Set<Integer>> grants = readRealmFunctionRoleKeys(lock, realms);
+			if (grants.isEmpty()) return rv;
+
+			Map<String, Set<Integer>> memberRoles = null;
+			if (userId != null)
+			{
+				memberRoles = readRealmUserRoleKeys(realms, Collections.singleton(userId)).get(userId);
+			}
+			Set<Integer> emptyRoleKeys = getRealmRoleKeys(getEmptyRoles(userId));
+
+			for (Map.Entry<String, ? extends Collection<String>> entry : azGroupsByReference.entrySet())
+			{
+				if ((entry.getValue() != null) && isGranted(entry.getValue(), grants, memberRoles, emptyRoleKeys))
+				{
+					rv.add(entry.getKey());
+				}
+			}
+			return rv;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		public Set<String> getAllowedUsers(Collection<String> userIds, String lock, Collection<String> realms)
+		{
+			Set<String> rv = new HashSet<String>();
+			if ((userIds == null) || userIds.isEmpty() || (lock == null) || (realms == null) || realms.isEmpty()) return rv;
+
+			Set<String> users = new HashSet<String>(userIds);
+			users.remove(null);
+
+			// the current user's roleswap or delegated access is worked out by isAllowed(), everyone else together
+			String overridden = sessionRoleOverrideUserId();
+			if ((overridden != null) && users.remove(overridden) && isAllowed(overridden, lock, realms))
+			{
+				rv.add(overridden);
+			}
+			if (users.isEmpty()) return rv;
+
+			Map<String, Set<Integer>> grants = readRealmFunctionRoleKeys(lock, realms);
+			if (grants.isEmpty()) return rv;
+
+			Map<String, Map<String, Set<Integer>>> members = readRealmUserRoleKeys(realms, users);
+
+			// users often share the same provider roles, so only look up the keys once per set of roles
+			Map<Set<String>, Set<Integer>> emptyRoleKeys = new HashMap<Set<String>, Set<Integer>>();
+			for (String userId : users)
+			{
+				Set<String> roles = getEmptyRoles(userId);
+				Set<Integer> keys = emptyRoleKeys.get(roles);
+				if (keys == null)
+				{
+					keys = getRealmRoleKeys(roles);
+					emptyRoleKeys.put(roles, keys);
+				}
+				if (isGranted(realms, grants, members.get(userId), keys))
+				{
+					rv.add(userId);
+				}
+			}
+			return rv;
+		}
+
+		/**
+		 * Check, in memory, the way isAllowed() does in the database: some role granted the function in any of the realms is a role the
+		 * user has in any of the realms, or one of the user's empty (.anon, .auth, provided) roles.
+		 *
+		 * @param realms
+		 *        The realms of one entity.
+		 * @param grants
+		 *        The role keys granted the function, by realm id.
+		 * @param memberRoles
+		 *        The user's active role keys, by realm id - may be null.
+		 * @param emptyRoleKeys
+		 *        The keys of the user's empty roles.
+		 * @return true if the function is granted.
+		 */
+		protected boolean isGranted(Collection<String> realms, Map<String, Set<Integer>> grants, Map<String, Set<Integer>> memberRoles,
+				Set<Integer> emptyRoleKeys)
+		{
+			Set<Integer> roleKeys = new HashSet<Integer>(emptyRoleKeys);
+			if (memberRoles != null)
+			{
+				for (String realmId : realms)
+				{
+					Set<Integer> keys = memberRoles.get(realmId);
+					if (keys != null) roleKeys.addAll(keys);
+				}
+			}
+			if (roleKeys.isEmpty()) return false;
+
+			for (String realmId : realms)
+			{
+				Set<Integer> granted = grants.get(realmId);
+				if (granted == null) continue;
+				for (Integer key : granted)
+				{
+					if (roleKeys.contains(key)) return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Read the keys of the roles granted this function in each of these realms.
+		 *
+		 * @return the role keys, by realm id.
+		 */
+		protected Map<String, Set<Integer>> readRealmFunctionRoleKeys(String lock, Collection<String> realms)
+		{
+			final Map<String, Set<Integer>> rv = new HashMap<String, Set<Integer>>();
+			SqlReader reader = new SqlReader()
+			{
+				public Object readSqlResultRecord(ResultSet result)
+				{
+					try
+					{
+						String realmId = result.getString(1);
+						Set<Integer> keys = rv.get(realmId);
+						if (keys == null)
+						{
+							keys = new HashSet<Integer>();
+							rv.put(realmId, keys);
+						}
+						keys.add(result.getInt(2));
+					}
+					catch (SQLException e)
+					{
+						M_log.warn("readRealmFunctionRoleKeys: " + e);
+					}
+					return null;
+				}
+			};
+
+			for (List<String> realmSlice : slices(realms))
+			{
+				String sql = dbAuthzGroupSql.getSelectRealmFunctionRoleKeysSql(orInClause(realmSlice.size(), "SAKAI_REALM.REALM_ID"));
+				Object[] fields = new Object[1 + realmSlice.size()];
+				int pos = 0;
+				fields[pos++] = lock;
+				for (String realmId : realmSlice)
+				{
+					fields[pos++] = realmId;
+				}
+				m_sql.dbRead(sql, fields, reader);
+			}
+			return rv;
+		}
+
+		/**
+		 * Read the active role keys these users have in these realms.
+		 *
+		 * @return the role keys, by user id then realm id.
+		 */
+		protected Map<String, Map<String, Set<Integer>>> readRealmUserRoleKeys(Collection<String> realms, Collection<String> userIds)
+		{
+			final Map<String, Map<String, Set<Integer>>> rv = new HashMap<String, Map<String, Set<Integer>>>();
+			SqlReader reader = new SqlReader()
+			{
+				public Object readSqlResultRecord(ResultSet result)
+				{
+					try
+					{
+						String realmId = result.getString(1);
+						String user = result.getString(2);
+						Map<String, Set<Integer>> byRealm = rv.get(user);
+						if (byRealm == null)
+						{
+							byRealm = new HashMap<String, Set<Integer>>();
+							rv.put(user, byRealm);
+						}
+						Set<Integer> keys = byRealm.get(realmId);
+						if (keys == null)
+						{
+							keys = new HashSet<Integer>();
+							byRealm.put(realmId, keys);
+						}
+						keys.add(result.getInt(3));
+					}
+					catch (SQLException e)
+					{
+						M_log.warn("readRealmUserRoleKeys: " + e);
+					}
+					return null;
+				}
+			};
+
+			List<List<String>> userSlices = slices(userIds);
+			for (List<String> realmSlice : slices(realms))
+			{
+				for (List<String> userSlice : userSlices)
+				{
+					String sql = dbAuthzGroupSql.getSelectRealmUserRoleKeysSql(orInClause(realmSlice.size(), "SAKAI_REALM.REALM_ID"),
+							orInClause(userSlice.size(), "SAKAI_REALM_RL_GR.USER_ID"));
+					Object[] fields = new Object[realmSlice.size() + userSlice.size()];
+					int pos = 0;
+					for (String realmId : realmSlice)
+					{
+						fields[pos++] = realmId;
+					}
+					for (String userId : userSlice)
+					{
+						fields[pos++] = userId;
+					}
+					m_sql.dbRead(sql, fields, reader);
+				}
+			}
+			return rv;
+		}
+
+		/**
+		 * Split these ids up so that each in(?, ?, ...) clause stays inside MAX_IN_CLAUSE.
+		 */
+		protected List<List<String>> slices(Collection<String> ids)
+		{
+			List<String> all = new ArrayList<String>(ids);
+			List<List<String>> rv = new ArrayList<List<String>>();
+			for (int from = 0; from < all.size(); from += MAX_IN_CLAUSE)
+			{
+				rv.add(all.subList(from, Math.min(from + MAX_IN_CLAUSE, all.size())));
+			}
+			return rv;
+		}
+
+		/**
+		 * @return the current user's id if their session swaps a role (roleswap or delegated access), which the bulk checks leave to
+		 *         isAllowed(), or null.
+		 */
+		protected String sessionRoleOverrideUserId()
+		{
+			String userId = sessionManager().getCurrentSessionUserId();
+			Session session = sessionManager().getCurrentSession();
+			if ((userId == null) || (session == null)) return null;
+			if (session.getAttribute("delegatedaccess.accessmapflag") != null) return userId;
+			for (Enumeration<String> names = session.getAttributeNames(); names.hasMoreElements();)
+			{
+				if (names.nextElement().startsWith(SakaiSecurity.ROLESWAP_PREFIX)) return userId;
+			}
+			return null;
+		}
+
 		/**
 		 * {@inheritDoc}
 		 */
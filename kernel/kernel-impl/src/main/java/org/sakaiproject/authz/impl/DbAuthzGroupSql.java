@@ -132,6 +132,10 @@ public interface DbAuthzGroupSql
 	String getSelectRealmRoleGroupUserIdSql(String inClause1, String inClause2);
 
 	String getSelectRealmRoleGroupUserIdSql(String inClause);
+
+	String getSelectRealmFunctionRoleKeysSql(String inClause);
+
+	String getSelectRealmUserRoleKeysSql(String realmInClause, String userInClause);
 	
 	String getSelectRealmRoleGroupUserCountSql(String inClause);
 	
@@ -462,6 +462,23 @@ public class DbAuthzGroupSqlDefault implements DbAuthzGroupSql
 		return sqlBuf.toString();
 	}
 
+	public String getSelectRealmFunctionRoleKeysSql(String inClause)
+	{
+		return "select SAKAI_REALM.REALM_ID, SAKAI_REALM_RL_FN.ROLE_KEY "
+				+ "from SAKAI_REALM_RL_FN "
+				+ "inner join SAKAI_REALM ON SAKAI_REALM_RL_FN.REALM_KEY = SAKAI_REALM.REALM_KEY "
+				+ "inner join SAKAI_REALM_FUNCTION ON SAKAI_REALM_RL_FN.FUNCTION_KEY = SAKAI_REALM_FUNCTION.FUNCTION_KEY "
+				+ "where SAKAI_REALM_FUNCTION.FUNCTION_NAME = ? and " + inClause;
+	}
+
+	public String getSelectRealmUserRoleKeysSql(String realmInClause, String userInClause)
+	{
+		return "select SAKAI_REALM.REALM_ID, SAKAI_REALM_RL_GR.USER_ID, SAKAI_REALM_RL_GR.ROLE_KEY "
+				+ "from SAKAI_REALM_RL_GR "
+				+ "inner join SAKAI_REALM ON SAKAI_REALM_RL_GR.REALM_KEY = SAKAI_REALM.REALM_KEY "
+				+ "where SAKAI_REALM_RL_GR.ACTIVE = '1' and " + realmInClause + " and " + userInClause;
+	}
+
 	public String getSelectRealmRoleGroupUserIdSql(String inClause)
 	{
 		StringBuilder sqlBuf = new StringBuilder();
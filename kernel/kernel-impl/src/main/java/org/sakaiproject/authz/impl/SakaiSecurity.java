@@ -123,6 +123,15 @@ public abstract class SakaiSecurity implements SecurityService, Observer
 	/** The # minutes to cache the security answers. 0 disables the cache. */
 	protected int m_cacheMinutes = 3;
 
+	/** Index of the unlock cache keys by realm, and the unlock cache counters. */
+	protected UnlockCacheIndex m_cacheIndex = new UnlockCacheIndex();
+
+	/** If true, realm changes invalidate the keys found in m_cacheIndex rather than keys made up for every member. */
+	protected boolean m_useRealmIndex = false;
+
+	/** The most keys kept in m_cacheIndex before pruning the expired ones. */
+	protected int m_realmIndexMaxKeys = 100000;
+
 	/**
 	 * Set the # minutes to cache a security answer.
 	 * 
@@ -170,6 +179,12 @@ public abstract class SakaiSecurity implements SecurityService, Observer
 			m_callCache = memoryService().getCache("org.sakaiproject.authz.api.SecurityService.cache");
 			m_superCache = memoryService().getCache("org.sakaiproject.authz.api.SecurityService.superCache");
 			m_contentCache = memoryService().getCache("org.sakaiproject.authz.api.SecurityService.contentCache");
+
+			// the index only sees the keys added on this server, so it cannot be used with a distributed cache
+			m_useRealmIndex = serverConfigurationService.getBoolean("memory.SecurityService.realmIndex", true) && !m_callCache.isDistributed();
+			int maxKeys = serverConfigurationService.getInt("memory.SecurityService.realmIndex.maxKeys", m_realmIndexMaxKeys);
+			if (maxKeys > 0) m_realmIndexMaxKeys = maxKeys;
+			M_log.info("init(): unlock cache realm index: " + m_useRealmIndex + (m_useRealmIndex ? " maxKeys: " + m_realmIndexMaxKeys : ""));
 		}
         eventTrackingService().addObserver(this);
 	}
@@ -202,6 +217,11 @@ public abstract class SakaiSecurity implements SecurityService, Observer
                     result = (Boolean) m_contentCache.get(key);
                 } else {
                     result = (Boolean) m_callCache.get(key);
+                    if (result != null) {
+                        m_cacheIndex.hit();
+                    } else {
+                        m_cacheIndex.miss();
+                    }
                 }
             }
             // see note below about forced cache expiration
@@ -238,7 +258,18 @@ public abstract class SakaiSecurity implements SecurityService, Observer
                         M_log.info("SScache:ADD->content:"+key+"=>"+payload);
                     }
                 } else {
-                    m_callCache.put(key, payload);
+                    if (m_useRealmIndex) {
+                        m_cacheIndex.add(key);
+                        m_callCache.put(key, payload);
+                        if (!m_cacheIndex.contains(key)) {
+                            // the realm changed between the index and the put, this answer may already be stale
+                            m_callCache.remove(key);
+                        } else {
+                            boundCacheIndex();
+                        }
+                    } else {
+                        m_callCache.put(key, payload);
+                    }
                     if (cacheDebugDetailed) logCacheState("addToCache("+key+", "+payload+")");
                 }
             }
@@ -246,6 +277,39 @@ public abstract class SakaiSecurity implements SecurityService, Observer
         }
     }
 
+    /**
+     * Keep the realm index within its bounds, only called once the newly indexed key is in the cache so it is not pruned
+     */
+    void boundCacheIndex() {
+        if (m_cacheIndex.size() > m_realmIndexMaxKeys) {
+            synchronized (m_cacheIndex) {
+                if (m_cacheIndex.size() > m_realmIndexMaxKeys) {
+                    m_cacheIndex.prune(m_callCache);
+                    if (m_cacheIndex.size() > m_realmIndexMaxKeys) {
+                        // everything indexed is still cached, we cannot forget keys we may need to invalidate
+                        M_log.warn("SScache: realm index is full (" + m_cacheIndex.size() + " keys), clearing the cache - consider raising memory.SecurityService.realmIndex.maxKeys");
+                        clearCallCache();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Clear the unlock cache, and its realm index
+     */
+    void clearCallCache() {
+        m_callCache.clear();
+        m_cacheIndex.clear();
+    }
+
+    /**
+     * @return the unlock cache hit/miss counts and the realm invalidation counts and costs
+     */
+    public Map<String, Long> getUnlockCacheStatistics() {
+        return m_cacheIndex.getStatistics();
+    }
+
     /* KNL-1230: expiration happens based on the following plan:
     if (user.template, site.helper, etc. change) then clear entire security cache
     else if the perms in a site changes we loop through all possible site users and the changed permissions and remove all those entries from the cache (including the entry for the anon user - e.g. unlock@@...)
@@ -258,6 +322,8 @@ public abstract class SakaiSecurity implements SecurityService, Observer
     Getting all possible perms is cheap, that's in memory already
     Get all siteids for a user or all userids for a site might be a little more costly, but the idea is that this is a rare case
     Super user change is event: SiteService.SECURE_UPDATE_SITE_MEMBERSHIP with context !/site/admin
+    With memory.SecurityService.realmIndex (the default for a non-distributed cache) a realm change instead removes the keys recorded
+    for that realm's site in UnlockCacheIndex, which covers every user including .auth and .anon without any lookups.
      */
 
     /**
@@ -278,7 +344,7 @@ public abstract class SakaiSecurity implements SecurityService, Observer
             ) {
                 if (permissions != null && !permissions.isEmpty()) {
                     // when the !site.helper or !user.template change then we need to just wipe the entire cache, this is a rare event
-                    m_callCache.clear();
+                    clearCallCache();
                     if (cacheDebug) M_log.info("SScache:changed template:CLEAR:"+ref);
                     return true;
                 }
@@ -359,16 +425,32 @@ public abstract class SakaiSecurity implements SecurityService, Observer
     }
     */
 
+    /**
+     * Flush out the indexed unlock checks for an AuthzGroup, for every user and role
+     * @param azgRef an AuthzGroup reference (e.g. /site/123123-as-sda21-213-1-33233)
+     * @param permissions a set of permissions that changed (may be null or empty for all)
+     */
+    void cacheIndexedRealmPermsChanged(String azgRef, Set<String> permissions) {
+        Set<String> keysToInvalidate = m_cacheIndex.remove(azgRef, (permissions == null || permissions.isEmpty()) ? null : permissions);
+        m_callCache.removeAll(keysToInvalidate);
+        if (cacheDebug) M_log.info("SScache:changed "+azgRef+":indexed keys="+keysToInvalidate);
+    }
+
     /**
      * KNL-1230
      * Flush out unlock check caches based on changes to the permissions in an AuthzGroup
      * @param realmRef an AuthzGroup realm reference (e.g. /site/123123-as-sda21-213-1-33233)
-     * @param roles a set of roles that changed (may be null or empty)
+     * @param roles a set of roles that changed (may be null or empty), not used with the realm index
      * @param permissions a set of permissions that changed (may be null or empty)
      */
     void cacheRealmPermsChanged(String realmRef, Set<String> roles, Set<String> permissions) {
         if (m_callCache == null) return; // do nothing if no cache in use
         String azgRef = convertRealmRefToRef(realmRef);
+        if (m_useRealmIndex) {
+            // the index has every user's keys for the realm, so the roles are not needed
+            cacheIndexedRealmPermsChanged(azgRef, permissions);
+            return; // SHORT CIRCUIT
+        }
         if (permissions == null || permissions.isEmpty()) {
             List<String> allPerms = functionManager().getRegisteredFunctions();
             permissions = new HashSet<String>(allPerms);
@@ -396,7 +478,7 @@ public abstract class SakaiSecurity implements SecurityService, Observer
              * it could mean any possible user in the system so we cannot know which keys to invalidate.
              * We have to just flush the entire cache
              */
-            m_callCache.clear();
+            clearCallCache();
             if (cacheDebug) M_log.info("SScache:changed .auth:CLEAR and DONE");
             return; // SHORT CIRCUIT
         }
@@ -787,6 +869,141 @@ public abstract class SakaiSecurity implements SecurityService, Observer
 		return rv;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public Map<String, Boolean> unlockAll(String userId, String function, Collection<String> entityRefs)
+	{
+		Map<String, Boolean> rv = new LinkedHashMap<String, Boolean>();
+		if (entityRefs == null) return rv;
+		if (userId == null || function == null)
+		{
+			M_log.warn("unlockAll(): null: " + userId + " " + function);
+			for (String entityRef : entityRefs) rv.put(entityRef, Boolean.FALSE);
+			return rv;
+		}
+
+		// if super, grant
+		if (isSuperUser(userId))
+		{
+			for (String entityRef : entityRefs) rv.put(entityRef, Boolean.TRUE);
+			return rv;
+		}
+
+		// advisors and swapped roles are decided entity by entity
+		if (hasAdvisors() || hasSessionRoleOverride(userId))
+		{
+			for (String entityRef : entityRefs) rv.put(entityRef, unlock(userId, function, entityRef));
+			return rv;
+		}
+
+		// take what we can from the cache, collect the AuthzGroups of the rest
+		Map<String, Collection<String>> misses = new LinkedHashMap<String, Collection<String>>();
+		for (String entityRef : entityRefs)
+		{
+			if (entityRef == null) continue;
+			Boolean value = (m_callCache == null) ? null : getFromCache(makeCacheKey(userId, null, function, entityRef, false), false);
+			if (value != null)
+			{
+				rv.put(entityRef, value);
+			}
+			else
+			{
+				rv.put(entityRef, Boolean.FALSE);
+				Collection<String> azgs = entityManager().newReference(entityRef).getAuthzGroups(userId);
+				if (azgs != null && !azgs.isEmpty()) misses.put(entityRef, azgs);
+			}
+		}
+		if (misses.isEmpty()) return rv;
+
+		// one round trip for all the misses
+		Set<String> allowed = authzGroupService().getAllowedReferences(userId, function, misses);
+		for (String entityRef : misses.keySet())
+		{
+			boolean value = allowed.contains(entityRef);
+			rv.put(entityRef, value);
+			addToCache(makeCacheKey(userId, null, function, entityRef, false), value, false);
+		}
+		return rv;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public Map<String, Boolean> unlockAllUsers(Collection<String> userIds, String function, String entityRef)
+	{
+		Map<String, Boolean> rv = new LinkedHashMap<String, Boolean>();
+		if (userIds == null) return rv;
+		if (function == null || entityRef == null)
+		{
+			M_log.warn("unlockAllUsers(): null: " + function + " " + entityRef);
+			for (String userId : userIds) rv.put(userId, Boolean.FALSE);
+			return rv;
+		}
+
+		boolean advisors = hasAdvisors();
+		Reference ref = entityManager().newReference(entityRef);
+
+		// the AuthzGroups can depend on the user (a user's own site), so group the misses by them
+		Map<Collection<String>, List<String>> misses = new HashMap<Collection<String>, List<String>>();
+		for (String userId : userIds)
+		{
+			if (userId == null) continue;
+			if (advisors || hasSessionRoleOverride(userId) || isSuperUser(userId))
+			{
+				rv.put(userId, unlock(userId, function, entityRef));
+				continue;
+			}
+
+			Boolean value = (m_callCache == null) ? null : getFromCache(makeCacheKey(userId, null, function, entityRef, false), false);
+			if (value != null)
+			{
+				rv.put(userId, value);
+				continue;
+			}
+
+			rv.put(userId, Boolean.FALSE);
+			Collection<String> azgs = ref.getAuthzGroups(userId);
+			if (azgs == null || azgs.isEmpty()) continue;
+			List<String> users = misses.get(azgs);
+			if (users == null)
+			{
+				users = new ArrayList<String>();
+				misses.put(azgs, users);
+			}
+			users.add(userId);
+		}
+
+		for (Map.Entry<Collection<String>, List<String>> entry : misses.entrySet())
+		{
+			Set<String> allowed = authzGroupService().getAllowedUsers(entry.getValue(), function, entry.getKey());
+			for (String userId : entry.getValue())
+			{
+				boolean value = allowed.contains(userId);
+				rv.put(userId, value);
+				addToCache(makeCacheKey(userId, null, function, entityRef, false), value, false);
+			}
+		}
+		return rv;
+	}
+
+	/**
+	 * Is this the current user, with a swapped role (roleswap or delegated access) in their session? If so the bulk checks leave the
+	 * answer to unlock().
+	 */
+	protected boolean hasSessionRoleOverride(String userId)
+	{
+		if (!userId.equals(sessionManager().getCurrentSessionUserId())) return false;
+		Session session = sessionManager().getCurrentSession();
+		if (session == null) return false;
+		if (session.getAttribute("delegatedaccess.accessmapflag") != null) return true;
+		for (Enumeration<String> names = session.getAttributeNames(); names.hasMoreElements();)
+		{
+			if (names.nextElement().startsWith(ROLESWAP_PREFIX)) return true;
+		}
+		return false;
+	}
+
 	/**
 	 * Access the List the Users who can unlock the lock for use with this resource.
 	 * 
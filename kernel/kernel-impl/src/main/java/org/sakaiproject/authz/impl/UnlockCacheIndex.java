@@ -0,0 +1,240 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2016 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.authz.impl;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sakaiproject.memory.api.Cache;
+
+/**
+ * <p>
+ * UnlockCacheIndex remembers which unlock cache keys were added for each realm, so a realm change can remove exactly the cached answers
+ * for that realm rather than guessing keys member by member, or clearing the whole cache.
+ * </p>
+ * <p>
+ * Keys are grouped by site: a key for /site/123, /site/123/group/456 or /site/123/page/789 all go under /site/123, so invalidating any
+ * realm of a site removes the matching answers for all of them. That may remove a little more than needed, never less.
+ * </p>
+ * <p>
+ * The index is local to this server. It only sees keys added here, so it is only used with a cache that is not distributed.
+ * </p>
+ */
+class UnlockCacheIndex
+{
+	protected static final String SITE_PREFIX = "/site/";
+
+	/** cache keys, by site (or other realm) reference */
+	protected final ConcurrentHashMap<String, Set<String>> m_keysByRealm = new ConcurrentHashMap<String, Set<String>>();
+
+	/** the number of keys in the index (approximate while being updated) */
+	protected final AtomicInteger m_size = new AtomicInteger();
+
+	protected final AtomicLong m_hits = new AtomicLong();
+
+	protected final AtomicLong m_misses = new AtomicLong();
+
+	protected final AtomicLong m_invalidations = new AtomicLong();
+
+	protected final AtomicLong m_invalidatedKeys = new AtomicLong();
+
+	protected final AtomicLong m_invalidationNanos = new AtomicLong();
+
+	protected final AtomicLong m_clears = new AtomicLong();
+
+	/**
+	 * Find the reference part of an unlock cache key (unlock@{userId}@{role}@{function}@{reference}).
+	 *
+	 * @return the index of the "@" in front of the reference, or -1 if this is not an unlock key.
+	 */
+	protected static int referenceStart(String key)
+	{
+		// user ids may contain @, references always start with /
+		return (key == null || !key.startsWith("unlock@")) ? -1 : key.indexOf("@/");
+	}
+
+	/**
+	 * @return the index bucket for this reference - the site reference for anything in a site.
+	 */
+	protected static String bucket(String reference)
+	{
+		if (reference.startsWith(SITE_PREFIX))
+		{
+			int end = reference.indexOf('/', SITE_PREFIX.length());
+			if (end > 0) return reference.substring(0, end);
+		}
+		return reference;
+	}
+
+	/**
+	 * @return the function part of an unlock cache key.
+	 */
+	protected static String function(String key, int referenceStart)
+	{
+		return key.substring(key.lastIndexOf('@', referenceStart - 1) + 1, referenceStart);
+	}
+
+	/**
+	 * Record that this key is about to be put in the cache.
+	 *
+	 * @param key
+	 *        An unlock cache key.
+	 */
+	void add(String key)
+	{
+		int start = referenceStart(key);
+		if (start < 0) return;
+
+		String bucket = bucket(key.substring(start + 1));
+		Set<String> keys = m_keysByRealm.computeIfAbsent(bucket, k -> ConcurrentHashMap.newKeySet());
+		if (keys.add(key))
+		{
+			m_size.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return true if this key is in the index, false if it was never added or has been taken out since.
+	 */
+	boolean contains(String key)
+	{
+		int start = referenceStart(key);
+		if (start < 0) return false;
+
+		Set<String> keys = m_keysByRealm.get(bucket(key.substring(start + 1)));
+		return keys != null && keys.contains(key);
+	}
+
+	/**
+	 * Take out of the index the keys for this realm, for these functions.
+	 *
+	 * @param realmRef
+	 *        The realm (azg) reference, like /site/123 or /site/123/group/456.
+	 * @param functions
+	 *        The functions to take out, or null for all.
+	 * @return the keys taken out, to be removed from the cache.
+	 */
+	Set<String> remove(String realmRef, Set<String> functions)
+	{
+		long start = System.nanoTime();
+		Set<String> rv = new HashSet<String>();
+		Set<String> keys = m_keysByRealm.get(bucket(realmRef));
+		if (keys != null)
+		{
+			for (Iterator<String> i = keys.iterator(); i.hasNext();)
+			{
+				String key = i.next();
+				if (functions == null || functions.contains(function(key, referenceStart(key))))
+				{
+					i.remove();
+					m_size.decrementAndGet();
+					rv.add(key);
+				}
+			}
+		}
+		m_invalidations.incrementAndGet();
+		m_invalidatedKeys.addAndGet(rv.size());
+		m_invalidationNanos.addAndGet(System.nanoTime() - start);
+		return rv;
+	}
+
+	/**
+	 * Forget everything - the cache was cleared.
+	 */
+	void clear()
+	{
+		m_keysByRealm.clear();
+		m_size.set(0);
+		m_clears.incrementAndGet();
+	}
+
+	/**
+	 * Drop the keys that are no longer in the cache (expired or evicted).
+	 *
+	 * @param cache
+	 *        The unlock cache.
+	 */
+	void prune(Cache cache)
+	{
+		for (Iterator<Set<String>> buckets = m_keysByRealm.values().iterator(); buckets.hasNext();)
+		{
+			Set<String> keys = buckets.next();
+			for (Iterator<String> i = keys.iterator(); i.hasNext();)
+			{
+				if (!cache.containsKey(i.next()))
+				{
+					i.remove();
+					m_size.decrementAndGet();
+				}
+			}
+			if (keys.isEmpty())
+			{
+				buckets.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of keys in the index.
+	 */
+	int size()
+	{
+		return m_size.get();
+	}
+
+	void hit()
+	{
+		m_hits.incrementAndGet();
+	}
+
+	void miss()
+	{
+		m_misses.incrementAndGet();
+	}
+
+	/**
+	 * @return the cache and invalidation counters, by name.
+	 */
+	Map<String, Long> getStatistics()
+	{
+		Map<String, Long> rv = new LinkedHashMap<String, Long>();
+		long hits = m_hits.get();
+		long misses = m_misses.get();
+		long invalidations = m_invalidations.get();
+		rv.put("hits", hits);
+		rv.put("misses", misses);
+		rv.put("hitRatePercent", (hits + misses) == 0 ? 0 : (hits * 100) / (hits + misses));
+		rv.put("indexedKeys", (long) m_size.get());
+		rv.put("indexedRealms", (long) m_keysByRealm.size());
+		rv.put("invalidations", invalidations);
+		rv.put("invalidatedKeys", m_invalidatedKeys.get());
+		rv.put("averageInvalidationMicros", invalidations == 0 ? 0 : m_invalidationNanos.get() / invalidations / 1000);
+		rv.put("clears", m_clears.get());
+		return rv;
+	}
+}
@@ -304,6 +304,20 @@ public class DbContentService extends BaseContentService
         m_convertToFile = Boolean.valueOf(value).booleanValue();
     }
 
+    /** Set if records still held as xml are to be rewritten in the binary form, in the background, as they are read. */
+    protected boolean m_upgradeOnRead = true;
+
+    /**
+     * Configuration: rewrite xml records in the binary form as they are read (only while both forms are in the tables).
+     * 
+     * @param value
+     *        The upgrade on read value.
+     */
+    public void setUpgradeOnRead(String value)
+    {
+        m_upgradeOnRead = Boolean.valueOf(value).booleanValue();
+    }
+
     /** Configuration: to run the ddl on init or not. */
     protected boolean m_autoDdl = false;
 
@@ -1090,8 +1104,10 @@ public class DbContentService extends BaseContentService
 
             if (migrateData && binaryCollection && xmlCollection) {
                 // build the collection store - a single level store
-                m_collectionStore = new BaseDbDualSingleStorage(m_collectionTableName, "COLLECTION_ID", COLLECTION_FIELDS, m_locksInDb, "collection",
+                BaseDbDualSingleStorage collectionStore = new BaseDbDualSingleStorage(m_collectionTableName, "COLLECTION_ID", COLLECTION_FIELDS, m_locksInDb, "collection",
                         collectionUser, m_sqlService);
+                collectionStore.setUpgradeOnRead(m_upgradeOnRead);
+                m_collectionStore = collectionStore;
                 m_collectionStorageFields = BaseDbDualSingleStorage.STORAGE_FIELDS;
 
             } else if ( migrateData && binaryCollection) {
@@ -1110,9 +1126,11 @@ public class DbContentService extends BaseContentService
 
             if (  migrateData && binaryResource && xmlResource) {
                 // build the resources store - a single level store
-                m_resourceStore = new BaseDbDualSingleStorage(m_resourceTableName, "RESOURCE_ID", 
+                BaseDbDualSingleStorage resourceStore = new BaseDbDualSingleStorage(m_resourceTableName, "RESOURCE_ID", 
                         (bodyInFile ? RESOURCE_FIELDS_FILE_CONTEXT : RESOURCE_FIELDS_CONTEXT ),
                         m_locksInDb, "resource", resourceUser, m_sqlService);
+                resourceStore.setUpgradeOnRead(m_upgradeOnRead);
+                m_resourceStore = resourceStore;
                 m_resourceStorageFields = BaseDbDualSingleStorage.STORAGE_FIELDS;
 
             } else if ( migrateData && binaryResource) {
@@ -1,48 +1,85 @@
 package org.sakaiproject.content.impl;
 
+import java.lang.management.ManagementFactory;
 import java.util.Calendar;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.atomic.AtomicReference;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-class Telemetry {
+// Records observations without taking a lock.  Each recording thread is
+// mapped onto one of a set of stripes, and a stripe is just an array of
+// counters (operation count, byte total and two log-linear histograms) that
+// are bumped with atomic adds.  Threads only contend when they share a stripe,
+// and then only on a single CAS.
+//
+// The aggregation thread drains each counter with getAndSet(0), so every
+// observation lands in exactly one timestep and recorders never wait for it.
+class Telemetry implements TelemetryMXBean {
     private final int NO_REPORT_YET = -1;
 
-    private final Object mutex = new Object();
-    private int lastWritePos = -1;
-    private boolean overflowed = false;
+    // Per stripe layout: [count, bytes, size histogram..., latency histogram...]
+    private static final int COUNT = 0;
+    private static final int BYTES = 1;
+    private static final int SIZES = 2;
+    private static final int LATENCIES = SIZES + TelemetryHistogram.BUCKET_COUNT;
+    private static final int STRIPE_LENGTH = LATENCIES + TelemetryHistogram.BUCKET_COUNT;
+
+    private final String name;
+    private final AtomicLongArray[] stripes;
+    private final int stripeMask;
 
-    private int maxObservationCount;
     private int reportPeriod;
     private int timestepPeriod;
     private int timestepsPerReport;
-    private long[] observations;
 
     private AtomicLong lastReportTime = new AtomicLong(NO_REPORT_YET);
     private AtomicLong operationsPending = new AtomicLong(0);
+    private AtomicLong operationsCompletedTotal = new AtomicLong(0);
     private AtomicReference<TelemetryReport> lastReport = new AtomicReference<>();
     private Semaphore reportReadySemaphore = new Semaphore(0);
 
     private Logger log;
 
-    public Telemetry(Logger log, int timestepPeriod, int reportPeriod, int maxObservationCount) {
-        this.log = log;
-        this.timestepPeriod = timestepPeriod;
-        this.reportPeriod = reportPeriod;
-        this.maxObservationCount = maxObservationCount;
-        this.observations = new long[maxObservationCount];
+    // Build a recorder and start its aggregation and report threads.  The
+    // results are also published over JMX as
+    // org.sakaiproject.content:type=Telemetry,name=`name`.
+    public static Telemetry start(Logger log, String name, int timestepPeriod, int reportPeriod) {
+        Telemetry t = new Telemetry(log, name, timestepPeriod, reportPeriod);
 
-        timestepsPerReport = (reportPeriod / timestepPeriod);
-
-        Thread aggregation = new Thread(() -> { runAggregationLoop(); });
+        Thread aggregation = new Thread(() -> { t.runAggregationLoop(); }, "Sakai-Telemetry-" + name + "-aggregation");
         aggregation.setDaemon(true);
         aggregation.start();
 
-        Thread report = new Thread(() -> { runReportLoop(); });
+        Thread report = new Thread(() -> { t.runReportLoop(); }, "Sakai-Telemetry-" + name + "-report");
         report.setDaemon(true);
         report.start();
+
+        t.registerMBean();
+
+        return t;
+    }
+
+    Telemetry(Logger log, String name, int timestepPeriod, int reportPeriod) {
+        this.log = log;
+        this.name = name;
+        this.timestepPeriod = timestepPeriod;
+        this.reportPeriod = reportPeriod;
+
+        timestepsPerReport = (reportPeriod / timestepPeriod);
+
+        // A power of two, about twice the CPU count, so a mask picks the stripe
+        int stripeCount = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2) - 1) << 1;
+        stripeCount = Math.min(Math.max(stripeCount, 2), 64);
+        stripeMask = stripeCount - 1;
+        stripes = new AtomicLongArray[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new AtomicLongArray(STRIPE_LENGTH);
+        }
     }
 
     public void operationPending() {
@@ -54,22 +91,40 @@ class Telemetry {
     }
 
     // Log a single observation and get out of the way as quickly as we can.
-    public void addObservation(int observation) {
-        synchronized(mutex) {
-            lastWritePos++;
+    // `bytes` is the size of the transfer and `nanos` how long it took.  A
+    // negative size (end of stream) carries no data and is not counted.
+    public void addObservation(int bytes, long nanos) {
+        if (bytes < 0) {
+            return;
+        }
 
-            if (lastWritePos >= maxObservationCount) {
-                overflowed = true;
-                lastWritePos = 0;
-            }
+        long id = Thread.currentThread().getId();
+        AtomicLongArray stripe = stripes[(int) (id ^ (id >>> 16)) & stripeMask];
+
+        stripe.incrementAndGet(COUNT);
+        stripe.addAndGet(BYTES, bytes);
+        stripe.incrementAndGet(SIZES + TelemetryHistogram.bucket(bytes));
+        stripe.incrementAndGet(LATENCIES + TelemetryHistogram.bucket(nanos / 1000));
+    }
 
-            observations[lastWritePos] = observation;
+    // Move everything recorded since the last call into `timestep` and the
+    // report histograms.  Never blocks the recording threads.
+    void drainInto(TelemetryReport report, int timestep) {
+        for (AtomicLongArray stripe : stripes) {
+            // A recorder racing with us may land its count in this timestep
+            // and its buckets in the next one, which is fine for a report.
+            report.operationsCompletedCount += stripe.getAndSet(COUNT, 0);
+            report.observationSums[timestep] += stripe.getAndSet(BYTES, 0);
+
+            for (int i = 0; i < TelemetryHistogram.BUCKET_COUNT; i++) {
+                report.sizes[i] += stripe.getAndSet(SIZES + i, 0);
+                report.latencies[i] += stripe.getAndSet(LATENCIES + i, 0);
+            }
         }
     }
 
     // Dart in and roll up the observations we've seen in the last timestep.
-    // Periodically publishes a report to be logged.  On the critical path,
-    // since it holds up observations being written while running.
+    // Periodically publishes a report to be logged.
     private void runAggregationLoop() {
         int currentTimestep = -1;
         TelemetryReport report = new TelemetryReport(timestepsPerReport);
@@ -82,10 +137,7 @@ class Telemetry {
             Thread.sleep(60000 - (now.get(Calendar.SECOND) * 1000) + (now.get(Calendar.MILLISECOND)));
 
             // Discard our partial readings
-            synchronized (mutex) {
-                lastWritePos = -1;
-                overflowed = false;
-            }
+            drainInto(new TelemetryReport(1), 0);
 
         } catch (InterruptedException e) {}
 
@@ -98,34 +150,19 @@ class Telemetry {
                 break;
             }
 
-            synchronized (mutex) {
-                if (overflowed) {
-                    overflowed = false;
-
-                    report.observationSums[currentTimestep] = -1;
-                    report.operationsPendingCounts[currentTimestep] = -1;
-                } else {
-                    report.operationsPendingCounts[currentTimestep] = operationsPending.get();
-                    report.operationsCompletedCount += lastWritePos + 1;
-
-                    for (int i = 0; i <= lastWritePos; i++) {
-                        report.observationSums[currentTimestep] += observations[i];
-                    }
+            report.operationsPendingCounts[currentTimestep] = operationsPending.get();
+            drainInto(report, currentTimestep);
 
-                    // The next timestep will write at 0
-                    lastWritePos = -1;
-                }
-
-                // Publish our report for the last `reportPeriod` if we've
-                // got a full set.
-                if (currentTimestep + 1 == timestepsPerReport) {
-                    lastReport.set(report);
-                    lastReportTime.set(System.currentTimeMillis());
-                    reportReadySemaphore.release();
+            // Publish our report for the last `reportPeriod` if we've
+            // got a full set.
+            if (currentTimestep + 1 == timestepsPerReport) {
+                operationsCompletedTotal.addAndGet(report.operationsCompletedCount);
+                lastReport.set(report);
+                lastReportTime.set(System.currentTimeMillis());
+                reportReadySemaphore.release();
 
-                    currentTimestep = -1;
-                    report = new TelemetryReport(timestepsPerReport);
-                }
+                currentTimestep = -1;
+                report = new TelemetryReport(timestepsPerReport);
             }
         }
     }
@@ -146,87 +183,131 @@ class Telemetry {
                 TelemetryReport report = lastReport.get();
                 long now = lastReportTime.get();
 
-                long minimumTransfer = Long.MAX_VALUE;
-                long maximumTransfer = Long.MIN_VALUE;
-                long totalTransfer = 0;
+                String summary = summarize(report);
+                if (summary.length() > 0) {
+                    log.info(now + " " + summary);
+                }
 
-                long minimumPending = Long.MAX_VALUE;
-                long maximumPending = Long.MIN_VALUE;
-                long totalPending = 0;
+                lastSeenReportTime = now;
+            }
+        }
+    }
 
-                int validTimestepCount = 0;
+    String summarize(TelemetryReport report) {
+        long minimumTransfer = Long.MAX_VALUE;
+        long maximumTransfer = Long.MIN_VALUE;
+        long totalTransfer = 0;
 
-                for (int i = 0; i < timestepsPerReport; i++) {
-                    if (report.observationSums[i] < 0) {
-                        log.warn("WARNING: circular buffer overflowed.  Skipping this observation.");
-                        continue;
-                    }
+        long minimumPending = Long.MAX_VALUE;
+        long maximumPending = Long.MIN_VALUE;
+        long totalPending = 0;
 
-                    validTimestepCount += 1;
+        for (int i = 0; i < timestepsPerReport; i++) {
+            minimumTransfer = Math.min(minimumTransfer, report.observationSums[i]);
+            maximumTransfer = Math.max(maximumTransfer, report.observationSums[i]);
+            totalTransfer += report.observationSums[i];
 
-                    if (report.observationSums[i] < minimumTransfer) {
-                        minimumTransfer = report.observationSums[i];
-                    }
+            minimumPending = Math.min(minimumPending, report.operationsPendingCounts[i]);
+            maximumPending = Math.max(maximumPending, report.operationsPendingCounts[i]);
+            totalPending += report.operationsPendingCounts[i];
+        }
 
-                    if (report.observationSums[i] > maximumTransfer) {
-                        maximumTransfer = report.observationSums[i];
-                    }
+        StringBuilder sb = new StringBuilder();
 
-                    totalTransfer += report.observationSums[i];
+        if (timestepsPerReport > 0) {
+            sb.append(String.format("minimum xfr=%.2f KB/s", (minimumTransfer / (timestepPeriod / 1000.0) / 1024.0)));
+            sb.append(String.format("; maximum xfr=%.2f KB/s", (maximumTransfer / (timestepPeriod / 1000.0) / 1024.0)));
+            sb.append(String.format("; average xfr=%.2f KB/s", (totalTransfer / timestepsPerReport / (timestepPeriod / 1000.0) / 1024.0)));
+            sb.append(String.format("; minimum pending=%d", minimumPending));
+            sb.append(String.format("; maximum pending=%d", maximumPending));
+            sb.append(String.format("; average pending=%.2f", ((float)totalPending / timestepsPerReport)));
+            sb.append("; operations_completed=" + report.operationsCompletedCount);
+        }
 
-                    if (report.operationsPendingCounts[i] < minimumPending) {
-                        minimumPending = report.operationsPendingCounts[i];
-                    }
+        if (report.operationsCompletedCount > 0) {
+            sb.append(String.format("; size p50/p99/p999=%d/%d/%d bytes",
+                    TelemetryHistogram.percentile(report.sizes, 50.0),
+                    TelemetryHistogram.percentile(report.sizes, 99.0),
+                    TelemetryHistogram.percentile(report.sizes, 99.9)));
+            sb.append(String.format("; latency p50/p99/p999=%d/%d/%d us",
+                    TelemetryHistogram.percentile(report.latencies, 50.0),
+                    TelemetryHistogram.percentile(report.latencies, 99.0),
+                    TelemetryHistogram.percentile(report.latencies, 99.9)));
+        }
 
-                    if (report.operationsPendingCounts[i] > maximumPending) {
-                        maximumPending = report.operationsPendingCounts[i];
-                    }
+        return sb.toString();
+    }
 
-                    totalPending += report.operationsPendingCounts[i];
-                }
+    private void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("org.sakaiproject.content:type=Telemetry,name=" + name);
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(new StandardMBean(this, TelemetryMXBean.class, true), objectName);
+            }
+        } catch (Exception e) {
+            log.warn("Could not register telemetry " + name + " with JMX: " + e);
+        }
+    }
 
-                StringBuilder sb = new StringBuilder();
 
-                if (minimumTransfer != Long.MAX_VALUE) {
-                    sb.append(String.format("minimum xfr=%.2f KB/s", (minimumTransfer / (timestepPeriod / 1000.0) / 1024.0)));
-                }
-                if (maximumTransfer != Long.MIN_VALUE) {
-                    if (sb.length() > 0) { sb.append("; "); }
-                    sb.append(String.format("maximum xfr=%.2f KB/s", (maximumTransfer / (timestepPeriod / 1000.0) / 1024.0)));
-                }
-                if (validTimestepCount > 0) {
-                    if (sb.length() > 0) { sb.append("; "); }
-                    sb.append(String.format("average xfr=%.2f KB/s", (totalTransfer / validTimestepCount / (timestepPeriod / 1000.0) / 1024.0)));
-                }
+    // JMX: all figures are for the last published report period.
 
-                if (minimumPending != Long.MAX_VALUE) {
-                    if (sb.length() > 0) { sb.append("; "); }
-                    sb.append(String.format("minimum pending=%d", minimumPending));
-                }
-                if (maximumPending != Long.MIN_VALUE) {
-                    if (sb.length() > 0) { sb.append("; "); }
-                    sb.append(String.format("maximum pending=%d", maximumPending));
-                }
-                if (validTimestepCount > 0) {
-                    if (sb.length() > 0) { sb.append("; "); }
-                    sb.append(String.format("average pending=%.2f", ((float)totalPending / validTimestepCount)));
-                }
+    public long getReportTime() {
+        return lastReportTime.get();
+    }
 
-                if (sb.length() > 0) {
-                    sb.append("; operations_completed=" + report.operationsCompletedCount);
-                    log.info(now + " " + sb.toString());
-                }
+    public long getOperationsPending() {
+        return operationsPending.get();
+    }
 
-                lastSeenReportTime = now;
-            }
+    public long getOperationsCompleted() {
+        TelemetryReport report = lastReport.get();
+        return (report == null) ? 0 : report.operationsCompletedCount;
+    }
+
+    public long getOperationsCompletedTotal() {
+        return operationsCompletedTotal.get();
+    }
+
+    public double getAverageKilobytesPerSecond() {
+        TelemetryReport report = lastReport.get();
+        if (report == null || timestepsPerReport == 0) {
+            return 0;
         }
+
+        long total = 0;
+        for (long sum : report.observationSums) {
+            total += sum;
+        }
+        return total / (reportPeriod / 1000.0) / 1024.0;
+    }
+
+    public long getSizeP50() { return sizePercentile(50.0); }
+    public long getSizeP99() { return sizePercentile(99.0); }
+    public long getSizeP999() { return sizePercentile(99.9); }
+
+    public long getLatencyMicrosP50() { return latencyPercentile(50.0); }
+    public long getLatencyMicrosP99() { return latencyPercentile(99.0); }
+    public long getLatencyMicrosP999() { return latencyPercentile(99.9); }
+
+    private long sizePercentile(double percentile) {
+        TelemetryReport report = lastReport.get();
+        return (report == null) ? 0 : TelemetryHistogram.percentile(report.sizes, percentile);
+    }
+
+    private long latencyPercentile(double percentile) {
+        TelemetryReport report = lastReport.get();
+        return (report == null) ? 0 : TelemetryHistogram.percentile(report.latencies, percentile);
     }
 
 
-    private static class TelemetryReport {
+    static class TelemetryReport {
         public long[] observationSums;
         public long[] operationsPendingCounts;
         public long operationsCompletedCount;
+        public long[] sizes = new long[TelemetryHistogram.BUCKET_COUNT];
+        public long[] latencies = new long[TelemetryHistogram.BUCKET_COUNT];
 
         public TelemetryReport(int timestepsPerReport) {
             observationSums = new long[timestepsPerReport];
@@ -11,26 +11,23 @@ package org.sakaiproject.content.impl;
 //
 // Makes reasonable attempts to be robust and low-overhead.  Here's the plan:
 //
-//   * Each TelemetryFileInputStream instance logs the size of each read to a
-//     shared Telemetry instance.  Right now that means taking a mutex, but it
-//     isn't held for long.  The observation is written to a circular buffer and
-//     we cross our fingers that we don't run out of space.
+//   * Each TelemetryFileInputStream instance logs the size and duration of
+//     each read to a shared Telemetry instance.  No lock is taken: the
+//     observation bumps a few counters in one of a set of striped arrays
+//     (picked by thread), including HDR-style histograms of size and latency.
 //
-//   * An aggregation thread wakes up periodically (1 second by default), grabs
-//     the mutex and tallies up the observations seen in the last second.  The
-//     aggregated "timestep" total is written to a second array, and the
-//     circular buffer is cleared.
+//   * An aggregation thread wakes up periodically (1 second by default) and
+//     drains the stripes with atomic get-and-reset, so readers never wait for
+//     it.  The aggregated "timestep" total is written to a second array.
 //
 //   * When we have accumulated enough timestep values to cover a report period,
 //     we publish a copy of the array (via AtomicReference).  The goal here is
 //     to decouple the (critical path) aggregation process from IO.
 //
 //   * A third reporting thread wakes up periodically and checks to see whether a
-//     new report has been published.  If so, it logs it.
-//
-// If the circular buffer fills up, it just wraps around but shouldn't cause
-// problems.  A warning is logged if that happens and the affected stats are
-// skipped.
+//     new report has been published.  If so, it logs it, with p50/p99/p999
+//     figures.  The last report is also available over JMX as
+//     org.sakaiproject.content:type=Telemetry,name=read (or write).
 //
 // If logging stalls for some reason, it shouldn't matter: the aggregation
 // thread will just publish reports that nobody ever reads.  Some people make
@@ -49,21 +46,15 @@ public class TelemetryFileInputStream extends FileInputStream {
 
     private static Logger log = LoggerFactory.getLogger(TelemetryFileInputStream.class);
 
-    // The maximum number of observations you're expecting to receive during
-    // `timestepPeriod`.  If you exceed this we'll wrap around and lose
-    // data, but that case is detected and the report is discarded.
-    //
-    private static final int MAX_OBSERVATION_COUNT = 1000000;
-
     // How often we'll log some stats
     private static final int REPORT_PERIOD = 60000;
 
     // How often we'll roll up the observations seen so far.  Bigger number
-    // means lower overhead but longer pauses.
+    // means lower overhead.
     private static final int TIMESTEP_PERIOD = 1000;
 
 
-    private static Telemetry t = new Telemetry(log, TIMESTEP_PERIOD, REPORT_PERIOD, MAX_OBSERVATION_COUNT);
+    private static Telemetry t = Telemetry.start(log, "read", TIMESTEP_PERIOD, REPORT_PERIOD);
 
     public TelemetryFileInputStream(String s) throws FileNotFoundException {
         super(s);
@@ -93,8 +84,9 @@ public class TelemetryFileInputStream extends FileInputStream {
 
         t.operationPending();
         try {
+            long start = System.nanoTime();
             result = super.read(b);
-            t.addObservation(result);
+            t.addObservation(result, System.nanoTime() - start);
         } finally {
             t.operationComplete();
         }
@@ -109,8 +101,9 @@ public class TelemetryFileInputStream extends FileInputStream {
 
         t.operationPending();
         try {
+            long start = System.nanoTime();
             result = super.read(b, off, len);
-            t.addObservation(result);
+            t.addObservation(result, System.nanoTime() - start);
         } finally {
             t.operationComplete();
         }
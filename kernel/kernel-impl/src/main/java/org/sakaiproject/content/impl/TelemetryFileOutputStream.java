@@ -13,21 +13,15 @@ public class TelemetryFileOutputStream extends FileOutputStream {
 
     private static Logger log = LoggerFactory.getLogger(TelemetryFileOutputStream.class);
 
-    // The maximum number of observations you're expecting to receive during
-    // `timestepPeriod`.  If you exceed this we'll wrap around and lose
-    // data, but that case is detected and the report is discarded.
-    //
-    private static final int MAX_OBSERVATION_COUNT = 1000000;
-
     // How often we'll log some stats
     private static final int REPORT_PERIOD = 60000;
 
     // How often we'll roll up the observations seen so far.  Bigger number
-    // means lower overhead but longer pauses.
+    // means lower overhead.
     private static final int TIMESTEP_PERIOD = 1000;
 
 
-    private static Telemetry t = new Telemetry(log, TIMESTEP_PERIOD, REPORT_PERIOD, MAX_OBSERVATION_COUNT);
+    private static Telemetry t = Telemetry.start(log, "write", TIMESTEP_PERIOD, REPORT_PERIOD);
 
     public TelemetryFileOutputStream(String s) throws FileNotFoundException {
         super(s);
@@ -65,8 +59,9 @@ public class TelemetryFileOutputStream extends FileOutputStream {
     public void write(byte[] b) throws IOException {
         t.operationPending();
         try {
+            long start = System.nanoTime();
             super.write(b);
-            t.addObservation(b.length);
+            t.addObservation(b.length, System.nanoTime() - start);
         } finally {
             t.operationComplete();
         }
@@ -77,8 +72,9 @@ public class TelemetryFileOutputStream extends FileOutputStream {
     public void write(byte[] b, int off, int len) throws IOException {
         t.operationPending();
         try {
+            long start = System.nanoTime();
             super.write(b, off, len);
-            t.addObservation(len);
+            t.addObservation(len, System.nanoTime() - start);
         } finally {
             t.operationComplete();
         }
@@ -0,0 +1,67 @@
+package org.sakaiproject.content.impl;
+
+// Log-linear bucketing in the style of HdrHistogram: values below 8 get a
+// bucket each, and every power of two above that is split into 8 equal
+// sub-buckets.  That keeps any reported value within 12.5% of the real one
+// while a whole histogram is a few hundred longs.  Values of 2^40 and more
+// share the last bucket.
+//
+// Only the bucket arithmetic lives here; Telemetry keeps the counts in its
+// stripes so that recording is a single atomic increment.
+final class TelemetryHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 39;
+
+    static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private TelemetryHistogram() {
+    }
+
+    // The bucket this value is counted in.  Negative values count as 0.
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (value < 0) ? 0 : (int) value;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    // The largest value counted in this bucket.
+    static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = SUB_BUCKETS + (bucket % SUB_BUCKETS);
+        return ((subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    // The value at this percentile (0-100) of the counts, or 0 if there are none.
+    static long percentile(long[] counts, double percentile) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(total * (percentile / 100.0)));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return highestValue(i);
+            }
+        }
+        return highestValue(counts.length - 1);
+    }
+}
@@ -0,0 +1,26 @@
+package org.sakaiproject.content.impl;
+
+// What a Telemetry recorder publishes over JMX.  Apart from the pending and
+// total counts, the figures cover the last report period.
+public interface TelemetryMXBean {
+    // When the last report was published (ms since the epoch), or -1
+    long getReportTime();
+
+    long getOperationsPending();
+
+    long getOperationsCompleted();
+
+    long getOperationsCompletedTotal();
+
+    double getAverageKilobytesPerSecond();
+
+    // Bytes moved by a single read or write
+    long getSizeP50();
+    long getSizeP99();
+    long getSizeP999();
+
+    // Time taken by a single read or write
+    long getLatencyMicrosP50();
+    long getLatencyMicrosP99();
+    long getLatencyMicrosP999();
+}
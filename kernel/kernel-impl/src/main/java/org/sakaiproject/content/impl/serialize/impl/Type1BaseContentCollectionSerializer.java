@@ -87,6 +87,9 @@ public class Type1BaseContentCollectionSerializer implements EntitySerializer
 
 	private static final byte[] BYTE_BLOB_ID = new byte[] { 'C', 'H', 'S', 'B', 'C', 'E' };
 
+	/** Most serializations fit in this, so the buffer does not have to grow (and be copied) as it is written. */
+	private static final int INITIAL_BUFFER_SIZE = 2048;
+
 	// These are block markers in the serialization, DO NOT reuse,
 	// create a new type or new block.
 	// If you re-use you will have to provide data migration
@@ -173,8 +176,8 @@ public class Type1BaseContentCollectionSerializer implements EntitySerializer
 		{
 			ByteArrayInputStream bais = new ByteArrayInputStream(buffer);
 			DataInputStream ds = new DataInputStream(bais);
-			byte[] signature = new byte[BYTE_BLOB_ID.length];
-			ds.read(signature);
+			// already checked above
+			ds.skipBytes(BYTE_BLOB_ID.length);
 			doParse(sc, ds);
 		}
 		catch (EntityParseException epe)
@@ -205,7 +208,7 @@ public class Type1BaseContentCollectionSerializer implements EntitySerializer
 
 		try
 		{
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
 			DataOutputStream ds = new DataOutputStream(baos);
 
 			doSerialize(sc, ds);
@@ -241,7 +244,7 @@ public class Type1BaseContentCollectionSerializer implements EntitySerializer
 		SerializableCollectionAccess sc = (SerializableCollectionAccess) se;
 		try
 		{
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
 			DataOutputStream ds = new DataOutputStream(baos);
 			ds.write(BYTE_BLOB_ID);
 			doSerialize(sc, ds);
@@ -91,6 +91,9 @@ public class Type1BaseContentResourceSerializer implements EntitySerializer
 	
 	private static final byte[] BYTE_BLOB_ID = new byte[] { 'C', 'H', 'S', 'B', 'R', 'E' };
 
+	/** Most serializations fit in this, so the buffer does not have to grow (and be copied) as it is written. */
+	private static final int INITIAL_BUFFER_SIZE = 2048;
+
 	private static final int TYPE1 = 1;
 
 	private static final int BLOCK1 = 10;
@@ -185,8 +188,8 @@ public class Type1BaseContentResourceSerializer implements EntitySerializer
 		{
 			ByteArrayInputStream bais = new ByteArrayInputStream(buffer);
 			DataInputStream ds = new DataInputStream(bais);
-			byte[] signature = new byte[BYTE_BLOB_ID.length];
-			ds.read(signature);
+			// already checked above
+			ds.skipBytes(BYTE_BLOB_ID.length);
 			doParse(sc, ds);
 		}
 		catch (EntityParseException epe)
@@ -214,7 +217,7 @@ public class Type1BaseContentResourceSerializer implements EntitySerializer
 
 		try
 		{
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
 			DataOutputStream ds = new DataOutputStream(baos);
 			
 			doSerialize(sc, ds);
@@ -257,7 +260,7 @@ public class Type1BaseContentResourceSerializer implements EntitySerializer
 		SerializableResourceAccess sc = (SerializableResourceAccess) se;
 		try
 		{
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
 			DataOutputStream ds = new DataOutputStream(baos);
 			ds.write(BYTE_BLOB_ID);
 			doSerialize(sc, ds);
@@ -416,7 +419,7 @@ public class Type1BaseContentResourceSerializer implements EntitySerializer
 							break;
 						case BLOCK6:
 							body = new byte[ds.readInt()];
-							ds.read(body);
+							ds.readFully(body);
 							break;
 						case BLOCK_END:
 							finished = true;
@@ -37,12 +37,21 @@ import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.GregorianCalendar;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.TimeZone;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.sql.DataSource;
 
@@ -175,6 +184,27 @@ public abstract class BasicSqlService implements SqlService
 		m_deadlockRetries = Integer.parseInt(value);
 	}
 
+	/** Write round trips to the database: single statements, batches, and the statements sent in batches. */
+	protected final AtomicLong m_writeRoundTrips = new AtomicLong();
+
+	protected final AtomicLong m_batchRoundTrips = new AtomicLong();
+
+	protected final AtomicLong m_batchedWrites = new AtomicLong();
+
+	/** Configuration: number of records to fetch at a time for dbStream, when the caller does not say. */
+	protected int m_defaultFetchSize = 500;
+
+	/**
+	 * Configuration: number of records to fetch at a time for dbStream, when the caller does not say.
+	 *
+	 * @param value
+	 *        the default fetch size.
+	 */
+	public void setDefaultFetchSize(String value)
+	{
+		m_defaultFetchSize = Integer.parseInt(value);
+	}
+
 	/** Configuration: to run the ddl on init or not. */
 	protected boolean m_autoDdl = false;
 
@@ -627,6 +657,190 @@ public abstract class BasicSqlService implements SqlService
 		return rv;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public <T> Stream<T> dbStream(String sql, Object[] fields, int fetchSize, SqlReader<T> reader)
+	{
+		if (LOG.isDebugEnabled())
+		{
+			LOG.debug("dbStream(String " + sql + ", Object[] " + Arrays.toString(fields) + ", int " + fetchSize + ", SqlReader " + reader + ")");
+		}
+
+		// in a transaction, read on the transaction connection (and leave it open)
+		Connection callerConn = (Connection) threadLocalManager().get(TRANSACTION_CONNECTION);
+
+		StreamCursor<T> cursor = new StreamCursor<T>(callerConn, sql, fields, reader);
+		try
+		{
+			cursor.open((fetchSize > 0) ? fetchSize : m_defaultFetchSize);
+		}
+		catch (SQLException e)
+		{
+			LOG.warn("Sql.dbStream: sql: " + sql + debugFields(fields), e);
+			cursor.run();
+			return Stream.empty();
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			LOG.warn("Sql.dbStream: sql: " + sql + debugFields(fields), e);
+			cursor.run();
+			return Stream.empty();
+		}
+
+		return StreamSupport.stream(cursor, false).onClose(cursor);
+	}
+
+	/**
+	 * <p>
+	 * StreamCursor reads the records of a dbStream query one at a time, as the stream asks for them. As a Runnable it closes the result set and
+	 * statement and returns the connection (if it was borrowed for this query); it is run when the stream is closed, or when the last record
+	 * has been read, whichever comes first.
+	 * </p>
+	 */
+	protected class StreamCursor<T> extends Spliterators.AbstractSpliterator<T> implements Runnable
+	{
+		protected final Connection m_callerConn;
+
+		protected final String m_sql;
+
+		protected final Object[] m_fields;
+
+		protected final SqlReader<T> m_reader;
+
+		protected Connection m_conn = null;
+
+		protected PreparedStatement m_pstmt = null;
+
+		protected ResultSet m_result = null;
+
+		protected boolean m_closed = false;
+
+		protected long m_start = 0;
+
+		protected int m_count = 0;
+
+		protected StreamCursor(Connection callerConn, String sql, Object[] fields, SqlReader<T> reader)
+		{
+			super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+			m_callerConn = callerConn;
+			m_sql = sql;
+			m_fields = fields;
+			m_reader = reader;
+		}
+
+		/**
+		 * Run the query.
+		 * 
+		 * @param fetchSize
+		 *        The number of records to fetch from the database at a time.
+		 */
+		protected void open(int fetchSize) throws SQLException, UnsupportedEncodingException
+		{
+			m_start = System.currentTimeMillis();
+			m_conn = (m_callerConn != null) ? m_callerConn : borrowConnection();
+			m_pstmt = m_conn.prepareStatement(m_sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+
+			// MySQL reads the whole result into memory unless asked to stream with this special fetch size - but a streaming result keeps
+			// the connection busy until it is closed, so we don't do that on a transaction connection that the caller may use meanwhile
+			if ("mysql".equals(m_vendor))
+			{
+				if (m_callerConn == null) m_pstmt.setFetchSize(Integer.MIN_VALUE);
+			}
+			else
+			{
+				m_pstmt.setFetchSize(fetchSize);
+			}
+
+			prepareStatement(m_pstmt, m_fields);
+			m_result = m_pstmt.executeQuery();
+		}
+
+		@SuppressWarnings("unchecked")
+		public boolean tryAdvance(Consumer<? super T> action)
+		{
+			if (m_closed) return false;
+
+			try
+			{
+				while (m_result.next())
+				{
+					m_count++;
+
+					// without a reader, we read the first String from each record
+					T obj = (m_reader == null) ? (T) m_result.getString(1) : m_reader.readSqlResultRecord(m_result);
+					if (obj != null)
+					{
+						action.accept(obj);
+						return true;
+					}
+				}
+			}
+			catch (SqlReaderFinishedException e)
+			{
+			}
+			catch (SQLException e)
+			{
+				LOG.warn("Sql.dbStream: sql: " + m_sql + debugFields(m_fields), e);
+			}
+
+			// all read, no need to wait for the stream to be closed
+			run();
+			return false;
+		}
+
+		/**
+		 * Release the result set, statement and connection - safe to call more than once.
+		 */
+		public void run()
+		{
+			if (m_closed) return;
+			m_closed = true;
+
+			if (null != m_result)
+			{
+				try
+				{
+					m_result.close();
+				}
+				catch (SQLException e)
+				{
+					LOG.warn("Sql.dbStream: sql: " + m_sql + debugFields(m_fields), e);
+				}
+			}
+			if (null != m_pstmt)
+			{
+				try
+				{
+					m_pstmt.close();
+				}
+				catch (SQLException e)
+				{
+					LOG.warn("Sql.dbStream: sql: " + m_sql + debugFields(m_fields), e);
+				}
+			}
+
+			// return the connection only if we have borrowed a new one for this call
+			if ((m_callerConn == null) && (null != m_conn))
+			{
+				if (m_commitAfterRead)
+				{
+					try
+					{
+						m_conn.commit();
+					}
+					catch (SQLException e)
+					{
+						LOG.warn("Sql.dbStream: sql: " + m_sql + debugFields(m_fields), e);
+					}
+				}
+				returnConnection(m_conn);
+			}
+
+			if (m_showSql) debug("Sql.dbStream: time: " + (System.currentTimeMillis() - m_start) + " #: " + m_count, m_sql, m_fields);
+		}
+	}
+
 	/**
 	 * Read a single field from the db, from multiple record - concatenating the binary values into value.
 	 * 
@@ -1108,6 +1322,212 @@ public abstract class BasicSqlService implements SqlService
 		return dbWrite(sql, fields, null, connection, true);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public boolean dbWriteBatch(Connection callerConnection, String sql, List<Object[]> fieldsList)
+	{
+		if (fieldsList == null || fieldsList.isEmpty()) return true;
+
+		// check for a transaction connection
+		if (callerConnection == null)
+		{
+			callerConnection = (Connection) threadLocalManager().get(TRANSACTION_CONNECTION);
+		}
+
+		if (LOG.isDebugEnabled())
+		{
+			LOG.debug("dbWriteBatch(Connection " + callerConnection + ", String " + sql + ", List<Object[]> (" + fieldsList.size() + "))");
+		}
+
+		// for DEBUG
+		long start = 0;
+		long connectionTime = 0;
+
+		Connection conn = null;
+		PreparedStatement pstmt = null;
+		boolean autoCommit = false;
+		boolean resetAutoCommit = false;
+		Object[] fields = null;
+
+		boolean success = false;
+		boolean allWritten = true;
+
+		try
+		{
+			if (callerConnection != null)
+			{
+				conn = callerConnection;
+			}
+			else
+			{
+				if (m_showSql) start = System.currentTimeMillis();
+				conn = borrowConnection();
+				if (m_showSql) connectionTime = System.currentTimeMillis() - start;
+
+				// make sure we have do not have auto commit - will change and reset if needed
+				autoCommit = conn.getAutoCommit();
+				if (autoCommit)
+				{
+					conn.setAutoCommit(false);
+					resetAutoCommit = true;
+				}
+			}
+
+			if (m_showSql) start = System.currentTimeMillis();
+			pstmt = conn.prepareStatement(sql);
+
+			// send them a batch at a time if the database and driver can, otherwise one at a time on the one statement
+			int batchSize = sqlServiceSql.getBatchSize();
+			if ((batchSize > 1) && (fieldsList.size() > 1) && conn.getMetaData().supportsBatchUpdates())
+			{
+				List<Object[]> pending = new ArrayList<Object[]>(Math.min(batchSize, fieldsList.size()));
+				for (Iterator<Object[]> i = fieldsList.iterator(); i.hasNext();)
+				{
+					fields = i.next();
+					prepareStatement(pstmt, fields);
+					pstmt.addBatch();
+					pending.add(fields);
+
+					if ((pending.size() == batchSize) || !i.hasNext())
+					{
+						try
+						{
+							pstmt.executeBatch();
+							m_batchRoundTrips.incrementAndGet();
+							m_batchedWrites.addAndGet(pending.size());
+						}
+						catch (SQLException e)
+						{
+							if (sqlServiceSql.isDeadLockError(e.getErrorCode())) throw e;
+
+							// drivers don't all say which row failed, or why: write this batch again a row at a time, skipping the rows
+							// that are already there as dbWrite() would, and failing on anything else
+							pstmt.clearBatch();
+							if (!writeEach(pstmt, sql, pending)) allWritten = false;
+						}
+						pending.clear();
+					}
+				}
+			}
+			else
+			{
+				allWritten = writeEach(pstmt, sql, fieldsList);
+			}
+			fields = null;
+
+			// commit unless we are in a transaction (provided with a connection)
+			if (callerConnection == null)
+			{
+				conn.commit();
+			}
+
+			// indicate success
+			success = true;
+		}
+		catch (SQLException e)
+		{
+			// perhaps due to a mysql deadlock?
+			if (sqlServiceSql.isDeadLockError(e.getErrorCode()))
+			{
+				// just a little fuss
+				LOG.warn("Sql.dbWriteBatch(): deadlock: error code: " + e.getErrorCode() + " sql: " + sql + " binds: " + debugFields(fields) + " " + e.toString());
+				throw new SqlServiceDeadlockException(e);
+			}
+
+			else
+			{
+				// something ELSE went wrong, so lest make a fuss
+				LOG.warn("Sql.dbWriteBatch(): error code: " + e.getErrorCode() + " sql: " + sql + " binds: " + debugFields(fields) + " ", e);
+				throw new RuntimeException("SqlService.dbWriteBatch failure", e);
+			}
+		}
+		catch (Exception e)
+		{
+			LOG.warn("Sql.dbWriteBatch(): " + e);
+			throw new RuntimeException("SqlService.dbWriteBatch failure", e);
+		}
+		finally
+		{
+			try
+			{
+				if (null != pstmt) pstmt.close();
+				if ((null != conn) && (callerConnection == null))
+				{
+					// rollback on failure
+					if (!success)
+					{
+						conn.rollback();
+					}
+
+					// if we changed the auto commit, reset here
+					if (resetAutoCommit)
+					{
+						conn.setAutoCommit(autoCommit);
+					}
+					returnConnection(conn);
+				}
+			}
+			catch (Exception e)
+			{
+				LOG.warn("Sql.dbWriteBatch(): " + e);
+				throw new RuntimeException("SqlService.dbWriteBatch failure", e);
+			}
+		}
+
+		if (m_showSql)
+			debug("Sql.dbWriteBatch(): #: " + fieldsList.size() + "  time: " + connectionTime + " /  " + (System.currentTimeMillis() - start), sql, null);
+
+		return allWritten;
+	}
+
+	/**
+	 * Run the statement once for each set of fields, skipping those that would duplicate an existing record, as dbWrite() does.
+	 * 
+	 * @return true if all were written, false if any were skipped.
+	 */
+	protected boolean writeEach(PreparedStatement pstmt, String sql, List<Object[]> fieldsList) throws SQLException, UnsupportedEncodingException
+	{
+		boolean allWritten = true;
+		for (Object[] fields : fieldsList)
+		{
+			prepareStatement(pstmt, fields);
+			try
+			{
+				pstmt.executeUpdate();
+			}
+			catch (SQLException e)
+			{
+				if (!sqlServiceSql.getRecordAlreadyExists(e)) throw e;
+
+				LOG.warn("Sql.dbWriteBatch(): recordAlreadyExists: error code: " + e.getErrorCode() + " sql: " + sql + " binds: " + debugFields(fields)
+						+ " " + e.toString());
+				allWritten = false;
+			}
+			finally
+			{
+				m_writeRoundTrips.incrementAndGet();
+			}
+		}
+
+		return allWritten;
+	}
+
+	/**
+	 * @return the write round trip counters, by name: single writes, batches sent, and writes sent in those batches.
+	 */
+	public Map<String, Long> getWriteStatistics()
+	{
+		Map<String, Long> rv = new LinkedHashMap<String, Long>();
+		long batches = m_batchRoundTrips.get();
+		long batched = m_batchedWrites.get();
+		rv.put("writes", m_writeRoundTrips.get());
+		rv.put("batches", batches);
+		rv.put("batchedWrites", batched);
+		rv.put("averageBatchSize", batches == 0 ? 0 : batched / batches);
+		return rv;
+	}
+
 	/**
 	 * Execute the "write" sql - no response, using a set of fields from an array plus one more as params.
 	 * 
@@ -1241,6 +1661,7 @@ public abstract class BasicSqlService implements SqlService
 			}
 
 			retval = pstmt.executeUpdate();
+			m_writeRoundTrips.incrementAndGet();
 
 			// commit unless we are in a transaction (provided with a connection)
 			if (callerConnection == null)
@@ -142,6 +142,14 @@ public class BasicSqlServiceSqlDefault implements SqlServiceSql
 		}
 	}
 
+	/**
+	 * returns the most statements to send to the database in one batch, or 0 to send them one at a time.
+	 */
+	public int getBatchSize()
+	{
+		return 100;
+	}
+
 	/**
 	 * Extract the generated key for JDBC drivers that support getGeneratedKeys()
 	 * 
@@ -82,4 +82,14 @@ public class BasicSqlServiceSqlMySql extends BasicSqlServiceSqlDefault
         // perhaps due to a mysql deadlock?
         return (errorCode == 1213);
     }
+
+	/**
+	 * returns the most statements to send to the database in one batch. With rewriteBatchedStatements=true on the connection url, Connector/J
+	 * sends a batch of inserts as one multi-row insert; without it, the statements still go one at a time, which costs no more than before.
+	 */
+	@Override
+	public int getBatchSize()
+	{
+		return 500;
+	}
 }
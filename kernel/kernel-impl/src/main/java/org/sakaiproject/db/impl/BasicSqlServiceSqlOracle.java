@@ -57,4 +57,15 @@ public class BasicSqlServiceSqlOracle extends BasicSqlServiceSqlDefault
 	{
 		return "SELECT " + table + ".NEXTVAL FROM DUAL";
 	}
+
+	/**
+	 * returns the most statements to send to the database in one batch. The Oracle driver sends a batch as one array execution, so bigger
+	 * batches save round trips, but it sizes its bind buffers for every row of the batch by the widest value of each column, and property
+	 * values can be up to 4000 characters.
+	 */
+	@Override
+	public int getBatchSize()
+	{
+		return 250;
+	}
 }
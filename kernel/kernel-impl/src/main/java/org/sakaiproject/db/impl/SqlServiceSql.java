@@ -131,4 +131,9 @@ public interface SqlServiceSql
 	 */
 	public Long getGeneratedKey(PreparedStatement pstmt, String sql) throws SQLException;
 
+	/**
+	 * returns the most statements to send to the database in one batch, or 0 to send them one at a time.
+	 */
+	public int getBatchSize();
+
 }
@@ -35,9 +35,16 @@ import org.sakaiproject.tool.api.SessionManager;
 import org.sakaiproject.tool.api.ToolManager;
 import org.sakaiproject.user.api.User;
 
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.Observable;
+import java.util.List;
 import java.util.Observer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * <p>
@@ -49,17 +56,35 @@ public abstract class BaseEventTrackingService implements EventTrackingService
 	/** Our logger. */
 	private static Logger M_log = LoggerFactory.getLogger(BaseEventTrackingService.class);
 
-	/** An observable object helper. */
-	protected MyObservable m_observableHelper = new MyObservable();
+	/** Dispatches to the normal observers. */
+	protected EventDispatcher m_observableHelper = new EventDispatcher("observers");
 
-	/** An observable object helper for see-it-first priority observers. */
-	protected MyObservable m_priorityObservableHelper = new MyObservable();
+	/** Dispatches to the see-it-first priority observers - these are always notified in-line, before the post returns. */
+	protected EventDispatcher m_priorityObservableHelper = new EventDispatcher("priority observers");
 
-	/** An observable object helper for see-only-local-events observers. */
-	protected MyObservable m_localObservableHelper = new MyObservable();
+	/** Dispatches to the see-only-local-events observers. */
+	protected EventDispatcher m_localObservableHelper = new EventDispatcher("local observers");
 
 	protected EventDelayHandler delayHandler;
 
+	/** Configuration: if true, normal and local observers are notified from a worker pool rather than on the posting thread. */
+	protected boolean m_dispatchAsync = false;
+
+	/** Configuration: the number of worker threads notifying observers when dispatching asynchronously. */
+	protected int m_dispatchThreads = 4;
+
+	/** Configuration: how many events may wait for any one observer when dispatching asynchronously. */
+	protected int m_dispatchQueueSize = 10000;
+
+	/** Configuration: "block" to make the poster wait for room in a full observer queue, "drop" to drop the event for that observer. */
+	protected EventDispatcher.OverflowPolicy m_dispatchPolicy = EventDispatcher.OverflowPolicy.BLOCK;
+
+	/** Configuration: how long, in ms, a poster waits for queue room under the block policy before dropping. */
+	protected long m_dispatchBlockTimeout = 1000;
+
+	/** The worker pool for asynchronous dispatch, if we created it. */
+	protected ExecutorService m_dispatchExecutor = null;
+
 	/**********************************************************************************************************************************************************************************************************************************************************
 	 * Observable implementation
 	 *********************************************************************************************************************************************************************************************************************************************************/
@@ -86,22 +111,17 @@ public abstract class BaseEventTrackingService implements EventTrackingService
 	 */
 	protected void notifyObservers(Event event, boolean local)
 	{
-		// %%% inline like this, or on a new thread?
-
 		if (M_log.isDebugEnabled()) M_log.debug(this + " Notification - Event: " + event);
 
-		// first, notify all priority observers
-		m_priorityObservableHelper.setChanged();
+		// first, notify all priority observers - always on this thread
 		m_priorityObservableHelper.notifyObservers(event);
 
-		// notify the normal observers
-		m_observableHelper.setChanged();
+		// notify the normal observers - on this thread, or queued for the dispatch pool
 		m_observableHelper.notifyObservers(event);
 
 		// if the event is local, notify local observers
 		if (local)
 		{
-			m_localObservableHelper.setChanged();
 			m_localObservableHelper.notifyObservers(event);
 		}
 	}
@@ -149,7 +169,42 @@ public abstract class BaseEventTrackingService implements EventTrackingService
 	 */
 	public void init()
 	{
-		M_log.info(this + ".init()");
+		if (m_dispatchAsync)
+		{
+			m_dispatchExecutor = newDispatchExecutor();
+			for (EventDispatcher dispatcher : new EventDispatcher[] { m_observableHelper, m_localObservableHelper })
+			{
+				dispatcher.setQueueSize(m_dispatchQueueSize);
+				dispatcher.setOverflowPolicy(m_dispatchPolicy);
+				dispatcher.setBlockTimeout(m_dispatchBlockTimeout);
+				dispatcher.setExecutor(m_dispatchExecutor);
+			}
+		}
+
+		M_log.info(this + ".init() - dispatchAsync: " + m_dispatchAsync + " threads: " + m_dispatchThreads + " queueSize: "
+				+ m_dispatchQueueSize + " policy: " + m_dispatchPolicy);
+	}
+
+	/**
+	 * Create the worker pool used for asynchronous dispatch. Override to plug in a different executor.
+	 *
+	 * @return The executor that runs the per-observer drain tasks.
+	 */
+	protected ExecutorService newDispatchExecutor()
+	{
+		final AtomicInteger count = new AtomicInteger();
+		ThreadFactory factory = new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "Sakai-EventDispatch-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+
+		// the observer queues are bounded, the pool's own queue only ever holds one task per observer
+		return new ThreadPoolExecutor(m_dispatchThreads, m_dispatchThreads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), factory);
 	}
 
 	/**********************************************************************************************************************************************************************************************************************************************************
@@ -161,9 +216,103 @@ public abstract class BaseEventTrackingService implements EventTrackingService
 	 */
 	public void destroy()
 	{
+		if (m_dispatchExecutor != null)
+		{
+			m_dispatchExecutor.shutdown();
+			try
+			{
+				m_dispatchExecutor.awaitTermination(5, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+
+			// back to in-line delivery, and deliver anything that is still waiting
+			m_observableHelper.setExecutor(null);
+			m_localObservableHelper.setExecutor(null);
+			m_observableHelper.drain();
+			m_localObservableHelper.drain();
+			m_dispatchExecutor = null;
+		}
+
 		M_log.info(this + ".destroy()");
 	}
 
+	/**
+	 * Configuration: dispatch normal and local observers from a worker pool.
+	 *
+	 * @param value
+	 *        "true" to dispatch asynchronously.
+	 */
+	public void setDispatchAsync(String value)
+	{
+		m_dispatchAsync = Boolean.valueOf(value).booleanValue();
+	}
+
+	/**
+	 * Configuration: the number of dispatch worker threads.
+	 *
+	 * @param value
+	 *        The number of threads.
+	 */
+	public void setDispatchThreads(String value)
+	{
+		m_dispatchThreads = Math.max(1, Integer.parseInt(value));
+	}
+
+	/**
+	 * Configuration: the capacity of each observer's queue.
+	 *
+	 * @param value
+	 *        The queue capacity.
+	 */
+	public void setDispatchQueueSize(String value)
+	{
+		m_dispatchQueueSize = Math.max(1, Integer.parseInt(value));
+	}
+
+	/**
+	 * Configuration: what to do when an observer's queue is full.
+	 *
+	 * @param value
+	 *        "block" or "drop".
+	 */
+	public void setDispatchPolicy(String value)
+	{
+		try
+		{
+			m_dispatchPolicy = EventDispatcher.OverflowPolicy.valueOf(value.trim().toUpperCase());
+		}
+		catch (Exception any)
+		{
+			M_log.warn("Unknown dispatch policy: " + value + ", using " + m_dispatchPolicy);
+		}
+	}
+
+	/**
+	 * Configuration: how long, in ms, a poster waits for queue room under the block policy.
+	 *
+	 * @param value
+	 *        The timeout in ms.
+	 */
+	public void setDispatchBlockTimeout(String value)
+	{
+		m_dispatchBlockTimeout = Long.parseLong(value);
+	}
+
+	/**
+	 * @return the delivery statistics (queue depth, lag, drops) of every registered observer.
+	 */
+	public List<EventDispatcher.ObserverStats> getObserverStats()
+	{
+		List<EventDispatcher.ObserverStats> rv = new ArrayList<EventDispatcher.ObserverStats>();
+		rv.addAll(m_priorityObservableHelper.getStats());
+		rv.addAll(m_observableHelper.getStats());
+		rv.addAll(m_localObservableHelper.getStats());
+		return rv;
+	}
+
 	/**********************************************************************************************************************************************************************************************************************************************************
 	 * EventTracking implementation
 	 *********************************************************************************************************************************************************************************************************************************************************/
@@ -465,17 +614,6 @@ public abstract class BaseEventTrackingService implements EventTrackingService
 		m_localObservableHelper.deleteObserver(observer);
 	}
 
-	/**
-	 * Extend Observable to "public"ize setChanges, so we can set it. Why a helper object? Cause the service (which is observable) already 'extends' TurbineBaseService, and cannot also 'extend' Observable.
-	 */
-	protected class MyObservable extends Observable
-	{
-		public void setChanged()
-		{
-			super.setChanged();
-		}
-	}
-
 	/**********************************************************************************************************************************************************************************************************************************************************
 	 * Event implementation
 	 *********************************************************************************************************************************************************************************************************************************************************/
@@ -48,6 +48,10 @@ import java.util.concurrent.TimeUnit;
  * ClusterEventTracking is the implmentation for the EventTracking service for use in a clustered multi-app server configuration.<br />
  * Events are backed in the cluster database, and this database is polled to read and process locally events posted by the other cluster members.
  * </p>
+ * <p>
+ * If an event transport is configured, events are instead pushed to the other cluster members as they are posted, and the database is read
+ * only once after startup to catch up on what was posted while this server was down. Events are still written to the database in batches.
+ * </p>
  */
 public abstract class ClusterEventTracking extends BaseEventTrackingService implements Runnable
 {
@@ -83,6 +87,21 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 	private String serverId;
 	private ScheduledExecutorService scheduler;
 
+	/** Configuration: the event transport to push events with - "none" (poll the db) or "hazelcast". */
+	protected String m_transportName = "none";
+
+	/** Configuration: the topic name used by the hazelcast transport. */
+	protected String m_transportTopic = null;
+
+	/** The event transport, if pushing events. */
+	protected ClusterEventTransport m_eventTransport = null;
+
+	/** The last event seq number written when the event transport started - later events came over the transport and are skipped when catching up from the db. */
+	protected long m_transportStartSeq = 0;
+
+	/** If true, read the db once more for events posted before the transport started. */
+	protected volatile boolean m_catchUpPending = false;
+
 	/*************************************************************************************************************************************************
 	 * Dependencies
 	 ************************************************************************************************************************************************/
@@ -173,6 +192,39 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 		m_period = Integer.parseInt(time);
 	}
 
+	/**
+	 * Configuration: the event transport to push events to the other cluster members with.
+	 *
+	 * @param value
+	 *        "none" to poll the db, or "hazelcast".
+	 */
+	public void setTransport(String value)
+	{
+		m_transportName = StringUtils.trimToEmpty(value).toLowerCase();
+	}
+
+	/**
+	 * Configuration: the topic name for the hazelcast event transport.
+	 *
+	 * @param value
+	 *        The topic name.
+	 */
+	public void setTransportTopic(String value)
+	{
+		m_transportTopic = StringUtils.trimToNull(value);
+	}
+
+	/**
+	 * Use this event transport rather than one created from the transport configuration.
+	 *
+	 * @param transport
+	 *        The event transport.
+	 */
+	public void setEventTransport(ClusterEventTransport transport)
+	{
+		m_eventTransport = transport;
+	}
+
 	public void setDatabaseBeans(Map databaseBeans)
 	{
 		this.databaseBeans = databaseBeans;
@@ -225,6 +277,8 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 			{
 				initLastEvent();
 
+				startTransport();
+
 				scheduler = Executors.newSingleThreadScheduledExecutor();
 				// schedule task for every pollDelaySeconds
 				scheduler.scheduleWithFixedDelay(
@@ -252,7 +306,8 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
     			}
 			}
 
-			M_log.info(this + ".init() - period: " + m_period / 1000 + " batch: " + m_batchWrite + " checkDb: " + m_checkDb);
+			M_log.info(this + ".init() - period: " + m_period / 1000 + " batch: " + m_batchWrite + " checkDb: " + m_checkDb
+					+ " transport: " + (m_eventTransport == null ? "none" : m_eventTransport.getClass().getSimpleName()));
 
             String sakaiVersion = serverConfigurationService().getString("version.sakai", "unknown") + "/" + serverConfigurationService().getString("version.service", "unknown");
             M_log.info("Server Start: serverId="+serverConfigurationService().getServerId()+",serverInstance="+serverConfigurationService().getServerInstance()+",serverIdInstance="+serverConfigurationService().getServerIdInstance()+",version="+sakaiVersion);
@@ -301,10 +356,85 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 	 */
 	public void destroy()
 	{
-		scheduler.shutdown();
+		if (m_eventTransport != null)
+		{
+			m_eventTransport.stop();
+		}
+		if (scheduler != null)
+		{
+			scheduler.shutdown();
+		}
 		super.destroy();
 	}
 
+	/**
+	 * Create and start the configured event transport. If it cannot start we fall back to polling the db.
+	 */
+	protected void startTransport()
+	{
+		if (m_eventTransport == null)
+		{
+			if ("hazelcast".equals(m_transportName))
+			{
+				m_eventTransport = new HazelcastEventTransport(memoryService(), m_transportTopic);
+			}
+			else if (!"none".equals(m_transportName) && m_transportName.length() > 0)
+			{
+				M_log.warn("Unknown event transport: " + m_transportName + ", polling the db for cluster events");
+			}
+		}
+
+		if (m_eventTransport == null) return;
+
+		boolean started = m_eventTransport.start(new ClusterEventTransport.Listener()
+		{
+			public void received(SimpleEvent event)
+			{
+				receiveEvent(event);
+			}
+		});
+
+		if (started)
+		{
+			// anything written between our last db event and now still has to come from the db, later events are pushed to us - apart from
+			// any still waiting in another server's write batch, these were posted before we connected (the event cache uses the same seq numbers)
+			m_transportStartSeq = readMaxEventId();
+			m_catchUpPending = true;
+		}
+		else
+		{
+			M_log.warn("Event transport did not start, polling the db for cluster events");
+			m_eventTransport = null;
+		}
+	}
+
+	/**
+	 * Process an event pushed by a cluster member.
+	 *
+	 * @param simpleEvent
+	 *        The event.
+	 */
+	protected void receiveEvent(SimpleEvent simpleEvent)
+	{
+		// our own events were processed when they were posted
+		if (simpleEvent == null || serverInstance.equals(simpleEvent.getServerId())) return;
+
+		try
+		{
+			// Note: as with events read from the db, notification info is not needed
+			BaseEvent event = new BaseEvent(0, simpleEvent.getEvent(), simpleEvent.getResource(), simpleEvent.getContext(),
+					simpleEvent.getModify(), NotificationService.NOTI_NONE, simpleEvent.getEventTime());
+			event.setUserId(simpleEvent.getUserId());
+			event.setSessionId(simpleEvent.getSessionId());
+
+			notifyObservers(event, false);
+		}
+		catch (Exception e)
+		{
+			M_log.warn("receiveEvent, notifyObservers(), event: " + simpleEvent, e);
+		}
+	}
+
 	/*************************************************************************************************************************************************
 	 * Event post / flow
 	 ************************************************************************************************************************************************/
@@ -331,6 +461,19 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 			M_log.warn("postEvent, notifyObservers(), event: " + event.toString(), t);
 		}
 
+		// push the event to the other cluster members
+		if (m_eventTransport != null)
+		{
+			try
+			{
+				m_eventTransport.publish(new SimpleEvent(event, serverInstance));
+			}
+			catch (Exception t)
+			{
+				M_log.warn("postEvent, publish(), event: " + event.toString(), t);
+			}
+		}
+
 		// batch the event if we are batching
 		if (m_batchWrite)
 		{
@@ -550,6 +693,14 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 				}
 			}
 
+			// events from the other cluster members are pushed to us, the db is only read once to catch up after startup
+			if (m_eventTransport != null && !m_catchUpPending)
+			{
+				return;
+			}
+			final long pushedAfterSeq = m_catchUpPending ? m_transportStartSeq : Long.MAX_VALUE;
+			m_catchUpPending = false;
+
 				if (M_log.isDebugEnabled()) M_log.debug("checking for events > " + m_lastEventSeq);
 			// check the db for new events
 			// We do a left join which gets us records from non-sessions also (SESSION_SERVER may be null when non-session events are returned)
@@ -591,6 +742,11 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 								event.setSessionId(event.getSessionId());
 							}
 
+							// when catching up, the newer events have already come over the transport
+							if (i > pushedAfterSeq) {
+								skipIt = true;
+							}
+
 							// add event to list, only if it is not a local server event
 							if (!skipIt) {
 								events.add(event);
@@ -633,7 +789,8 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 								skipIt = serverInstance.equals(eventSessionServerId);
 							}
 
-							if (skipIt) {
+							// when catching up, the newer events have already come over the transport
+							if (skipIt || id > pushedAfterSeq) {
 								return null;
 							}
 
@@ -668,8 +825,21 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 	 * Check the db for the largest event seq number, and set this as the one after which we will next get event.
 	 */
 	protected void initLastEvent()
+	{
+		m_lastEventSeq = readMaxEventId();
+
+		if (M_log.isDebugEnabled()) M_log.debug(this + " Starting (after) Event #: " + m_lastEventSeq);
+	}
+
+	/**
+	 * Read the largest event seq number in the db.
+	 *
+	 * @return The largest event seq number, or 0 if there are no events.
+	 */
+	protected long readMaxEventId()
 	{
 		String statement = clusterEventTrackingServiceSql.getMaxEventIdSql();
+		final long[] max = new long[1];
 
 		sqlService().dbRead(statement, null, new SqlReader()
 		{
@@ -677,8 +847,8 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 			{
 				try
 				{
-					// read the one long value into our last event seq number
-					m_lastEventSeq = result.getLong(1);
+					// read the one long value
+					max[0] = result.getLong(1);
 				}
 				catch (SQLException ignore)
 				{
@@ -687,7 +857,7 @@ public abstract class ClusterEventTracking extends BaseEventTrackingService impl
 			}
 		});
 
-		if (M_log.isDebugEnabled()) M_log.debug(this + " Starting (after) Event #: " + m_lastEventSeq);
+		return max[0];
 	}
 
 	/**
@@ -0,0 +1,73 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2016 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.event.impl;
+
+import org.sakaiproject.event.api.SimpleEvent;
+
+/**
+ * <p>
+ * ClusterEventTransport pushes events posted on this server to the other cluster members, and hands events pushed by them to a listener.
+ * </p>
+ * <p>
+ * Delivery is best effort: the SAKAI_EVENT table stays the record of what happened, and is read to catch up after a restart.
+ * </p>
+ */
+public interface ClusterEventTransport
+{
+	/**
+	 * <p>
+	 * Receives the events published by the cluster members.
+	 * </p>
+	 */
+	interface Listener
+	{
+		/**
+		 * Called for every event published on the transport, including (depending on the transport) our own.
+		 *
+		 * @param event
+		 *        The event, with its server id set to the server instance that posted it.
+		 */
+		void received(SimpleEvent event);
+	}
+
+	/**
+	 * Connect to the cluster and start delivering events to this listener.
+	 *
+	 * @param listener
+	 *        The listener.
+	 * @return true if the transport is connected, false if it could not start and the caller should fall back to polling.
+	 */
+	boolean start(Listener listener);
+
+	/**
+	 * Push an event to the cluster members.
+	 *
+	 * @param event
+	 *        The event.
+	 */
+	void publish(SimpleEvent event);
+
+	/**
+	 * Disconnect from the cluster.
+	 */
+	void stop();
+}
@@ -0,0 +1,518 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2016 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.event.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * EventDispatcher delivers events to one group of observers (normal, priority or local).
+ * </p>
+ * <p>
+ * With no executor the observers are called in-line on the posting thread, exactly as java.util.Observable does. With an executor each
+ * observer gets its own bounded queue, drained by at most one task at a time so an observer still sees events in the order they were
+ * posted, and a slow observer only backs up its own queue. When a queue is full the {@link OverflowPolicy} decides whether the posting
+ * thread waits for room or the event is dropped for that observer.
+ * </p>
+ * <p>
+ * This extends Observable only so that observers keep receiving an Observable as the first argument of update(). As with Observable,
+ * the observer added last is called first; some observers are registered late on purpose so that they see an event before the rest.
+ * </p>
+ */
+public class EventDispatcher extends Observable
+{
+	/** Our logger. */
+	private static Logger M_log = LoggerFactory.getLogger(EventDispatcher.class);
+
+	/** What to do with an event when an observer's queue is full. */
+	public enum OverflowPolicy
+	{
+		/** Wait up to the block timeout for room, then drop. */
+		BLOCK,
+
+		/** Drop the event for that observer right away. */
+		DROP
+	}
+
+	/** The most events one drain task will deliver before giving its thread back to the pool. */
+	protected static final int DRAIN_BATCH = 64;
+
+	/** A name for the logs. */
+	protected final String m_name;
+
+	/** The observers, in registration order. */
+	protected final List<ObserverChannel> m_channels = new CopyOnWriteArrayList<ObserverChannel>();
+
+	/** Runs the drain tasks, or null to notify in-line. */
+	protected volatile Executor m_executor = null;
+
+	/** Capacity of each observer's queue. */
+	protected int m_queueSize = 10000;
+
+	/** What to do when an observer's queue is full. */
+	protected OverflowPolicy m_policy = OverflowPolicy.BLOCK;
+
+	/** How long, in ms, a posting thread may wait for queue room under the BLOCK policy. */
+	protected long m_blockTimeout = 1000;
+
+	/**
+	 * Construct.
+	 *
+	 * @param name
+	 *        A name for this group of observers, for the logs.
+	 */
+	public EventDispatcher(String name)
+	{
+		m_name = name;
+	}
+
+	/**
+	 * Switch to queued delivery on this executor, or back to in-line delivery if null.
+	 *
+	 * @param executor
+	 *        The executor that runs the per-observer drain tasks.
+	 */
+	public void setExecutor(Executor executor)
+	{
+		m_executor = executor;
+	}
+
+	/**
+	 * @param size
+	 *        The capacity of each observer's queue; applies to observers added after this call.
+	 */
+	public void setQueueSize(int size)
+	{
+		m_queueSize = size;
+	}
+
+	/**
+	 * @param policy
+	 *        What to do with an event when an observer's queue is full.
+	 */
+	public void setOverflowPolicy(OverflowPolicy policy)
+	{
+		m_policy = policy;
+	}
+
+	/**
+	 * @param ms
+	 *        How long a posting thread may wait for queue room under the BLOCK policy.
+	 */
+	public void setBlockTimeout(long ms)
+	{
+		m_blockTimeout = ms;
+	}
+
+	/**
+	 * @return true if events are queued for the observers rather than delivered in-line.
+	 */
+	public boolean isAsync()
+	{
+		return m_executor != null;
+	}
+
+	@Override
+	public void addObserver(Observer observer)
+	{
+		if (observer == null) throw new NullPointerException();
+		synchronized (m_channels)
+		{
+			if (find(observer) == null)
+			{
+				m_channels.add(new ObserverChannel(observer, m_queueSize));
+			}
+		}
+	}
+
+	@Override
+	public void deleteObserver(Observer observer)
+	{
+		synchronized (m_channels)
+		{
+			ObserverChannel channel = find(observer);
+			if (channel != null)
+			{
+				m_channels.remove(channel);
+			}
+		}
+	}
+
+	@Override
+	public void deleteObservers()
+	{
+		m_channels.clear();
+	}
+
+	@Override
+	public int countObservers()
+	{
+		return m_channels.size();
+	}
+
+	/**
+	 * Deliver this event to every observer, in-line or through the observer queues.
+	 *
+	 * @param arg
+	 *        The event.
+	 */
+	@Override
+	public void notifyObservers(Object arg)
+	{
+		Executor executor = m_executor;
+		for (ObserverChannel channel : newestFirst())
+		{
+			if (executor == null)
+			{
+				channel.deliver(arg, 0);
+			}
+			else
+			{
+				channel.enqueue(arg, executor);
+			}
+		}
+	}
+
+	@Override
+	public void notifyObservers()
+	{
+		notifyObservers(null);
+	}
+
+	/**
+	 * Deliver, in-line on the calling thread, anything still waiting in the observer queues.
+	 */
+	public void drain()
+	{
+		for (ObserverChannel channel : newestFirst())
+		{
+			channel.drainAll();
+		}
+	}
+
+	/**
+	 * @return a snapshot of the delivery statistics of each observer.
+	 */
+	public List<ObserverStats> getStats()
+	{
+		List<ObserverStats> rv = new ArrayList<ObserverStats>();
+		for (ObserverChannel channel : m_channels)
+		{
+			rv.add(channel.stats());
+		}
+		return rv;
+	}
+
+	/**
+	 * @return the observers, the last one added first, as Observable notifies them.
+	 */
+	protected List<ObserverChannel> newestFirst()
+	{
+		// a snapshot, so observers added or removed during delivery don't disturb it
+		List<ObserverChannel> rv = new ArrayList<ObserverChannel>(m_channels);
+		Collections.reverse(rv);
+		return rv;
+	}
+
+	protected ObserverChannel find(Observer observer)
+	{
+		for (ObserverChannel channel : m_channels)
+		{
+			if (channel.m_observer.equals(observer)) return channel;
+		}
+		return null;
+	}
+
+	public String toString()
+	{
+		return "EventDispatcher[" + m_name + ", observers: " + m_channels.size() + ", async: " + isAsync() + "]";
+	}
+
+	/**
+	 * <p>
+	 * An event waiting in an observer's queue, with the time it was posted.
+	 * </p>
+	 */
+	protected static class Pending
+	{
+		protected final Object m_event;
+
+		protected final long m_posted;
+
+		protected Pending(Object event, long posted)
+		{
+			m_event = event;
+			m_posted = posted;
+		}
+	}
+
+	/**
+	 * <p>
+	 * One observer with its queue and counters.
+	 * </p>
+	 */
+	protected class ObserverChannel implements Runnable
+	{
+		protected final Observer m_observer;
+
+		protected final BlockingQueue<Pending> m_queue;
+
+		/** Set while a drain task for this observer is scheduled or running. */
+		protected final AtomicBoolean m_scheduled = new AtomicBoolean(false);
+
+		protected final AtomicLong m_delivered = new AtomicLong();
+
+		protected final AtomicLong m_dropped = new AtomicLong();
+
+		protected final AtomicLong m_failed = new AtomicLong();
+
+		protected final AtomicLong m_totalLag = new AtomicLong();
+
+		protected final AtomicLong m_maxLag = new AtomicLong();
+
+		protected ObserverChannel(Observer observer, int queueSize)
+		{
+			m_observer = observer;
+			m_queue = new LinkedBlockingQueue<Pending>(Math.max(1, queueSize));
+		}
+
+		/**
+		 * Queue the event for this observer and make sure a drain task is on its way.
+		 */
+		protected void enqueue(Object event, Executor executor)
+		{
+			Pending pending = new Pending(event, System.currentTimeMillis());
+			boolean queued = m_queue.offer(pending);
+			if (!queued && m_policy == OverflowPolicy.BLOCK)
+			{
+				try
+				{
+					queued = m_queue.offer(pending, m_blockTimeout, TimeUnit.MILLISECONDS);
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+			}
+
+			if (!queued)
+			{
+				// only complain once in a while, a stuck observer would otherwise flood the log
+				if (m_dropped.getAndIncrement() % 1000 == 0)
+				{
+					M_log.warn(m_name + ": queue full, dropping events for observer: " + m_observer + " dropped so far: " + m_dropped.get());
+				}
+				return;
+			}
+
+			schedule(executor);
+		}
+
+		protected void schedule(Executor executor)
+		{
+			if (m_scheduled.compareAndSet(false, true))
+			{
+				try
+				{
+					executor.execute(this);
+				}
+				catch (RejectedExecutionException e)
+				{
+					// the pool is shutting down - deliver what we have on this thread
+					m_scheduled.set(false);
+					drainAll();
+				}
+			}
+		}
+
+		/**
+		 * Drain task: deliver a batch of events, then reschedule if more arrived.
+		 */
+		public void run()
+		{
+			try
+			{
+				for (int i = 0; i < DRAIN_BATCH; i++)
+				{
+					Pending pending = m_queue.poll();
+					if (pending == null) break;
+					deliver(pending.m_event, pending.m_posted);
+				}
+			}
+			finally
+			{
+				m_scheduled.set(false);
+			}
+
+			Executor executor = m_executor;
+			if (!m_queue.isEmpty() && executor != null)
+			{
+				schedule(executor);
+			}
+		}
+
+		protected void drainAll()
+		{
+			Pending pending;
+			while ((pending = m_queue.poll()) != null)
+			{
+				deliver(pending.m_event, pending.m_posted);
+			}
+		}
+
+		/**
+		 * Call the observer, keeping a failure in one observer from reaching the others.
+		 *
+		 * @param posted
+		 *        When the event was queued, or 0 if delivered in-line.
+		 */
+		protected void deliver(Object event, long posted)
+		{
+			if (posted > 0)
+			{
+				long lag = System.currentTimeMillis() - posted;
+				m_totalLag.addAndGet(lag);
+				long max = m_maxLag.get();
+				while (lag > max && !m_maxLag.compareAndSet(max, lag))
+				{
+					max = m_maxLag.get();
+				}
+			}
+
+			try
+			{
+				m_observer.update(EventDispatcher.this, event);
+				m_delivered.incrementAndGet();
+			}
+			catch (RuntimeException e)
+			{
+				// in-line, keep the old behavior of letting the poster see the failure
+				if (posted == 0) throw e;
+				m_failed.incrementAndGet();
+				M_log.warn(m_name + ": observer: " + m_observer + " failed on event: " + event, e);
+			}
+		}
+
+		protected ObserverStats stats()
+		{
+			long delivered = m_delivered.get();
+			return new ObserverStats(String.valueOf(m_observer), m_queue.size(), delivered, m_dropped.get(), m_failed.get(),
+					delivered == 0 ? 0 : m_totalLag.get() / delivered, m_maxLag.get());
+		}
+	}
+
+	/**
+	 * <p>
+	 * A read-only snapshot of one observer's delivery counters.
+	 * </p>
+	 */
+	public static class ObserverStats
+	{
+		protected final String m_observer;
+
+		protected final int m_queued;
+
+		protected final long m_delivered;
+
+		protected final long m_dropped;
+
+		protected final long m_failed;
+
+		protected final long m_averageLag;
+
+		protected final long m_maxLag;
+
+		public ObserverStats(String observer, int queued, long delivered, long dropped, long failed, long averageLag, long maxLag)
+		{
+			m_observer = observer;
+			m_queued = queued;
+			m_delivered = delivered;
+			m_dropped = dropped;
+			m_failed = failed;
+			m_averageLag = averageLag;
+			m_maxLag = maxLag;
+		}
+
+		/** @return the observer's toString(). */
+		public String getObserver()
+		{
+			return m_observer;
+		}
+
+		/** @return the number of events waiting for the observer right now. */
+		public int getQueued()
+		{
+			return m_queued;
+		}
+
+		/** @return the number of events the observer has handled. */
+		public long getDelivered()
+		{
+			return m_delivered;
+		}
+
+		/** @return the number of events dropped because the observer's queue was full. */
+		public long getDropped()
+		{
+			return m_dropped;
+		}
+
+		/** @return the number of queued events the observer threw on. */
+		public long getFailed()
+		{
+			return m_failed;
+		}
+
+		/** @return the average time, in ms, between post and delivery. */
+		public long getAverageLag()
+		{
+			return m_averageLag;
+		}
+
+		/** @return the longest time, in ms, between post and delivery. */
+		public long getMaxLag()
+		{
+			return m_maxLag;
+		}
+
+		public String toString()
+		{
+			return m_observer + " queued: " + m_queued + " delivered: " + m_delivered + " dropped: " + m_dropped + " failed: " + m_failed
+					+ " avgLag: " + m_averageLag + "ms maxLag: " + m_maxLag + "ms";
+		}
+	}
+}
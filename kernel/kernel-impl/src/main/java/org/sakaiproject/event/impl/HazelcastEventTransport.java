@@ -0,0 +1,124 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2016 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.event.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sakaiproject.event.api.SimpleEvent;
+import org.sakaiproject.memory.api.MemoryService;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.ITopic;
+import com.hazelcast.core.Message;
+import com.hazelcast.core.MessageListener;
+
+/**
+ * <p>
+ * HazelcastEventTransport publishes events on a Hazelcast topic, using the HazelcastInstance of the Hazelcast MemoryService.
+ * </p>
+ */
+public class HazelcastEventTransport implements ClusterEventTransport
+{
+	/** Our logger. */
+	private static Logger M_log = LoggerFactory.getLogger(HazelcastEventTransport.class);
+
+	/** The default topic name. */
+	public static final String DEFAULT_TOPIC = "org.sakaiproject.event.impl.ClusterEventTracking.events";
+
+	protected final MemoryService m_memoryService;
+
+	protected final String m_topicName;
+
+	protected ITopic<SimpleEvent> m_topic = null;
+
+	protected String m_registration = null;
+
+	/**
+	 * Construct.
+	 *
+	 * @param memoryService
+	 *        The MemoryService, which must be backed by Hazelcast.
+	 * @param topicName
+	 *        The topic to publish on, or null for the default.
+	 */
+	public HazelcastEventTransport(MemoryService memoryService, String topicName)
+	{
+		m_memoryService = memoryService;
+		m_topicName = (topicName == null) ? DEFAULT_TOPIC : topicName;
+	}
+
+	public boolean start(final Listener listener)
+	{
+		HazelcastInstance instance = null;
+		try
+		{
+			instance = m_memoryService.unwrap(HazelcastInstance.class);
+		}
+		catch (Exception e)
+		{
+			M_log.debug("MemoryService is not backed by Hazelcast: " + e);
+		}
+
+		if (instance == null)
+		{
+			M_log.warn("Cannot start the Hazelcast event transport, the MemoryService is not backed by Hazelcast: " + m_memoryService);
+			return false;
+		}
+
+		m_topic = instance.getTopic(m_topicName);
+		m_registration = m_topic.addMessageListener(new MessageListener<SimpleEvent>()
+		{
+			public void onMessage(Message<SimpleEvent> message)
+			{
+				listener.received(message.getMessageObject());
+			}
+		});
+
+		M_log.info("Started Hazelcast event transport on topic: " + m_topicName);
+		return true;
+	}
+
+	public void publish(SimpleEvent event)
+	{
+		if (m_topic != null)
+		{
+			m_topic.publish(event);
+		}
+	}
+
+	public void stop()
+	{
+		if (m_topic != null)
+		{
+			try
+			{
+				m_topic.removeMessageListener(m_registration);
+			}
+			catch (Exception e)
+			{
+				// hazelcast may already be shut down
+				M_log.debug("stop(): " + e);
+			}
+			m_topic = null;
+		}
+	}
+}
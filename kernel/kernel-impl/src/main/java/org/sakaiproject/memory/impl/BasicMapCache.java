@@ -55,10 +55,15 @@ public class BasicMapCache<K, V> extends BasicCache<K, V> {
         this.cache = new ConcurrentHashMap<>();
     }
 
-    public BasicMapCache(String name, Map<? extends K, ? extends V> map) {
+    /**
+     * Construct the Cache on top of an existing map
+     *
+     * @param name the name for this cache
+     * @param map  the map which holds the cache entries (used directly, not copied)
+     */
+    public BasicMapCache(String name, Map<K, V> map) {
         super(name);
-        //noinspection unchecked
-        this.cache.putAll(map);
+        this.cache = map;
     }
 
     @Override
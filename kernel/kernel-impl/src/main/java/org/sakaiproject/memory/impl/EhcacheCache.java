@@ -254,7 +254,10 @@ public class EhcacheCache<K, V> extends BasicCache<K, V> implements CacheEventLi
         if (!keys.isEmpty()) {
             Map<Object, Element> mapElements = cache.getAll(keys);
             for (Map.Entry<Object, Element> entry : mapElements.entrySet()) {
-                map.put((K)entry.getKey(), (V)entry.getValue().getObjectValue());
+                // ehcache maps the keys it does not hold to null
+                if (entry.getValue() != null && entry.getValue().getObjectValue() != null) {
+                    map.put((K)entry.getKey(), (V)entry.getValue().getObjectValue());
+                }
             }
         }
         return map;
@@ -39,7 +39,7 @@ import java.util.Set;
 public class HazelcastCache<K, V> extends BasicMapCache<K, V> {
     final Logger log = LoggerFactory.getLogger(HazelcastCache.class);
 
-    private IMap<K, V> cache;
+    final IMap<K, V> cache;
 
     /**
      * Construct the Cache
@@ -47,8 +47,9 @@ public class HazelcastCache<K, V> extends BasicMapCache<K, V> {
      *
      * @param hcMap the hazelcast Map (IMap)
      */
-    public HazelcastCache(IMap hcMap) {
+    public HazelcastCache(IMap<K, V> hcMap) {
         super(hcMap.getName(), hcMap);
+        this.cache = hcMap;
     }
 
     @Override
@@ -41,6 +41,7 @@ import org.sakaiproject.memory.api.Configuration;
 import org.sakaiproject.memory.api.MemoryService;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Hazelcast based implementation of the MemoryService API which is automatically distributed by the nature of hazelcast
@@ -57,6 +58,15 @@ public class HazelcastMemoryService implements MemoryService {
     SecurityService securityService;
     HazelcastInstance hcInstance;
 
+    /** near caches publish clears of their map on the topic named this plus the cache name */
+    static final String NEAR_CACHE_CLEAR_TOPIC_PREFIX = "nearcache.clear.";
+    /**
+     * Caches which have a near cache in front of the distributed map (memory.hc.nearcache.{cacheName}=true),
+     * kept so each one registers its map entry listener only once
+     */
+    final ConcurrentHashMap<String, HazelcastNearCache> nearCaches = new ConcurrentHashMap<String, HazelcastNearCache>();
+    int nearCacheMaxEntries = 10000;
+    long nearCacheTimeToLive = 300;
 
     public HazelcastMemoryService() {}
 
@@ -86,6 +96,8 @@ public class HazelcastMemoryService implements MemoryService {
         if (hcInstance == null) {
             throw new IllegalStateException("init(): HazelcastInstance is null!");
         }
+        nearCacheMaxEntries = serverConfigurationService.getInt("memory.hc.nearcache.maxEntries", nearCacheMaxEntries);
+        nearCacheTimeToLive = serverConfigurationService.getInt("memory.hc.nearcache.timeToLive", (int) nearCacheTimeToLive);
         log.info("INIT: " + hcInstance.getName() + " ("+(clientConfigured?"client:"+hcInstance.getClientService():"localServer")+"), cache maps: " + hcInstance.getDistributedObjects());
     }
 
@@ -93,6 +105,10 @@ public class HazelcastMemoryService implements MemoryService {
      * Service SHUTDOWN
      */
     public void destroy() {
+        for (HazelcastNearCache nearCache : nearCaches.values()) {
+            nearCache.detach();
+        }
+        nearCaches.clear();
         try {
             hcInstance.shutdown();
         } catch (CacheException e) {
@@ -119,12 +135,12 @@ public class HazelcastMemoryService implements MemoryService {
 
     @Override
     public <K, V, C extends Configuration<K, V>> Cache createCache(String cacheName, C configuration) {
-        return new HazelcastCache(makeHazelcastCache(cacheName, configuration));
+        return wrapHazelcastCache(makeHazelcastCache(cacheName, configuration));
     }
 
     @Override
     public Cache getCache(String cacheName) {
-        return new HazelcastCache(makeHazelcastCache(cacheName, null));
+        return wrapHazelcastCache(makeHazelcastCache(cacheName, null));
     }
 
     @Override
@@ -133,7 +149,10 @@ public class HazelcastMemoryService implements MemoryService {
             Collection<DistributedObject> distributedObjects = hcInstance.getDistributedObjects();
             ArrayList<String> names = new ArrayList<String>(distributedObjects.size());
             for (DistributedObject distributedObject : distributedObjects) {
-                names.add(distributedObject.getName());
+                // the near cache clear topics are not caches
+                if (distributedObject instanceof IMap) {
+                    names.add(distributedObject.getName());
+                }
             }
             return names;
         } else {
@@ -143,6 +162,10 @@ public class HazelcastMemoryService implements MemoryService {
 
     @Override
     public void destroyCache(String cacheName) {
+        HazelcastNearCache nearCache = nearCaches.remove(cacheName);
+        if (nearCache != null) {
+            nearCache.detach();
+        }
         if (this.hcInstance != null) {
             IMap hcMap = this.hcInstance.getMap(cacheName);
             if (hcMap != null) {
@@ -171,7 +194,13 @@ public class HazelcastMemoryService implements MemoryService {
             Collection<DistributedObject> distributedObjects = hcInstance.getDistributedObjects();
             for (DistributedObject distributedObject : distributedObjects) {
                 if (distributedObject instanceof IMap) {
-                    ((IMap)distributedObject).clear();
+                    // through the near cache if there is one, so the other members drop theirs too
+                    HazelcastNearCache nearCache = nearCaches.get(distributedObject.getName());
+                    if (nearCache != null) {
+                        nearCache.clear();
+                    } else {
+                        ((IMap)distributedObject).clear();
+                    }
                 }
             }
         }
@@ -207,7 +236,10 @@ public class HazelcastMemoryService implements MemoryService {
 
         // summary (cache descriptions)
         for (Map.Entry<String, IMap> entry : caches.entrySet()) {
-            Cache c = new HazelcastCache(entry.getValue());
+            Cache c = nearCaches.get(entry.getKey());
+            if (c == null) {
+                c = new HazelcastCache(entry.getValue());
+            }
             buf.append(c.getDescription()).append("\n");
         }
 
@@ -312,6 +344,34 @@ public class HazelcastMemoryService implements MemoryService {
     }
 
 
+    /**
+     * Wraps the IMap in a Cache, putting a near cache in front of it when memory.hc.nearcache.{cacheName}=true.
+     * Near caches suit read mostly caches (sites, users) where a very short window of staleness after a change
+     * on another server is acceptable.
+     *
+     * @param hcMap the hazelcast map holding the cache
+     * @return the Cache for the map
+     */
+    Cache wrapHazelcastCache(IMap hcMap) {
+        String name = hcMap.getName();
+        HazelcastNearCache nearCache = nearCaches.get(name);
+        if (nearCache != null) {
+            return nearCache;
+        }
+        if (!serverConfigurationService.getBoolean("memory.hc.nearcache." + name, false)) {
+            return new HazelcastCache(hcMap);
+        }
+        nearCache = new HazelcastNearCache(hcMap, hcInstance.<String>getTopic(NEAR_CACHE_CLEAR_TOPIC_PREFIX + name), nearCacheMaxEntries, nearCacheTimeToLive);
+        HazelcastNearCache existing = nearCaches.putIfAbsent(name, nearCache);
+        if (existing != null) {
+            // another thread got there first
+            nearCache.detach();
+            return existing;
+        }
+        log.info("Near cache enabled for cache (" + name + "): maxEntries=" + nearCacheMaxEntries + ", timeToLive=" + nearCacheTimeToLive);
+        return nearCache;
+    }
+
     /**
      * @param cacheName the name of the cache
      * @param configuration [OPTIONAL] a config to use when building the cache, if null then use default methods to create cache
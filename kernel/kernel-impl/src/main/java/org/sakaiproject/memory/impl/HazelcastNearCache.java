@@ -0,0 +1,321 @@
+/******************************************************************************
+ * $URL$
+ * $Id$
+ ******************************************************************************
+ *
+ * Copyright (c) 2003-2014 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *       http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ *****************************************************************************/
+
+package org.sakaiproject.memory.impl;
+
+import com.hazelcast.core.EntryAdapter;
+import com.hazelcast.core.EntryEvent;
+import com.hazelcast.core.IMap;
+import com.hazelcast.core.ITopic;
+import com.hazelcast.core.Message;
+import com.hazelcast.core.MessageListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sakaiproject.memory.api.CacheStatistics;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A HazelcastCache with a bounded local (near) cache in front of the distributed map, so repeated gets of the same keys
+ * are served from this server's memory rather than with a network hop.
+ *
+ * Every change to the distributed map (from any member, this one included) removes the key from the near cache, through a
+ * map entry listener. Hazelcast sends no entry events for IMap.clear(), so a clear() made through this cache is also
+ * published on a topic, and every member drops its whole near cache when the message arrives. Both are asynchronous, so
+ * a near entry can be stale for as long as the event takes to arrive, and near entries also expire after a time to live
+ * in case one is lost. Caches that cannot tolerate this should not use a near cache.
+ *
+ * The near cache is bounded by evicting the least recently used entries first.
+ */
+public class HazelcastNearCache<K, V> extends HazelcastCache<K, V> {
+    final Logger log = LoggerFactory.getLogger(HazelcastNearCache.class);
+
+    private final int maxEntries;
+    private final long timeToLiveMillis;
+
+    /** access ordered and bounded, so the least recently used entry goes first (guarded by itself) */
+    private final LinkedHashMap<K, NearEntry<V>> near;
+    private final String listenerId;
+    private final ITopic<String> clearTopic;
+    private final String clearListenerId;
+
+    /** bumped on every invalidation, so a get racing with one does not put a stale value in the near cache */
+    private final AtomicLong invalidationStamp = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Construct the Cache and start listening for changes to the distributed map
+     *
+     * @param hcMap the hazelcast Map (IMap)
+     * @param clearTopic the topic that clears of the map are published on, shared by all members
+     * @param maxEntries the most entries to hold in the near cache
+     * @param timeToLiveSeconds the longest time to hold an entry in the near cache
+     */
+    public HazelcastNearCache(IMap<K, V> hcMap, ITopic<String> clearTopic, int maxEntries, long timeToLiveSeconds) {
+        super(hcMap);
+        this.clearTopic = clearTopic;
+        this.maxEntries = maxEntries;
+        this.timeToLiveMillis = timeToLiveSeconds * 1000L;
+        this.near = new LinkedHashMap<K, NearEntry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, NearEntry<V>> eldest) {
+                if (size() > HazelcastNearCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.listenerId = hcMap.addEntryListener(new EntryAdapter<K, V>() {
+            @Override
+            public void onEntryEvent(EntryEvent<K, V> event) {
+                invalidate(event.getKey());
+            }
+        }, false);
+        this.clearListenerId = clearTopic.addMessageListener(new MessageListener<String>() {
+            @Override
+            public void onMessage(Message<String> message) {
+                clearNear();
+            }
+        });
+    }
+
+    @Override
+    public V get(K key) {
+        NearEntry<V> entry = getNear(key, System.currentTimeMillis());
+        if (entry != null) {
+            hits.incrementAndGet();
+            return entry.value;
+        }
+        misses.incrementAndGet();
+
+        long stamp = invalidationStamp.get();
+        V value = cache.get(key);
+        if (value != null && stamp == invalidationStamp.get()) {
+            putNear(key, value);
+        }
+        return value;
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        if (getNear(key, System.currentTimeMillis()) != null) {
+            return true;
+        }
+        return cache.containsKey(key);
+    }
+
+    @Override
+    public void put(K key, V payload) {
+        cache.put(key, payload);
+        // our own entry event will do this too, but later
+        invalidate(key);
+    }
+
+    @Override
+    public boolean remove(K key) {
+        boolean removed = (cache.remove(key) != null);
+        invalidate(key);
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        cache.clear();
+        clearNear();
+        // IMap.clear() sends no entry events, so tell the other members (this one hears it too, which is harmless)
+        clearTopic.publish(cache.getName());
+    }
+
+    @Override
+    public void removeAll() {
+        clear();
+    }
+
+    @Override
+    public Map<K, V> getAll(Set<? extends K> keys) {
+        Map<K, V> rv = new HashMap<>();
+        Set<K> missing = new HashSet<>();
+        long now = System.currentTimeMillis();
+        for (K key : keys) {
+            NearEntry<V> entry = getNear(key, now);
+            if (entry != null) {
+                hits.incrementAndGet();
+                rv.put(key, entry.value);
+            } else {
+                misses.incrementAndGet();
+                missing.add(key);
+            }
+        }
+        if (!missing.isEmpty()) {
+            long stamp = invalidationStamp.get();
+            Map<K, V> loaded = cache.getAll(missing);
+            if (stamp == invalidationStamp.get()) {
+                for (Map.Entry<K, V> entry : loaded.entrySet()) {
+                    if (entry.getValue() != null) {
+                        putNear(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            rv.putAll(loaded);
+        }
+        return rv;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> entries) {
+        cache.putAll(entries);
+        for (K key : entries.keySet()) {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public void removeAll(Set<? extends K> keys) {
+        super.removeAll(keys);
+        for (K key : keys) {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public void close() {
+        cache.removeEntryListener(listenerId);
+        clearTopic.removeMessageListener(clearListenerId);
+        clearNear();
+        super.close();
+    }
+
+    /**
+     * Stop listening for changes and drop the near cache, leaving the distributed map as it is
+     */
+    void detach() {
+        cache.removeEntryListener(listenerId);
+        clearTopic.removeMessageListener(clearListenerId);
+        clearNear();
+    }
+
+    @Override
+    public String getDescription() {
+        return super.getDescription() + " near(size=" + getNearSize() + ", max=" + maxEntries + ", hits=" + hits.get()
+                + ", misses=" + misses.get() + ", invalidations=" + invalidations.get() + ", evictions=" + evictions.get() + ")";
+    }
+
+    @Override
+    public CacheStatistics getCacheStatistics() {
+        return new CacheStatistics() {
+            @Override
+            public long getCacheHits() {
+                return hits.get();
+            }
+            @Override
+            public long getCacheMisses() {
+                return misses.get();
+            }
+        };
+    }
+
+    @Override
+    public Properties getProperties(boolean includeExpensiveDetails) {
+        Properties p = super.getProperties(includeExpensiveDetails);
+        p.put("nearCacheSize", getNearSize());
+        p.put("nearCacheMaxEntries", maxEntries);
+        p.put("nearCacheTimeToLiveSeconds", timeToLiveMillis / 1000L);
+        p.put("nearCacheHits", hits.get());
+        p.put("nearCacheMisses", misses.get());
+        p.put("nearCacheInvalidations", invalidations.get());
+        p.put("nearCacheEvictions", evictions.get());
+        return p;
+    }
+
+    /**
+     * @return the number of entries in the near cache
+     */
+    int getNearSize() {
+        synchronized (near) {
+            return near.size();
+        }
+    }
+
+    long getInvalidationCount() {
+        return invalidations.get();
+    }
+
+    /**
+     * @return the live near entry for the key, or null (dropping it if it has expired)
+     */
+    private NearEntry<V> getNear(K key, long now) {
+        synchronized (near) {
+            NearEntry<V> entry = near.get(key);
+            if (entry != null && entry.expires <= now) {
+                near.remove(key);
+                entry = null;
+            }
+            return entry;
+        }
+    }
+
+    private void putNear(K key, V value) {
+        NearEntry<V> entry = new NearEntry<>(value, System.currentTimeMillis() + timeToLiveMillis);
+        synchronized (near) {
+            near.put(key, entry);
+        }
+    }
+
+    private void invalidate(K key) {
+        invalidationStamp.incrementAndGet();
+        NearEntry<V> removed;
+        synchronized (near) {
+            removed = near.remove(key);
+        }
+        if (removed != null) {
+            invalidations.incrementAndGet();
+        }
+    }
+
+    private void clearNear() {
+        invalidationStamp.incrementAndGet();
+        synchronized (near) {
+            near.clear();
+        }
+    }
+
+    private static class NearEntry<V> {
+        final V value;
+        final long expires;
+
+        NearEntry(V value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+}
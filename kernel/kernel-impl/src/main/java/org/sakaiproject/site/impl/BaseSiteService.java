@@ -551,7 +551,7 @@ public abstract class BaseSiteService implements SiteService, Observer
 
 		try
 		{
-			Site site = getSite(id);
+			Site site = getSiteSnapshot(id);
 			
 			allowAccessSite(site);
 			rv = true;
@@ -836,6 +836,52 @@ public abstract class BaseSiteService implements SiteService, Observer
 		return rv;
 	}
 
+	/**
+	 * @inheritDoc
+	 */
+	public Site getSiteSnapshot(String id) throws IdUnusedException
+	{
+		if (id == null) throw new IdUnusedException("null");
+
+		// views share the cached site, so only a fully loaded site will do
+		if (m_siteCache != null)
+		{
+			Object o = m_siteCache.get(siteReference(id));
+			if ((o instanceof BaseSite) && ((BaseSite) o).isFullyLoaded())
+			{
+				return SiteSnapshot.of(this, (Site) o);
+			}
+		}
+
+		Site rv = storage().get(id);
+
+		// not found - getSite() knows how to make user sites
+		if (rv == null) return SiteSnapshot.of(this, getSite(id));
+
+		rv.loadAll();
+
+		// nobody else has this site, so cache it as it is rather than a copy
+		if (m_siteCache != null)
+		{
+			m_siteCache.put(siteReference(id), rv);
+		}
+
+		return SiteSnapshot.of(this, rv);
+	}
+
+	/**
+	 * @inheritDoc
+	 */
+	public Site getSiteVisitSnapshot(String id) throws IdUnusedException, PermissionException
+	{
+		Site rv = getSiteSnapshot(id);
+
+		// Check is user has access, throws PermissionException if the user doesn't
+		allowAccessSite(rv);
+
+		return rv;
+	}
+
 	/**
 	 * @inheritDoc
 	 */
@@ -1146,7 +1192,7 @@ public abstract class BaseSiteService implements SiteService, Observer
 	private boolean isCourseSite(String siteId) {
 		boolean rv = false;
 		try {
-			Site s = getSite(siteId);
+			Site s = getSiteSnapshot(siteId);
 			List<String> courseSiteTypes = getSiteTypeStrings("course");
 			if (courseSiteTypes.contains(s.getType())) 
 				return true;
@@ -1161,7 +1207,7 @@ public abstract class BaseSiteService implements SiteService, Observer
 	private boolean isPortfolioSite(String siteId) {
 		boolean rv = false;
 		try {
-			Site s = getSite(siteId);
+			Site s = getSiteSnapshot(siteId);
 			List<String> portfolioSiteTypes = getSiteTypeStrings("portfolio");
 			if (portfolioSiteTypes.contains(s.getType())) 
 				return true;
@@ -1176,7 +1222,7 @@ public abstract class BaseSiteService implements SiteService, Observer
 	private boolean isProjectSite(String siteId) {
 		boolean rv = false;
 		try {
-			Site s = getSite(siteId);
+			Site s = getSiteSnapshot(siteId);
 			List<String> projectSiteTypes = getSiteTypeStrings("project");
 			if (projectSiteTypes.contains(s.getType())) 
 				return true;
@@ -1359,7 +1405,7 @@ public abstract class BaseSiteService implements SiteService, Observer
 		{
 			try
 			{
-				Site site = getSite(id);
+				Site site = getSiteSnapshot(id);
 				if (site.isSoftlyDeleted())
 				{
 					lock = SECURE_REMOVE_SOFTLY_DELETED_SITE;
@@ -3558,7 +3604,7 @@ public abstract class BaseSiteService implements SiteService, Observer
 		
 		String parentId = null;
 		try {
-			Site s = this.getSite(siteId);
+			Site s = this.getSiteSnapshot(siteId);
 			ResourceProperties rp = s.getProperties();
 			parentId = rp.getProperty(PROP_PARENT_ID);
 		} catch (IdUnusedException e) {
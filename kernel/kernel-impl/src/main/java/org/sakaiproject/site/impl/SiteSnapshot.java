@@ -0,0 +1,268 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2016 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.site.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.sakaiproject.authz.api.Member;
+import org.sakaiproject.authz.api.Role;
+import org.sakaiproject.entity.api.ResourceProperties;
+import org.sakaiproject.site.api.Group;
+import org.sakaiproject.site.api.Site;
+import org.sakaiproject.site.api.SitePage;
+import org.sakaiproject.site.api.ToolConfiguration;
+import org.sakaiproject.time.api.Time;
+
+/**
+ * <p>
+ * A read only view of a cached site, which shares the cached site's pages, tools, groups and properties rather than
+ * copying them. Everything reached through the view (pages, tools, groups, roles, members, properties and collections of
+ * them) is itself read only; any method which would change the site throws UnsupportedOperationException.
+ * </p>
+ * <p>
+ * Membership and role information is not kept in the cached site, since realms change without the site changing. The
+ * first such call on a view makes a private copy of the site (or group), as getSite() would have, and answers from that.
+ * So does getOrderedPages(), which sets page category properties as it orders the pages.
+ * </p>
+ * <p>
+ * A view is equal to another view of an equal object, but not to the cached object itself.
+ * </p>
+ */
+class SiteSnapshot implements InvocationHandler
+{
+	/** The interfaces we hand out read only views of, most specific first. */
+	protected static final List<Class<?>> VIEWED = Arrays.<Class<?>> asList(Site.class, Group.class, SitePage.class,
+			ToolConfiguration.class, Role.class, Member.class, ResourceProperties.class);
+
+	/** Methods which change things, beyond the set / add / remove ones. */
+	protected static final Set<String> MUTATORS = new HashSet<String>(Arrays.asList("allowFunction", "allowFunctions",
+			"clear", "disallowAll", "disallowFunction", "disallowFunctions", "getPropertiesEdit", "keepIntersection",
+			"localizePage", "lockGroup", "moveDown", "moveUp", "regenerateIds", "save", "set", "setupPageCategory",
+			"unlockGroup"));
+
+	/** Site and Group methods answered from the realm rather than the cached site. */
+	protected static final Set<String> REALM_READS = new HashSet<String>(Arrays.asList("getGroupsWithMember",
+			"getGroupsWithMemberHasRole", "getGroupsWithMembers", "getMaintainRole", "getMember", "getMembers",
+			"getMembersInGroups", "getProviderGroupId", "getRole", "getRoles", "getRolesIsAllowed", "getUserRole", "getUsers",
+			"getUsersHasRole", "getUsersIsAllowed", "hasRole", "isAllowed", "isEmpty"));
+
+	/** Site reads which change the site while they work, so must run on a private copy. */
+	protected static final Set<String> CHANGING_READS = new HashSet<String>(Arrays.asList("getOrderedPages"));
+
+	protected final BaseSiteService m_siteService;
+
+	/** The shared (cached) object. */
+	protected final Object m_target;
+
+	/** A private copy of a site or group, made for the first realm read. */
+	protected Object m_copy = null;
+
+	/**
+	 * Make a read only view of a fully loaded site.
+	 *
+	 * @param siteService
+	 *        The site service.
+	 * @param site
+	 *        The site, which must not be changed while views of it are in use.
+	 * @return The read only view.
+	 */
+	static Site of(BaseSiteService siteService, Site site)
+	{
+		return (Site) view(siteService, site);
+	}
+
+	/**
+	 * @return true if the object is a read only view made here.
+	 */
+	static boolean isSnapshot(Object o)
+	{
+		return (o != null) && Proxy.isProxyClass(o.getClass()) && (Proxy.getInvocationHandler(o) instanceof SiteSnapshot);
+	}
+
+	protected SiteSnapshot(BaseSiteService siteService, Object target)
+	{
+		m_siteService = siteService;
+		m_target = target;
+	}
+
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+	{
+		String name = method.getName();
+		if (isMutator(name))
+		{
+			throw new UnsupportedOperationException(name + "() on a read only site, use SiteService.getSite() to get a site to change");
+		}
+
+		// a view's site is already fully loaded
+		if ("loadAll".equals(name) && (args == null)) return null;
+
+		// views are only equal to views, as the cached objects' equals() won't accept a view
+		if ("equals".equals(name) && (args != null) && (args.length == 1))
+		{
+			return isSnapshot(args[0]) && m_target.equals(((SiteSnapshot) Proxy.getInvocationHandler(args[0])).m_target);
+		}
+
+		if (args != null)
+		{
+			for (int i = 0; i < args.length; i++)
+			{
+				if (isSnapshot(args[i])) args[i] = ((SiteSnapshot) Proxy.getInvocationHandler(args[i])).m_target;
+			}
+		}
+
+		Object target = m_target;
+		if (REALM_READS.contains(name) && ((m_target instanceof BaseSite) || (m_target instanceof BaseGroup)))
+		{
+			target = privateCopy();
+		}
+		else if (CHANGING_READS.contains(name) && (m_target instanceof BaseSite))
+		{
+			target = privateCopy();
+		}
+
+		try
+		{
+			return wrap(method.invoke(target, args));
+		}
+		catch (InvocationTargetException e)
+		{
+			throw e.getCause();
+		}
+	}
+
+	protected synchronized Object privateCopy()
+	{
+		if (m_copy == null)
+		{
+			if (m_target instanceof BaseSite)
+			{
+				m_copy = new BaseSite(m_siteService, (Site) m_target, true);
+			}
+			else
+			{
+				Group group = (Group) m_target;
+				m_copy = new BaseGroup(m_siteService, group, group.getContainingSite(), true);
+			}
+		}
+		return m_copy;
+	}
+
+	protected Object wrap(Object value)
+	{
+		if (value == null || value instanceof String || value instanceof Boolean) return value;
+		if (value instanceof Time) return ((Time) value).clone();
+		if (value instanceof Date) return ((Date) value).clone();
+		if (value instanceof Properties)
+		{
+			Properties copy = new Properties();
+			copy.putAll((Properties) value);
+			return copy;
+		}
+		if (value instanceof List)
+		{
+			List<Object> rv = new ArrayList<Object>(((List<?>) value).size());
+			for (Object o : (List<?>) value)
+			{
+				rv.add(wrap(o));
+			}
+			return Collections.unmodifiableList(rv);
+		}
+		if (value instanceof Set)
+		{
+			Set<Object> rv = new LinkedHashSet<Object>();
+			for (Object o : (Set<?>) value)
+			{
+				rv.add(wrap(o));
+			}
+			return Collections.unmodifiableSet(rv);
+		}
+		if (value instanceof Collection)
+		{
+			List<Object> rv = new ArrayList<Object>(((Collection<?>) value).size());
+			for (Object o : (Collection<?>) value)
+			{
+				rv.add(wrap(o));
+			}
+			return Collections.unmodifiableCollection(rv);
+		}
+		if (value instanceof Iterator)
+		{
+			List<Object> rv = new ArrayList<Object>();
+			for (Iterator<?> i = (Iterator<?>) value; i.hasNext();)
+			{
+				rv.add(wrap(i.next()));
+			}
+			return Collections.unmodifiableList(rv).iterator();
+		}
+		if (value instanceof Map)
+		{
+			Map<Object, Object> rv = new LinkedHashMap<Object, Object>();
+			for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet())
+			{
+				rv.put(e.getKey(), wrap(e.getValue()));
+			}
+			return Collections.unmodifiableMap(rv);
+		}
+		return view(m_siteService, value);
+	}
+
+	protected static Object view(BaseSiteService siteService, Object value)
+	{
+		if (isSnapshot(value)) return value;
+		for (Class<?> type : VIEWED)
+		{
+			if (type.isInstance(value))
+			{
+				return Proxy.newProxyInstance(SiteSnapshot.class.getClassLoader(), new Class<?>[] { type },
+						new SiteSnapshot(siteService, value));
+			}
+		}
+		return value;
+	}
+
+	protected static boolean isMutator(String name)
+	{
+		return MUTATORS.contains(name) || startsWithWord(name, "set") || startsWithWord(name, "add")
+				|| startsWithWord(name, "remove");
+	}
+
+	protected static boolean startsWithWord(String name, String prefix)
+	{
+		return name.startsWith(prefix) && ((name.length() == prefix.length()) || Character.isUpperCase(name.charAt(prefix.length())));
+	}
+}
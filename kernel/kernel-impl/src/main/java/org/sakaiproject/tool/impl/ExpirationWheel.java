@@ -0,0 +1,189 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2016 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.tool.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * <p>
+ * A hashed timing wheel of items waiting to be checked for expiration. Each slot of the wheel holds the items due in one
+ * tick, so a maintenance pass only visits the items whose slots have come round instead of every item.
+ * </p>
+ * <p>
+ * Adding an item is lock free and O(1); new items are checked on the next pass, which tells the wheel when to look at
+ * them again. Items are never moved when their due time changes; when a slot comes round the checker either finishes
+ * with the item or returns a new due time. Items due further out than one turn of the wheel are just looked at once
+ * per turn.
+ * </p>
+ * <p>
+ * Only one thread at a time may advance the wheel.
+ * </p>
+ */
+class ExpirationWheel<T>
+{
+	/** Number of slots - with the default one minute check this covers more than 8 hours. */
+	protected static final int SLOTS = 512;
+
+	/**
+	 * Decides what to do with an item whose slot has come round.
+	 */
+	interface Checker<T>
+	{
+		/**
+		 * @param item
+		 *        The item to check.
+		 * @param now
+		 *        The time of this pass.
+		 * @return The time the item should next be checked (anything up to now means the next pass), or -1 to drop it.
+		 */
+		long check(T item, long now);
+	}
+
+	/** Items added since the last pass. */
+	protected final ConcurrentLinkedQueue<T> m_added = new ConcurrentLinkedQueue<T>();
+
+	/** The slots, each holding the items due in one tick. */
+	protected final List<List<T>> m_slots = new ArrayList<List<T>>(SLOTS);
+
+	/** The length of a tick (ms). */
+	protected long m_tickMillis;
+
+	/** The last tick processed, -1 before the first pass. */
+	protected long m_cursor = -1;
+
+	/** Number of items in the slots. */
+	protected int m_scheduled = 0;
+
+	/**
+	 * Construct.
+	 *
+	 * @param tickMillis
+	 *        The length of a tick - usually the time between passes (ms).
+	 */
+	ExpirationWheel(long tickMillis)
+	{
+		for (int i = 0; i < SLOTS; i++)
+		{
+			m_slots.add(new ArrayList<T>());
+		}
+		setTickMillis(tickMillis);
+	}
+
+	/**
+	 * Add an item to be checked on the next pass.
+	 *
+	 * @param item
+	 *        The item.
+	 */
+	void add(T item)
+	{
+		m_added.add(item);
+	}
+
+	/**
+	 * Change the length of a tick. Everything in the wheel is checked again on the next pass.
+	 *
+	 * @param tickMillis
+	 *        The length of a tick (ms).
+	 */
+	synchronized void setTickMillis(long tickMillis)
+	{
+		if (tickMillis <= 0) throw new IllegalArgumentException("tickMillis must be positive: " + tickMillis);
+		if (tickMillis == m_tickMillis) return;
+
+		m_tickMillis = tickMillis;
+		m_cursor = -1;
+		for (List<T> slot : m_slots)
+		{
+			m_added.addAll(slot);
+			slot.clear();
+		}
+		m_scheduled = 0;
+	}
+
+	/**
+	 * Check the items which are due by now, and the newly added ones.
+	 *
+	 * @param now
+	 *        The current time (ms).
+	 * @param checker
+	 *        Checks each due item.
+	 * @return The number of items checked.
+	 */
+	synchronized int advance(long now, Checker<T> checker)
+	{
+		long current = now / m_tickMillis;
+		if (m_cursor < 0) m_cursor = current - 1;
+
+		List<T> due = new ArrayList<T>();
+		for (T item = m_added.poll(); item != null; item = m_added.poll())
+		{
+			due.add(item);
+		}
+
+		// one turn of the wheel visits every slot, however long since the last pass
+		for (long tick = Math.max(m_cursor + 1, current - SLOTS + 1); tick <= current; tick++)
+		{
+			List<T> slot = m_slots.get(slotIndex(tick));
+			if (!slot.isEmpty())
+			{
+				due.addAll(slot);
+				m_scheduled -= slot.size();
+				slot.clear();
+			}
+		}
+		if (current > m_cursor) m_cursor = current;
+
+		for (T item : due)
+		{
+			long next = checker.check(item, now);
+			if (next >= 0)
+			{
+				schedule(item, next);
+			}
+		}
+
+		return due.size();
+	}
+
+	/**
+	 * @return The number of items in the wheel.
+	 */
+	synchronized int size()
+	{
+		return m_scheduled + m_added.size();
+	}
+
+	protected void schedule(T item, long dueMillis)
+	{
+		long tick = Math.max(dueMillis / m_tickMillis, m_cursor + 1);
+		m_slots.get(slotIndex(tick)).add(item);
+		m_scheduled++;
+	}
+
+	protected int slotIndex(long tick)
+	{
+		return (int) (tick % SLOTS);
+	}
+}
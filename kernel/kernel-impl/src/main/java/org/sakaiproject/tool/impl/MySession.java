@@ -207,7 +207,17 @@ public class MySession implements Session, HttpSession, Serializable
 	public void setMaxInactiveInterval(int interval)
 	{
 		m_inactiveInterval = interval;
-		resetExpirationTimeSuggestion(); // added for KNL-1088
+
+		// a shorter interval can bring the expiration forward, so have maintenance check the session by then (KNL-1088)
+		long due = m_accessed + getMaxInactiveIntervalMillis();
+		if (interval > 0 && due < expirationTimeSuggestion.longValue())
+		{
+			expirationTimeSuggestion.setValue(due);
+			if (sessionStore instanceof SessionComponent)
+			{
+				((SessionComponent) sessionStore).refileExpiration(m_id, expirationTimeSuggestion);
+			}
+		}
 	}
 
 	/**
@@ -26,6 +26,7 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.Principal;
 import java.security.SecureRandom;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -76,9 +77,11 @@ public abstract class SessionComponent implements SessionManager, SessionStore
 	 * The expected time sessions may be ready for expiration.  This is only an optimization
 	 * for when Terracotta is in use, to prevent faulting Session objects into the local
 	 * JVM when it is not necessary. Session.isInactive() method remains the ultimate authority
-	 * to determine if a session is invalid or not.
+	 * to determine if a session is invalid or not. Each entry is the one currently filed in the expiration wheel.
 	 */
-	protected Map<String,MutableLong> expirationTimeSuggestionMap = new ConcurrentHashMap<String, MutableLong>();
+	protected Map<String,Map.Entry<String, MutableLong>> expirationTimeSuggestionMap = new ConcurrentHashMap<String, Map.Entry<String, MutableLong>>();
+	/** The expirationTimeSuggestionMap entries, filed by when they are next due, so maintenance only checks the sessions due. */
+	protected ExpirationWheel<Map.Entry<String, MutableLong>> m_expirationWheel = new ExpirationWheel<Map.Entry<String, MutableLong>>(60 * 1000L);
 	/** The maintenance. */
 	protected Maintenance m_maintenance = null;
 	/** The set of tool ids that represent tools that can be clustered */
@@ -375,7 +378,7 @@ public abstract class SessionComponent implements SessionManager, SessionStore
 		Session old = m_sessions.put(s.getId(), s);
 
 		// Place an entry in the expirationTimeSuggestionMap that corresponds to the entry in m_sessions
-		expirationTimeSuggestionMap.put(id, currentTime);
+		trackExpiration(id, currentTime);
 
 		// check for id conflict
 		if (old != null)
@@ -386,6 +389,42 @@ public abstract class SessionComponent implements SessionManager, SessionStore
 		return s;
 	}
 
+	/**
+	 * Record the expiration time suggestion for a session and have maintenance start checking it.
+	 *
+	 * @param id
+	 *        The session id.
+	 * @param expirationTimeSuggestion
+	 *        The session's expiration time suggestion.
+	 */
+	protected void trackExpiration(String id, MutableLong expirationTimeSuggestion)
+	{
+		Map.Entry<String, MutableLong> entry = new AbstractMap.SimpleImmutableEntry<String, MutableLong>(id, expirationTimeSuggestion);
+		expirationTimeSuggestionMap.put(id, entry);
+		m_expirationWheel.add(entry);
+	}
+
+	/**
+	 * File a tracked session in the expiration wheel again, for when its expiration time suggestion has been brought
+	 * forward. The wheel never moves items, so the earlier filing is just dropped when its slot comes round.
+	 *
+	 * @param id
+	 *        The session id.
+	 * @param expirationTimeSuggestion
+	 *        The session's expiration time suggestion.
+	 */
+	protected void refileExpiration(String id, MutableLong expirationTimeSuggestion)
+	{
+		Map.Entry<String, MutableLong> current = expirationTimeSuggestionMap.get(id);
+		if (current == null || current.getValue() != expirationTimeSuggestion) return;
+
+		Map.Entry<String, MutableLong> entry = new AbstractMap.SimpleImmutableEntry<String, MutableLong>(id, expirationTimeSuggestion);
+		if (expirationTimeSuggestionMap.replace(id, current, entry))
+		{
+			m_expirationWheel.add(entry);
+		}
+	}
+
 	protected MutableLong currentTimeMutableLong()
 	{
 		return new MutableLong(System.currentTimeMillis());
@@ -534,6 +573,7 @@ public abstract class SessionComponent implements SessionManager, SessionStore
 		{
 			if (m_maintenanceChecker != null) return;
 
+			m_expirationWheel.setTickMillis(m_checkEvery * 1000L);
 			m_maintenanceChecker = new Thread(this, "Sakai.SessionComponent.Maintenance");
 			m_maintenanceCheckerStop = false;
 			m_maintenanceChecker.setDaemon(true);
@@ -562,7 +602,48 @@ public abstract class SessionComponent implements SessionManager, SessionStore
 		}
 
 		/**
-		 * Run the maintenance thread. Every m_checkEvery seconds, check for expired sessions.
+		 * Check one session whose expiration time suggestion may have passed.
+		 *
+		 * @param entry
+		 *        The session id and the expiration time suggestion it was tracked with.
+		 * @param now
+		 *        The time of this pass.
+		 * @return When to check the session again, or -1 if it has gone.
+		 */
+		protected long checkExpiration(Map.Entry<String, MutableLong> entry, long now)
+		{
+			try
+			{
+				// ignore sessions which have been removed, replaced by a new session with the same id, or filed again
+				if (expirationTimeSuggestionMap.get(entry.getKey()) != entry) return -1;
+
+				long suggestion = entry.getValue().longValue();
+				if (suggestion >= now) return suggestion;
+
+				MySession s = (MySession)m_sessions.get(entry.getKey());
+				if (s == null) return -1;
+				if (M_log.isDebugEnabled()) M_log.debug("checking session " + s.getId());
+				if (s.isInactive())
+				{
+					if (M_log.isDebugEnabled()) M_log.debug("invalidating session " + s.getId());
+					synchronized(s) {
+						s.invalidate();
+					}
+					return -1;
+				}
+
+				// used since the suggestion was last reset
+				return s.getLastAccessedTime() + s.getMaxInactiveIntervalMillis();
+			}
+			catch (Exception e)
+			{
+				M_log.warn("checkExpiration(): exception: " + e);
+				return now;
+			}
+		}
+
+		/**
+		 * Run the maintenance thread. Every m_checkEvery seconds, check the sessions which may have expired.
 		 */
 		public void run()
 		{
@@ -574,19 +655,8 @@ public abstract class SessionComponent implements SessionManager, SessionStore
 			{
 				try
 				{
-					for (Map.Entry<String, MutableLong> entry: expirationTimeSuggestionMap.entrySet()) {
-						if (entry.getValue().longValue() < System.currentTimeMillis()) {
-							MySession s = (MySession)m_sessions.get(entry.getKey());
-							if (M_log.isDebugEnabled()) M_log.debug("checking session " + s.getId());
-							if (s.isInactive())
-							{
-								if (M_log.isDebugEnabled()) M_log.debug("invalidating session " + s.getId());
-								synchronized(s) {
-									s.invalidate();
-								}
-							}
-						}
-					}
+					int checked = m_expirationWheel.advance(System.currentTimeMillis(), this::checkExpiration);
+					if (M_log.isDebugEnabled()) M_log.debug("checked " + checked + " of " + m_sessions.size() + " sessions");
 				}
 				catch (Exception e)
 				{
@@ -51,6 +51,7 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * <p>
@@ -88,6 +89,13 @@ public abstract class BaseUserDirectoryService implements UserDirectoryService,
 
 	/** A cache of users */
 	protected Cache m_callCache = null;
+
+	/** Counts for getUsers(): the calls, users asked for, found in the cache, and the db queries and provider calls for the rest. */
+	protected final AtomicLong m_bulkLookups = new AtomicLong();
+	protected final AtomicLong m_bulkLookupUsers = new AtomicLong();
+	protected final AtomicLong m_bulkLookupCacheHits = new AtomicLong();
+	protected final AtomicLong m_bulkLookupDbQueries = new AtomicLong();
+	protected final AtomicLong m_bulkLookupProviderCalls = new AtomicLong();
 	
 	/** Optional service to provide site-specific aliases for a user's display ID and display name. */
 	protected ContextualUserDisplayService m_contextualUserDisplayService = null;
@@ -857,71 +865,45 @@ public abstract class BaseUserDirectoryService implements UserDirectoryService,
 			if (id != null) searchIds.add(id);
 		}
 		
-		if (m_separateIdEid)
-		{
-			return m_storage.getUsersByIds(searchIds);
-		}
-		
-		// Fall back to the old logic if this is a legacy system where 
-		// "ID == EID", since that setting makes it difficult
-		// to optimize while maintaining backwards compatibility: the user
-		// record may be in the Sakai user table or not, and may be in the
-		// EID-mapping table or not.
-		
 		// User objects to return
-		List<UserEdit> rv = new Vector<UserEdit>();
+		List<UserEdit> rv = new ArrayList<UserEdit>(searchIds.size());
 
-		// a list of User (edits) setup to check with the provider
-		Collection<UserEdit> fromProvider = new Vector<UserEdit>();
+		// take what we can from the cache, in one trip
+		Map<String, UserEdit> cached = getCachedUsers(searchIds);
+		rv.addAll(cached.values());
 
-		// for each requested id
-		for (String id : searchIds)
+		int dbQueries = 0;
+		int providerCalls = 0;
+		Set<String> missing = new HashSet<String>(searchIds);
+		missing.removeAll(cached.keySet());
+		if (!missing.isEmpty())
 		{
-			// see if we've done this already in this thread
-			String ref = userReference(id);
-			UserEdit user = getCachedUser(ref);
-			if (user == null)
+			// find the rest in chunks: users kept here are read in full, provided users as id and eid to ask the provider about
+			List<UserEdit> found = new ArrayList<UserEdit>();
+			List<UserEdit> fromProvider = new ArrayList<UserEdit>();
+			dbQueries = m_storage.readUsersByIds(missing, found, fromProvider);
+
+			// check the provider, all at once - it fills in the users it knows and removes the rest
+			if ((m_provider != null) && !fromProvider.isEmpty())
 			{
-				// find our user record
-				user = m_storage.getById(id);
-				if (user != null)
-				{
-					putCachedUser(ref, user);
-				}
-				else if (m_provider != null)
-				{
-					// get the eid for this user so we can ask the provider
-					String eid = m_storage.checkMapForEid(id);
-					if (eid != null)
-					{
-						// make a new edit to hold the provider's info; the provider will either fill this in, if known, or remove it from the collection
-						fromProvider.add(new BaseUserEdit(id, eid));
-					}
-					else
-					{
-						// this user is not internally defined, and we can't find an eid for it, so we skip it
-						M_log.warn("getUsers: cannot find eid for user id: " + id);
-					}
-				}
+				m_provider.getUsers(fromProvider);
+				providerCalls = 1;
+				found.addAll(fromProvider);
 			}
-			// add to return
-			if (user != null) rv.add(user);
+
+			putCachedUsers(found);
+			rv.addAll(found);
 		}
 
-		// check the provider, all at once
-		if (!fromProvider.isEmpty())
+		m_bulkLookups.incrementAndGet();
+		m_bulkLookupUsers.addAndGet(searchIds.size());
+		m_bulkLookupCacheHits.addAndGet(cached.size());
+		m_bulkLookupDbQueries.addAndGet(dbQueries);
+		m_bulkLookupProviderCalls.addAndGet(providerCalls);
+		if (M_log.isDebugEnabled())
 		{
-			m_provider.getUsers(fromProvider);
-
-			// for each User in the collection that was filled in (and not removed) by the provider, cache and return it
-			for (Iterator i = fromProvider.iterator(); i.hasNext();)
-			{
-				UserEdit user = (UserEdit) i.next();
-				putCachedUser(user.getReference(), user);
-
-				// add to return
-				rv.add(user);
-			}
+			M_log.debug("getUsers: " + searchIds.size() + " ids, " + cached.size() + " cached, " + dbQueries + " db queries, "
+					+ providerCalls + " provider calls");
 		}
 
 		return rv;
@@ -1789,6 +1771,52 @@ public abstract class BaseUserDirectoryService implements UserDirectoryService,
 		}
 	}
 
+	/**
+	 * Look up a number of users in the cache at once.
+	 * 
+	 * @param ids
+	 *        The user ids.
+	 * @return The cached users, keyed by id.
+	 */
+	protected Map<String, UserEdit> getCachedUsers(Collection<String> ids)
+	{
+		Map<String, UserEdit> rv = new HashMap<String, UserEdit>();
+		if ((m_callCache == null) || ids.isEmpty()) return rv;
+
+		Map<String, String> refIds = new HashMap<String, String>();
+		for (String id : ids)
+		{
+			refIds.put(userReference(id), id);
+		}
+		Map<String, Object> cached = m_callCache.getAll(refIds.keySet());
+		for (Map.Entry<String, Object> entry : cached.entrySet())
+		{
+			if (entry.getValue() != null)
+			{
+				rv.put(refIds.get(entry.getKey()), (UserEdit) entry.getValue());
+			}
+		}
+		return rv;
+	}
+
+	/**
+	 * Cache a number of users at once.
+	 * 
+	 * @param users
+	 *        The users.
+	 */
+	protected void putCachedUsers(Collection<UserEdit> users)
+	{
+		if ((m_callCache == null) || users.isEmpty()) return;
+
+		Map<String, UserEdit> refUsers = new HashMap<String, UserEdit>();
+		for (UserEdit user : users)
+		{
+			refUsers.put(userReference(user.getId()), user);
+		}
+		m_callCache.putAll(refUsers);
+	}
+
 	protected void removeCachedUser(String ref)
 	{
 		if (m_callCache != null)
@@ -3098,14 +3126,18 @@ public abstract class BaseUserDirectoryService implements UserDirectoryService,
 		public String checkMapForId(String eid);
 		
 		/**
-		 * Since optimizing this call requires access to SQL result sets and
-		 * internally-maintained caches, all the real work is performed by
-		 * the storage class. 
+		 * Read the records for these user ids with one query per chunk of ids, rather than one per user. The callers look
+		 * in the user cache first, and cache what they get back.
 		 * 
 		 * @param ids
-		 * @return any user records with matching IDs
-		 */
-		public List<User> getUsersByIds(Collection<String> ids);
+		 *        The user ids to read.
+		 * @param stored
+		 *        Filled with the users whose records are kept in Sakai.
+		 * @param mapped
+		 *        Filled with id and eid only users for the provider to fill in.
+		 * @return The number of database queries made.
+		 */
+		public int readUsersByIds(Collection<String> ids, List<UserEdit> stored, List<UserEdit> mapped);
 		
 		/**
 		 * Since optimizing this call requires access to SQL result sets and
@@ -661,46 +661,66 @@ public abstract class DbUserService extends BaseUserDirectoryService
 			return user;
 		}
 
-		public List<User> getUsersByIds(Collection<String> ids)
+		public int readUsersByIds(Collection<String> ids, List<UserEdit> stored, List<UserEdit> mapped)
 		{
-			List<User> foundUsers = new ArrayList<User>();
-
-			// Put all the already cached user records to one side.
-			Set<String> idsToSearch = new HashSet<String>();
-			for (String id : ids)
+			if (m_separateIdEid)
 			{
-				UserEdit cachedUser = getCachedUser(userReference(id));
-				if (cachedUser != null)
+				UserWithEidReader userWithEidReader = new UserWithEidReader(false);
+				int queries = userWithEidReader.findMappedUsers(ids);
+				stored.addAll(userWithEidReader.getUsersFromSakaiData());
+				mapped.addAll(userWithEidReader.getUsersToQueryProvider());
+
+				// the mapping came with the records, so warm both sides of the id / eid cache at once
+				Map<String, String> idEids = new HashMap<String, String>();
+				for (UserEdit user : stored)
 				{
-					foundUsers.add(cachedUser);
+					idEids.put(EIDCACHE + user.getId(), user.getEid());
+					idEids.put(IDCACHE + user.getEid(), user.getId());
 				}
-				else
+				for (UserEdit user : mapped)
 				{
-					idsToSearch.add(id);
+					idEids.put(EIDCACHE + user.getId(), user.getEid());
+					idEids.put(IDCACHE + user.getEid(), user.getId());
 				}
+				cache.putAll(idEids);
+				return queries;
 			}
 
-			UserWithEidReader userWithEidReader = new UserWithEidReader(false);
-			userWithEidReader.findMappedUsers(idsToSearch);
-
-			// Add the Sakai-maintained user records.
-			foundUsers.addAll(userWithEidReader.getUsersFromSakaiData());
-
-			// Finally, fill in the provided user records.
-			List<UserEdit> usersToQueryProvider = userWithEidReader.getUsersToQueryProvider();
-			if ((m_provider != null) && !usersToQueryProvider.isEmpty())
+			// ID == EID: the user record may be in the Sakai user table or not, and the provider is asked about the rest
+			int maxIdsInQuery = userServiceSql.getMaxInputsForSelectWhereInQueries();
+			List<String> remaining = new ArrayList<String>(ids);
+			Set<String> found = new HashSet<String>();
+			int queries = 0;
+			for (int from = 0; from < remaining.size(); from += maxIdsInQuery)
 			{
-				m_provider.getUsers(usersToQueryProvider);
+				List<String> chunk = remaining.subList(from, Math.min(from + maxIdsInQuery, remaining.size()));
+				Object[] fields = new Object[chunk.size()];
+				StringBuilder where = new StringBuilder(m_tableName + "." + m_idFieldName + " in (");
+				for (int i = 0; i < fields.length; i++)
+				{
+					fields[i] = caseId(chunk.get(i));
+					where.append((i == 0) ? "?" : ",?");
+				}
+				where.append(")");
 
-				// Make sure that returned users are mapped and cached correctly.
-				for (UserEdit user : usersToQueryProvider)
+				List users = super.getSelectedResources(where.toString(), fields);
+				queries++;
+				for (Object o : users)
 				{
-					putUserInCaches(user);
-					foundUsers.add(user);
+					UserEdit user = (UserEdit) o;
+					stored.add(user);
+					found.add(caseId(user.getId()));
+				}
+			}
+			for (String id : remaining)
+			{
+				if (!found.contains(caseId(id)))
+				{
+					mapped.add(new BaseUserEdit(id, id));
 				}
 			}
 
-			return foundUsers;
+			return queries;
 		}
 
 		public List<User> getUsersByEids(Collection<String> eids)
@@ -727,6 +747,10 @@ public abstract class DbUserService extends BaseUserDirectoryService
 
 			// Add the Sakai-maintained user records.
 			foundUsers.addAll(userWithEidReader.getUsersFromSakaiData());
+			for (UserEdit user : userWithEidReader.getUsersFromSakaiData())
+			{
+				putUserInCaches(user);
+			}
 
 			// We'll need to query the provider about any EIDs which did not appear
 			// in the ID-EID mapping table, since this might be the first time
@@ -795,10 +819,14 @@ public abstract class DbUserService extends BaseUserDirectoryService
 				this.isEidSearch = isEidSearch;
 			}
 
-			public void findMappedUsers(Collection<String> searchValues)
+			/**
+			 * @return The number of queries made.
+			 */
+			public int findMappedUsers(Collection<String> searchValues)
 			{
 				int maxEidsInQuery = userServiceSql.getMaxInputsForSelectWhereInQueries();
 				Set<String> remainingSearchValues = new HashSet<String>(searchValues);
+				int queries = 0;
 
 				while (!remainingSearchValues.isEmpty())
 				{
@@ -826,7 +854,10 @@ public abstract class DbUserService extends BaseUserDirectoryService
 							userServiceSql.getUsersWhereEidsInSql(valueArray.length) :
 							userServiceSql.getUsersWhereIdsInSql(valueArray.length);
 					m_sql.dbRead(sqlStatement, valueArray, this);
+					queries++;
 				}
+
+				return queries;
 			}
 
 			/**
@@ -859,9 +890,6 @@ public abstract class DbUserService extends BaseUserDirectoryService
 					if (idFromSakaiUser != null)
 					{
 						usersFromSakaiData.add(userEdit);
-
-						// Cache management is why this needs to be an inner class.
-						putUserInCaches(userEdit);
 					}
 					else
 					{
@@ -0,0 +1,262 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2016 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.user.impl;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sakaiproject.authz.api.AuthzGroup;
+import org.sakaiproject.authz.api.AuthzGroupService;
+import org.sakaiproject.authz.api.GroupNotDefinedException;
+import org.sakaiproject.event.api.Event;
+
+/**
+ * Keeps the user cache warm as site memberships change, rather than reloading every user in every site once a day.
+ *
+ * Realm changes queue the realm; a realm join queues just the joining user. A single worker thread looks up the members
+ * of each queued realm, queues the ones which are not cached, and loads no more than a set number of users a second
+ * through the bulk getUsers(), so a burst of roster changes at the start of term is spread out rather than landing on
+ * the provider and database at once.
+ */
+public class IncrementalUserPrecache implements Observer, UserPrecacheMXBean
+{
+    private static Logger log = LoggerFactory.getLogger(IncrementalUserPrecache.class);
+
+    private static final String REALM_PREFIX = AuthzGroupService.REFERENCE_ROOT + "/";
+
+    private final BaseUserDirectoryService userDirectoryService;
+    private final AuthzGroupService authzGroupService;
+    private final int usersPerSecond;
+
+    /** Realms waiting to be looked at, and when each was queued, oldest first. */
+    private final Map<String, Long> pendingRealms = new LinkedHashMap<String, Long>();
+
+    /** Users waiting to be loaded, and when each was queued, oldest first. */
+    private final Map<String, Long> pendingUsers = new LinkedHashMap<String, Long>();
+
+    private final AtomicLong realmsResolved = new AtomicLong();
+    private final AtomicLong usersLoaded = new AtomicLong();
+    private final AtomicLong lastRunTime = new AtomicLong(-1);
+
+    private ScheduledExecutorService executor;
+    private ObjectName objectName;
+
+    /**
+     * @param usersPerSecond
+     *        The most users to load in one second.
+     */
+    public IncrementalUserPrecache(BaseUserDirectoryService userDirectoryService, AuthzGroupService authzGroupService, int usersPerSecond)
+    {
+        if (usersPerSecond <= 0) throw new IllegalArgumentException("usersPerSecond must be positive: " + usersPerSecond);
+        this.userDirectoryService = userDirectoryService;
+        this.authzGroupService = authzGroupService;
+        this.usersPerSecond = usersPerSecond;
+    }
+
+    /**
+     * Start the worker, which runs once a second, and publish over JMX.
+     */
+    public void start()
+    {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "incremental precache users");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                runOnce();
+            } catch (Exception e) {
+                log.error("Failure warming the user cache: " + e.getMessage(), e);
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName("org.sakaiproject.user:type=UserPrecache");
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(new StandardMBean(this, UserPrecacheMXBean.class, true), objectName);
+            }
+        } catch (Exception e) {
+            log.warn("Could not register the user precache with JMX: " + e);
+        }
+        log.info("Incremental user precache started, loading up to " + usersPerSecond + " users a second");
+    }
+
+    public void stop()
+    {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (Exception e) {
+                log.debug("Could not unregister the user precache from JMX: " + e);
+            }
+            objectName = null;
+        }
+    }
+
+    public void update(Observable observable, Object o)
+    {
+        if (!(o instanceof Event)) return;
+        Event event = (Event) o;
+        String resource = event.getResource();
+        if (resource == null || !resource.startsWith(REALM_PREFIX)) return;
+
+        String function = event.getEvent();
+        if (AuthzGroupService.SECURE_JOIN_AUTHZ_GROUP.equals(function)) {
+            if (event.getUserId() != null) {
+                queueUsers(Collections.singleton(event.getUserId()));
+            }
+        } else if (AuthzGroupService.SECURE_UPDATE_AUTHZ_GROUP.equals(function)
+                || AuthzGroupService.SECURE_UPDATE_OWN_AUTHZ_GROUP.equals(function)
+                || AuthzGroupService.SECURE_ADD_AUTHZ_GROUP.equals(function)) {
+            queueRealm(resource.substring(REALM_PREFIX.length()));
+        }
+    }
+
+    synchronized void queueRealm(String realmId)
+    {
+        if (!pendingRealms.containsKey(realmId)) {
+            pendingRealms.put(realmId, System.currentTimeMillis());
+        }
+    }
+
+    synchronized void queueUsers(Set<String> userIds)
+    {
+        long now = System.currentTimeMillis();
+        for (String userId : userIds) {
+            if (!pendingUsers.containsKey(userId)) {
+                pendingUsers.put(userId, now);
+            }
+        }
+    }
+
+    /**
+     * Look at queued realms until there is a second's worth of users to load, then load them.
+     *
+     * @return The number of users loaded.
+     */
+    int runOnce()
+    {
+        lastRunTime.set(System.currentTimeMillis());
+
+        for (String realmId = nextRealm(); realmId != null; realmId = nextRealm()) {
+            try {
+                AuthzGroup realm = authzGroupService.getAuthzGroup(realmId);
+                Set<String> members = new HashSet<String>(realm.getUsers());
+                members.removeAll(userDirectoryService.getCachedUsers(members).keySet());
+                queueUsers(members);
+            } catch (GroupNotDefinedException e) {
+                // removed since it was changed
+            }
+            realmsResolved.incrementAndGet();
+        }
+
+        List<String> batch = nextUsers();
+        if (!batch.isEmpty()) {
+            userDirectoryService.getUsers(batch);
+            usersLoaded.addAndGet(batch.size());
+            if (log.isDebugEnabled()) log.debug("runOnce(): loaded " + batch.size() + " users, " + getUsersPending() + " pending");
+        }
+        return batch.size();
+    }
+
+    private synchronized String nextRealm()
+    {
+        if (pendingRealms.isEmpty() || pendingUsers.size() >= usersPerSecond) return null;
+        Iterator<String> i = pendingRealms.keySet().iterator();
+        String realmId = i.next();
+        i.remove();
+        return realmId;
+    }
+
+    private synchronized List<String> nextUsers()
+    {
+        List<String> rv = new ArrayList<String>();
+        for (Iterator<String> i = pendingUsers.keySet().iterator(); i.hasNext() && rv.size() < usersPerSecond;) {
+            rv.add(i.next());
+            i.remove();
+        }
+        return rv;
+    }
+
+    public synchronized int getRealmsPending()
+    {
+        return pendingRealms.size();
+    }
+
+    public synchronized int getUsersPending()
+    {
+        return pendingUsers.size();
+    }
+
+    public synchronized long getLagMillis()
+    {
+        long oldest = Long.MAX_VALUE;
+        if (!pendingRealms.isEmpty()) oldest = pendingRealms.values().iterator().next();
+        if (!pendingUsers.isEmpty()) oldest = Math.min(oldest, pendingUsers.values().iterator().next());
+        return (oldest == Long.MAX_VALUE) ? 0 : System.currentTimeMillis() - oldest;
+    }
+
+    public long getRealmsResolved()
+    {
+        return realmsResolved.get();
+    }
+
+    public long getUsersLoaded()
+    {
+        return usersLoaded.get();
+    }
+
+    public long getLastRunTime()
+    {
+        return lastRunTime.get();
+    }
+
+    public int getUsersPerSecond()
+    {
+        return usersPerSecond;
+    }
+}
@@ -78,6 +78,11 @@ public abstract class PrecachingDbUserService extends DbUserService
      */
     protected TimerTask onetimeTask;
 
+    /**
+     * keeps the cache warm as site memberships change, in place of the daily run
+     */
+    protected IncrementalUserPrecache incrementalPrecache;
+
     private DirectDbAccess directDbAccess;
     public void setDirectDbAccess (DirectDbAccess directDbAccess) {
         this.directDbAccess = directDbAccess;
@@ -96,6 +101,8 @@ public abstract class PrecachingDbUserService extends DbUserService
         // LOAD the various sakai config options
         Boolean runOnStartup = serverConfigurationService().getBoolean("precache.users.run.startup", false);
         Boolean runDaily = serverConfigurationService().getBoolean("precache.users.run.daily", false);
+        Boolean runIncremental = serverConfigurationService().getBoolean("precache.users.run.incremental", false);
+        int usersPerSecond = serverConfigurationService().getInt("precache.users.incremental.usersPerSecond", 50);
         String cacheTimeString = serverConfigurationService().getString("precache.users.refresh.time", "04:00");
         this.siteUserIdsQuery = serverConfigurationService().getString("precache.users.userlist.query", this.siteUserIdsQuery);
 
@@ -117,7 +124,14 @@ public abstract class PrecachingDbUserService extends DbUserService
             log.info("User precache not scheduled for startup run");
         }
 
-        if (runDaily) {
+        if (runIncremental) {
+            incrementalPrecache = new IncrementalUserPrecache(this, authzGroupService(), usersPerSecond);
+            eventTrackingService().addObserver(incrementalPrecache);
+            incrementalPrecache.start();
+            if (runDaily) {
+                log.info("User precache not scheduled for daily run, the incremental precache keeps the cache warm instead");
+            }
+        } else if (runDaily) {
             // set up recurring task
             cal.setTime(new Date());
             long recurringTaskPeriod = 24l * 60l * 60l * 1000l;
@@ -152,6 +166,15 @@ public abstract class PrecachingDbUserService extends DbUserService
         }
     }
 
+    public void destroy() {
+        if (incrementalPrecache != null) {
+            eventTrackingService().deleteObserver(incrementalPrecache);
+            incrementalPrecache.stop();
+            incrementalPrecache = null;
+        }
+        super.destroy();
+    }
+
     public void doCacheRefresh(String siteUserIdsQuery) {
         if (log.isDebugEnabled()) {
             log.debug("USER PRECACHE BEGINNING");
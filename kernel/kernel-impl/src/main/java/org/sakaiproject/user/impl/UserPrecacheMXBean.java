@@ -0,0 +1,46 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2016 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.user.impl;
+
+/**
+ * What the incremental user precache publishes over JMX.
+ */
+public interface UserPrecacheMXBean
+{
+    /** Realms changed but not yet looked at. */
+    int getRealmsPending();
+
+    /** Users found to be missing from the cache but not yet loaded. */
+    int getUsersPending();
+
+    /** How long the oldest pending realm or user has been waiting (ms), 0 if none are. */
+    long getLagMillis();
+
+    long getRealmsResolved();
+
+    long getUsersLoaded();
+
+    /** When the worker last ran (ms since the epoch), or -1. */
+    long getLastRunTime();
+
+    int getUsersPerSecond();
+}
@@ -0,0 +1,192 @@
+package org.sakaiproject.authz.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.authz.api.AuthzGroupService;
+import org.sakaiproject.authz.api.FunctionManager;
+import org.sakaiproject.authz.api.SecurityService;
+import org.sakaiproject.component.api.ServerConfigurationService;
+import org.sakaiproject.db.api.SqlReader;
+import org.sakaiproject.db.api.SqlService;
+import org.sakaiproject.entity.api.EntityManager;
+import org.sakaiproject.event.api.EventTrackingService;
+import org.sakaiproject.time.api.TimeService;
+import org.sakaiproject.tool.api.SessionManager;
+import org.sakaiproject.user.api.UserDirectoryService;
+
+/**
+ * Runs the SQL behind getAllowedReferences() and getAllowedUsers() against an in-memory database, with more realms than fit
+ * in one in(?, ?, ...) clause.
+ */
+public class DbAuthzGroupBulkCheckTest {
+
+	private static final int REALMS = 1500;
+	private static final int FUNCTION = 1;
+	private static final int ACCESS = 1;
+	private static final int MAINTAIN = 2;
+	private static final int AUTH = 3;
+
+	private Connection connection;
+	private int statements;
+	private int memberRows;
+	private SessionManager sessionManager;
+	private DbAuthzGroupService.DbStorage storage;
+
+	@Before
+	public void setUp() throws Exception {
+		Class.forName("org.hsqldb.jdbcDriver");
+		connection = DriverManager.getConnection("jdbc:hsqldb:mem:bulkcheck", "sa", "");
+		Statement ddl = connection.createStatement();
+		ddl.execute("create table SAKAI_REALM (REALM_KEY integer, REALM_ID varchar(255))");
+		ddl.execute("create table SAKAI_REALM_FUNCTION (FUNCTION_KEY integer, FUNCTION_NAME varchar(99))");
+		ddl.execute("create table SAKAI_REALM_RL_FN (REALM_KEY integer, ROLE_KEY integer, FUNCTION_KEY integer)");
+		ddl.execute("create table SAKAI_REALM_RL_GR (REALM_KEY integer, USER_ID varchar(99), ROLE_KEY integer, ACTIVE char(1), PROVIDED char(1))");
+		ddl.execute("insert into SAKAI_REALM_FUNCTION values (" + FUNCTION + ", 'site.visit')");
+		for (int i = 0; i < REALMS; i++) {
+			ddl.execute("insert into SAKAI_REALM values (" + i + ", '/site/s" + i + "')");
+			ddl.execute("insert into SAKAI_REALM_RL_FN values (" + i + ", " + MAINTAIN + ", " + FUNCTION + ")");
+		}
+		// any logged in user may visit this one
+		ddl.execute("insert into SAKAI_REALM_RL_FN values (1400, " + AUTH + ", " + FUNCTION + ")");
+		member(5, "maintainer", MAINTAIN, true);
+		member(1300, "maintainer", MAINTAIN, true);
+		member(7, "maintainer", ACCESS, true);
+		member(9, "maintainer", MAINTAIN, false);
+		member(7, "student", ACCESS, true);
+		member(5, "outsider", MAINTAIN, true);
+		ddl.close();
+
+		SqlService sqlService = mock(SqlService.class);
+		when(sqlService.getVendor()).thenReturn("hsqldb");
+		when(sqlService.dbRead(anyString(), any(Object[].class), any(SqlReader.class))).thenAnswer(invocation -> {
+			String sql = invocation.getArgument(0);
+			Object[] fields = invocation.getArgument(1);
+			SqlReader reader = invocation.getArgument(2);
+			return read(sql, fields, reader);
+		});
+		sessionManager = mock(SessionManager.class);
+
+		DbAuthzGroupService service = new DbAuthzGroupService() {
+			protected SqlService sqlService() {
+				return sqlService;
+			}
+
+			protected ServerConfigurationService serverConfigurationService() {
+				return null;
+			}
+
+			protected EntityManager entityManager() {
+				return null;
+			}
+
+			protected FunctionManager functionManager() {
+				return null;
+			}
+
+			protected SecurityService securityService() {
+				return null;
+			}
+
+			protected TimeService timeService() {
+				return null;
+			}
+
+			protected SessionManager sessionManager() {
+				return sessionManager;
+			}
+
+			protected EventTrackingService eventTrackingService() {
+				return null;
+			}
+
+			protected UserDirectoryService userDirectoryService() {
+				return null;
+			}
+
+			Set<String> getEmptyRoles(String userId) {
+				return Collections.singleton(AUTH_ROLE);
+			}
+		};
+		service.dbAuthzGroupSql = new DbAuthzGroupSqlDefault();
+		service.m_roleNameCache.add(service.new RealmRole(AuthzGroupService.AUTH_ROLE, AUTH));
+		storage = service.new DbStorage(null, null);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		connection.createStatement().execute("shutdown");
+		connection.close();
+	}
+
+	@Test
+	public void testAllowedReferencesAcrossManyRealms() {
+		Map<String, List<String>> azGroupsByReference = new HashMap<String, List<String>>();
+		for (int i = 0; i < REALMS; i++) {
+			azGroupsByReference.put("/site/s" + i, Collections.singletonList("/site/s" + i));
+		}
+
+		Set<String> allowed = storage.getAllowedReferences("maintainer", "site.visit", azGroupsByReference);
+
+		assertEquals(new HashSet<String>(Arrays.asList("/site/s5", "/site/s1300", "/site/s1400")), allowed);
+		// the grants and the memberships, each read in two slices
+		assertEquals(4, statements);
+	}
+
+	@Test
+	public void testAllowedUsersOnlyReadsTheUsersAskedFor() {
+		List<String> realms = new ArrayList<String>();
+		for (int i = 0; i < 1100; i++) {
+			realms.add("/site/s" + i);
+		}
+
+		Set<String> allowed = storage.getAllowedUsers(Arrays.asList("maintainer", "student", null), "site.visit", realms);
+
+		assertEquals(Collections.singleton("maintainer"), allowed);
+		// maintainer in s5 and s7 and student in s7, not the outsider nor the inactive membership
+		assertEquals(3, memberRows);
+	}
+
+	private void member(int realmKey, String userId, int roleKey, boolean active) throws Exception {
+		connection.createStatement().execute("insert into SAKAI_REALM_RL_GR values (" + realmKey + ", '" + userId + "', " + roleKey + ", '"
+				+ (active ? "1" : "0") + "', '0')");
+	}
+
+	private List<Object> read(String sql, Object[] fields, SqlReader reader) throws Exception {
+		statements++;
+		List<Object> rv = new ArrayList<Object>();
+		PreparedStatement statement = connection.prepareStatement(sql);
+		for (int i = 0; i < fields.length; i++) {
+			statement.setObject(i + 1, fields[i]);
+		}
+		ResultSet result = statement.executeQuery();
+		while (result.next()) {
+			if (sql.contains("SAKAI_REALM_RL_GR")) memberRows++;
+			Object row = reader.readSqlResultRecord(result);
+			if (row != null) rv.add(row);
+		}
+		result.close();
+		statement.close();
+		return rv;
+	}
+}
@@ -14,20 +14,27 @@ import org.sakaiproject.authz.api.FunctionManager;
 import org.sakaiproject.authz.api.GroupNotDefinedException;
 import org.sakaiproject.component.api.ServerConfigurationService;
 import org.sakaiproject.entity.api.EntityManager;
+import org.sakaiproject.entity.api.Reference;
 import org.sakaiproject.event.api.EventTrackingService;
 import org.sakaiproject.memory.api.Cache;
 import org.sakaiproject.memory.api.MemoryService;
+import org.sakaiproject.thread_local.api.ThreadLocalManager;
+import org.sakaiproject.tool.api.SessionManager;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import static java.util.Collections.singleton;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertEquals;
 import static org.hamcrest.collection.IsIterableContainingInAnyOrder.containsInAnyOrder;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.*;
 import static org.mockito.Mockito.eq;
 
@@ -42,6 +49,8 @@ public class SakaiSecurityTest {
     @Mock private MemoryService memoryService;
     @Mock private ServerConfigurationService serverConfigurationService;
     @Mock private EventTrackingService eventTrackingService;
+    @Mock private ThreadLocalManager threadLocalManager;
+    @Mock private SessionManager sessionManager;
 
 
     private SakaiSecurity sakaiSecurity;
@@ -55,6 +64,8 @@ public class SakaiSecurityTest {
         sakaiSecurity.setMemoryService(memoryService);
         sakaiSecurity.setServerConfigurationService(serverConfigurationService);
         sakaiSecurity.setEventTrackingService(eventTrackingService);
+        sakaiSecurity.setThreadLocalManager(threadLocalManager);
+        sakaiSecurity.setSessionManager(sessionManager);
 
         // Always return default
         when(serverConfigurationService.getString(anyString(), anyString())).thenAnswer(invocation -> invocation.getArgument(1));
@@ -71,6 +82,7 @@ public class SakaiSecurityTest {
 
         Cache cache = mock(Cache.class);
         when(memoryService.getCache("org.sakaiproject.authz.api.SecurityService.cache")).thenReturn(cache);
+        disableRealmIndex();
         sakaiSecurity.init();
 
         AuthzGroup group = new AuthzGroupBuilder(authzGroupService, "/site/1")
@@ -92,6 +104,7 @@ public class SakaiSecurityTest {
 
         Cache cache = mock(Cache.class);
         when(memoryService.getCache("org.sakaiproject.authz.api.SecurityService.cache")).thenReturn(cache);
+        disableRealmIndex();
         sakaiSecurity.init();
 
         AuthzGroup group = new AuthzGroupBuilder(authzGroupService, "/site/1")
@@ -118,6 +131,7 @@ public class SakaiSecurityTest {
 
         Cache cache = mock(Cache.class);
         when(memoryService.getCache("org.sakaiproject.authz.api.SecurityService.cache")).thenReturn(cache);
+        disableRealmIndex();
         when(serverConfigurationService.getString(eq("studentview.roles"), anyString())).thenReturn("student");
         sakaiSecurity.init();
 
@@ -135,4 +149,139 @@ public class SakaiSecurityTest {
         assertThat(flushed, containsInAnyOrder("unlock@1@@function@/site/1", "unlock@2@@function@/site/1"));
     }
 
+    @Test
+    public void testRealmIndexInvalidatesOnlyThatRealm() throws GroupNotDefinedException {
+
+        Cache cache = mock(Cache.class);
+        when(memoryService.getCache("org.sakaiproject.authz.api.SecurityService.cache")).thenReturn(cache);
+        sakaiSecurity.init();
+
+        sakaiSecurity.addToCache(sakaiSecurity.makeCacheKey("user1", null, "function1", "/site/1", false), true, false);
+        sakaiSecurity.addToCache(sakaiSecurity.makeCacheKey("user2", null, "function2", "/site/1", false), true, false);
+        sakaiSecurity.addToCache(sakaiSecurity.makeCacheKey("user3", "student", "function1", "/site/1/group/g", false), false, false);
+        sakaiSecurity.addToCache(sakaiSecurity.makeCacheKey("user1", null, "function1", "/site/2", false), true, false);
+
+        Set<String> flushed = new HashSet<>();
+        doAnswer(s -> flushed.addAll(s.getArgument(0))).when(cache).removeAll(any());
+
+        sakaiSecurity.cacheRealmPermsChanged("/realm//site/1", singleton("role"), singleton("function1"));
+
+        // no member lookups needed, and the other site keeps its entries
+        assertThat(flushed, containsInAnyOrder("unlock@user1@@function1@/site/1", "unlock@user3@student@function1@/site/1/group/g"));
+        verify(authzGroupService, never()).getAuthzGroup(anyString());
+        verify(cache, never()).clear();
+        assertEquals(Long.valueOf(2), sakaiSecurity.getUnlockCacheStatistics().get("indexedKeys"));
+    }
+
+    @Test
+    public void testRealmIndexAuthRoleDoesNotClearCache() {
+
+        Cache cache = mock(Cache.class);
+        when(memoryService.getCache("org.sakaiproject.authz.api.SecurityService.cache")).thenReturn(cache);
+        sakaiSecurity.init();
+
+        sakaiSecurity.addToCache(sakaiSecurity.makeCacheKey("user1", null, "function1", "/site/1", false), true, false);
+        sakaiSecurity.addToCache(sakaiSecurity.makeCacheKey(null, null, "function2", "/site/1", false), true, false);
+        sakaiSecurity.addToCache(sakaiSecurity.makeCacheKey("user1", null, "function1", "/site/2", false), true, false);
+
+        Set<String> flushed = new HashSet<>();
+        doAnswer(s -> flushed.addAll(s.getArgument(0))).when(cache).removeAll(any());
+
+        sakaiSecurity.cacheRealmPermsChanged("/realm//site/1", singleton(AuthzGroupService.AUTH_ROLE), null);
+
+        assertThat(flushed, containsInAnyOrder("unlock@user1@@function1@/site/1", "unlock@null@@function2@/site/1"));
+        verify(cache, never()).clear();
+    }
+
+    @Test
+    public void testRealmIndexPruneKeepsTheKeyJustAdded() {
+
+        Cache cache = mock(Cache.class);
+        when(memoryService.getCache("org.sakaiproject.authz.api.SecurityService.cache")).thenReturn(cache);
+        when(serverConfigurationService.getInt(eq("memory.SecurityService.realmIndex.maxKeys"), anyInt())).thenReturn(1);
+        sakaiSecurity.init();
+
+        // the first key has expired, the second is only in the cache once it has been put
+        Set<String> cached = new HashSet<>();
+        doAnswer(s -> cached.add(s.getArgument(0))).when(cache).put(anyString(), any());
+        when(cache.containsKey(anyString())).thenAnswer(s -> cached.contains(s.getArgument(0)));
+        sakaiSecurity.addToCache(sakaiSecurity.makeCacheKey("user1", null, "function1", "/site/1", false), true, false);
+        cached.clear();
+
+        sakaiSecurity.addToCache(sakaiSecurity.makeCacheKey("user2", null, "function1", "/site/1", false), true, false);
+
+        verify(cache, never()).clear();
+        assertEquals(Long.valueOf(1), sakaiSecurity.getUnlockCacheStatistics().get("indexedKeys"));
+    }
+
+    @Test
+    public void testRealmIndexChangeDuringPutRemovesTheAnswer() {
+
+        Cache cache = mock(Cache.class);
+        when(memoryService.getCache("org.sakaiproject.authz.api.SecurityService.cache")).thenReturn(cache);
+        sakaiSecurity.init();
+
+        String key = sakaiSecurity.makeCacheKey("user1", null, "function1", "/site/1", false);
+        // the realm changes after the answer was worked out but before it is in the cache
+        doAnswer(s -> {
+            sakaiSecurity.cacheRealmPermsChanged("/realm//site/1", null, singleton("function1"));
+            return null;
+        }).when(cache).put(eq(key), any());
+
+        sakaiSecurity.addToCache(key, true, false);
+
+        verify(cache).remove(key);
+        assertEquals(Long.valueOf(0), sakaiSecurity.getUnlockCacheStatistics().get("indexedKeys"));
+    }
+
+    @Test
+    public void testRealmIndexNotUsedWithDistributedCache() throws GroupNotDefinedException {
+
+        Cache cache = mock(Cache.class);
+        when(cache.isDistributed()).thenReturn(true);
+        when(memoryService.getCache("org.sakaiproject.authz.api.SecurityService.cache")).thenReturn(cache);
+        sakaiSecurity.init();
+
+        new AuthzGroupBuilder(authzGroupService, "/site/1")
+                .addMember("1", "role", true)
+                .build();
+
+        Set<String> flushed = new HashSet<>();
+        doAnswer(s -> flushed.addAll(s.getArgument(0))).when(cache).removeAll(any());
+
+        sakaiSecurity.cacheRealmPermsChanged("/realm//site/1", singleton("role"), singleton("function"));
+
+        assertThat(flushed, containsInAnyOrder("unlock@1@@function@/site/1"));
+    }
+
+    @Test
+    public void testUnlockAllResolvesMissesInOneCall() {
+
+        Cache cache = mock(Cache.class);
+        when(memoryService.getCache(anyString())).thenReturn(cache);
+        sakaiSecurity.init();
+
+        for (String site : Arrays.asList("/site/1", "/site/2", "/site/3")) {
+            Reference ref = mock(Reference.class);
+            when(ref.getAuthzGroups("user1")).thenReturn(singleton(site));
+            when(entityManager.newReference(site)).thenReturn(ref);
+        }
+        when(cache.get("unlock@user1@@function@/site/3")).thenReturn(Boolean.TRUE);
+        when(authzGroupService.getAllowedReferences(eq("user1"), eq("function"), any())).thenReturn(singleton("/site/1"));
+
+        Map<String, Boolean> allowed = sakaiSecurity.unlockAll("user1", "function", Arrays.asList("/site/1", "/site/2", "/site/3"));
+
+        assertEquals(Boolean.TRUE, allowed.get("/site/1"));
+        assertEquals(Boolean.FALSE, allowed.get("/site/2"));
+        assertEquals(Boolean.TRUE, allowed.get("/site/3"));
+        // the cached answer is not asked for again, the misses go in one call
+        verify(authzGroupService, times(1)).getAllowedReferences(eq("user1"), eq("function"),
+                argThat(azgs -> azgs.keySet().equals(new HashSet<>(Arrays.asList("/site/1", "/site/2")))));
+        verify(authzGroupService, never()).isAllowed(eq("user1"), eq("function"), any(Collection.class));
+    }
+
+    private void disableRealmIndex() {
+        when(serverConfigurationService.getBoolean(eq("memory.SecurityService.realmIndex"), anyBoolean())).thenReturn(false);
+    }
+
 }
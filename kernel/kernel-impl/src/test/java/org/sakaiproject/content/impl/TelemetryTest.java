@@ -0,0 +1,70 @@
+package org.sakaiproject.content.impl;
+
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TelemetryTest {
+
+	@Test
+	public void testHistogramBucketsAreContiguous() {
+		for (long value = 0; value < 100000; value++) {
+			int bucket = TelemetryHistogram.bucket(value);
+			assertTrue(value <= TelemetryHistogram.highestValue(bucket));
+			assertTrue(bucket == 0 || value > TelemetryHistogram.highestValue(bucket - 1));
+		}
+		assertEquals(TelemetryHistogram.BUCKET_COUNT - 1, TelemetryHistogram.bucket(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void testPercentilesAreWithinBucketPrecision() {
+		long[] counts = new long[TelemetryHistogram.BUCKET_COUNT];
+		for (int i = 1; i <= 1000; i++) {
+			counts[TelemetryHistogram.bucket(i)]++;
+		}
+
+		assertWithin(500, TelemetryHistogram.percentile(counts, 50.0));
+		assertWithin(990, TelemetryHistogram.percentile(counts, 99.0));
+		assertWithin(999, TelemetryHistogram.percentile(counts, 99.9));
+		assertEquals(0, TelemetryHistogram.percentile(new long[TelemetryHistogram.BUCKET_COUNT], 50.0));
+	}
+
+	@Test
+	public void testConcurrentObservationsAreAllCounted() throws InterruptedException {
+		final Telemetry telemetry = new Telemetry(LoggerFactory.getLogger(TelemetryTest.class), "test", 1000, 2000);
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			Thread thread = new Thread(() -> {
+				for (int i = 0; i < 10000; i++) {
+					telemetry.addObservation(1024, 5000);
+				}
+				telemetry.addObservation(-1, 5000);
+			});
+			threads.add(thread);
+			thread.start();
+		}
+
+		// drain while the recorders are running, nothing may be lost
+		Telemetry.TelemetryReport report = new Telemetry.TelemetryReport(2);
+		telemetry.drainInto(report, 0);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		telemetry.drainInto(report, 1);
+
+		assertEquals(80000, report.operationsCompletedCount);
+		assertEquals(80000L * 1024, report.observationSums[0] + report.observationSums[1]);
+		assertWithin(1024, TelemetryHistogram.percentile(report.sizes, 99.9));
+		assertWithin(5, TelemetryHistogram.percentile(report.latencies, 50.0));
+		assertTrue(telemetry.summarize(report).contains("operations_completed=80000"));
+	}
+
+	private void assertWithin(long expected, long actual) {
+		assertTrue("expected about " + expected + " but was " + actual, actual >= expected && actual <= expected * 1.125);
+	}
+}
@@ -25,6 +25,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.junit.Test;
 import org.sakaiproject.content.impl.serialize.impl.Type1BaseContentCollectionSerializer;
+import org.sakaiproject.content.impl.serialize.impl.Type1BaseContentResourceSerializer;
 
 public class ProfileSerializerTest
 {
@@ -82,4 +83,37 @@ public class ProfileSerializerTest
 		}
 		sc.check();
 	}
+
+	/**
+	 * Profile a serialize and parse round trip of a resource, the record read for every CONTENT_RESOURCE access.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public final void testResourceRoundTrip() throws Exception
+	{
+		Type1BaseContentResourceSerializer t1 = new Type1BaseContentResourceSerializer();
+		t1.setTimeService(new MockTimeService());
+		MockSerializableResourceAcccess sc = new MockSerializableResourceAcccess();
+		Runtime r = Runtime.getRuntime();
+		r.gc();
+		Thread.sleep(2000);
+		{
+			long start = System.currentTimeMillis();
+			long ms = r.freeMemory();
+			for (int i = 0; i < 16000; i++)
+			{
+				t1.parse(sc, t1.serialize(sc));
+			}
+			long me = r.freeMemory();
+			long m = ms - me;
+			long end = System.currentTimeMillis();
+			long t = (end - start);
+			log.info("Round trip 16000 Resources took " + t + "ms ");
+			log.info("Round trip 16000 Resources took " + (t * 1000) / 16000 + " us/entity ");
+			log.info("Round trip 16000 Resources took " + m + " bytes overhead ");
+			log.info("Round trip 16000 Resources took " + (m / 16000) + " bytes/entity overhead ");
+		}
+		sc.check();
+	}
 }
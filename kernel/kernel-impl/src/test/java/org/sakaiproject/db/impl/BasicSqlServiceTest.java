@@ -0,0 +1,260 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2016 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.db.impl;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.db.api.SqlReaderFinishedException;
+import org.sakaiproject.event.api.UsageSessionService;
+import org.sakaiproject.thread_local.api.ThreadLocalManager;
+import org.sakaiproject.util.SingleStorageSql;
+import org.sakaiproject.util.SingleStorageSqlHSql;
+
+/**
+ * Runs BasicSqlService against an in-memory HSQLDB table.
+ */
+public class BasicSqlServiceTest {
+
+	private static final String URL = "jdbc:hsqldb:mem:dbstream";
+
+	private BasicSqlService sqlService;
+
+	private int borrowed = 0;
+
+	private int returned = 0;
+
+	@Before
+	public void setUp() throws Exception {
+		Class.forName("org.hsqldb.jdbcDriver");
+		try (Connection conn = DriverManager.getConnection(URL, "sa", ""); Statement stmt = conn.createStatement()) {
+			stmt.execute("create table STREAM_TEST (ID integer, NAME varchar(32))");
+			for (int i = 1; i <= 10; i++) {
+				stmt.execute("insert into STREAM_TEST values (" + i + ", 'name" + i + "')");
+			}
+		}
+
+		final UsageSessionService usageSessionService = mock(UsageSessionService.class);
+		final ThreadLocalManager threadLocalManager = mock(ThreadLocalManager.class);
+		DataSource dataSource = mock(DataSource.class);
+		when(dataSource.getConnection()).thenAnswer(invocation -> {
+			borrowed++;
+			return DriverManager.getConnection(URL, "sa", "");
+		});
+
+		sqlService = new BasicSqlService() {
+			protected UsageSessionService usageSessionService() {
+				return usageSessionService;
+			}
+
+			protected ThreadLocalManager threadLocalManager() {
+				return threadLocalManager;
+			}
+
+			public void returnConnection(Connection conn) {
+				returned++;
+				super.returnConnection(conn);
+			}
+		};
+		sqlService.setDefaultDataSource(dataSource);
+		Map<String, SqlServiceSql> databaseBeans = new HashMap<String, SqlServiceSql>();
+		databaseBeans.put("default", new BasicSqlServiceSqlDefault());
+		databaseBeans.put("hsqldb", new BasicSqlServiceSqlHSql());
+		sqlService.setDatabaseBeans(databaseBeans);
+		sqlService.init();
+		Assert.assertEquals(0, borrowed);
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		try (Connection conn = DriverManager.getConnection(URL, "sa", ""); Statement stmt = conn.createStatement()) {
+			stmt.execute("drop table STREAM_TEST");
+			stmt.execute("drop table if exists UNIQUE_TEST");
+			stmt.execute("drop table if exists KEYSET_TEST");
+		}
+	}
+
+	@Test
+	public void testStreamReadsAllRecordsAndReturnsConnection() {
+		List<String> names = sqlService.dbStream("select NAME from STREAM_TEST where ID > ? order by ID", new Object[] { 5 }, 2,
+				result -> {
+					try {
+						return result.getString(1);
+					} catch (SQLException e) {
+						return null;
+					}
+				}).collect(Collectors.toList());
+
+		Assert.assertEquals(5, names.size());
+		Assert.assertEquals("name6", names.get(0));
+		Assert.assertEquals("name10", names.get(4));
+
+		// read to the end, so released without being closed
+		Assert.assertEquals(1, borrowed);
+		Assert.assertEquals(1, returned);
+	}
+
+	@Test
+	public void testClosingStreamEarlyReturnsConnection() {
+		try (Stream<String> names = sqlService.dbStream("select NAME from STREAM_TEST order by ID", null, 0, null)) {
+			Assert.assertEquals("name1", names.findFirst().get());
+			Assert.assertEquals(0, returned);
+		}
+
+		Assert.assertEquals(1, borrowed);
+		Assert.assertEquals(1, returned);
+	}
+
+	@Test
+	public void testReaderCanFinishStream() {
+		long count = sqlService.dbStream("select ID from STREAM_TEST order by ID", null, 0, result -> {
+			try {
+				int id = result.getInt(1);
+				if (id > 3) throw new SqlReaderFinishedException();
+				return id;
+			} catch (SQLException e) {
+				return null;
+			}
+		}).count();
+
+		Assert.assertEquals(3, count);
+		Assert.assertEquals(1, returned);
+	}
+
+	@Test
+	public void testBadSqlGivesEmptyStream() {
+		Assert.assertEquals(0, sqlService.dbStream("select NOPE from STREAM_TEST", null, 0, null).count());
+		Assert.assertEquals(1, returned);
+	}
+
+	@Test
+	public void testKeysetPagesReadTheTableInIdOrder() throws SQLException {
+		try (Connection conn = DriverManager.getConnection(URL, "sa", ""); Statement stmt = conn.createStatement()) {
+			stmt.execute("create table KEYSET_TEST (ID varchar(32), XML varchar(32))");
+			// inserted out of order
+			for (int i : new int[] { 7, 2, 10, 4, 1, 9, 3, 8, 6, 5 }) {
+				String id = String.format("id%02d", i);
+				stmt.execute("insert into KEYSET_TEST values ('" + id + "', 'xml-" + id + "')");
+			}
+		}
+
+		SingleStorageSql storageSql = new SingleStorageSqlHSql();
+		List<String> ids = new ArrayList<String>();
+		int pages = 0;
+		String afterId = null;
+		while (true) {
+			String sql = storageSql.getXmlKeysetSql("ID", "KEYSET_TEST", "XML <> 'xml-id04'", (afterId == null), 3);
+			Object[] fields = (afterId == null) ? null : new Object[] { afterId };
+			List<String[]> page = sqlService.dbStream(sql, fields, 3, result -> {
+				try {
+					return new String[] { result.getString(1), result.getString(2) };
+				} catch (SQLException e) {
+					return null;
+				}
+			}).collect(Collectors.toList());
+			if (page.isEmpty()) break;
+			pages++;
+			for (String[] record : page) {
+				Assert.assertEquals("xml-" + record[0], record[1]);
+				ids.add(record[0]);
+			}
+			afterId = page.get(page.size() - 1)[0];
+		}
+
+		Assert.assertEquals(Arrays.asList("id01", "id02", "id03", "id05", "id06", "id07", "id08", "id09", "id10"), ids);
+		Assert.assertEquals(3, pages);
+		Assert.assertEquals(borrowed, returned);
+	}
+
+	@Test
+	public void testBatchWritesInOneRoundTrip() {
+		List<Object[]> rows = new ArrayList<Object[]>();
+		for (int i = 11; i <= 30; i++) {
+			rows.add(new Object[] { i, "name" + i });
+		}
+
+		Assert.assertTrue(sqlService.dbWriteBatch(null, "insert into STREAM_TEST values (?, ?)", rows));
+
+		Assert.assertEquals(30, sqlService.dbRead("select ID from STREAM_TEST").size());
+		Assert.assertEquals(1L, (long) sqlService.getWriteStatistics().get("batches"));
+		Assert.assertEquals(20L, (long) sqlService.getWriteStatistics().get("batchedWrites"));
+		Assert.assertEquals(0L, (long) sqlService.getWriteStatistics().get("writes"));
+		Assert.assertEquals(borrowed, returned);
+	}
+
+	@Test
+	public void testFailedBatchWritesNothing() {
+		List<Object[]> rows = new ArrayList<Object[]>();
+		rows.add(new Object[] { 11, "name11" });
+		rows.add(new Object[] { "twelve", "name12" });
+
+		try {
+			sqlService.dbWriteBatch(null, "insert into STREAM_TEST values (?, ?)", rows);
+			Assert.fail();
+		} catch (RuntimeException e) {
+			// expected
+		}
+
+		Assert.assertEquals(10, sqlService.dbRead("select ID from STREAM_TEST").size());
+		Assert.assertEquals(borrowed, returned);
+	}
+
+	@Test
+	public void testBatchSkipsDuplicatesAndWritesTheRest() throws SQLException {
+		try (Connection conn = DriverManager.getConnection(URL, "sa", ""); Statement stmt = conn.createStatement()) {
+			stmt.execute("create table UNIQUE_TEST (ID integer primary key, NAME varchar(32))");
+			stmt.execute("insert into UNIQUE_TEST values (5, 'name5')");
+		}
+		List<Object[]> rows = new ArrayList<Object[]>();
+		for (int i = 1; i <= 8; i++) {
+			rows.add(new Object[] { i, "name" + i });
+		}
+
+		// like the dbWrite() calls it replaces, the duplicate is skipped and the others are still written
+		Assert.assertFalse(sqlService.dbWriteBatch(null, "insert into UNIQUE_TEST values (?, ?)", rows));
+		Assert.assertEquals(8, sqlService.dbRead("select ID from UNIQUE_TEST").size());
+
+		Assert.assertFalse(sqlService.dbWriteBatch(null, "insert into UNIQUE_TEST values (?, ?)", rows.subList(0, 1)));
+		Assert.assertTrue(sqlService.dbWriteBatch(null, "insert into UNIQUE_TEST values (?, ?)", Arrays.asList(new Object[] { 9, "name9" },
+				new Object[] { 10, "name10" })));
+		Assert.assertEquals(10, sqlService.dbRead("select ID from UNIQUE_TEST").size());
+		Assert.assertEquals(borrowed, returned);
+	}
+}
@@ -0,0 +1,211 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2016 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.event.impl;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.sakaiproject.authz.api.SecurityService;
+import org.sakaiproject.component.api.ServerConfigurationService;
+import org.sakaiproject.db.api.SqlReader;
+import org.sakaiproject.db.api.SqlService;
+import org.sakaiproject.entity.api.EntityManager;
+import org.sakaiproject.event.api.Event;
+import org.sakaiproject.event.api.NotificationService;
+import org.sakaiproject.event.api.UsageSessionService;
+import org.sakaiproject.memory.api.MemoryService;
+import org.sakaiproject.time.api.TimeService;
+import org.sakaiproject.tool.api.SessionManager;
+import org.sakaiproject.tool.api.ToolManager;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Runs two ClusterEventTracking "servers" in one JVM over the loopback transport.
+ */
+public class ClusterEventTransportTest {
+
+	private List<ClusterEventTracking> nodes = new ArrayList<ClusterEventTracking>();
+
+	@After
+	public void tearDown() {
+		for (ClusterEventTracking node : nodes) {
+			node.destroy();
+		}
+	}
+
+	@Test
+	public void testEventIsPushedToOtherNode() {
+		ClusterEventTracking node1 = newNode("server1");
+		ClusterEventTracking node2 = newNode("server2");
+		RecordingObserver local1 = new RecordingObserver();
+		RecordingObserver observer2 = new RecordingObserver();
+		RecordingObserver local2 = new RecordingObserver();
+		node1.addObserver(local1);
+		node2.addObserver(observer2);
+		node2.addLocalObserver(local2);
+
+		Event event = node1.newEvent("site.upd", "/site/abc", "abc", true, NotificationService.NOTI_OPTIONAL);
+		node1.postEvent(event);
+
+		// seen once locally, once on the other node, and never by the other node's local observers
+		Assert.assertEquals(1, local1.events.size());
+		Assert.assertEquals(1, observer2.events.size());
+		Assert.assertEquals(0, local2.events.size());
+		Event pushed = observer2.events.get(0);
+		Assert.assertEquals("site.upd", pushed.getEvent());
+		Assert.assertEquals("/site/abc", pushed.getResource());
+		Assert.assertEquals("abc", pushed.getContext());
+		Assert.assertTrue(pushed.getModify());
+		Assert.assertEquals(NotificationService.NOTI_NONE, pushed.getPriority());
+	}
+
+	@Test
+	public void testEventsAreQueuedForBatchWrite() {
+		ClusterEventTracking node1 = newNode("server1");
+		node1.postEvent(node1.newEvent("site.upd", "/site/abc", "abc", true, NotificationService.NOTI_OPTIONAL));
+		Assert.assertEquals(1, node1.m_eventQueue.size());
+	}
+
+	@Test
+	public void testCatchUpStopsAtTheSeqTheTransportStartedAt() throws Exception {
+		SqlService sqlService = mockSqlService();
+		// the last event when the node started, then when the transport started
+		final Iterator<Long> maxEventIds = Arrays.asList(10L, 12L).iterator();
+		when(sqlService.dbRead(eq("select MAX(EVENT_ID) from SAKAI_EVENT"), any(), any(SqlReader.class))).thenAnswer(new Answer<List>() {
+			public List answer(InvocationOnMock invocation) throws Throwable {
+				ResultSet result = mock(ResultSet.class);
+				when(result.getLong(1)).thenReturn(maxEventIds.next());
+				((SqlReader) invocation.getArguments()[2]).readSqlResultRecord(result);
+				return new ArrayList();
+			}
+		});
+		// the event table holds an event written before the transport started, and one written after
+		when(sqlService.dbRead(eq(new ClusterEventTrackingServiceSqlDefault().getEventSql()), any(), any(SqlReader.class))).thenAnswer(new Answer<List>() {
+			public List answer(InvocationOnMock invocation) throws Throwable {
+				SqlReader reader = (SqlReader) invocation.getArguments()[2];
+				List events = new ArrayList();
+				for (long id : new long[] {11L, 13L}) {
+					Object event = reader.readSqlResultRecord(eventRecord(id, "site.upd", "/site/" + id));
+					if (event != null) {
+						events.add(event);
+					}
+				}
+				return events;
+			}
+		});
+
+		ClusterEventTracking node1 = newNode("server1", sqlService);
+		RecordingObserver observer1 = new RecordingObserver();
+		node1.addObserver(observer1);
+
+		node1.run();
+		node1.run();
+
+		// the later event came over the transport, and once caught up the db isn't read again
+		Assert.assertEquals(1, observer1.events.size());
+		Assert.assertEquals("/site/11", observer1.events.get(0).getResource());
+		Assert.assertEquals(13L, node1.m_lastEventSeq);
+	}
+
+	private ResultSet eventRecord(long id, String function, String ref) throws Exception {
+		ResultSet result = mock(ResultSet.class);
+		when(result.getLong(1)).thenReturn(id);
+		when(result.getTimestamp(eq(2), any(Calendar.class))).thenReturn(new Timestamp(System.currentTimeMillis()));
+		when(result.getString(3)).thenReturn(function);
+		when(result.getString(4)).thenReturn(ref);
+		// a non session event from another server
+		when(result.getString(5)).thenReturn("~server2~user1");
+		when(result.getString(6)).thenReturn("m");
+		when(result.getString(7)).thenReturn("abc");
+		return result;
+	}
+
+	private SqlService mockSqlService() {
+		SqlService sqlService = mock(SqlService.class);
+		when(sqlService.getVendor()).thenReturn("hsqldb");
+		when(sqlService.getCal()).thenReturn(new GregorianCalendar());
+		return sqlService;
+	}
+
+	private ClusterEventTracking newNode(final String serverId) {
+		return newNode(serverId, mockSqlService());
+	}
+
+	private ClusterEventTracking newNode(final String serverId, final SqlService sqlService) {
+		final ServerConfigurationService serverConfigurationService = mock(ServerConfigurationService.class);
+		when(serverConfigurationService.getServerId()).thenReturn(serverId);
+		when(serverConfigurationService.getServerIdInstance()).thenReturn(serverId + "-1");
+		when(serverConfigurationService.getBoolean(anyString(), anyBoolean())).thenReturn(false);
+		final SessionManager sessionManager = mock(SessionManager.class);
+		when(sessionManager.getCurrentSessionUserId()).thenReturn("admin");
+
+		ClusterEventTracking node = new EventTrackingTest() {
+			protected SqlService sqlService() {
+				return sqlService;
+			}
+
+			protected ServerConfigurationService serverConfigurationService() {
+				return serverConfigurationService;
+			}
+
+			protected SessionManager sessionManager() {
+				return sessionManager;
+			}
+		};
+		Map<String, ClusterEventTrackingServiceSql> databaseBeans = new HashMap<String, ClusterEventTrackingServiceSql>();
+		databaseBeans.put("default", new ClusterEventTrackingServiceSqlDefault());
+		node.setDatabaseBeans(databaseBeans);
+		node.setEventTransport(new LoopbackEventTransport());
+		node.init();
+		nodes.add(node);
+		return node;
+	}
+
+	private static class RecordingObserver implements Observer {
+		private final List<Event> events = new ArrayList<Event>();
+
+		public void update(Observable o, Object arg) {
+			events.add((Event) arg);
+		}
+	}
+}
@@ -0,0 +1,179 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2016 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.event.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EventDispatcherTest {
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(2);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testInlineDeliveryIsSynchronous() {
+		EventDispatcher dispatcher = new EventDispatcher("test");
+		RecordingObserver observer = new RecordingObserver(null);
+		dispatcher.addObserver(observer);
+		dispatcher.addObserver(observer);
+
+		dispatcher.notifyObservers("one");
+		dispatcher.notifyObservers("two");
+
+		Assert.assertEquals(1, dispatcher.countObservers());
+		Assert.assertEquals(2, observer.events.size());
+		Assert.assertSame(dispatcher, observer.observable);
+	}
+
+	@Test
+	public void testInlineDeliveryCallsLastAddedFirst() {
+		EventDispatcher dispatcher = new EventDispatcher("test");
+		final List<String> calls = new ArrayList<String>();
+		for (final String name : new String[] { "first", "second", "third" }) {
+			dispatcher.addObserver(new Observer() {
+				public void update(Observable o, Object arg) {
+					calls.add(name);
+				}
+			});
+		}
+
+		dispatcher.notifyObservers("event");
+
+		// the same order java.util.Observable uses
+		Assert.assertEquals(Arrays.asList("third", "second", "first"), calls);
+	}
+
+	@Test
+	public void testAsyncDeliveryKeepsOrderPerObserver() throws Exception {
+		EventDispatcher dispatcher = new EventDispatcher("test");
+		dispatcher.setExecutor(executor);
+		CountDownLatch done = new CountDownLatch(500);
+		RecordingObserver observer = new RecordingObserver(done);
+		dispatcher.addObserver(observer);
+
+		for (int i = 0; i < 500; i++) {
+			dispatcher.notifyObservers(i);
+		}
+
+		Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+		for (int i = 0; i < 500; i++) {
+			Assert.assertEquals(i, observer.events.get(i));
+		}
+		Assert.assertEquals(500, dispatcher.getStats().get(0).getDelivered());
+	}
+
+	@Test
+	public void testSlowObserverDoesNotHoldUpPoster() throws Exception {
+		EventDispatcher dispatcher = new EventDispatcher("test");
+		dispatcher.setExecutor(executor);
+		dispatcher.setQueueSize(2);
+		dispatcher.setOverflowPolicy(EventDispatcher.OverflowPolicy.DROP);
+		final CountDownLatch release = new CountDownLatch(1);
+		dispatcher.addObserver(new Observer() {
+			public void update(Observable o, Object arg) {
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 10; i++) {
+			dispatcher.notifyObservers(i);
+		}
+		Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+		Assert.assertTrue(dispatcher.getStats().get(0).getDropped() > 0);
+		release.countDown();
+	}
+
+	@Test
+	public void testFailingObserverDoesNotStopOthers() throws Exception {
+		EventDispatcher dispatcher = new EventDispatcher("test");
+		dispatcher.setExecutor(executor);
+		dispatcher.addObserver(new Observer() {
+			public void update(Observable o, Object arg) {
+				throw new IllegalStateException("boom");
+			}
+		});
+		CountDownLatch done = new CountDownLatch(1);
+		RecordingObserver observer = new RecordingObserver(done);
+		dispatcher.addObserver(observer);
+
+		dispatcher.notifyObservers("event");
+
+		Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+		Assert.assertEquals("event", observer.events.get(0));
+	}
+
+	@Test
+	public void testDrainDeliversQueuedEvents() {
+		EventDispatcher dispatcher = new EventDispatcher("test");
+		executor.shutdown();
+		dispatcher.setExecutor(executor);
+		RecordingObserver observer = new RecordingObserver(null);
+		dispatcher.addObserver(observer);
+
+		// a shut down pool rejects the drain task, so the event is delivered on this thread
+		dispatcher.notifyObservers("event");
+
+		Assert.assertEquals(1, observer.events.size());
+	}
+
+	private static class RecordingObserver implements Observer {
+		private final List<Object> events = new ArrayList<Object>();
+		private final CountDownLatch latch;
+		private Observable observable;
+
+		RecordingObserver(CountDownLatch latch) {
+			this.latch = latch;
+		}
+
+		public synchronized void update(Observable o, Object arg) {
+			observable = o;
+			events.add(arg);
+			if (latch != null) latch.countDown();
+		}
+	}
+}
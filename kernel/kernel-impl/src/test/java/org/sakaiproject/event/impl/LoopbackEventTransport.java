@@ -0,0 +1,67 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2016 Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.event.impl;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.sakaiproject.event.api.SimpleEvent;
+
+/**
+ * <p>
+ * LoopbackEventTransport connects every instance created in this JVM, standing in for a real cluster in tests.
+ * </p>
+ * <p>
+ * Events are delivered in-line on the publishing thread.
+ * </p>
+ */
+public class LoopbackEventTransport implements ClusterEventTransport
+{
+	/** The listeners of all started instances. */
+	protected static final List<Listener> m_listeners = new CopyOnWriteArrayList<Listener>();
+
+	protected Listener m_listener = null;
+
+	public boolean start(Listener listener)
+	{
+		m_listener = listener;
+		m_listeners.add(listener);
+		return true;
+	}
+
+	public void publish(SimpleEvent event)
+	{
+		for (Listener listener : m_listeners)
+		{
+			listener.received(event);
+		}
+	}
+
+	public void stop()
+	{
+		if (m_listener != null)
+		{
+			m_listeners.remove(m_listener);
+			m_listener = null;
+		}
+	}
+}
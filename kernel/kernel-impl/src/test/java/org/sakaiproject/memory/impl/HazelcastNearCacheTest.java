@@ -0,0 +1,197 @@
+package org.sakaiproject.memory.impl;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.config.JoinConfig;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import com.hazelcast.core.ITopic;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the near cache against an embedded two member Hazelcast cluster
+ */
+public class HazelcastNearCacheTest {
+
+	private static HazelcastInstance member1;
+	private static HazelcastInstance member2;
+
+	private IMap<String, String> map1;
+	private IMap<String, String> map2;
+
+	@BeforeClass
+	public static void startCluster() {
+		member1 = Hazelcast.newHazelcastInstance(clusterConfig("near1"));
+		member2 = Hazelcast.newHazelcastInstance(clusterConfig("near2"));
+		assertEquals(2, member1.getCluster().getMembers().size());
+	}
+
+	@AfterClass
+	public static void stopCluster() {
+		member2.shutdown();
+		member1.shutdown();
+	}
+
+	@Before
+	public void setUp() {
+		map1 = member1.getMap("nearCacheTest");
+		map2 = member2.getMap("nearCacheTest");
+		map1.clear();
+	}
+
+	@Test
+	public void testGetsAreServedLocally() {
+		// written before the cache listens, so a late entry event cannot empty the near cache mid test
+		map2.put("site1", "one");
+		HazelcastNearCache<String, String> cache = nearCache(member1, map1, 100, 300);
+		try {
+			assertEquals("one", cache.get("site1"));
+			assertEquals("one", cache.get("site1"));
+			assertEquals("one", cache.get("site1"));
+			assertNull(cache.get("missing"));
+
+			assertEquals(1, cache.getNearSize());
+			assertEquals(2, cache.getCacheStatistics().getCacheHits());
+			assertEquals(2, cache.getCacheStatistics().getCacheMisses());
+		} finally {
+			cache.detach();
+		}
+	}
+
+	@Test
+	public void testChangeOnOtherMemberInvalidates() throws InterruptedException {
+		map2.put("site1", "one");
+		HazelcastNearCache<String, String> cache = nearCache(member1, map1, 100, 300);
+		try {
+			assertEquals("one", cache.get("site1"));
+			assertEquals(1, cache.getNearSize());
+
+			map2.put("site1", "two");
+			assertTrue("near entry was not invalidated", waitForNearSize(cache, 0));
+			assertEquals("two", cache.get("site1"));
+
+			map2.remove("site1");
+			assertTrue("near entry was not invalidated", waitForNearSize(cache, 0));
+			assertNull(cache.get("site1"));
+			assertTrue(cache.getInvalidationCount() >= 2);
+		} finally {
+			cache.detach();
+		}
+	}
+
+	@Test
+	public void testLocalWritesGoToTheCluster() {
+		HazelcastNearCache<String, String> cache = nearCache(member1, map1, 100, 300);
+		try {
+			cache.put("user1", "one");
+			assertEquals("one", map2.get("user1"));
+			assertEquals("one", cache.get("user1"));
+
+			cache.put("user1", "two");
+			assertEquals("two", cache.get("user1"));
+
+			assertTrue(cache.remove("user1"));
+			assertFalse(cache.containsKey("user1"));
+			assertNull(map2.get("user1"));
+		} finally {
+			cache.detach();
+		}
+	}
+
+	@Test
+	public void testNearCacheIsBounded() {
+		for (int i = 0; i < 50; i++) {
+			map2.put("key" + i, "value" + i);
+		}
+		HazelcastNearCache<String, String> cache = nearCache(member1, map1, 10, 300);
+		try {
+			for (int i = 0; i < 50; i++) {
+				assertEquals("value" + i, cache.get("key" + i));
+			}
+			assertTrue(cache.getNearSize() <= 10);
+			assertEquals(40L, cache.getProperties(false).get("nearCacheEvictions"));
+		} finally {
+			cache.detach();
+		}
+	}
+
+	@Test
+	public void testLeastRecentlyUsedIsEvicted() {
+		map2.put("a", "1");
+		map2.put("b", "2");
+		map2.put("c", "3");
+		HazelcastNearCache<String, String> cache = nearCache(member1, map1, 2, 300);
+		try {
+			cache.get("a");
+			cache.get("b");
+			cache.get("a");
+			cache.get("c");
+			assertEquals(2, cache.getNearSize());
+
+			// a was used after b, so b went and a is still served locally
+			long hits = cache.getCacheStatistics().getCacheHits();
+			cache.get("a");
+			assertEquals(hits + 1, cache.getCacheStatistics().getCacheHits());
+			cache.get("b");
+			assertEquals(hits + 1, cache.getCacheStatistics().getCacheHits());
+		} finally {
+			cache.detach();
+		}
+	}
+
+	@Test
+	public void testClearOnOtherMemberEmptiesNearCache() throws InterruptedException {
+		map2.put("site1", "one");
+		map2.put("site2", "two");
+		HazelcastNearCache<String, String> cache = nearCache(member1, map1, 100, 300);
+		HazelcastNearCache<String, String> otherCache = nearCache(member2, map2, 100, 300);
+		try {
+			assertEquals("one", cache.get("site1"));
+			assertEquals("two", cache.get("site2"));
+			assertEquals(2, cache.getNearSize());
+
+			// IMap.clear() sends no entry events, only the clear topic reaches this member
+			otherCache.clear();
+			assertTrue("near cache was not cleared", waitForNearSize(cache, 0));
+			assertNull(cache.get("site1"));
+			assertNull(cache.get("site2"));
+		} finally {
+			otherCache.detach();
+			cache.detach();
+		}
+	}
+
+	private boolean waitForNearSize(HazelcastNearCache<?, ?> cache, int size) throws InterruptedException {
+		for (int i = 0; i < 100; i++) {
+			if (cache.getNearSize() == size) {
+				return true;
+			}
+			Thread.sleep(50);
+		}
+		return false;
+	}
+
+	private static HazelcastNearCache<String, String> nearCache(HazelcastInstance member, IMap<String, String> map, int maxEntries, long timeToLiveSeconds) {
+		ITopic<String> clearTopic = member.getTopic(HazelcastMemoryService.NEAR_CACHE_CLEAR_TOPIC_PREFIX + map.getName());
+		return new HazelcastNearCache<>(map, clearTopic, maxEntries, timeToLiveSeconds);
+	}
+
+	private static Config clusterConfig(String instanceName) {
+		Config config = new Config();
+		config.setInstanceName(instanceName);
+		config.setProperty("hazelcast.logging.type", "slf4j");
+		JoinConfig join = config.getNetworkConfig().getJoin();
+		join.getMulticastConfig().setEnabled(false);
+		join.getTcpIpConfig().setEnabled(true).addMember("127.0.0.1");
+		config.getNetworkConfig().getInterfaces().setEnabled(true).addInterface("127.0.0.1");
+		return config;
+	}
+}
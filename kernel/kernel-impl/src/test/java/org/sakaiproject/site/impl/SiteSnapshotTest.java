@@ -0,0 +1,222 @@
+package org.sakaiproject.site.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.component.api.ComponentManager;
+import org.sakaiproject.component.api.ServerConfigurationService;
+import org.sakaiproject.entity.api.ResourcePropertiesEdit;
+import org.sakaiproject.id.api.IdManager;
+import org.sakaiproject.id.impl.UuidV4IdComponent;
+import org.sakaiproject.site.api.Group;
+import org.sakaiproject.site.api.Site;
+import org.sakaiproject.site.api.SitePage;
+import org.sakaiproject.site.api.ToolConfiguration;
+import org.sakaiproject.util.BaseResourcePropertiesEdit;
+import org.sakaiproject.tool.api.SessionManager;
+import org.sakaiproject.tool.api.ToolManager;
+import org.sakaiproject.user.api.UserDirectoryService;
+
+public class SiteSnapshotTest {
+
+	private BaseSiteService service;
+	private BaseSite site;
+	private Field componentManagerField;
+	private Object savedComponentManager;
+
+	@Before
+	public void setUp() throws Exception {
+		IdManager idManager = new UuidV4IdComponent();
+		SessionManager sessionManager = mock(SessionManager.class);
+		UserDirectoryService userDirectoryService = mock(UserDirectoryService.class);
+		service = mock(BaseSiteService.class, withSettings().stubOnly());
+		when(service.idManager()).thenReturn(idManager);
+		when(service.serverConfigurationService()).thenReturn(mock(ServerConfigurationService.class, withSettings().stubOnly()));
+
+		// site copies find their services through the component manager cover
+		ComponentManager componentManager = mock(ComponentManager.class);
+		when(componentManager.get(SessionManager.class)).thenReturn(sessionManager);
+		when(componentManager.get(UserDirectoryService.class)).thenReturn(userDirectoryService);
+		when(componentManager.get(ToolManager.class)).thenReturn(mock(ToolManager.class));
+		componentManagerField = org.sakaiproject.component.cover.ComponentManager.class.getDeclaredField("m_componentManager");
+		componentManagerField.setAccessible(true);
+		savedComponentManager = componentManagerField.get(null);
+		componentManagerField.set(null, componentManager);
+
+		site = new BaseSite(service, "site1", "Site One", "course", "short", "description", null, null, null,
+				true, false, false, null, false, false, "admin", null, "admin", null, false, false, null,
+				sessionManager, userDirectoryService);
+		((BaseResourcePropertiesEdit) site.m_properties).setLazy(false);
+		site.m_pagesLazy = false;
+		site.m_groupsLazy = false;
+		for (int p = 0; p < 60; p++) {
+			SitePage page = site.addPage();
+			((BaseSitePage) page).m_toolsLazy = false;
+			page.setTitle("Page " + p);
+			for (int t = 0; t < 2; t++) {
+				ToolConfiguration tool = page.addTool();
+				tool.setTitle("Tool " + p + "." + t);
+				tool.getPlacementConfig().setProperty("setting", "value");
+			}
+		}
+		for (int g = 0; g < 250; g++) {
+			Group group = site.addGroup();
+			group.setTitle("Group " + g);
+			group.getPropertiesEdit().addProperty("group_prop", "value " + g);
+		}
+		site.getPropertiesEdit().addProperty("site_prop", "value");
+		site.setFullyLoaded(true);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		componentManagerField.set(null, savedComponentManager);
+	}
+
+	@Test
+	public void testSnapshotReadsTheSharedSite() {
+		Site snapshot = SiteSnapshot.of(service, site);
+
+		assertEquals("site1", snapshot.getId());
+		assertEquals("Site One", snapshot.getTitle());
+		assertEquals(60, snapshot.getPages().size());
+		assertEquals(250, snapshot.getGroups().size());
+		assertEquals("value", snapshot.getProperties().getProperty("site_prop"));
+
+		SitePage page = (SitePage) snapshot.getPages().get(10);
+		assertEquals("Page 10", page.getTitle());
+		ToolConfiguration tool = (ToolConfiguration) page.getTools().get(1);
+		assertEquals("Tool 10.1", tool.getTitle());
+		assertEquals(snapshot, tool.getContainingPage().getContainingSite());
+		assertEquals(tool.getId(), snapshot.getTool(tool.getId()).getId());
+		assertTrue(snapshot.equals(SiteSnapshot.of(service, site)));
+		assertEquals(site.hashCode(), snapshot.hashCode());
+		// equality is symmetric: neither side accepts the other
+		assertFalse(snapshot.equals(site));
+		assertFalse(site.equals(snapshot));
+	}
+
+	@Test
+	public void testOrderedPagesLeaveTheSharedSiteAlone() {
+		ServerConfigurationService config = service.serverConfigurationService();
+		when(config.getToolOrder("course")).thenReturn(Arrays.asList("sakai.second", "sakai.first"));
+		when(config.getToolToCategoryMap("course")).thenReturn(Collections.singletonMap("sakai.second", "tools"));
+
+		BaseSite ordered = new BaseSite(service, "site2", "Site Two", "course", "short", "description", null, null, null,
+				true, false, false, null, false, false, "admin", null, "admin", null, false, false, null,
+				mock(SessionManager.class), mock(UserDirectoryService.class));
+		((BaseResourcePropertiesEdit) ordered.m_properties).setLazy(false);
+		ordered.m_pagesLazy = false;
+		ordered.m_groupsLazy = false;
+		for (String toolId : Arrays.asList("sakai.first", "sakai.second")) {
+			SitePage page = ordered.addPage();
+			((BaseSitePage) page).m_toolsLazy = false;
+			page.addTool(toolId);
+			page.getPropertiesEdit().addProperty(SitePage.PAGE_CATEGORY_PROP, "old");
+		}
+		ordered.setFullyLoaded(true);
+
+		Site snapshot = SiteSnapshot.of(service, ordered);
+		List<SitePage> pages = snapshot.getOrderedPages();
+		assertEquals("sakai.second", ((ToolConfiguration) pages.get(0).getTools().get(0)).getToolId());
+		assertEquals("tools", pages.get(0).getProperties().getProperty(SitePage.PAGE_CATEGORY_PROP));
+
+		for (SitePage page : (List<SitePage>) ordered.getPages()) {
+			assertEquals("old", page.getProperties().getProperty(SitePage.PAGE_CATEGORY_PROP));
+		}
+	}
+
+	@Test
+	public void testSnapshotCannotChangeTheSite() {
+		Site snapshot = SiteSnapshot.of(service, site);
+		SitePage page = (SitePage) snapshot.getPages().get(0);
+		ToolConfiguration tool = (ToolConfiguration) page.getTools().get(0);
+		Group group = (Group) snapshot.getGroups().iterator().next();
+
+		assertReadOnly(() -> snapshot.setTitle("changed"));
+		assertReadOnly(() -> snapshot.addPage());
+		assertReadOnly(() -> snapshot.getPropertiesEdit());
+		assertReadOnly(() -> snapshot.getPages().clear());
+		assertReadOnly(() -> snapshot.getProperties().addProperty("site_prop", "changed"));
+		assertReadOnly(() -> page.setTitle("changed"));
+		assertReadOnly(() -> page.moveUp());
+		assertReadOnly(() -> tool.setTitle("changed"));
+		assertReadOnly(() -> tool.save());
+		assertReadOnly(() -> group.setTitle("changed"));
+
+		// a copy of the tool's configuration can be changed, but not the tool's
+		tool.getPlacementConfig().setProperty("setting", "changed");
+
+		assertEquals("Site One", site.getTitle());
+		assertEquals(60, site.getPages().size());
+		assertEquals("value", site.getProperties().getProperty("site_prop"));
+		assertEquals("Page 0", ((SitePage) site.getPages().get(0)).getTitle());
+		assertEquals("value", ((ToolConfiguration) ((SitePage) site.getPages().get(0)).getTools().get(0)).getPlacementConfig().getProperty("setting"));
+		assertFalse(snapshot.getProperties() instanceof ResourcePropertiesEdit);
+	}
+
+	/**
+	 * Allocation benchmark: rendering a 60 page, 250 group site from the cache used to start with a deep copy of the
+	 * site. A read only view should allocate a small fraction of that.
+	 */
+	@Test
+	public void testSnapshotAllocatesFarLessThanACopy() {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		if (!threads.isThreadAllocatedMemorySupported()) return;
+		long thread = Thread.currentThread().getId();
+
+		for (int i = 0; i < 200; i++) {
+			renderNavigation(new BaseSite(service, site, true));
+			renderNavigation(SiteSnapshot.of(service, site));
+		}
+
+		long before = threads.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < 100; i++) {
+			renderNavigation(new BaseSite(service, site, true));
+		}
+		long copies = threads.getThreadAllocatedBytes(thread) - before;
+
+		before = threads.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < 100; i++) {
+			renderNavigation(SiteSnapshot.of(service, site));
+		}
+		long snapshots = threads.getThreadAllocatedBytes(thread) - before;
+
+		assertTrue("copies allocated " + copies + " bytes, snapshots " + snapshots, snapshots * 5 < copies);
+	}
+
+	// walks the site the way the portal's page and tool navigation does (titles would measure the mocks)
+	private int renderNavigation(Site s) {
+		int rv = s.getTitle().length();
+		for (SitePage page : (List<SitePage>) s.getPages()) {
+			rv += page.getId().length();
+			for (ToolConfiguration tool : (List<ToolConfiguration>) page.getTools()) {
+				rv += tool.getId().length();
+			}
+		}
+		return rv;
+	}
+
+	private void assertReadOnly(Runnable change) {
+		try {
+			change.run();
+			fail("expected the change to be refused");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package org.sakaiproject.tool.impl;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ExpirationWheelTest {
+
+	private static final long MINUTE = 60 * 1000L;
+
+	/**
+	 * 100k synthetic sessions with a 30 minute timeout, a quarter of them kept busy, checked once a minute
+	 * for two hours. Every session expires within a pass of its due time, and the passes check a small
+	 * multiple of the session count rather than every session on every pass.
+	 */
+	@Test
+	public void testOnlyDueSessionsAreChecked() {
+		final int sessions = 100000;
+		final long start = 1000 * MINUTE;
+		final Map<Integer, Long> due = new HashMap<>();
+		final Map<Integer, Long> expired = new HashMap<>();
+		final Random random = new Random(42);
+
+		ExpirationWheel<Integer> wheel = new ExpirationWheel<>(MINUTE);
+		for (int i = 0; i < sessions; i++) {
+			due.put(i, start + (long) (random.nextDouble() * 30 * MINUTE));
+			wheel.add(i);
+		}
+
+		long checks = 0;
+		int passes = 0;
+		for (long now = start; now <= start + 120 * MINUTE; now += MINUTE) {
+			final long passTime = now;
+			// requests keep every fourth session alive for the first hour
+			if (now < start + 60 * MINUTE) {
+				for (int i = 0; i < sessions; i += 4) {
+					due.put(i, now + 30 * MINUTE);
+				}
+			}
+			checks += wheel.advance(now, (id, time) -> {
+				long when = due.get(id);
+				if (when >= time) return when;
+				expired.put(id, passTime);
+				return -1;
+			});
+			passes++;
+		}
+
+		assertEquals(sessions, expired.size());
+		assertEquals(0, wheel.size());
+		for (Map.Entry<Integer, Long> entry : expired.entrySet()) {
+			long lateBy = entry.getValue() - due.get(entry.getKey());
+			assertTrue("expired early: " + lateBy, lateBy > 0);
+			assertTrue("expired late: " + lateBy, lateBy <= MINUTE);
+		}
+		assertTrue("checked " + checks, checks < 4L * sessions);
+		assertTrue(checks < (long) passes * sessions / 20);
+	}
+
+	@Test
+	public void testItemsAreKeptUntilDropped() {
+		ExpirationWheel<String> wheel = new ExpirationWheel<>(1000L);
+		wheel.add("a");
+		wheel.add("b");
+
+		assertEquals(2, wheel.advance(10000L, (item, now) -> "a".equals(item) ? now + 5000L : -1));
+		assertEquals(1, wheel.size());
+
+		// not due yet
+		assertEquals(0, wheel.advance(11000L, (item, now) -> -1));
+		assertEquals(1, wheel.size());
+
+		// a long gap between passes still finds it
+		assertEquals(1, wheel.advance(60000L, (item, now) -> -1));
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void testChangingTheTickRechecksEverything() {
+		ExpirationWheel<String> wheel = new ExpirationWheel<>(1000L);
+		wheel.add("a");
+		wheel.advance(10000L, (item, now) -> now + 100000L);
+		assertEquals(0, wheel.advance(11000L, (item, now) -> -1));
+
+		wheel.setTickMillis(2000L);
+		assertEquals(1, wheel.advance(12000L, (item, now) -> -1));
+		assertEquals(0, wheel.size());
+	}
+}
@@ -112,6 +112,16 @@ public class SessionComponentRegressionTest extends BaseSessionComponentTest {
 		assertNull(sessionComponent.getSession(id));
 	}
 	
+	public void testSessionExpiresAfterItsIntervalIsShortened()
+	throws InterruptedException, SecurityException, IllegalArgumentException, NoSuchFieldException, IllegalAccessException {
+		resetMaintenance("1", "20");
+		Session session = startSessionAndExpectItsExpiration();
+		Thread.sleep(1500L); // let maintenance file it for twenty seconds out
+		session.setMaxInactiveInterval(1);
+		awaitExpirationOrFail(session, 1);
+		assertNull(sessionComponent.getSession(session.getId()));
+	}
+
 	/**
 	 * An integration test which more explicitly verifies the invalidation
 	 * callbacks from the {@link Session}s created by this <code>SessionComponent</code>.
@@ -741,7 +751,7 @@ public class SessionComponentRegressionTest extends BaseSessionComponentTest {
 		sessionComponent.m_sessions.put(session.getId(), session);
 		if (session instanceof MySession) {
 			MySession mySession = (MySession)session;
-			sessionComponent.expirationTimeSuggestionMap.put(session.getId(),mySession.expirationTimeSuggestion);
+			sessionComponent.trackExpiration(session.getId(),mySession.expirationTimeSuggestion);
 		}
 	}
 	
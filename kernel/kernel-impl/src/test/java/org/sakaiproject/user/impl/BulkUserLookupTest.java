@@ -0,0 +1,178 @@
+package org.sakaiproject.user.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.db.api.SqlReader;
+import org.sakaiproject.db.api.SqlService;
+import org.sakaiproject.memory.impl.BasicMapCache;
+import org.sakaiproject.time.api.Time;
+import org.sakaiproject.time.api.TimeService;
+import org.sakaiproject.tool.api.SessionManager;
+import org.sakaiproject.user.api.User;
+import org.sakaiproject.user.api.UserDirectoryProvider;
+import org.sakaiproject.user.api.UserEdit;
+import org.sakaiproject.util.api.FormattedText;
+
+public class BulkUserLookupTest {
+
+	private DbUserService service;
+	private SqlService sqlService;
+	private UserDirectoryProvider provider;
+	private List<String> statements;
+
+	@Before
+	public void setUp() {
+		sqlService = mock(SqlService.class);
+		when(sqlService.getVendor()).thenReturn("hsql");
+		provider = mock(UserDirectoryProvider.class);
+		statements = new ArrayList<>();
+
+		service = mock(DbUserService.class, withSettings().useConstructor().defaultAnswer(CALLS_REAL_METHODS));
+		doReturn(sqlService).when(service).sqlService();
+		doReturn(mock(SessionManager.class)).when(service).sessionManager();
+		TimeService timeService = mock(TimeService.class);
+		Time now = mock(Time.class);
+		when(timeService.newTime()).thenReturn(now);
+		when(now.clone()).thenReturn(now);
+		doReturn(timeService).when(service).timeService();
+		FormattedText formattedText = mock(FormattedText.class);
+		when(formattedText.convertFormattedTextToPlaintext(anyString())).then(invocation -> invocation.getArgument(0));
+		doReturn(formattedText).when(service).formattedText();
+		service.userServiceSql = new UserServiceSqlDefault();
+		service.cache = new BasicMapCache<>("idEid");
+		service.m_callCache = new BasicMapCache<>("callCache");
+		service.m_provider = provider;
+		service.m_storage = service.new DbStorage();
+
+		// the provider knows every user but the ones ending in 9
+		doAnswer(invocation -> {
+			for (Iterator<UserEdit> i = ((Collection<UserEdit>) invocation.getArgument(0)).iterator(); i.hasNext();) {
+				UserEdit user = i.next();
+				if (user.getEid().endsWith("9")) {
+					i.remove();
+				} else {
+					user.setFirstName("Provided");
+				}
+			}
+			return null;
+		}).when(provider).getUsers(anyCollection());
+	}
+
+	/**
+	 * A roster of 2500 mapped users, half of them kept in Sakai and half provided, takes one query per thousand ids and
+	 * one provider call. Asking again is answered from the cache.
+	 */
+	@Test
+	public void testMappedUsersTakeOneQueryPerChunk() throws Exception {
+		service.m_separateIdEid = true;
+		doAnswer(invocation -> {
+			statements.add(invocation.getArgument(0));
+			SqlReader reader = invocation.getArgument(2);
+			for (Object id : (Object[]) invocation.getArgument(1)) {
+				reader.readSqlResultRecord(mappedRow((String) id));
+			}
+			return new ArrayList<>();
+		}).when(sqlService).dbRead(anyString(), any(Object[].class), any(SqlReader.class));
+
+		List<String> ids = ids(2500);
+		List<User> users = service.getUsers(ids);
+
+		assertEquals(3, statements.size());
+		assertTrue(statements.get(0).contains("SAKAI_USER_ID_MAP.USER_ID in ("));
+		assertEquals(2250, users.size());
+		verify(provider, times(1)).getUsers(anyCollection());
+		assertEquals(3, service.m_bulkLookupDbQueries.get());
+		assertEquals(1, service.m_bulkLookupProviderCalls.get());
+		assertEquals("eid-1", service.m_storage.checkMapForEid("user-1"));
+		assertEquals("user-9", service.m_storage.checkMapForId("eid-9"));
+
+		// the second look is all cache, apart from the users no one knows
+		users = service.getUsers(ids);
+		assertEquals(2250, users.size());
+		assertEquals(2250, service.m_bulkLookupCacheHits.get());
+		assertEquals(4, statements.size());
+		assertEquals(2, service.m_bulkLookupProviderCalls.get());
+	}
+
+	/**
+	 * With ID == EID, users missing from the cache used to be read one at a time.
+	 */
+	@Test
+	public void testLegacyUsersTakeOneQueryPerChunk() {
+		doAnswer(invocation -> {
+			statements.add(invocation.getArgument(0));
+			List<Object> rv = new ArrayList<>();
+			for (Object id : (Object[]) invocation.getArgument(1)) {
+				// the even users are kept in Sakai
+				if (Integer.parseInt(((String) id).substring(5)) % 2 == 0) {
+					rv.add(service.new BaseUserEdit((String) id, (String) id, null, "Stored", null, null, null, null, null, null, null));
+				}
+			}
+			return rv.stream();
+		}).when(sqlService).dbStream(anyString(), any(Object[].class), anyInt(), any(SqlReader.class));
+
+		List<User> users = service.getUsers(ids(1500));
+
+		assertEquals(2, statements.size());
+		assertTrue(statements.get(0).contains("SAKAI_USER.USER_ID in ("));
+		assertEquals(1350, users.size());
+		Set<String> names = new HashSet<>();
+		for (User user : users) {
+			names.add(user.getFirstName());
+		}
+		assertEquals(2, names.size());
+		verify(provider, times(1)).getUsers(anyList());
+
+		// only the users no one knows are looked for again
+		service.getUsers(ids(1000));
+		assertEquals(3, statements.size());
+		assertEquals(2, service.m_bulkLookups.get());
+		assertEquals(2500, service.m_bulkLookupUsers.get());
+		assertEquals(900, service.m_bulkLookupCacheHits.get());
+		assertEquals(3, service.m_bulkLookupDbQueries.get());
+	}
+
+	private List<String> ids(int count) {
+		List<String> rv = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			rv.add("user-" + i);
+		}
+		return rv;
+	}
+
+	// a row of the id map joined to the user table, which has the user only when they are kept in Sakai
+	private ResultSet mappedRow(String id) throws Exception {
+		String eid = "eid-" + id.substring(5);
+		boolean stored = Integer.parseInt(id.substring(5)) % 2 == 0;
+		ResultSet result = mock(ResultSet.class);
+		when(result.getString(1)).thenReturn(id);
+		when(result.getString(2)).thenReturn(eid);
+		when(result.getString(3)).thenReturn(stored ? id : null);
+		when(result.getString(5)).thenReturn(stored ? "Stored" : null);
+		return result;
+	}
+}
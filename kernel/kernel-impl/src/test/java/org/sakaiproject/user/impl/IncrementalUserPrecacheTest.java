@@ -0,0 +1,135 @@
+package org.sakaiproject.user.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.authz.api.AuthzGroup;
+import org.sakaiproject.authz.api.AuthzGroupService;
+import org.sakaiproject.authz.api.GroupNotDefinedException;
+import org.sakaiproject.event.api.Event;
+import org.sakaiproject.user.api.UserEdit;
+
+public class IncrementalUserPrecacheTest {
+
+	private BaseUserDirectoryService userDirectoryService;
+	private AuthzGroupService authzGroupService;
+	private IncrementalUserPrecache precache;
+	private Set<String> cached;
+	private List<Collection<String>> loads;
+
+	@Before
+	public void setUp() throws Exception {
+		userDirectoryService = mock(BaseUserDirectoryService.class);
+		authzGroupService = mock(AuthzGroupService.class);
+		cached = new HashSet<>();
+		loads = new ArrayList<>();
+
+		when(userDirectoryService.getCachedUsers(anyCollection())).then(invocation -> {
+			Map<String, UserEdit> rv = new HashMap<>();
+			for (String id : (Collection<String>) invocation.getArgument(0)) {
+				if (cached.contains(id)) rv.put(id, mock(UserEdit.class));
+			}
+			return rv;
+		});
+		doAnswer(invocation -> {
+			Collection<String> ids = invocation.getArgument(0);
+			loads.add(new ArrayList<>(ids));
+			cached.addAll(ids);
+			return new ArrayList<>();
+		}).when(userDirectoryService).getUsers(anyCollection());
+
+		// a 300 member course site, a section of it, and a project site
+		realm("/site/course", 0, 300);
+		realm("/site/course/group/section", 0, 30);
+		realm("/site/project", 250, 350);
+		when(authzGroupService.getAuthzGroup("/site/gone")).thenThrow(new GroupNotDefinedException("/site/gone"));
+
+		precache = new IncrementalUserPrecache(userDirectoryService, authzGroupService, 100);
+	}
+
+	/**
+	 * A burst of realm changes is loaded a second's worth at a time, each cold user once, and warm users not at all.
+	 */
+	@Test
+	public void testRealmChangesWarmColdMembersAtTheConfiguredRate() {
+		for (int i = 0; i < 50; i++) {
+			precache.update(null, event(AuthzGroupService.SECURE_UPDATE_AUTHZ_GROUP, "/realm//site/course"));
+		}
+		precache.update(null, event(AuthzGroupService.SECURE_UPDATE_AUTHZ_GROUP, "/realm//site/course/group/section"));
+		precache.update(null, event(AuthzGroupService.SECURE_UPDATE_AUTHZ_GROUP, "/realm//site/project"));
+		precache.update(null, event(AuthzGroupService.SECURE_UPDATE_AUTHZ_GROUP, "/realm//site/gone"));
+		precache.update(null, event("content.read", "/realm//site/course"));
+		assertEquals(4, precache.getRealmsPending());
+		assertTrue(precache.getLagMillis() >= 0);
+
+		int runs = 0;
+		while (precache.getRealmsPending() + precache.getUsersPending() > 0) {
+			int loaded = precache.runOnce();
+			assertTrue("loaded " + loaded, loaded <= 100);
+			runs++;
+		}
+
+		assertEquals(4, runs);
+		assertEquals(350, precache.getUsersLoaded());
+		assertEquals(4, precache.getRealmsResolved());
+		assertEquals(350, cached.size());
+		Set<String> distinct = new HashSet<>();
+		for (Collection<String> load : loads) {
+			distinct.addAll(load);
+		}
+		assertEquals(350, distinct.size());
+		assertEquals(0, precache.getLagMillis());
+
+		// a change to a warm site loads nothing
+		precache.update(null, event(AuthzGroupService.SECURE_UPDATE_AUTHZ_GROUP, "/realm//site/project"));
+		assertEquals(0, precache.runOnce());
+		assertEquals(350, precache.getUsersLoaded());
+	}
+
+	@Test
+	public void testJoinLoadsOnlyTheJoiningUser() throws Exception {
+		Event join = event(AuthzGroupService.SECURE_JOIN_AUTHZ_GROUP, "/realm//site/course");
+		when(join.getUserId()).thenReturn("user-7");
+		precache.update(null, join);
+
+		assertEquals(0, precache.getRealmsPending());
+		assertEquals(1, precache.runOnce());
+		assertEquals(1, loads.size());
+		assertEquals("user-7", loads.get(0).iterator().next());
+		verify(authzGroupService, never()).getAuthzGroup(any());
+	}
+
+	private void realm(String id, int from, int to) throws Exception {
+		Set<String> users = new HashSet<>();
+		for (int i = from; i < to; i++) {
+			users.add("user-" + i);
+		}
+		AuthzGroup realm = mock(AuthzGroup.class);
+		when(realm.getUsers()).thenReturn(users);
+		when(authzGroupService.getAuthzGroup(id)).thenReturn(realm);
+	}
+
+	private Event event(String function, String resource) {
+		Event event = mock(Event.class);
+		when(event.getEvent()).thenReturn(function);
+		when(event.getResource()).thenReturn(resource);
+		return event;
+	}
+}
@@ -28,7 +28,13 @@ import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -135,6 +141,18 @@ public class BaseDbDualSingleStorage  implements DbSingleStorage
 
 	private long mtotal = 0;
 
+	/** The most legacy (xml only) records waiting to be rewritten in the binary form. */
+	protected static final int UPGRADE_QUEUE_SIZE = 1000;
+
+	/** If true, records read from the xml field are rewritten in the binary form, in the background. */
+	protected boolean m_upgradeOnRead = false;
+
+	/** Rewrites legacy records, when upgrading on read. */
+	protected ThreadPoolExecutor m_upgradeExecutor = null;
+
+	/** Ids of the records queued for a rewrite, so a record read many times is only queued once. */
+	protected Set<String> m_upgradePending = ConcurrentHashMap.newKeySet();
+
 	public void setDatabaseBeans(Map databaseBeans)
 	{
 		this.databaseBeans = databaseBeans;
@@ -240,6 +258,18 @@ public class BaseDbDualSingleStorage  implements DbSingleStorage
 	    setSingleStorageSql(m_sql.getVendor());
 	}
 
+	/**
+	 * Configure rewriting, in the binary form, the records found to be still held only as xml when read. This is only done for the
+	 * main table of a storage - not for a delete table, which is keyed by uuid.
+	 * 
+	 * @param upgradeOnRead
+	 *        If true, upgrade records in the background as they are read; must be set before open().
+	 */
+	public void setUpgradeOnRead(boolean upgradeOnRead)
+	{
+		m_upgradeOnRead = upgradeOnRead;
+	}
+
 	/**
 	 * Open and be ready to read / write.
 	 */
@@ -247,6 +277,17 @@ public class BaseDbDualSingleStorage  implements DbSingleStorage
 	{
 		// setup for locks
 		m_locks = new Hashtable();
+
+		if (m_upgradeOnRead && m_storage == null && m_resourceTableName != null && !m_resourceTableName.toUpperCase().contains("DELETE"))
+		{
+			// one thread is plenty, and a full queue just drops the record until it is read again
+			m_upgradeExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(UPGRADE_QUEUE_SIZE),
+					r -> {
+						Thread t = new Thread(r, "Sakai-StorageUpgrade-" + m_resourceTableName);
+						t.setDaemon(true);
+						return t;
+					});
+		}
 	}
 
 	/**
@@ -261,6 +302,12 @@ public class BaseDbDualSingleStorage  implements DbSingleStorage
 		}
 		m_locks.clear();
 		m_locks = null;
+
+		if (m_upgradeExecutor != null)
+		{
+			m_upgradeExecutor.shutdownNow();
+			m_upgradeExecutor = null;
+		}
 	}
 
 	/**
@@ -281,7 +328,12 @@ public class BaseDbDualSingleStorage  implements DbSingleStorage
 			type = "direct";
 			EntityReader de_user = (EntityReader) m_user;
 			EntityReaderHandler de_handler = de_user.getHandler();
-			return de_handler.parse(null, xml, blob);
+			Entity entry = de_handler.parse(null, xml, blob);
+			if (entry != null && blob == null && xml != null)
+			{
+				upgradeLater(entry);
+			}
+			return entry;
 		}
 		catch (Exception e)
 		{
@@ -318,6 +370,60 @@ public class BaseDbDualSingleStorage  implements DbSingleStorage
 		}
 	}
 
+	/**
+	 * Queue a record that was read from xml to be rewritten in the binary form, if upgrading on read.
+	 * 
+	 * @param entry
+	 *        The entity parsed from the record's xml.
+	 */
+	protected void upgradeLater(final Entity entry)
+	{
+		final ThreadPoolExecutor executor = m_upgradeExecutor;
+		final String id = entry.getId();
+		if (executor == null || id == null || !m_upgradePending.add(id)) return;
+
+		try
+		{
+			executor.execute(() -> {
+				try
+				{
+					upgrade(entry);
+				}
+				finally
+				{
+					m_upgradePending.remove(id);
+				}
+			});
+		}
+		catch (RejectedExecutionException e)
+		{
+			// busy or closing - it will be queued again the next time it is read
+			m_upgradePending.remove(id);
+		}
+	}
+
+	/**
+	 * Write this entity in the binary form over its xml record, unless the record has been written in the binary form since it was read.
+	 * 
+	 * @param entry
+	 *        The entity parsed from the record's xml.
+	 */
+	protected void upgrade(Entity entry)
+	{
+		Object blob = getBlob(entry);
+		if (!(blob instanceof byte[])) return;
+
+		String statement = "update " + m_resourceTableName + " set BINARY_ENTITY = ?, XML = NULL where ( " + m_resourceTableIdField
+				+ " = ? ) and BINARY_ENTITY IS NULL";
+		Object[] fields = new Object[2];
+		fields[0] = blob;
+		fields[1] = caseId(entry.getId());
+		if (!m_sql.dbWrite(statement, fields))
+		{
+			M_log.warn("upgrade(): failed to rewrite " + m_resourceTableName + " record: " + entry.getId());
+		}
+	}
+
 	/**
 	 * Check if a Resource by this id exists.
 	 * 
@@ -24,6 +24,7 @@ package org.sakaiproject.util;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Iterator;
@@ -404,6 +405,31 @@ public class BaseDbFlatStorage
 		return rv;
 	}
 
+	/**
+	 * Get a page of Resources in id order, the ones after the last one of the previous page. Unlike getAllResources(first, last), the database
+	 * does not have to step over all the earlier records to find the page, so reading a whole table this way costs the same for every page.
+	 * 
+	 * @param afterId
+	 *        The id of the last Resource of the previous page, or null for the first page.
+	 * @param count
+	 *        The most Resources to return.
+	 * @return The page of Resources, in id order - empty after the last page.
+	 */
+	public List getResourcesAfter(String afterId, int count)
+	{
+		String sql = flatStorageSql.getSelectFieldsKeysetSql(m_resourceTableName, fieldList(m_resourceTableReadFields, null), m_resourceTableIdField,
+				(afterId == null), count);
+		Object[] fields = null;
+		if (afterId != null)
+		{
+			fields = new Object[1];
+			fields[0] = caseId(afterId);
+		}
+		List rv = m_sql.dbRead(sql, fields, m_reader);
+
+		return rv;
+	}
+
 	/**
 	 * Get all Resources matching a SQL where clause, with sorting
 	 * 
@@ -1346,8 +1372,7 @@ public class BaseDbFlatStorage
 
 		// the SQL statement
 		statement = flatStorageSql.getInsertSql(table, idField, extraIdField);
-		fields = new Object[((extraIdField != null) ? 4 : 3)];
-		fields[0] = id;
+		List<Object[]> rows = new ArrayList<Object[]>();
 
 		// process each property
 		for (Iterator i = props.getPropertyNames(); i.hasNext();)
@@ -1355,22 +1380,35 @@ public class BaseDbFlatStorage
 			String name = (String) i.next();
 			String value = props.getProperty(name);
 
-			fields[1] = name;
-			fields[2] = value;
-
-			if (extraIdField != null)
-			{
-				fields[3] = extraId;
-			}
-
 			// The value might be null if it's a list of values.
 			// TODO support persisting to the database lists of values.
 			// dont write it if there's only an empty string for value
 			if (value != null && value.length() > 0)
 			{
-				m_sql.dbWrite(statement, fields);
+				rows.add(propertyFields(id, name, value, extraIdField, extraId));
 			}
 		}
+
+		// insert them all in as few round trips as the database allows
+		m_sql.dbWriteBatch(null, statement, rows);
+	}
+
+	/**
+	 * @return the fields for one property insert statement.
+	 */
+	protected Object[] propertyFields(Object id, String name, String value, String extraIdField, String extraId)
+	{
+		Object[] fields = new Object[((extraIdField != null) ? 4 : 3)];
+		fields[0] = id;
+		fields[1] = name;
+		fields[2] = value;
+
+		if (extraIdField != null)
+		{
+			fields[3] = extraId;
+		}
+
+		return fields;
 	}
 
 	/**
@@ -1434,8 +1472,7 @@ public class BaseDbFlatStorage
 
 		// the SQL statement
 		statement = flatStorageSql.getInsertSql(table, idField, extraIdField);
-		fields = new Object[((extraIdField != null) ? 4 : 3)];
-		fields[0] = id;
+		List<Object[]> rows = new ArrayList<Object[]>();
 
 		// process each property
 		for (Enumeration i = props.propertyNames(); i.hasMoreElements();)
@@ -1443,20 +1480,15 @@ public class BaseDbFlatStorage
 			String name = (String) i.nextElement();
 			String value = props.getProperty(name);
 
-			fields[1] = name;
-			fields[2] = value;
-
-			if (extraIdField != null)
-			{
-				fields[3] = extraId;
-			}
-
 			// don't write it if there's only an empty string for value
 			if (!StringUtils.isEmpty(value))
 			{
-				m_sql.dbWrite(statement, fields);
+				rows.add(propertyFields(id, name, value, extraIdField, extraId));
 			}
 		}
+
+		// insert them all in as few round trips as the database allows
+		m_sql.dbWriteBatch(null, statement, rows);
 	}
 
 	/**
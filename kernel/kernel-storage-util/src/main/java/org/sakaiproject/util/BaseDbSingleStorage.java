@@ -29,6 +29,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 import java.util.Vector;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -103,6 +105,9 @@ public class BaseDbSingleStorage implements DbSingleStorage
 	/** Injected (by constructor) SqlService. */
 	protected SqlService m_sql = null;
 
+	/** The most records to read at once when reading all (or all selected) Resources. */
+	protected int m_pageSize = 1000;
+
 	/** contains a map of the database dependent handlers. */
 	protected static Map<String, SingleStorageSql> databaseBeans;
 
@@ -325,25 +330,8 @@ public class BaseDbSingleStorage implements DbSingleStorage
 	 */
 	public List getAllResources()
 	{
-		List all = new Vector();
-
-		// read all users from the db
-		String sql = singleStorageSql.getXmlSql(m_resourceTableName);
-		// %%% + "order by " + m_resourceTableOrderField + " asc";
-
-		List xml = m_sql.dbRead(sql);
-
-		// process all result xml into user objects
-		if (!xml.isEmpty())
-		{
-			for (int i = 0; i < xml.size(); i++)
-			{
-				Entity entry = readResource((String) xml.get(i));
-				if (entry != null) all.add(entry);
-			}
-		}
-
-		return all;
+		// read all users from the db, a page at a time
+		return readResourcesInPages(null, null);
 	}
 
 	/* (non-Javadoc)
@@ -353,20 +341,23 @@ public class BaseDbSingleStorage implements DbSingleStorage
 	{
 		String sql = singleStorageSql.getXmlSql(m_resourceTableIdField, m_resourceTableName, first, last);
 		Object[] fields = singleStorageSql.getXmlFields(first, last);
-		List xml = m_sql.dbRead(sql, fields, null);
-		List rv = new Vector();
 
-		// process all result xml into user objects
-		if (!xml.isEmpty())
-		{
-			for (int i = 0; i < xml.size(); i++)
-			{
-				Entity entry = readResource((String) xml.get(i));
-				if (entry != null) rv.add(entry);
-			}
-		}
+		return loadResources(sql, fields);
+	}
 
-		return rv;
+	/**
+	 * Get a page of Resources in id order, the ones after the last one of the previous page. Unlike getAllResources(first, last), the database
+	 * does not have to step over all the earlier records to find the page, so reading a whole table this way costs the same for every page.
+	 * 
+	 * @param afterId
+	 *        The id of the last Resource of the previous page, or null for the first page.
+	 * @param count
+	 *        The most Resources to return.
+	 * @return The page of Resources, in id order - empty after the last page.
+	 */
+	public List getResourcesAfter(String afterId, int count)
+	{
+		return readResources(readPage((afterId == null) ? null : caseId(afterId), count, null), null);
 	}
 
 	/* (non-Javadoc)
@@ -441,6 +432,104 @@ public class BaseDbSingleStorage implements DbSingleStorage
 		return loadResources(sql, fields);
 	}
 
+	/**
+	 * Read all the Resources matching the where clause (or all of them), a page of records at a time in id order, so the xml of only one page is
+	 * held at once. Each page is streamed, so the driver does not buffer it as well, and it is turned into Resources once the result set is
+	 * closed: reading a Resource, or applying the filter, may call out to other services, and that must wait until the result set has let go
+	 * of the connection.
+	 * 
+	 * @param where
+	 *        The sql where clause the records must match, or null.
+	 * @param filter
+	 *        The Filter the ids must pass, or null.
+	 * @return The Resources.
+	 */
+	protected List readResourcesInPages(String where, Filter filter)
+	{
+		List rv = new Vector();
+		String afterId = null;
+		while (true)
+		{
+			List page = readPage(afterId, m_pageSize, where);
+			if (page.isEmpty()) break;
+
+			boolean last = page.size() < m_pageSize;
+			afterId = ((String[]) page.get(page.size() - 1))[0];
+			rv.addAll(readResources(page, filter));
+			if (last) break;
+		}
+
+		return rv;
+	}
+
+	/**
+	 * Read the id and xml of a page of records in id order.
+	 * 
+	 * @param afterId
+	 *        The id of the last record of the previous page, or null for the first page.
+	 * @param count
+	 *        The most records to read.
+	 * @param where
+	 *        The sql where clause the records must match, or null.
+	 * @return The id and xml (String[2]) of each record.
+	 */
+	protected List readPage(String afterId, int count, String where)
+	{
+		String sql = singleStorageSql.getXmlKeysetSql(m_resourceTableIdField, m_resourceTableName, where, (afterId == null), count);
+		Object[] fields = null;
+		if (afterId != null)
+		{
+			fields = new Object[1];
+			fields[0] = afterId;
+		}
+
+		try (Stream<String[]> records = m_sql.dbStream(sql, fields, count, new SqlReader<String[]>()
+		{
+			public String[] readSqlResultRecord(ResultSet result)
+			{
+				try
+				{
+					// read the id m_resourceTableIdField and the xml
+					return new String[] { result.getString(1), result.getString(2) };
+				}
+				catch (SQLException ignore)
+				{
+					return null;
+				}
+			}
+		}))
+		{
+			return records.collect(Collectors.toCollection(Vector::new));
+		}
+	}
+
+	/**
+	 * Turn a page of records into Resources, in the same list, so the xml of each record can go as soon as its Resource is made.
+	 * 
+	 * @param records
+	 *        The id and xml (String[2]) of each record.
+	 * @param filter
+	 *        The Filter the ids must pass, or null.
+	 * @return The list, now holding the Resources.
+	 */
+	protected List readResources(List records, Filter filter)
+	{
+		int count = 0;
+		for (int i = 0; i < records.size(); i++)
+		{
+			String[] idXml = (String[]) records.get(i);
+			records.set(i, null);
+
+			if ((filter != null) && !filter.accept(caseId(idXml[0]))) continue;
+
+			Entity entry = readResource(idXml[1]);
+			if (entry != null) records.set(count++, entry);
+		}
+		records.subList(count, records.size()).clear();
+
+		return records;
+	}
+
 	protected List loadResources(String sql, Object[] fields)
 	{
 		List all = m_sql.dbRead(sql, fields, new SqlReader()
@@ -503,46 +592,8 @@ public class BaseDbSingleStorage implements DbSingleStorage
 	 */
 	public List getSelectedResources(final Filter filter)
 	{
-		List all = new Vector();
-
-		// read all users from the db
-		String sql = singleStorageSql.getXmlAndFieldSql(m_resourceTableIdField, m_resourceTableName);
-		// %%% + "order by " + m_resourceTableOrderField + " asc";
-
-		List xml = m_sql.dbRead(sql, null, new SqlReader()
-		{
-			public Object readSqlResultRecord(ResultSet result)
-			{
-				try
-				{
-					// read the id m_resourceTableIdField
-					String id = result.getString(1);
-
-					// read the xml
-					String xml = result.getString(2);
-
-					if (!filter.accept(caseId(id))) return null;
-
-					return xml;
-				}
-				catch (SQLException ignore)
-				{
-					return null;
-				}
-			}
-		});
-
-		// process all result xml into user objects
-		if (!xml.isEmpty())
-		{
-			for (int i = 0; i < xml.size(); i++)
-			{
-				Entity entry = readResource((String) xml.get(i));
-				if (entry != null) all.add(entry);
-			}
-		}
-
-		return all;
+		// read all users from the db, a page at a time, applying the filter to each page
+		return readResourcesInPages(null, filter);
 	}
 
 	/* (non-Javadoc)
@@ -550,25 +601,8 @@ public class BaseDbSingleStorage implements DbSingleStorage
 	 */
 	public List getSelectedResourcesWhere(String sqlWhere)
 	{
-		List all = new Vector();
-
-		// read all users from the db
-		String sql = singleStorageSql.getXmlWhereSql(m_resourceTableName, sqlWhere);
-		// %%% + "order by " + m_resourceTableOrderField + " asc";
-
-		List xml = m_sql.dbRead(sql);
-
-		// process all result xml into user objects
-		if (!xml.isEmpty())
-		{
-			for (int i = 0; i < xml.size(); i++)
-			{
-				Entity entry = readResource((String) xml.get(i));
-				if (entry != null) all.add(entry);
-			}
-		}
-
-		return all;
+		// read all users from the db, a page at a time
+		return readResourcesInPages(sqlWhere, null);
 	}
 
 	/* (non-Javadoc)
@@ -120,6 +120,12 @@ public class FlatStorageSqlDefault implements FlatStorageSql
 		return null;
 	}
 
+	public String getSelectFieldsKeysetSql(String table, String fieldList, String idField, boolean first, int count)
+	{
+		return "select limit 0 " + count + " " + fieldList + " from " + table + (first ? "" : " where ( " + table + "." + idField + " > ? )")
+				+ " order by " + table + "." + idField;
+	}
+
 	public String getSelectNameValueSql(String table, String idField)
 	{
 		return "select NAME, VALUE from " + table + " where ( " + idField + " = ? )";
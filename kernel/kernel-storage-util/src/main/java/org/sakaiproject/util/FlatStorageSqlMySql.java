@@ -50,4 +50,10 @@ public class FlatStorageSqlMySql extends FlatStorageSqlDefault
 				+ (((where != null) && (where.length() > 0)) ? (" where " + where) : "") + " order by " + order + "," + table + "." + sortField1
 				+ (sortField2 == null ? "" : "," + table + "." + sortField2) + " limit " + end + " offset " + begin;
 	}
+
+	public String getSelectFieldsKeysetSql(String table, String fieldList, String idField, boolean first, int count)
+	{
+		return "select " + fieldList + " from " + table + (first ? "" : " where ( " + table + "." + idField + " > ? )") + " order by " + table
+				+ "." + idField + " limit " + count;
+	}
 }
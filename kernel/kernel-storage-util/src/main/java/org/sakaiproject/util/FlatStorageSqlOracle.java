@@ -46,6 +46,12 @@ public class FlatStorageSqlOracle extends FlatStorageSqlDefault
 				+ " order by " + order + "," + table + "." + idField + " ) a where rownum <= ? ) where rnum >= ?";
 	}
 
+	public String getSelectFieldsKeysetSql(String table, String fieldList, String idField, boolean first, int count)
+	{
+		return "select * from (select " + fieldList + " from " + table + (first ? "" : " where ( " + table + "." + idField + " > ? )")
+				+ " order by " + table + "." + idField + ") where rownum <= " + count;
+	}
+
 	public Object[] getSelectFieldsFields(int first, int last)
 	{
 		Object[] fields = new Object[2];
@@ -129,6 +129,26 @@ public class SingleStorageSqlDefault implements SingleStorageSql
 		return null;
 	}
 
+	/**
+	 * returns the sql statement which retrieves the specified field and the xml field from the specified table, in order by the field, for
+	 * the count records after the value bound to the statement (or from the start, without a value, if first), and matching the where clause
+	 * if there is one.
+	 */
+	public String getXmlKeysetSql(String field, String table, String where, boolean first, int count)
+	{
+		return "select limit 0 " + count + " " + field + ", XML from " + table + getKeysetWhere(field, where, first) + " order by " + field
+				+ " asc";
+	}
+
+	/**
+	 * returns the where clause of the keyset sql: the records after the bound value of the field (unless first), matching the where if there is one.
+	 */
+	protected String getKeysetWhere(String field, String where, boolean first)
+	{
+		if (first) return (where == null) ? "" : " where (" + where + ")";
+		return " where " + ((where == null) ? "" : "(" + where + ") and ") + "(" + field + " > ?)";
+	}
+
 	/**
 	 * returns the sql statement which retrieves the number of rows in the specified table.
 	 */
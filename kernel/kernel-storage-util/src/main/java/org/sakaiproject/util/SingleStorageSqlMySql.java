@@ -34,4 +34,14 @@ public class SingleStorageSqlMySql extends SingleStorageSqlDefault
 	{
 		return "select XML from " + table + " order by " + field + " asc limit " + (last - first + 1) + " offset " + (first - 1);
 	}
+
+	/**
+	 * returns the sql statement which retrieves the specified field and the xml field from the specified table, in order by the field, for
+	 * the count records after the value bound to the statement (or from the start, without a value, if first), and matching the where clause
+	 * if there is one.
+	 */
+	public String getXmlKeysetSql(String field, String table, String where, boolean first, int count)
+	{
+		return "select " + field + ", XML from " + table + getKeysetWhere(field, where, first) + " order by " + field + " asc limit " + count;
+	}
 }
@@ -54,6 +54,17 @@ public class SingleStorageSqlOracle extends SingleStorageSqlDefault
 			+ (first + maxCount - 1) + ") where rnum >= " + first;
 	}
 
+	/**
+	 * returns the sql statement which retrieves the specified field and the xml field from the specified table, in order by the field, for
+	 * the count records after the value bound to the statement (or from the start, without a value, if first), and matching the where clause
+	 * if there is one.
+	 */
+	public String getXmlKeysetSql(String field, String table, String where, boolean first, int count)
+	{
+		return "select * from (select " + field + ", XML from " + table + getKeysetWhere(field, where, first) + " order by " + field
+				+ " asc) where rownum <= " + count;
+	}
+
 	/**
 	 * returns an array of objects needed for the getXmlSql statement with limits.
 	 */
@@ -177,6 +177,56 @@ public interface MessageForumsMessageManager {
      * or DELETED).    
      */
     public List<Object[]> findReadMessageCountsForMainPage(final Collection<Long> topicIds);
+
+    /**
+     * The bulk form of {@link #findUnreadMessageCountByTopicIdByUserId(Long, String)}.
+     *
+     * @param topicIds The topics to count, typically every topic in a forum or site.
+     * @param userId The user whose unread messages we are counting.
+     * @return The number of unread messages in each topic, keyed by topic id. Every requested
+     * topic has an entry.
+     */
+    public Map<Long, Integer> findUnreadMessageCountsByTopicIdsByUserId(Collection<Long> topicIds, String userId);
+
+    /**
+     * The bulk form of {@link #findUnreadViewableMessageCountByTopicIdByUserId(Long, String)}.
+     *
+     * @param topicIds The topics to count, typically every topic in a forum or site.
+     * @param userId The user whose unread messages we are counting.
+     * @return The number of unread messages in each topic that have been approved or were
+     * authored by the user, keyed by topic id. Every requested topic has an entry.
+     */
+    public Map<Long, Integer> findUnreadViewableMessageCountsByTopicIdsByUserId(Collection<Long> topicIds, String userId);
+
+    /**
+     * The bulk form of {@link #findViewableMessageCountByTopicIdByUserId(Long, String)}.
+     *
+     * @param topicIds The topics to count, typically every topic in a forum or site.
+     * @param userId The user we are counting for.
+     * @return The number of messages in each topic that have been approved or were authored
+     * by the user, keyed by topic id. Every requested topic has an entry.
+     */
+    public Map<Long, Integer> findViewableMessageCountsByTopicIdsByUserId(Collection<Long> topicIds, String userId);
+
+    /**
+     * The bulk form of {@link #findViewableMessageCountByTopicIdByUserId(Long, String)}.
+     *
+     * @param topicId The topic to count.
+     * @param userIds The users to count for, typically every member of the site.
+     * @return The number of messages in the topic that have been approved or were authored
+     * by each user, keyed by user id. Every requested user has an entry.
+     */
+    public Map<String, Integer> findViewableMessageCountsByTopicIdByUserIds(Long topicId, Collection<String> userIds);
+
+    /**
+     * The bulk form of {@link #findUnreadMessageCountByTopicIdByUserId(Long, String)}.
+     *
+     * @param topicId The topic to count.
+     * @param userIds The users to count for, typically every member of the site.
+     * @return The number of messages in the topic each user has not read, keyed by user id.
+     * Every requested user has an entry.
+     */
+    public Map<String, Integer> findUnreadMessageCountsByTopicIdByUserIds(Long topicId, Collection<String> userIds);
     
     public List findMessagesByTopicId(Long topicId);
   
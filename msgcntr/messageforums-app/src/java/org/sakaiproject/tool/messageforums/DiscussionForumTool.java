@@ -642,6 +642,7 @@ public class DiscussionForumTool
 	    	 SortedSet<DiscussionForum> tempSortedForums = new TreeSet<DiscussionForum>(new ForumBySortIndexAscAndCreatedDateDesc());
 	    	 Map<Long, DiscussionTopicBean> topicBeans = new HashMap<Long, DiscussionTopicBean>();
 	    	 Set<Long> topicIdsForCounts = new HashSet<Long>();
+	    	 Set<Long> moderatedTopicIdsForCounts = new HashSet<Long>();
 	    	 for (DiscussionForum forum: tempForums) {
 	    		 if ((!forum.getDraft() && forum.getAvailability())
 	    				 || hasOverridingPermissions)
@@ -658,11 +659,10 @@ public class DiscussionForumTool
 	    					 DiscussionTopicBean decoTopic = new DiscussionTopicBean(currTopic, (DiscussionForum)currTopic.getOpenForum(), uiPermissionsManager, forumManager);
 	    					 if (readFullDescription) decoTopic.setReadFullDesciption(true);
 
-	    					 // set the message count for moderated topics, otherwise it will be set later
+	    					 // the message counts are set later, moderated topics only count the messages this user can see
 	    					 if(uiPermissionsManager.isRead(decoTopic.getTopic(), (DiscussionForum)currTopic.getOpenForum(), userId)){
 	    						 if (currTopic.getModerated() && !uiPermissionsManager.isModeratePostings(currTopic, (DiscussionForum)currTopic.getOpenForum())) {
-	    							 decoTopic.setTotalNoMessages(forumManager.getTotalViewableMessagesWhenMod(currTopic));
-	    							 decoTopic.setUnreadNoMessages(forumManager.getNumUnreadViewableMessagesWhenMod(currTopic));
+	    							 moderatedTopicIdsForCounts.add(currTopic.getId());
 	    						 } else {
 	    							 topicIdsForCounts.add(currTopic.getId());
 	    						 }
@@ -700,6 +700,17 @@ public class DiscussionForumTool
 	    		 decoTopic.setUnreadNoMessages(decoTopic.getTotalNoMessages() - (Integer)counts[1]);
 	    	 }
 
+	    	 // and the moderated topics, all at once rather than a pair of queries per topic
+	    	 if (userId != null && !moderatedTopicIdsForCounts.isEmpty()) {
+	    		 Map<Long, Integer> viewableCounts = messageManager.findViewableMessageCountsByTopicIdsByUserId(moderatedTopicIdsForCounts, userId);
+	    		 Map<Long, Integer> unreadViewableCounts = messageManager.findUnreadViewableMessageCountsByTopicIdsByUserId(moderatedTopicIdsForCounts, userId);
+	    		 for (Long topicId : moderatedTopicIdsForCounts) {
+	    			 DiscussionTopicBean decoTopic = topicBeans.get(topicId);
+	    			 decoTopic.setTotalNoMessages(viewableCounts.get(topicId));
+	    			 decoTopic.setUnreadNoMessages(unreadViewableCounts.get(topicId));
+	    		 }
+	    	 }
+
 	    	 // get the assignments for use later
 	    	 try {
 	    		 assignments = new ArrayList<SelectItem>();
@@ -3053,6 +3053,8 @@ public class MessageForumStatisticsBean {
 	
 	public Map<String, Integer> getStudentTopicMessagCount(DiscussionForum forum, DiscussionTopic currTopic, Integer topicTotalCount, Map<String, Boolean> overridingPermissionMap){
 		Map<String, Integer> studentTotalCount = new HashMap<String, Integer>();
+		// students who can't moderate a moderated topic only count what they can see, fetched for all of them at once below
+		List<String> moderatedStudents = new ArrayList<String>();
 		for(Entry<String, Boolean> entry: overridingPermissionMap.entrySet()){
 
 			if ((!forum.getDraft() && currTopic.getDraft().equals(Boolean.FALSE))
@@ -3060,22 +3062,17 @@ public class MessageForumStatisticsBean {
 			{ // this is the start of the big topic if
 				// set the message count for moderated topics, otherwise it will be set later
 				if(uiPermissionsManager.isRead(currTopic, (DiscussionForum)currTopic.getOpenForum(), entry.getKey())){
-					Integer topicCount = topicTotalCount;
-					if(topicCount == null){
-						topicCount = 0;
-					}
 					if (currTopic.getModerated() && !uiPermissionsManager.isModeratePostings(currTopic, (DiscussionForum)currTopic.getOpenForum(), entry.getKey())) {
-						topicCount = messageManager.findViewableMessageCountByTopicIdByUserId(currTopic.getId(), entry.getKey());
+						moderatedStudents.add(entry.getKey());
+					} else {
+						studentTotalCount.put(entry.getKey(), topicTotalCount == null ? 0 : topicTotalCount);
 					}
-					Integer totalCount = studentTotalCount.get(entry.getKey());
-					if(totalCount == null){
-						totalCount = 0;
-					}
-					totalCount += topicCount;
-					studentTotalCount.put(entry.getKey(), totalCount);
 				}
 			}
 		}
+		if (!moderatedStudents.isEmpty()) {
+			studentTotalCount.putAll(messageManager.findViewableMessageCountsByTopicIdByUserIds(currTopic.getId(), moderatedStudents));
+		}
 		return studentTotalCount;
 	}
 	
@@ -1187,6 +1187,10 @@ public class MessageForumSynopticBean {
 				final List topicsList = forumManager.getDiscussionForums();
 				int unreadForum = 0;
 
+				// sort the readable topics by how their unread messages are counted, then count each kind in one go
+				final List<Long> allMessagesTopicIds = new ArrayList<Long>();
+				final List<Long> viewableMessagesTopicIds = new ArrayList<Long>();
+
 				final Iterator forumIter = topicsList.iterator();
 
 				while (forumIter.hasNext()) 
@@ -1205,17 +1209,27 @@ public class MessageForumSynopticBean {
 							if (!topic.getModerated().booleanValue() || (topic.getModerated().booleanValue() && 
 										uiPermissionsManager.isModeratePostings(topic, df)))
 							{
-								unreadForum += messageManager.findUnreadMessageCountByTopicId(topic.getId());
+								allMessagesTopicIds.add(topic.getId());
 							}
 							else
 							{	
 								// b/c topic is moderated and user does not have mod perm, user may only
 								// see approved msgs or pending/denied msgs authored by user
-								unreadForum += messageManager.findUnreadViewableMessageCountByTopicId(topic.getId());
+								viewableMessagesTopicIds.add(topic.getId());
 							}
 						}
 					}
 				}
+
+				final String userId = SessionManager.getCurrentSessionUserId();
+				if (userId != null) {
+					for (Integer unread : messageManager.findUnreadMessageCountsByTopicIdsByUserId(allMessagesTopicIds, userId).values()) {
+						unreadForum += unread;
+					}
+					for (Integer unread : messageManager.findUnreadViewableMessageCountsByTopicIdsByUserId(viewableMessagesTopicIds, userId).values()) {
+						unreadForum += unread;
+					}
+				}
 			
 				dcms.setUnreadForumsAmt(unreadForum);
 				dcms.setMcPageURL(getMCPageURL());
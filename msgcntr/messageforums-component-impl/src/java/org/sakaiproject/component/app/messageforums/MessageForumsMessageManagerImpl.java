@@ -20,6 +20,7 @@
  **********************************************************************************/
 package org.sakaiproject.component.app.messageforums;
 
+import java.io.Serializable;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -31,7 +32,14 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,9 +68,12 @@ import org.sakaiproject.component.app.messageforums.dao.hibernate.UnreadStatusIm
 import org.sakaiproject.component.app.messageforums.dao.hibernate.Util;
 import org.sakaiproject.component.app.messageforums.exception.LockedException;
 import org.sakaiproject.content.api.ContentHostingService;
+import org.sakaiproject.event.api.Event;
 import org.sakaiproject.event.api.EventTrackingService;
 import org.sakaiproject.exception.IdUnusedException;
 import org.sakaiproject.id.api.IdManager;
+import org.sakaiproject.memory.api.Cache;
+import org.sakaiproject.memory.api.MemoryService;
 import org.sakaiproject.site.api.Site;
 import org.sakaiproject.site.cover.SiteService;
 import org.sakaiproject.tool.api.Placement;
@@ -71,8 +82,10 @@ import org.sakaiproject.tool.cover.ToolManager;
 import org.springframework.orm.hibernate3.HibernateCallback;
 import org.springframework.orm.hibernate3.HibernateOptimisticLockingFailureException;
 import org.springframework.orm.hibernate3.support.HibernateDaoSupport;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-public class MessageForumsMessageManagerImpl extends HibernateDaoSupport implements MessageForumsMessageManager {
+public class MessageForumsMessageManagerImpl extends HibernateDaoSupport implements MessageForumsMessageManager, Observer {
 
     private static final Logger LOG = LoggerFactory.getLogger(MessageForumsMessageManagerImpl.class);    
 
@@ -86,7 +99,29 @@ public class MessageForumsMessageManagerImpl extends HibernateDaoSupport impleme
     private static final String QUERY_BY_TOPIC_ID = "findMessagesByTopicId";
     private static final String QUERY_COUNT_VIEWABLE_BY_TOPIC_ID = "findViewableMessageCountByTopicIdByUserId";
     private static final String QUERY_COUNT_READ_VIEWABLE_BY_TOPIC_ID = "findReadViewableMessageCountByTopicIdByUserId";
+    private static final String QUERY_READ_COUNTS_BY_TOPIC_IDS = "findReadMessageCountsByTopicIdsByUserId";
+    private static final String QUERY_VIEWABLE_COUNTS_BY_TOPIC_IDS = "findViewableMessageCountsByTopicIdsByUserId";
+    private static final String QUERY_READ_VIEWABLE_COUNTS_BY_TOPIC_IDS = "findReadViewableMessageCountsByTopicIdsByUserId";
+    private static final String QUERY_APPROVED_COUNT_BY_TOPIC_ID = "findApprovedMessageCountByTopicId";
+    private static final String QUERY_UNAPPROVED_COUNTS_BY_AUTHORS = "findUnapprovedMessageCountsByTopicIdByAuthors";
+    private static final String QUERY_READ_COUNTS_BY_USER_IDS = "findReadMessageCountsByTopicIdByUserIds";
     private static final String QUERY_UNREAD_STATUS = "findUnreadStatusForMessage";
+    private static final String QUERY_TOPIC_ID_BY_MESSAGE_ID = "findTopicIdByMessageId";
+
+    /** Events for a change to a topic's messages, which can change everyone's unread counts for the topic */
+    private static final Set<String> UNREAD_COUNTS_EVENTS = new HashSet<String>(Arrays.asList(
+            DiscussionForumService.EVENT_FORUMS_ADD, DiscussionForumService.EVENT_FORUMS_RESPONSE,
+            DiscussionForumService.EVENT_FORUMS_REVISE, DiscussionForumService.EVENT_FORUMS_REMOVE,
+            DiscussionForumService.EVENT_MESSAGES_ADD, DiscussionForumService.EVENT_MESSAGES_RESPONSE,
+            DiscussionForumService.EVENT_MESSAGES_REMOVE));
+    /** Events for a user reading a message, which only change that user's unread counts */
+    private static final Set<String> READ_EVENTS = new HashSet<String>(Arrays.asList(
+            DiscussionForumService.EVENT_FORUMS_READ, DiscussionForumService.EVENT_MESSAGES_READ,
+            DiscussionForumService.EVENT_MESSAGES_UNREAD));
+    /** The topic id (when known), message id and user id at the end of the resource made by getEventMessage */
+    private static final Pattern MESSAGE_EVENT_RESOURCE = Pattern.compile("(?:/Topic/(\\d+))?/Message/(\\d+)/([^/]+)$");
+    /** The source and destination topic ids at the end of a thread move event's resource */
+    private static final Pattern MOVE_EVENT_RESOURCE = Pattern.compile("from topic (\\d+) to topic (\\d+)$");
     private static final String QUERY_CHILD_MESSAGES = "finalAllChildMessages";
     private static final String QUERY_READ_STATUS_WITH_MSGS_USER = "findReadStatusByMsgIds";
     private static final String QUERY_FIND_PENDING_MSGS_BY_CONTEXT_AND_USER_AND_PERMISSION_LEVEL = "findAllPendingMsgsByContextByMembershipByPermissionLevel";
@@ -112,9 +147,80 @@ public class MessageForumsMessageManagerImpl extends HibernateDaoSupport impleme
     
     private ContentHostingService contentHostingService;
 
+    private MemoryService memoryService;
+
+    /**
+     * Unread message counts keyed by topic id. Each entry holds the counts for the users who have
+     * asked for them: a read drops that user's counts, while posting, editing, deleting or approving
+     * a message drops the whole topic. Changes made here are dropped once their transaction commits,
+     * and the forum events drop them on the other servers in the cluster (see update).
+     */
+    private Cache<Long, TopicUnreadCounts> unreadCountsCache;
+    /** Guards reading, changing and putting back the unreadCountsCache entries */
+    private final Object unreadCountsLock = new Object();
+    /** Bumped on every drop, so a count racing with one is not put back in the cache */
+    private final AtomicLong unreadCountsStamp = new AtomicLong();
+
     public void init() {
        LOG.info("init()");
-        ;
+       unreadCountsCache = memoryService.getCache("org.sakaiproject.component.app.messageforums.MessageForumsMessageManagerImpl.unreadCountsCache");
+       eventTrackingService.addObserver(this);
+    }
+
+    public void destroy() {
+       eventTrackingService.deleteObserver(this);
+    }
+
+    /**
+     * Drops the cached unread counts a forum event changes. Events reach every server in the cluster, so this keeps
+     * each server's cache in step with changes made on the others.
+     */
+    public void update(Observable observable, Object arg) {
+        if (!(arg instanceof Event)) {
+            return;
+        }
+
+        Event event = (Event) arg;
+        if (DiscussionForumService.EVENT_FORUMS_MOVE_THREAD.equals(event.getEvent())) {
+            // a move changes the counts of the topic the message left as well as the one it went to
+            Matcher m = MOVE_EVENT_RESOURCE.matcher(event.getResource());
+            if (m.find()) {
+                removeCachedUnreadCounts(Long.valueOf(m.group(1)), null);
+                removeCachedUnreadCounts(Long.valueOf(m.group(2)), null);
+            }
+            return;
+        }
+
+        boolean read = READ_EVENTS.contains(event.getEvent());
+        if (!read && !UNREAD_COUNTS_EVENTS.contains(event.getEvent())) {
+            return;
+        }
+
+        Matcher m = MESSAGE_EVENT_RESOURCE.matcher(event.getResource());
+        if (!m.find()) {
+            return;
+        }
+
+        try {
+            // events posted from elsewhere don't carry the topic, so look it up
+            Long topicId = (m.group(1) != null) ? Long.valueOf(m.group(1)) : findTopicIdByMessageId(Long.valueOf(m.group(2)));
+            if (topicId != null) {
+                removeCachedUnreadCounts(topicId, read ? m.group(3) : null);
+            }
+        } catch (Exception e) {
+            LOG.warn("Could not drop the cached unread counts for event " + event.getEvent() + " on " + event.getResource(), e);
+        }
+    }
+
+    private Long findTopicIdByMessageId(final Long messageId) {
+        HibernateCallback hcb = new HibernateCallback() {
+            public Object doInHibernate(Session session) throws HibernateException, SQLException {
+                Query q = session.getNamedQuery(QUERY_TOPIC_ID_BY_MESSAGE_ID);
+                q.setParameter("messageId", messageId, Hibernate.LONG);
+                return q.uniqueResult();
+            }
+        };
+        return (Long) getHibernateTemplate().execute(hcb);
     }
 
     public EventTrackingService getEventTrackingService() {
@@ -152,6 +258,10 @@ public class MessageForumsMessageManagerImpl extends HibernateDaoSupport impleme
     public void setContentHostingService(ContentHostingService contentHostingService) {
 		this.contentHostingService = contentHostingService;
 	}
+
+    public void setMemoryService(MemoryService memoryService) {
+        this.memoryService = memoryService;
+    }
  
     /**
      * FOR SYNOPTIC TOOL:
@@ -1002,6 +1112,245 @@ public class MessageForumsMessageManagerImpl extends HibernateDaoSupport impleme
 
 
 
+    public Map<Long, Integer> findUnreadMessageCountsByTopicIdsByUserId(final Collection<Long> topicIds, final String userId) {
+        return findUnreadCountsByTopicIds(topicIds, userId, false);
+    }
+
+    public Map<Long, Integer> findUnreadViewableMessageCountsByTopicIdsByUserId(final Collection<Long> topicIds, final String userId) {
+        return findUnreadCountsByTopicIds(topicIds, userId, true);
+    }
+
+    public Map<Long, Integer> findViewableMessageCountsByTopicIdsByUserId(final Collection<Long> topicIds, final String userId) {
+        if (topicIds == null || userId == null) {
+            LOG.error("findViewableMessageCountsByTopicIdsByUserId failed with topicIds: " + topicIds + " and userId: " + userId);
+            throw new IllegalArgumentException("Null Argument");
+        }
+
+        List<Long> topicIdList = new ArrayList<Long>(topicIds);
+        Map<Long, Integer> counts = findGroupedCounts(QUERY_VIEWABLE_COUNTS_BY_TOPIC_IDS, "topicIds", topicIdList, "userId", userId);
+
+        Map<Long, Integer> result = new HashMap<Long, Integer>();
+        for (Long topicId : topicIdList) {
+            result.put(topicId, countOf(counts, topicId));
+        }
+        return result;
+    }
+
+    public Map<String, Integer> findViewableMessageCountsByTopicIdByUserIds(final Long topicId, final Collection<String> userIds) {
+        if (topicId == null || userIds == null) {
+            LOG.error("findViewableMessageCountsByTopicIdByUserIds failed with topicId: " + topicId + " and userIds: " + userIds);
+            throw new IllegalArgumentException("Null Argument");
+        }
+
+        LOG.debug("findViewableMessageCountsByTopicIdByUserIds executing with topicId: " + topicId + " for " + userIds.size() + " users");
+
+        HibernateCallback hcb = new HibernateCallback() {
+            public Object doInHibernate(Session session) throws HibernateException, SQLException {
+                Query q = session.getNamedQuery(QUERY_APPROVED_COUNT_BY_TOPIC_ID);
+                q.setParameter("topicId", topicId, Hibernate.LONG);
+                return q.uniqueResult();
+            }
+        };
+        int approved = ((Number) getHibernateTemplate().execute(hcb)).intValue();
+
+        // everyone sees the approved messages, and each user also sees the ones they wrote that aren't
+        List<String> userIdList = new ArrayList<String>(userIds);
+        Map<String, Integer> unapproved = findGroupedCounts(QUERY_UNAPPROVED_COUNTS_BY_AUTHORS, "userIds", userIdList, "topicId", topicId);
+
+        Map<String, Integer> result = new HashMap<String, Integer>();
+        for (String userId : userIdList) {
+            result.put(userId, approved + countOf(unapproved, userId));
+        }
+        return result;
+    }
+
+    public Map<String, Integer> findUnreadMessageCountsByTopicIdByUserIds(final Long topicId, final Collection<String> userIds) {
+        if (topicId == null || userIds == null) {
+            LOG.error("findUnreadMessageCountsByTopicIdByUserIds failed with topicId: " + topicId + " and userIds: " + userIds);
+            throw new IllegalArgumentException("Null Argument");
+        }
+
+        LOG.debug("findUnreadMessageCountsByTopicIdByUserIds executing with topicId: " + topicId + " for " + userIds.size() + " users");
+
+        long stamp = unreadCountsStamp.get();
+        int total = findMessageCountByTopicId(topicId);
+
+        List<String> userIdList = new ArrayList<String>(userIds);
+        Map<String, Integer> read = findGroupedCounts(QUERY_READ_COUNTS_BY_USER_IDS, "userIds", userIdList, "topicId", topicId);
+
+        Map<String, Integer> result = new HashMap<String, Integer>();
+        for (String userId : userIdList) {
+            int unread = total - countOf(read, userId);
+            result.put(userId, unread);
+            cacheUnreadCount(topicId, userId, false, unread, stamp);
+        }
+        return result;
+    }
+
+    /**
+     * Counts the unread messages in each topic for one user, answering what it can from the cache
+     * and fetching the rest with one grouped query for the totals and one for the reads.
+     */
+    private Map<Long, Integer> findUnreadCountsByTopicIds(final Collection<Long> topicIds, final String userId, final boolean viewableOnly) {
+        if (topicIds == null || userId == null) {
+            LOG.error("findUnreadCountsByTopicIds failed with topicIds: " + topicIds + " and userId: " + userId);
+            throw new IllegalArgumentException("Null Argument");
+        }
+
+        long stamp = unreadCountsStamp.get();
+        Map<Long, Integer> result = new HashMap<Long, Integer>();
+        List<Long> uncached = new ArrayList<Long>();
+        for (Long topicId : topicIds) {
+            TopicUnreadCounts counts = unreadCountsCache.get(topicId);
+            Integer unread = (counts == null) ? null : counts.get(userId, viewableOnly);
+            if (unread == null) {
+                uncached.add(topicId);
+            } else {
+                result.put(topicId, unread);
+            }
+        }
+
+        LOG.debug("findUnreadCountsByTopicIds executing with userId: " + userId + ", " + result.size() + " topics cached and "
+                + uncached.size() + " to count");
+
+        if (uncached.isEmpty()) {
+            return result;
+        }
+
+        Map<Long, Integer> totals;
+        Map<Long, Integer> read;
+        if (viewableOnly) {
+            totals = findGroupedCounts(QUERY_VIEWABLE_COUNTS_BY_TOPIC_IDS, "topicIds", uncached, "userId", userId);
+            read = findGroupedCounts(QUERY_READ_VIEWABLE_COUNTS_BY_TOPIC_IDS, "topicIds", uncached, "userId", userId);
+        } else {
+            totals = findGroupedCounts(QUERY_MESSAGE_COUNTS_FOR_MAIN_PAGE, "topicIds", uncached, null, null);
+            read = findGroupedCounts(QUERY_READ_COUNTS_BY_TOPIC_IDS, "topicIds", uncached, "userId", userId);
+        }
+
+        for (Long topicId : uncached) {
+            int unread = countOf(totals, topicId) - countOf(read, topicId);
+            result.put(topicId, unread);
+            cacheUnreadCount(topicId, userId, viewableOnly, unread, stamp);
+        }
+
+        return result;
+    }
+
+    /**
+     * Runs a query returning (key, count) rows, splitting the list parameter to stay inside Oracle's 'in' clause limit.
+     */
+    private <K> Map<K, Integer> findGroupedCounts(final String queryName, final String listName, final List<?> values,
+            final String paramName, final Object paramValue) {
+        if (values.isEmpty()) {
+            return new HashMap<K, Integer>();
+        }
+
+        HibernateCallback hcb = new HibernateCallback() {
+            public Object doInHibernate(Session session) throws HibernateException, SQLException {
+                Map<K, Integer> counts = new HashMap<K, Integer>();
+                for (int i = 0; i < values.size(); i += MAX_IN_CLAUSE_SIZE) {
+                    Query q = session.getNamedQuery(queryName);
+                    q.setParameterList(listName, values.subList(i, Math.min(i + MAX_IN_CLAUSE_SIZE, values.size())));
+                    if (paramName != null) {
+                        q.setParameter(paramName, paramValue);
+                    }
+                    for (Object[] row : (List<Object[]>) q.list()) {
+                        counts.put((K) row[0], ((Number) row[1]).intValue());
+                    }
+                }
+                return counts;
+            }
+        };
+
+        return (Map<K, Integer>) getHibernateTemplate().execute(hcb);
+    }
+
+    private static <K> int countOf(Map<K, Integer> counts, K key) {
+        Integer count = counts.get(key);
+        return (count == null) ? 0 : count.intValue();
+    }
+
+    /**
+     * Caches a count worked out since the stamp was taken, unless some counts have been dropped since then.
+     */
+    private void cacheUnreadCount(Long topicId, String userId, boolean viewableOnly, int unread, long stamp) {
+        synchronized (unreadCountsLock) {
+            if (stamp != unreadCountsStamp.get()) {
+                return;
+            }
+            TopicUnreadCounts counts = unreadCountsCache.get(topicId);
+            if (counts == null) {
+                counts = new TopicUnreadCounts();
+            }
+            counts.put(userId, viewableOnly, unread);
+            // put it back for caches that copy their values
+            unreadCountsCache.put(topicId, counts);
+        }
+    }
+
+    /**
+     * Drops a topic's cached counts for one user, or for everyone when userId is null.
+     */
+    private void removeCachedUnreadCounts(Long topicId, String userId) {
+        synchronized (unreadCountsLock) {
+            unreadCountsStamp.incrementAndGet();
+            if (userId == null) {
+                unreadCountsCache.remove(topicId);
+            } else {
+                TopicUnreadCounts counts = unreadCountsCache.get(topicId);
+                if (counts != null && counts.remove(userId)) {
+                    unreadCountsCache.put(topicId, counts);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops a topic's cached counts once the current transaction has finished, so they are not worked out again from
+     * the rows as they were before it committed.
+     */
+    private void removeCachedUnreadCountsAfterCommit(final Long topicId, final String userId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    removeCachedUnreadCounts(topicId, userId);
+                }
+            });
+        } else {
+            removeCachedUnreadCounts(topicId, userId);
+        }
+    }
+
+    private void removeCachedUnreadCounts(Message message) {
+        if (message.getTopic() != null && message.getTopic().getId() != null) {
+            removeCachedUnreadCountsAfterCommit(message.getTopic().getId(), null);
+        }
+    }
+
+    /**
+     * The unread counts for one topic, by user. Viewable counts leave out other users' unapproved messages.
+     */
+    private static class TopicUnreadCounts implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final ConcurrentMap<String, Integer> unread = new ConcurrentHashMap<String, Integer>();
+        private final ConcurrentMap<String, Integer> unreadViewable = new ConcurrentHashMap<String, Integer>();
+
+        Integer get(String userId, boolean viewableOnly) {
+            return (viewableOnly ? unreadViewable : unread).get(userId);
+        }
+
+        void put(String userId, boolean viewableOnly, int count) {
+            (viewableOnly ? unreadViewable : unread).put(userId, count);
+        }
+
+        boolean remove(String userId) {
+            boolean removed = unread.remove(userId) != null;
+            return (unreadViewable.remove(userId) != null) || removed;
+        }
+    }
+
     public List<Object[]> findMessageCountTotal() {
     	HibernateCallback hcb = new HibernateCallback() {
             public Object doInHibernate(Session session) throws HibernateException, SQLException {
@@ -1058,6 +1407,7 @@ public class MessageForumsMessageManagerImpl extends HibernateDaoSupport impleme
         UnreadStatus status = findUnreadStatus(topicId, messageId);
         if (status != null) {
             getHibernateTemplate().delete(status);
+            removeCachedUnreadCountsAfterCommit(topicId, status.getUserId());
         }
     }
 
@@ -1128,7 +1478,7 @@ public class MessageForumsMessageManagerImpl extends HibernateDaoSupport impleme
             	if (message.getTopic().getBaseForum()==null && message.getTopic().getOpenForum() != null) 	 
                     message.getTopic().setBaseForum((BaseForum) message.getTopic().getOpenForum()); 	 
 	 
-            	this.saveMessage(message, false, toolId, userId, context, true);
+            	this.saveMessage(message, false, toolId, userId, context, true, false);
 
         	if (isMessageFromForums)
         		eventTrackingService.post(eventTrackingService.newEvent(DiscussionForumService.EVENT_FORUMS_READ, getEventMessage(message, toolId, userId, context), false));
@@ -1137,6 +1487,10 @@ public class MessageForumsMessageManagerImpl extends HibernateDaoSupport impleme
         }
         	
         getHibernateTemplate().saveOrUpdate(status);
+
+        if (originalReadStatus != read) {
+        	removeCachedUnreadCountsAfterCommit(topicId, userId);
+        }
        
         
         	
@@ -1351,6 +1705,13 @@ public class MessageForumsMessageManagerImpl extends HibernateDaoSupport impleme
     }
     
     public void saveMessage(Message message, boolean logEvent, String toolId, String userId, String contextId, boolean ignoreLockedTopicForum){
+        saveMessage(message, logEvent, toolId, userId, contextId, ignoreLockedTopicForum, true);
+    }
+
+    /**
+     * @param countsChanged false if the save can't change which messages the topic holds, so its unread counts stay cached
+     */
+    private void saveMessage(Message message, boolean logEvent, String toolId, String userId, String contextId, boolean ignoreLockedTopicForum, boolean countsChanged){
         boolean isNew = message.getId() == null;
         
         if (!ignoreLockedTopicForum && !(message instanceof PrivateMessage)){                  
@@ -1395,6 +1756,10 @@ public class MessageForumsMessageManagerImpl extends HibernateDaoSupport impleme
 
         getHibernateTemplate().saveOrUpdate(message);
 
+        if (countsChanged) {
+        	removeCachedUnreadCounts(message);
+        }
+
         if (logEvent) {
         	if (isNew) {
         		if (isMessageFromForums(message))
@@ -1418,6 +1783,7 @@ public class MessageForumsMessageManagerImpl extends HibernateDaoSupport impleme
         message.setInReplyTo(null);
         
         getHibernateTemplate().saveOrUpdate(message);
+        removeCachedUnreadCounts(message);
         
         try {
         	getSession().flush();
@@ -1538,6 +1904,7 @@ public class MessageForumsMessageManagerImpl extends HibernateDaoSupport impleme
         message.setApproved(Boolean.valueOf(approved));
         
         getHibernateTemplate().saveOrUpdate(message);
+        removeCachedUnreadCounts(message);
     }
 
 
@@ -1675,7 +2042,16 @@ public class MessageForumsMessageManagerImpl extends HibernateDaoSupport impleme
     		else
     			eventMessagePrefix = "/forums/site/";
     	
-    	return eventMessagePrefix + contextId + "/" + object.toString() + "/" + userId;
+    	String reference = object.toString();
+    	// a message's topic lets the servers drop its cached unread counts without looking the topic up
+    	if (object instanceof Message) {
+    		Topic topic = ((Message) object).getTopic();
+    		if (topic != null && topic.getId() != null) {
+    			reference = "Topic/" + topic.getId() + "/" + reference;
+    		}
+    	}
+
+    	return eventMessagePrefix + contextId + "/" + reference + "/" + userId;
     }
 
         
@@ -2038,6 +2414,10 @@ public class MessageForumsMessageManagerImpl extends HibernateDaoSupport impleme
 
 		getHibernateTemplate().saveOrUpdate(mhist);
 
+		// saving the message only dropped the destination topic's counts
+		removeCachedUnreadCountsAfterCommit(sourceTopicId, null);
+		removeCachedUnreadCountsAfterCommit(desttopicId, null);
+
 
 	}
 
@@ -9,11 +9,16 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,12 +32,14 @@ import org.sakaiproject.api.app.messageforums.MessageForumsMessageManager;
 import org.sakaiproject.api.app.messageforums.MessageForumsTypeManager;
 import org.sakaiproject.api.app.messageforums.SynopticMsgcntrItem;
 import org.sakaiproject.api.app.messageforums.SynopticMsgcntrManager;
+import org.sakaiproject.api.app.messageforums.cover.SynopticMsgcntrManagerCover;
 import org.sakaiproject.api.app.messageforums.ui.DiscussionForumManager;
 import org.sakaiproject.api.app.messageforums.ui.PrivateMessageManager;
 import org.sakaiproject.api.app.messageforums.ui.UIPermissionsManager;
 import org.sakaiproject.authz.api.Member;
 import org.sakaiproject.authz.cover.SecurityService;
 import org.sakaiproject.component.app.messageforums.dao.hibernate.SynopticMsgcntrItemImpl;
+import org.sakaiproject.component.cover.ServerConfigurationService;
 import org.sakaiproject.db.cover.SqlService;
 import org.sakaiproject.exception.IdUnusedException;
 import org.sakaiproject.site.api.Site;
@@ -59,11 +66,60 @@ public class SynopticMsgcntrManagerImpl extends HibernateDaoSupport implements S
 	
 	private static int ORACLE_IN_CLAUSE_SIZE_LIMIT = 1000;
 
+	private static final String UPDATE_SYNOPTIC_COUNTS_SQL = "UPDATE MFR_SYNOPTIC_ITEM SET " +
+			"NEW_MESSAGES_COUNT = CASE WHEN NEW_MESSAGES_COUNT + ? < 0 THEN 0 ELSE NEW_MESSAGES_COUNT + ? END, " +
+			"NEW_FORUM_COUNT = CASE WHEN NEW_FORUM_COUNT + ? < 0 THEN 0 ELSE NEW_FORUM_COUNT + ? END " +
+			"WHERE USER_ID = ? AND SITE_ID = ?";
+	private static final String EXISTING_SYNOPTIC_USERS_SQL = "SELECT USER_ID FROM MFR_SYNOPTIC_ITEM WHERE SITE_ID = ? AND USER_ID IN ";
+	private static final int FLUSH_BATCH_SIZE = 500;
+
+	// unread count changes waiting to be written, merged per user and site: {messages, forums}
+	private final Object pendingLock = new Object();
+	// held while queued changes are being written, so discarding them waits for a write already under way
+	private final Object flushLock = new Object();
+	private Map<SynopticKey, int[]> pendingDeltas = new HashMap<SynopticKey, int[]>();
+	private int maxPendingDeltas;
+	private ScheduledExecutorService flushExecutor;
+	private final Runnable flushTask = new Runnable() {
+		public void run() {
+			try {
+				flushSynopticCountDeltas();
+			} catch (RuntimeException e) {
+				// keep the scheduled flush alive
+				LOG.error("Synoptic count flush failed: " + e.getMessage(), e);
+			}
+		}
+	};
+
 	
 	public SynopticMsgcntrManagerImpl() {}
 	
 	public void init() {
 		LOG.info("init()");
+		int flushInterval = ServerConfigurationService.getInt("msgcntr.synoptic.flushInterval", 5);
+		maxPendingDeltas = ServerConfigurationService.getInt("msgcntr.synoptic.maxPendingDeltas", 5000);
+		if (flushInterval > 0) {
+			flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "msgcntr-synoptic-flush");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			flushExecutor.scheduleWithFixedDelay(flushTask, flushInterval, flushInterval, TimeUnit.SECONDS);
+		}
+	}
+	
+	public void destroy() {
+		if (flushExecutor != null) {
+			flushExecutor.shutdown();
+			try {
+				flushExecutor.awaitTermination(30, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		flushSynopticCountDeltas();
 	}
 
 	public List<SynopticMsgcntrItem> getWorkspaceSynopticMsgcntrItems(final String userId) {
@@ -133,68 +189,252 @@ public class SynopticMsgcntrManagerImpl extends HibernateDaoSupport implements S
 		if(userIds == null || userIds.size() == 0){
 			return;
 		}
-		  List<SynopticMsgcntrItem> items = getSiteSynopticMsgcntrItems(userIds, siteId);
-		  //first, find the users who don't have an item yet:
-		  List<String> missingUsers = new ArrayList<String>(userIds);
-		  List<String> foundUsers = new ArrayList<String>();
-		  if(items != null){
-			  for(SynopticMsgcntrItem item : items){
-				  missingUsers.remove(item.getUserId());
-				  foundUsers.add(item.getUserId());
-			  }
-		  }
-		  
-		  resetMessagesAndForumSynopticInfo(missingUsers, siteId, items);
-		  
-		  if(foundUsers != null && foundUsers.size() > 0){
-			  //now take the existing list of found items and decrement them
-			  String[] userIdsArr = foundUsers.toArray(new String[]{});
-			  int subArrayIndex = 0;
-				do{
-					int subArraySize = ORACLE_IN_CLAUSE_SIZE_LIMIT;
-					if(subArrayIndex + subArraySize > userIdsArr.length){
-						subArraySize = (userIdsArr.length - subArrayIndex);
+		addSynopticCountDelta(userIds, siteId, messages, increment ? 1 : -1);
+	}
+	
+	/**
+	 * Queue a change to the unread count of each user in the site. Changes for the same user and site are merged
+	 * until the next flush, so a busy site costs one update per user per flush rather than one per message.
+	 */
+	private void addSynopticCountDelta(Collection<String> userIds, String siteId, boolean messages, int delta){
+		int column = messages ? 0 : 1;
+		boolean flushNow;
+		synchronized (pendingLock) {
+			for(String userId : userIds){
+				if(userId == null){
+					continue;
+				}
+				SynopticKey key = new SynopticKey(userId, siteId);
+				int[] deltas = pendingDeltas.get(key);
+				if(deltas == null){
+					deltas = new int[2];
+					pendingDeltas.put(key, deltas);
+				}
+				deltas[column] += delta;
+			}
+			flushNow = pendingDeltas.size() >= maxPendingDeltas;
+		}
+		if(flushExecutor == null){
+			flushSynopticCountDeltas();
+		}else if(flushNow){
+			flushExecutor.execute(flushTask);
+		}
+	}
+	
+	/**
+	 * Drop queued changes that an absolute count is about to replace. Changes already taken by a flush can't be
+	 * dropped any more, so this waits for that flush to write them first and the absolute count is saved after them.
+	 */
+	private void discardSynopticCountDeltas(Collection<String> userIds, String siteId, boolean messages, boolean forums){
+		synchronized (flushLock) {
+			synchronized (pendingLock) {
+				for(String userId : userIds){
+					int[] deltas = pendingDeltas.get(new SynopticKey(userId, siteId));
+					if(deltas != null){
+						if(messages){
+							deltas[0] = 0;
+						}
+						if(forums){
+							deltas[1] = 0;
+						}
 					}
-					String[] subSiteRefs = Arrays.copyOfRange(userIdsArr, subArrayIndex, subArrayIndex + subArraySize);
-					String COL = messages ? "NEW_MESSAGES_COUNT" : "NEW_FORUM_COUNT";
-					String symbol = increment ? "+" : "-";
-					String decWhere = increment ? "" : " AND " + COL + " > 0";
-					String query = "UPDATE MFR_SYNOPTIC_ITEM SET " + COL + " = " + COL + " " + symbol + " 1 WHERE USER_ID in (?) and SITE_ID = '" + siteId + "'" + decWhere;
-					String inParams = "(";
-					for(int i = 0; i < subSiteRefs.length; i++){
-						inParams += "'" + subSiteRefs[i].replace("'", "''") + "'"; //escape apostrophe
-						if(i < subSiteRefs.length - 1){
-							inParams += ",";
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Write the unread count changes queued since the last flush in JDBC batches. Users who don't have a synoptic
+	 * item in the site yet get their counts recomputed in full instead. If the update fails the changes are
+	 * queued again for the next flush.
+	 */
+	public void flushSynopticCountDeltas(){
+		Map<String, List<String>> missingUsersBySite;
+		synchronized (flushLock) {
+			missingUsersBySite = writeSynopticCountDeltas();
+		}
+		if(missingUsersBySite == null){
+			return;
+		}
+		
+		//go back through the transactional proxy as this may be running on the flush thread
+		for(Entry<String, List<String>> entry : missingUsersBySite.entrySet()){
+			try {
+				SynopticMsgcntrManagerCover.getInstance().resetAllUsersSynopticInfoInSite(entry.getKey(), entry.getValue());
+			} catch (RuntimeException e) {
+				LOG.error("Unable to create synoptic items in site " + entry.getKey() + ": " + e.getMessage(), e);
+			}
+		}
+	}
+	
+	/**
+	 * Take the queued changes and write them, with flushLock held.
+	 * 
+	 * @return the users without a synoptic item, by site, or null if nothing was written.
+	 */
+	private Map<String, List<String>> writeSynopticCountDeltas(){
+		Map<SynopticKey, int[]> deltas;
+		synchronized (pendingLock) {
+			if(pendingDeltas.isEmpty()){
+				return null;
+			}
+			deltas = pendingDeltas;
+			pendingDeltas = new HashMap<SynopticKey, int[]>();
+		}
+		
+		List<SynopticKey> keys = new ArrayList<SynopticKey>(deltas.size());
+		for(Entry<SynopticKey, int[]> entry : deltas.entrySet()){
+			if(entry.getValue()[0] != 0 || entry.getValue()[1] != 0){
+				keys.add(entry.getKey());
+			}
+		}
+		if(keys.isEmpty()){
+			return null;
+		}
+		
+		long start = System.currentTimeMillis();
+		Map<String, List<String>> missingUsersBySite = new HashMap<String, List<String>>();
+		Connection clConnection = null;
+		PreparedStatement updateStatement = null;
+		try {
+			clConnection = SqlService.borrowConnection();
+			
+			//update counts can't tell us which rows are missing, Oracle reports Statement.SUCCESS_NO_INFO for every row
+			List<SynopticKey> existingKeys = findExistingSynopticKeys(clConnection, keys, missingUsersBySite);
+			
+			updateStatement = clConnection.prepareStatement(UPDATE_SYNOPTIC_COUNTS_SQL);
+			for(int batchStart = 0; batchStart < existingKeys.size(); batchStart += FLUSH_BATCH_SIZE){
+				for(SynopticKey key : existingKeys.subList(batchStart, Math.min(batchStart + FLUSH_BATCH_SIZE, existingKeys.size()))){
+					int[] delta = deltas.get(key);
+					updateStatement.setInt(1, delta[0]);
+					updateStatement.setInt(2, delta[0]);
+					updateStatement.setInt(3, delta[1]);
+					updateStatement.setInt(4, delta[1]);
+					updateStatement.setString(5, key.userId);
+					updateStatement.setString(6, key.siteId);
+					updateStatement.addBatch();
+				}
+				updateStatement.executeBatch();
+			}
+			clConnection.commit();
+		}catch(SQLException e){
+			LOG.error("Unable to update synoptic counts for " + keys.size() + " users, will retry: " + e.getMessage(), e);
+			try {
+				if(clConnection != null){
+					clConnection.rollback();
+				}
+			} catch (SQLException e1) {
+				LOG.warn(e1.getMessage(), e1);
+			}
+			requeueSynopticCountDeltas(deltas);
+			return null;
+		}finally{
+			if(updateStatement != null){
+				try {
+					updateStatement.close();
+				} catch (SQLException e) {
+					LOG.error(e.getMessage(), e);
+				}
+			}
+			SqlService.returnConnection(clConnection);
+		}
+		
+		if(LOG.isDebugEnabled()){
+			LOG.debug("Flushed synoptic counts for " + keys.size() + " users, " + missingUsersBySite.size()
+					+ " sites needed new items, took " + (System.currentTimeMillis() - start) + "ms");
+		}
+		return missingUsersBySite;
+	}
+	
+	/**
+	 * Look up which of the users already have a synoptic item in their site, a site and up to FLUSH_BATCH_SIZE
+	 * users at a time.
+	 * 
+	 * @return the keys with a synoptic item, the users without one are added to missingUsersBySite.
+	 */
+	private List<SynopticKey> findExistingSynopticKeys(Connection clConnection, List<SynopticKey> keys, Map<String, List<String>> missingUsersBySite) throws SQLException{
+		Map<String, List<String>> usersBySite = new HashMap<String, List<String>>();
+		for(SynopticKey key : keys){
+			List<String> users = usersBySite.get(key.siteId);
+			if(users == null){
+				users = new ArrayList<String>();
+				usersBySite.put(key.siteId, users);
+			}
+			users.add(key.userId);
+		}
+		
+		List<SynopticKey> existingKeys = new ArrayList<SynopticKey>(keys.size());
+		for(Entry<String, List<String>> entry : usersBySite.entrySet()){
+			String siteId = entry.getKey();
+			List<String> users = entry.getValue();
+			for(int batchStart = 0; batchStart < users.size(); batchStart += FLUSH_BATCH_SIZE){
+				List<String> batch = users.subList(batchStart, Math.min(batchStart + FLUSH_BATCH_SIZE, users.size()));
+				
+				StringBuilder query = new StringBuilder(EXISTING_SYNOPTIC_USERS_SQL).append("(");
+				for(int i = 0; i < batch.size(); i++){
+					query.append(i == 0 ? "?" : ",?");
+				}
+				query.append(")");
+				
+				Set<String> existingUsers = new HashSet<String>();
+				PreparedStatement existingStatement = null;
+				ResultSet existingRS = null;
+				try {
+					existingStatement = clConnection.prepareStatement(query.toString());
+					existingStatement.setString(1, siteId);
+					for(int i = 0; i < batch.size(); i++){
+						existingStatement.setString(i + 2, batch.get(i));
+					}
+					existingRS = existingStatement.executeQuery();
+					while(existingRS.next()){
+						existingUsers.add(existingRS.getString(1));
+					}
+				}finally{
+					if(existingRS != null){
+						try {
+							existingRS.close();
+						} catch (SQLException e) {
+							LOG.warn(e.getMessage(), e);
 						}
 					}
-					inParams += ")";
-					query = query.replace("(?)", inParams);
-					
-					Connection clConnection = null;  	
-					//Statement statement = null;
-					PreparedStatement updateStatement = null;
-					try {
-						clConnection = SqlService.borrowConnection();
-						updateStatement = clConnection.prepareStatement(query);
-						updateStatement.execute();
-						//in case autosubmit isn't true, commit this right away
-						clConnection.commit();
-					}catch(Exception e){
-						LOG.error(e.getMessage(), e);
-					}finally{
-						if(updateStatement != null){
-							try {
-								updateStatement.close();
-							} catch (SQLException e) {
-								LOG.error(e.getMessage(), e);
-							}
+					if(existingStatement != null){
+						try {
+							existingStatement.close();
+						} catch (SQLException e) {
+							LOG.error(e.getMessage(), e);
 						}
-						SqlService.returnConnection(clConnection);
-					}					
-					
-					subArrayIndex = subArrayIndex + subArraySize;
-				}while(subArrayIndex < userIdsArr.length);
-		  }		 
+					}
+				}
+				
+				for(String userId : batch){
+					if(existingUsers.contains(userId)){
+						existingKeys.add(new SynopticKey(userId, siteId));
+					}else{
+						List<String> missingUsers = missingUsersBySite.get(siteId);
+						if(missingUsers == null){
+							missingUsers = new ArrayList<String>();
+							missingUsersBySite.put(siteId, missingUsers);
+						}
+						missingUsers.add(userId);
+					}
+				}
+			}
+		}
+		return existingKeys;
+	}
+	
+	private void requeueSynopticCountDeltas(Map<SynopticKey, int[]> deltas){
+		synchronized (pendingLock) {
+			for(Entry<SynopticKey, int[]> entry : deltas.entrySet()){
+				int[] pending = pendingDeltas.get(entry.getKey());
+				if(pending == null){
+					pendingDeltas.put(entry.getKey(), entry.getValue());
+				}else{
+					pending[0] += entry.getValue()[0];
+					pending[1] += entry.getValue()[1];
+				}
+			}
+		}
 	}
 	
 	
@@ -213,6 +453,7 @@ public class SynopticMsgcntrManagerImpl extends HibernateDaoSupport implements S
 		}
 		//Get Stats for all users:
 		Map<String, DecoratedCompiledMessageStats> dcmStats = this.getSiteInfo(siteId, userIds);
+		discardSynopticCountDeltas(dcmStats.keySet(), siteId, true, true);
 		
 		//update existing ones:
 		for(SynopticMsgcntrItem item : items){
@@ -264,6 +505,7 @@ public class SynopticMsgcntrManagerImpl extends HibernateDaoSupport implements S
 			//actually number of unread messages instead of decrementing
 			resetMessagesAndForumSynopticInfo(Arrays.asList(userId), siteId, items);
 		}else{
+			discardSynopticCountDeltas(Arrays.asList(userId), siteId, messages, !messages);
 			if(messages){
 				item.setNewMessagesCount(newMessageCount);				
 				item.setMessagesLastVisitToCurrentDt();
@@ -288,32 +530,8 @@ public class SynopticMsgcntrManagerImpl extends HibernateDaoSupport implements S
 	}
 	
 	private void updateDifferenceSynopticInfoHelper(String userId, String siteId, boolean messages, int differenceCount){
-		List<SynopticMsgcntrItem> items = getSiteSynopticMsgcntrItems(Arrays.asList(userId), siteId);
-		SynopticMsgcntrItem item = null;
-		if(items != null && items.size() == 1){
-			item = items.get(0);
-		}
-		if(item == null){
-			//item does not exist, call the reset function to set the 
-			//actually number of unread messages instead of decrementing
-			resetMessagesAndForumSynopticInfo(Arrays.asList(userId), siteId, items);
-		}else{
-			if(messages){
-				int newCount = item.getNewMessagesCount() + differenceCount;
-				if(newCount < 0){
-					newCount = 0;
-				}
-				item.setNewMessagesCount(newCount);				
-				item.setMessagesLastVisitToCurrentDt();
-			}else{
-				int newCount = item.getNewForumCount() + differenceCount;
-				if(newCount < 0){
-					newCount = 0;
-				}
-				item.setNewForumCount(newCount);
-				item.setForumLastVisitToCurrentDt();
-			}
-			saveSynopticMsgcntrItems(Arrays.asList(item));
+		if(differenceCount != 0){
+			addSynopticCountDelta(Arrays.asList(userId), siteId, messages, differenceCount);
 		}
 	}
 	
@@ -324,6 +542,7 @@ public class SynopticMsgcntrManagerImpl extends HibernateDaoSupport implements S
 		for(SynopticMsgcntrItem item : items){
 			newUsers.remove(item.getUserId());
 		}
+		discardSynopticCountDeltas(unreadCounts.keySet(), siteId, true, true);
 		boolean updateSiteTitles = false;
 		for(SynopticMsgcntrItem item : items){
 			if(unreadCounts.containsKey(item.getUserId())){
@@ -1028,6 +1247,33 @@ public class SynopticMsgcntrManagerImpl extends HibernateDaoSupport implements S
 		this.forumManager = forumManager;
 	}
 	
+	/**
+	 * A user in a site, the key of the queued unread count changes.
+	 */
+	private static final class SynopticKey {
+		private final String userId;
+		private final String siteId;
+
+		SynopticKey(String userId, String siteId) {
+			this.userId = userId;
+			this.siteId = siteId;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof SynopticKey)) {
+				return false;
+			}
+			SynopticKey other = (SynopticKey) o;
+			return userId.equals(other.userId) && siteId.equals(other.siteId);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * userId.hashCode() + siteId.hashCode();
+		}
+	}
+
 	/**
 	 * Used to store synoptic information for a users unread messages.
 	 * Whether on the Home page of a site or in MyWorkspace determines
@@ -374,6 +374,38 @@ AutoRegisterEntityProvider, PropertyProvideable, RESTful, RequestStorable, Reque
 				    LOG.debug("Exception attempting to retrieve gradebook information for site " + siteId + ". ", e);
 				}
 
+				// find the topics the user can read first, so the message counts for all of them come from a few grouped queries
+				boolean isInstructor = forumManager.isInstructor(userId, siteId);
+				List<Long> readableTopicIds = new ArrayList<Long>();
+				List<Long> allMessagesTopicIds = new ArrayList<Long>();
+				List<Long> viewableMessagesTopicIds = new ArrayList<Long>();
+				for (DiscussionForum forum : forums) {
+						List<DiscussionTopic> topics = forum.getTopics();
+						for (DiscussionTopic topic : topics) {
+								if (isInstructor || 
+										getUiPermissionsManager().isRead(topic.getId(), topic.getDraft(), forum.getDraft(), userId, siteId))
+								{
+									readableTopicIds.add(topic.getId());
+									if (!topic.getModerated().booleanValue()
+											|| (topic.getModerated().booleanValue() && 
+													getUiPermissionsManager().isModeratePostings(topic.getId(), forum.getLocked(), forum.getDraft(), topic.getLocked(), topic.getDraft(), userId, siteId))){
+										allMessagesTopicIds.add(topic.getId());
+									}
+									else
+									{
+										// b/c topic is moderated and user does not have mod perm, user may only
+										// see approved msgs or pending/denied msgs authored by user
+										viewableMessagesTopicIds.add(topic.getId());
+									}
+								}
+						}
+				}
+
+				Map<Long, Integer> unreadCounts = new HashMap<Long, Integer>();
+				unreadCounts.putAll(getMessageManager().findUnreadMessageCountsByTopicIdsByUserId(allMessagesTopicIds, userId));
+				unreadCounts.putAll(getMessageManager().findUnreadViewableMessageCountsByTopicIdsByUserId(viewableMessagesTopicIds, userId));
+				Map<Long, Integer> totalCounts = getMessageManager().findViewableMessageCountsByTopicIdsByUserId(readableTopicIds, userId);
+
 				for (DiscussionForum forum : forums) {
 						List<DecoratedAttachment> forumAttachments = decorateAttachments(forum.getAttachments());
 					        Long forumOpenDate = null;
@@ -396,24 +428,10 @@ AutoRegisterEntityProvider, PropertyProvideable, RESTful, RequestStorable, Reque
 
 						for (DiscussionTopic topic : topics) {
 
-								if (forumManager.isInstructor(userId, siteId) || 
-										getUiPermissionsManager().isRead(topic.getId(), topic.getDraft(), forum.getDraft(), userId, siteId))
+								if (totalCounts.containsKey(topic.getId()))
 								{
-									int unreadMessages = 0;
-									int totalMessages = 0;
-									if (!topic.getModerated().booleanValue()
-											|| (topic.getModerated().booleanValue() && 
-													getUiPermissionsManager().isModeratePostings(topic.getId(), forum.getLocked(), forum.getDraft(), topic.getLocked(), topic.getDraft(), userId, siteId))){
-
-										unreadMessages = getMessageManager().findUnreadMessageCountByTopicIdByUserId(topic.getId(), userId);										
-									}
-									else
-									{	
-										// b/c topic is moderated and user does not have mod perm, user may only
-										// see approved msgs or pending/denied msgs authored by user
-										unreadMessages = getMessageManager().findUnreadViewableMessageCountByTopicIdByUserId(topic.getId(), userId);
-									}
-									totalMessages = getMessageManager().findViewableMessageCountByTopicIdByUserId(topic.getId(), userId);
+									int unreadMessages = unreadCounts.get(topic.getId());
+									int totalMessages = totalCounts.get(topic.getId());
 									
 									List<DecoratedAttachment> attachments = decorateAttachments(topic.getAttachments());									
 									Long topicOpenDate = null;
@@ -438,7 +456,7 @@ AutoRegisterEntityProvider, PropertyProvideable, RESTful, RequestStorable, Reque
 						
 						// TODO this is a bit too simplistic but will do for now. better to be more restrictive than less at this point
 						// "instructor" type users can view all forums. others may view the forum if they can view at least one topic within the forum
-						if (forumManager.isInstructor(userId, siteId) || viewableTopics > 0) {
+						if (isInstructor || viewableTopics > 0) {
 							dForums.add(dForum);
 						}
 				}
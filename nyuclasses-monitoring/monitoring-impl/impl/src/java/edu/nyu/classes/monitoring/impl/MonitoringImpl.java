@@ -4,8 +4,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.sakaiproject.component.cover.HotReloadConfigurationService;
+import org.sakaiproject.util.ActiveRequest;
 
-import java.util.regex.Matcher;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Pattern;
 
 public class MonitoringImpl {
@@ -13,6 +18,7 @@ public class MonitoringImpl {
     private static final Logger LOG = LoggerFactory.getLogger(MonitoringImpl.class);
 
     private Thread thread = null;
+    private RequestProfiler profiler = null;
 
     public void init()
     {
@@ -20,19 +26,23 @@ public class MonitoringImpl {
 
         thread = new Thread(new CheckRunner(), "NYUClasses monitoring");
         thread.start();
+
+        profiler = new RequestProfiler();
+        profiler.start();
     }
 
     public void destroy()
     {
         LOG.info("Destroying MonitoringImpl");
+
+        if (profiler != null) {
+            profiler.stop();
+            profiler = null;
+        }
     }
 
     private static class CheckRunner implements Runnable {
-        private static final int MAX_THREADS = 4096;
-        private Thread[] activeThreads = new Thread[MAX_THREADS];
-
-        // Pattern that matches a thread name with a start time appended
-        private static final Pattern threadNamePattern = Pattern.compile("http-.*-[0-9]+-exec-[0-9]+::([0-9]+).*$");
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
 
         public void run() {
             LOG.info("CheckRunner starting up");
@@ -53,53 +63,60 @@ public class MonitoringImpl {
                         threadExcludePatternRegex = Pattern.compile(newPattern);
                     }
 
-                    int threadCount = Thread.enumerate(activeThreads);
                     long now = System.currentTimeMillis();
 
-                    // Check each thread of interest (Tomcat request threads)
-                    eachThread:
-                    for (int i = 0; i < threadCount; i++) {
-                        Thread target = activeThreads[i];
-                        String threadName = target.getName();
+                    // Only requests that have been running too long are of
+                    // interest, and RequestFilter tells us when each started.
+                    List<ActiveRequest> longRunning = new ArrayList<ActiveRequest>();
+                    for (ActiveRequest request : ActiveRequest.list()) {
+                        if (now - request.getStartTime() > longRunningMs) {
+                            longRunning.add(request);
+                        }
+                    }
 
-                        LOG.debug("Checking thread: " + threadName);
+                    if (!longRunning.isEmpty()) {
+                        long[] ids = new long[longRunning.size()];
+                        for (int i = 0; i < ids.length; i++) {
+                            ids[i] = longRunning.get(i).getThreadId();
+                        }
 
-                        try {
-                            Matcher m = threadNamePattern.matcher(threadName);
-                            if (m.matches()) {
-                                long startTime = Long.valueOf(m.group(1));
-                                long runTime = (now - startTime);
+                        ThreadInfo[] infos = threads.getThreadInfo(ids, Integer.MAX_VALUE);
 
-                                // Complain if they've been running too long
-                                if (runTime > longRunningMs) {
-                                    StringBuilder sb = new StringBuilder();
+                        eachThread:
+                        for (int i = 0; i < infos.length; i++) {
+                            ActiveRequest request = longRunning.get(i);
+                            ThreadInfo target = infos[i];
 
-                                    // Logging to System.err here ensure that
-                                    // the thread name is logged before the
-                                    // stack trace (otherwise, log buffering
-                                    // could cause them to display out of order)
-                                    sb.append("\n========================================================================\n");
-                                    sb.append("Thread has been running for " + runTime + " ms: " + threadName + ".  Stack follows\n\n");
-                                    for (StackTraceElement elt : target.getStackTrace()) {
-                                        if (threadExcludePatternRegex.matcher(elt.toString()).matches()) {
-                                            // Skip this thread
-                                            continue eachThread;
-                                        }
+                            // Finished since we looked
+                            if (target == null) {
+                                continue;
+                            }
 
-                                        sb.append(elt);
-                                        sb.append("\n");
-                                    }
+                            String threadName = target.getThreadName();
+                            long runTime = (now - request.getStartTime());
+
+                            StringBuilder sb = new StringBuilder();
+
+                            // Logging to System.err here ensure that
+                            // the thread name is logged before the
+                            // stack trace (otherwise, log buffering
+                            // could cause them to display out of order)
+                            sb.append("\n========================================================================\n");
+                            sb.append("Thread has been running for " + runTime + " ms: " + threadName +
+                                      " (" + request.getMethod() + " " + request.getUri() + ").  Stack follows\n\n");
+                            for (StackTraceElement elt : target.getStackTrace()) {
+                                if (threadExcludePatternRegex.matcher(elt.toString()).matches()) {
+                                    // Skip this thread
+                                    continue eachThread;
+                                }
 
-                                    sb.append("========================================================================\n");
+                                sb.append(elt);
+                                sb.append("\n");
+                            }
 
-                                    System.err.println(sb.toString());
+                            sb.append("========================================================================\n");
 
-                                }
-                            } else {
-                                LOG.debug("no match");
-                            }
-                        } catch (RuntimeException e) {
-                            LOG.warn("Problem checking status of thread: " + threadName, e);
+                            System.err.println(sb.toString());
                         }
                     }
 
@@ -0,0 +1,491 @@
+package edu.nyu.classes.monitoring.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.sakaiproject.component.cover.HotReloadConfigurationService;
+import org.sakaiproject.util.ActiveRequest;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Samples the stacks of the threads serving requests (as registered by
+ * RequestFilter) and builds a call tree for each type of request, recording
+ * how many samples landed in each frame along with the CPU time and memory the
+ * thread used between samples.  Comparing samples (wall time) with CPU time
+ * shows whether a request was working or waiting on something.
+ *
+ * All request threads are sampled with a single ThreadMXBean call, so the JVM
+ * only has to stop once per sample however many requests are running.  Every
+ * nyu.monitoring.profiler.report-interval-ms the busiest request types are
+ * logged, the folded stacks are written to nyu.monitoring.profiler.report-dir
+ * (if set) and a new window starts.
+ */
+class RequestProfiler implements RequestProfilerMXBean, Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RequestProfiler.class);
+
+    // Everything below the filter is the container's, and the same for every request
+    private static final String REQUEST_FILTER_FRAME = "org.sakaiproject.util.RequestFilter.doFilter";
+
+    // Beyond this, request types are lumped together rather than growing without bound
+    private static final int MAX_REQUEST_TYPES = 500;
+    private static final String OTHER_REQUESTS = "(other requests)";
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final com.sun.management.ThreadMXBean hotspotThreads;
+
+    // What each request thread had used at its last sample.  Only touched by
+    // the sampling thread.
+    private final Map<Long, ThreadUsage> lastUsage = new HashMap<Long, ThreadUsage>();
+
+    private Profile profile = new Profile();
+    private long lastSampleNanos = 0;
+
+    private volatile boolean running = false;
+    private Thread thread = null;
+    private ObjectName objectName = null;
+
+
+    public RequestProfiler() {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            hotspotThreads = (com.sun.management.ThreadMXBean) threads;
+        } else {
+            hotspotThreads = null;
+        }
+    }
+
+
+    public void start() {
+        running = true;
+        thread = new Thread(this, "NYUClasses request profiler");
+        thread.setDaemon(true);
+        thread.start();
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName("edu.nyu.classes.monitoring:type=RequestProfiler");
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(new StandardMBean(this, RequestProfilerMXBean.class, true), objectName);
+            }
+        } catch (Exception e) {
+            LOG.warn("Could not register the request profiler with JMX: " + e);
+        }
+    }
+
+
+    public void stop() {
+        running = false;
+
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (Exception e) {
+                LOG.debug("Could not unregister the request profiler from JMX: " + e);
+            }
+            objectName = null;
+        }
+    }
+
+
+    public void run() {
+        LOG.info("Request profiler starting up");
+
+        while (running) {
+            try {
+                // Pull in our config options in case they've been updated
+                int sampleIntervalMs = Integer.valueOf(HotReloadConfigurationService.getString("nyu.monitoring.profiler.sample-interval-ms", "100"));
+                int maxDepth = Integer.valueOf(HotReloadConfigurationService.getString("nyu.monitoring.profiler.max-depth", "128"));
+                int reportIntervalMs = Integer.valueOf(HotReloadConfigurationService.getString("nyu.monitoring.profiler.report-interval-ms", "900000"));
+
+                if (sampleIntervalMs <= 0) {
+                    // Switched off.  Check back in a while in case that changes.
+                    lastUsage.clear();
+                    lastSampleNanos = 0;
+                    Thread.sleep(60000);
+                    continue;
+                }
+
+                sample(maxDepth);
+
+                if (System.currentTimeMillis() - getWindowStartTime() >= reportIntervalMs) {
+                    report();
+                }
+
+                Thread.sleep(sampleIntervalMs);
+            } catch (InterruptedException e) {
+                // Stopping
+            } catch (RuntimeException e) {
+                LOG.warn("Runtime exception", e);
+                try {
+                    Thread.sleep(60000);
+                } catch (InterruptedException ex) {}
+            }
+        }
+    }
+
+
+    private void sample(int maxDepth) {
+        long start = System.nanoTime();
+        long wallNanos = (lastSampleNanos == 0) ? 0 : (start - lastSampleNanos);
+        lastSampleNanos = start;
+
+        List<ActiveRequest> requests = new ArrayList<ActiveRequest>(ActiveRequest.list());
+        long[] ids = new long[requests.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = requests.get(i).getThreadId();
+        }
+
+        ThreadInfo[] infos = (ids.length == 0) ? new ThreadInfo[0] : threads.getThreadInfo(ids, maxDepth);
+        long[] cpuNanos = cpuTimes(ids);
+        long[] allocatedBytes = allocatedBytes(ids);
+
+        Set<Long> sampled = new HashSet<Long>();
+
+        synchronized (this) {
+            for (int i = 0; i < ids.length; i++) {
+                ActiveRequest request = requests.get(i);
+
+                // The thread might have gone since we listed it
+                if (infos[i] == null) {
+                    continue;
+                }
+
+                ThreadUsage previous = lastUsage.get(ids[i]);
+                boolean newRequest = (previous == null || previous.startTime != request.getStartTime());
+
+                // We don't know what a request used before we first saw it, so
+                // its CPU and memory are counted from its second sample.
+                long cpu = (newRequest || cpuNanos[i] < 0) ? 0 : Math.max(0, cpuNanos[i] - previous.cpuNanos);
+                long allocated = (newRequest || allocatedBytes[i] < 0) ? 0 : Math.max(0, allocatedBytes[i] - previous.allocatedBytes);
+
+                lastUsage.put(ids[i], new ThreadUsage(request.getStartTime(), cpuNanos[i], allocatedBytes[i]));
+                sampled.add(ids[i]);
+
+                profile.add(requestType(request), frames(infos[i].getStackTrace()), newRequest, wallNanos, cpu, allocated);
+            }
+
+            lastUsage.keySet().retainAll(sampled);
+
+            profile.samples++;
+            profile.samplingNanos += System.nanoTime() - start;
+        }
+    }
+
+
+    private long[] cpuTimes(long[] ids) {
+        if (hotspotThreads != null && hotspotThreads.isThreadCpuTimeSupported() && hotspotThreads.isThreadCpuTimeEnabled()) {
+            return hotspotThreads.getThreadCpuTime(ids);
+        }
+
+        long[] result = new long[ids.length];
+        Arrays.fill(result, -1);
+
+        if (threads.isThreadCpuTimeSupported() && threads.isThreadCpuTimeEnabled()) {
+            for (int i = 0; i < ids.length; i++) {
+                result[i] = threads.getThreadCpuTime(ids[i]);
+            }
+        }
+
+        return result;
+    }
+
+
+    private long[] allocatedBytes(long[] ids) {
+        if (hotspotThreads != null && hotspotThreads.isThreadAllocatedMemorySupported() && hotspotThreads.isThreadAllocatedMemoryEnabled()) {
+            return hotspotThreads.getThreadAllocatedBytes(ids);
+        }
+
+        long[] result = new long[ids.length];
+        Arrays.fill(result, -1);
+        return result;
+    }
+
+
+    // The method, the first part of the path and the webapp serving it.  IDs
+    // are left out so that requests for the same page land together.
+    private String requestType(ActiveRequest request) {
+        StringBuilder sb = new StringBuilder(request.getMethod()).append(" ");
+
+        String[] parts = (request.getUri() == null) ? new String[0] : request.getUri().split("/");
+        int kept = 0;
+
+        for (String part : parts) {
+            if (part.isEmpty()) {
+                continue;
+            }
+
+            if (kept == 2) {
+                sb.append("/...");
+                break;
+            }
+
+            sb.append("/").append(looksLikeAnId(part) ? "*" : part);
+            kept++;
+        }
+
+        if (request.getContext() != null) {
+            sb.append(" [").append(request.getContext()).append("]");
+        }
+
+        return sb.toString();
+    }
+
+
+    private boolean looksLikeAnId(String s) {
+        if (s.length() < 16) {
+            return false;
+        }
+
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.isDigit(s.charAt(i))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    // Outermost first, starting above the request filter
+    private List<String> frames(StackTraceElement[] stack) {
+        int bottom = stack.length - 1;
+
+        for (int i = stack.length - 1; i >= 0; i--) {
+            if (REQUEST_FILTER_FRAME.equals(stack[i].getClassName() + "." + stack[i].getMethodName())) {
+                bottom = i - 1;
+                break;
+            }
+        }
+
+        List<String> result = new ArrayList<String>(bottom + 1);
+        for (int i = bottom; i >= 0; i--) {
+            result.add(stack[i].getClassName() + "." + stack[i].getMethodName());
+        }
+
+        return result;
+    }
+
+
+    private void report() {
+        Profile finished;
+        String report;
+        String folded;
+
+        synchronized (this) {
+            finished = profile;
+            report = finished.report(HotReloadConfigurationService.getString("nyu.monitoring.profiler.report-top", "10"));
+            folded = finished.folded();
+            profile = new Profile();
+        }
+
+        LOG.info(report);
+
+        String reportDir = HotReloadConfigurationService.getString("nyu.monitoring.profiler.report-dir", "").trim();
+
+        if (!reportDir.isEmpty() && !folded.isEmpty()) {
+            File file = new File(reportDir, "request-profile-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(finished.startTime)) + ".folded");
+
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8")) {
+                out.write(folded);
+            } catch (Exception e) {
+                LOG.warn("Failed to write request profile to " + file + ": " + e);
+            }
+        }
+    }
+
+
+    public synchronized long getWindowStartTime() {
+        return profile.startTime;
+    }
+
+    public synchronized long getSamples() {
+        return profile.samples;
+    }
+
+    public synchronized long getSamplingTimeMillis() {
+        return profile.samplingNanos / 1000000;
+    }
+
+    public synchronized String getReport() {
+        return profile.report(HotReloadConfigurationService.getString("nyu.monitoring.profiler.report-top", "10"));
+    }
+
+    public synchronized String getFoldedStacks() {
+        return profile.folded();
+    }
+
+    public synchronized void reset() {
+        profile = new Profile();
+    }
+
+
+    private static class ThreadUsage {
+        private final long startTime;
+        private final long cpuNanos;
+        private final long allocatedBytes;
+
+        public ThreadUsage(long startTime, long cpuNanos, long allocatedBytes) {
+            this.startTime = startTime;
+            this.cpuNanos = cpuNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+
+
+    // A frame in a call tree, with totals for everything sampled in it or below it.
+    private static class Node {
+        private final Map<String, Node> children = new HashMap<String, Node>();
+        private long samples;
+        private long wallNanos;
+        private long cpuNanos;
+        private long allocatedBytes;
+
+        public void add(long wall, long cpu, long allocated) {
+            samples++;
+            wallNanos += wall;
+            cpuNanos += cpu;
+            allocatedBytes += allocated;
+        }
+
+        public Node child(String frame) {
+            Node child = children.get(frame);
+            if (child == null) {
+                child = new Node();
+                children.put(frame, child);
+            }
+            return child;
+        }
+
+        public long selfSamples() {
+            long result = samples;
+            for (Node child : children.values()) {
+                result -= child.samples;
+            }
+            return result;
+        }
+    }
+
+
+    private static class Profile {
+        private final long startTime = System.currentTimeMillis();
+        private final Map<String, Node> requestTypes = new HashMap<String, Node>();
+        private final Map<String, Long> requestCounts = new HashMap<String, Long>();
+        private long samples;
+        private long samplingNanos;
+
+        public void add(String requestType, List<String> frames, boolean newRequest, long wall, long cpu, long allocated) {
+            if (!requestTypes.containsKey(requestType) && requestTypes.size() >= MAX_REQUEST_TYPES) {
+                requestType = OTHER_REQUESTS;
+            }
+
+            Node node = requestTypes.get(requestType);
+            if (node == null) {
+                node = new Node();
+                requestTypes.put(requestType, node);
+            }
+
+            if (newRequest) {
+                Long count = requestCounts.get(requestType);
+                requestCounts.put(requestType, (count == null) ? 1 : count + 1);
+            }
+
+            node.add(wall, cpu, allocated);
+            for (String frame : frames) {
+                node = node.child(frame);
+                node.add(wall, cpu, allocated);
+            }
+        }
+
+        public String report(String top) {
+            List<Map.Entry<String, Node>> busiest = new ArrayList<Map.Entry<String, Node>>(requestTypes.entrySet());
+            Collections.sort(busiest, (a, b) -> Long.compare(b.getValue().wallNanos, a.getValue().wallNanos));
+
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("Request profile since %s: %d samples taking %d ms, %d request types",
+                                    new Date(startTime), samples, samplingNanos / 1000000, requestTypes.size()));
+
+            for (Map.Entry<String, Node> entry : busiest.subList(0, Math.min(busiest.size(), Integer.valueOf(top)))) {
+                Node root = entry.getValue();
+                Long requests = requestCounts.get(entry.getKey());
+
+                sb.append(String.format("\n  %s: %d requests seen, %d ms wall, %d ms CPU, %d KB allocated",
+                                        entry.getKey(),
+                                        (requests == null) ? 0 : requests,
+                                        root.wallNanos / 1000000,
+                                        root.cpuNanos / 1000000,
+                                        root.allocatedBytes / 1024));
+
+                // Where the samples stopped, which is where the time went
+                Map<String, Long> hottest = new HashMap<String, Long>();
+                selfSamplesByFrame(null, root, hottest);
+
+                List<Map.Entry<String, Long>> frames = new ArrayList<Map.Entry<String, Long>>(hottest.entrySet());
+                Collections.sort(frames, (a, b) -> Long.compare(b.getValue(), a.getValue()));
+
+                for (Map.Entry<String, Long> frame : frames.subList(0, Math.min(frames.size(), 5))) {
+                    sb.append(String.format("\n      %3d%% %s", (100 * frame.getValue()) / root.samples, frame.getKey()));
+                }
+            }
+
+            return sb.toString();
+        }
+
+        private void selfSamplesByFrame(String frame, Node node, Map<String, Long> result) {
+            long self = node.selfSamples();
+            if (frame != null && self > 0) {
+                Long count = result.get(frame);
+                result.put(frame, (count == null) ? self : count + self);
+            }
+
+            for (Map.Entry<String, Node> child : node.children.entrySet()) {
+                selfSamplesByFrame(child.getKey(), child.getValue(), result);
+            }
+        }
+
+        public String folded() {
+            StringBuilder sb = new StringBuilder();
+
+            for (Map.Entry<String, Node> entry : requestTypes.entrySet()) {
+                fold(entry.getKey().replace(';', ':'), entry.getValue(), sb);
+            }
+
+            return sb.toString();
+        }
+
+        private void fold(String path, Node node, StringBuilder sb) {
+            long self = node.selfSamples();
+            if (self > 0) {
+                sb.append(path).append(" ").append(self).append("\n");
+            }
+
+            for (Map.Entry<String, Node> child : node.children.entrySet()) {
+                fold(path + ";" + child.getKey(), child.getValue(), sb);
+            }
+        }
+    }
+}
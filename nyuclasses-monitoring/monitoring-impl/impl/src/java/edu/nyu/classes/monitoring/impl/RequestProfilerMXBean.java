@@ -0,0 +1,30 @@
+package edu.nyu.classes.monitoring.impl;
+
+/**
+ * What the request profiler publishes over JMX.  Everything covers the current
+ * report window, which starts again each time a report is logged.
+ */
+public interface RequestProfilerMXBean {
+
+    /** When the current window started (ms since the epoch). */
+    long getWindowStartTime();
+
+    /** How many times the request threads have been sampled. */
+    long getSamples();
+
+    /** Time spent taking and recording those samples (ms). */
+    long getSamplingTimeMillis();
+
+    /** The same summary that gets logged at the end of the window. */
+    String getReport();
+
+    /**
+     * Call trees for every request type in the folded format flame graph
+     * tools read: one line per stack, frames separated by ';', then a sample
+     * count.
+     */
+    String getFoldedStacks();
+
+    /** Throw away the current window and start a new one. */
+    void reset();
+}
@@ -1,5 +1,7 @@
 package edu.nyu.classes.nyugrades.api;
 
+import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 import java.util.Collection;
 
@@ -14,4 +16,17 @@ public interface NYUGradesService
 
     public GradeSet getGradesForSection(String sectionEid)
         throws SiteNotFoundForSectionException, MultipleSitesFoundForSectionException, GradePullDisabledException, AuditLogException;
+
+    // Pull the grades for many sections at once.  Each section's GradeSet (or
+    // the exception getGradesForSection would have thrown for it) is passed to
+    // the handler as soon as it's ready, in the order the sections were given.
+    public void getGradesForSections(List<String> sectionEids, SectionGradesHandler handler)
+        throws AuditLogException, IOException;
+
+    public interface SectionGradesHandler
+    {
+        public void grades(String sectionEid, GradeSet grades) throws IOException;
+
+        public void failed(String sectionEid, Exception reason) throws IOException;
+    }
 }
@@ -9,6 +9,7 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
 import org.sakaiproject.component.cover.ComponentManager;
@@ -69,15 +70,21 @@ public class DBServiceImpl implements DBService
 
                 ps = connection.prepareStatement(AUDIT_INSERT);
 
+                // Send the whole section in one round trip rather than one per
+                // student.
                 for (Grade grade : grades) {
                     ps.setLong(1, now);
                     ps.setString(2, grade.netId);
                     ps.setString(3, grade.emplId);
                     ps.setString(4, grade.gradeletter);
 
-                    int insertedCount = ps.executeUpdate();
+                    ps.addBatch();
+                }
 
-                    if (insertedCount != 1) {
+                for (int insertedCount : ps.executeBatch()) {
+                    // Some drivers (Oracle's included) report batched inserts
+                    // as SUCCESS_NO_INFO instead of giving a count.
+                    if (insertedCount != 1 && insertedCount != Statement.SUCCESS_NO_INFO) {
                         throw new AuditLogException("Failure writing to audit log");
                     }
                 }
@@ -3,9 +3,13 @@ package edu.nyu.classes.nyugrades.impl;
 import edu.nyu.classes.nyugrades.api.DBService;
 import edu.nyu.classes.nyugrades.api.Grade;
 import edu.nyu.classes.nyugrades.api.NYUGradesService;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -53,6 +57,17 @@ public class NYUGradesServiceImpl implements NYUGradesService
     private int MAX_NETID_LOOKUPS = 200;
 
 
+    // getGradesForSections works through its sections in batches of this size,
+    // resolving each batch's sites, published flags and student lists with one
+    // query apiece (plus the Net ID lookups above).
+    private int MAX_SECTION_LOOKUPS = 200;
+
+
+    // Only the Hibernate course management implementation stores sections
+    // here, but that's the one we run.
+    private static final String SECTION_DISCRIMINATOR = "org.sakaiproject.coursemanagement.impl.SectionCmImpl";
+
+
     public void init()
     {
         db = (DBService) ComponentManager.get("edu.nyu.classes.nyugrades.api.DBService");
@@ -62,6 +77,46 @@ public class NYUGradesServiceImpl implements NYUGradesService
     }
 
 
+    public void setDb(DBService db)
+    {
+        this.db = db;
+    }
+
+
+    public void setSiteService(SiteService siteService)
+    {
+        this.siteService = siteService;
+    }
+
+
+    public void setGradebookService(GradebookService gradebookService)
+    {
+        this.gradebookService = gradebookService;
+    }
+
+
+    public void setCourseManagementService(CourseManagementService courseManagementService)
+    {
+        this.courseManagementService = courseManagementService;
+    }
+
+
+    private String placeholders(int count)
+    {
+        StringBuilder result = new StringBuilder();
+
+        for (int i = 0; i < count; i++) {
+            if (result.length() > 0) {
+                result.append(", ");
+            }
+
+            result.append("?");
+        }
+
+        return result.toString();
+    }
+
+
     // Provider lists are strings containing realm names separated by '+' characters.
     private List<String> buildProviderLikeClauses(String section)
     {
@@ -80,7 +135,19 @@ public class NYUGradesServiceImpl implements NYUGradesService
 
     private String buildSQLForSection(String sectionEid, List<String> likeClauses)
     {
-        likeClauses.addAll(buildProviderLikeClauses(sectionEid));
+        return ("SELECT realm_id FROM sakai_realm where realm_key in (" +
+                "  SELECT realm_key FROM sakai_realm_provider WHERE " +
+                buildProviderWhereClause(Collections.singletonList(sectionEid), likeClauses) +
+                ")");
+    }
+
+
+    // Matches the provider lists containing any of the sections.
+    private String buildProviderWhereClause(List<String> sectionEids, List<String> likeClauses)
+    {
+        for (String sectionEid : sectionEids) {
+            likeClauses.addAll(buildProviderLikeClauses(sectionEid));
+        }
 
         StringBuilder whereClause = new StringBuilder();
 
@@ -96,9 +163,7 @@ public class NYUGradesServiceImpl implements NYUGradesService
             }
         }
 
-        return ("SELECT realm_id FROM sakai_realm where realm_key in (" +
-                "  SELECT realm_key FROM sakai_realm_provider WHERE " + whereClause.toString() +
-                ")");
+        return whereClause.toString();
     }
 
 
@@ -237,7 +302,174 @@ public class NYUGradesServiceImpl implements NYUGradesService
     }
 
 
-    private Map<String, String> buildNetIdMap(Set<String> netIdSet) {
+    public void getGradesForSections(List<String> sectionEids, SectionGradesHandler handler)
+        throws AuditLogException, IOException
+    {
+        List<String> sections = new ArrayList<String>(new LinkedHashSet<String>(sectionEids));
+
+        for (int offset = 0; offset < sections.size(); offset += MAX_SECTION_LOOKUPS) {
+            List<String> batch = sections.subList(offset, Math.min(sections.size(), offset + MAX_SECTION_LOOKUPS));
+
+            Map<String, Exception> failures = new HashMap<String, Exception>();
+            Map<String, String> sectionSites = findSitesForSections(batch, failures);
+            Set<String> publishedSites = findPublishedSites(new HashSet<String>(sectionSites.values()));
+            Map<String, Set<String>> sectionStudents = findSectionStudents(batch);
+
+            Map<String, Map<String, String>> siteGrades = new HashMap<String, Map<String, String>>();
+            Map<String, Map<String, String>> sectionGrades = new HashMap<String, Map<String, String>>();
+            Set<String> netIds = new HashSet<String>();
+
+            for (String sectionEid : batch) {
+                if (failures.containsKey(sectionEid)) {
+                    continue;
+                }
+
+                String siteId = sectionSites.get(sectionEid);
+
+                if (!publishedSites.contains(siteId)) {
+                    failures.put(sectionEid, new SiteNotFoundForSectionException(sectionEid));
+                    continue;
+                }
+
+                try {
+                    // Several sections often share a site, but the gradebook
+                    // only needs to calculate its course grades once.
+                    if (!siteGrades.containsKey(siteId)) {
+                        siteGrades.put(siteId, (Map<String, String>) gradebookService.getImportCourseGrade(siteId, false));
+                    }
+                } catch (RuntimeException e) {
+                    LOG.error("Failed to get course grades for site " + siteId, e);
+                    failures.put(sectionEid, e);
+                    continue;
+                }
+
+                Map<String, String> grades = new HashMap<String, String>(siteGrades.get(siteId));
+                Set<String> students = sectionStudents.get(sectionEid);
+                grades.keySet().retainAll((students == null) ? Collections.<String>emptySet() : students);
+
+                sectionGrades.put(sectionEid, grades);
+                netIds.addAll(grades.keySet());
+            }
+
+            Map<String, String> netIdToEmpId = buildNetIdMap(netIds);
+
+            for (String sectionEid : batch) {
+                if (failures.containsKey(sectionEid)) {
+                    handler.failed(sectionEid, failures.get(sectionEid));
+                } else {
+                    GradeSet result = resolveNetIds(sectionGrades.get(sectionEid), netIdToEmpId);
+
+                    db.writeAuditLog(result);
+
+                    handler.grades(sectionEid, result);
+                }
+            }
+        }
+    }
+
+
+    // Map each section to its site, matching provider lists the way getSiteId
+    // does but for the whole batch in one query.  A section appearing in more
+    // than one site (on its own or as part of a combined "A+B" provider list)
+    // or in none is recorded in failures.
+    private Map<String, String> findSitesForSections(List<String> sectionEids, Map<String, Exception> failures)
+    {
+        Map<String, String> result = new HashMap<String, String>();
+
+        List<String> likeClauses = new ArrayList<String>();
+        List<Object[]> rows = db.executeQuery("SELECT srp.provider_id, sr.realm_id" +
+                                              " FROM sakai_realm_provider srp" +
+                                              " INNER JOIN sakai_realm sr ON sr.realm_key = srp.realm_key" +
+                                              " WHERE " + buildProviderWhereClause(sectionEids, likeClauses),
+                                              likeClauses.toArray(new Object[0]));
+
+        Set<String> wanted = new HashSet<String>(sectionEids);
+
+        for (Object[] row : rows) {
+            Matcher m = realmRegexp.matcher((String)row[1]);
+
+            // As with getSiteId, group realms don't count.
+            if (!m.matches()) {
+                continue;
+            }
+
+            String siteId = m.group(1);
+
+            for (String sectionEid : ((String)row[0]).split("\\+")) {
+                if (!wanted.contains(sectionEid) || failures.containsKey(sectionEid)) {
+                    continue;
+                }
+
+                if (result.containsKey(sectionEid) && !result.get(sectionEid).equals(siteId)) {
+                    result.remove(sectionEid);
+                    failures.put(sectionEid, new MultipleSitesFoundForSectionException(sectionEid));
+                } else {
+                    result.put(sectionEid, siteId);
+                }
+            }
+        }
+
+        for (String sectionEid : sectionEids) {
+            if (!result.containsKey(sectionEid) && !failures.containsKey(sectionEid)) {
+                failures.put(sectionEid, new SiteNotFoundForSectionException(sectionEid));
+            }
+        }
+
+        return result;
+    }
+
+
+    private Set<String> findPublishedSites(Set<String> siteIds)
+    {
+        Set<String> result = new HashSet<String>();
+
+        if (siteIds.isEmpty()) {
+            return result;
+        }
+
+        List<Object[]> rows = db.executeQuery("SELECT site_id FROM sakai_site" +
+                                              " WHERE published = 1 AND site_id in (" + placeholders(siteIds.size()) + ")",
+                                              siteIds.toArray(new Object[0]));
+
+        for (Object[] row : rows) {
+            result.add((String)row[0]);
+        }
+
+        return result;
+    }
+
+
+    // The same students filterSingleSection would keep, for all sections at once.
+    private Map<String, Set<String>> findSectionStudents(List<String> sectionEids)
+    {
+        Map<String, Set<String>> result = new HashMap<String, Set<String>>();
+
+        List<Object> params = new ArrayList<Object>();
+        params.add(SECTION_DISCRIMINATOR);
+        params.addAll(sectionEids);
+
+        List<Object[]> rows = db.executeQuery("SELECT mc.enterprise_id, m.user_id" +
+                                              " FROM cm_membership_t m" +
+                                              " INNER JOIN cm_member_container_t mc ON mc.member_container_id = m.member_container_id" +
+                                              " WHERE m.role = 'S' AND mc.class_discr = ?" +
+                                              " AND mc.enterprise_id in (" + placeholders(sectionEids.size()) + ")",
+                                              params.toArray());
+
+        for (Object[] row : rows) {
+            String sectionEid = (String)row[0];
+
+            if (!result.containsKey(sectionEid)) {
+                result.put(sectionEid, new HashSet<String>());
+            }
+
+            result.get(sectionEid).add((String)row[1]);
+        }
+
+        return result;
+    }
+
+
+    private Map<String, String> buildNetIdMap(Collection<String> netIdSet) {
         Map<String, String> result = new HashMap<String, String>();
 
         List<String> netIds = new ArrayList<String>();
@@ -248,15 +480,6 @@ public class NYUGradesServiceImpl implements NYUGradesService
 
             List<String> subList = netIds.subList(offset, upper);
 
-            StringBuilder placeholders = new StringBuilder();
-            for (String netId : subList) {
-                if (placeholders.length() > 0) {
-                    placeholders.append(", ");
-                }
-
-                placeholders.append("?");
-            }
-
             // NYU_T_STUDENT_ENROLLMENTS has one row per section for each user,
             // but their emplid will be the same in each.  Use MIN just to
             // choose arbitrarily.
@@ -264,7 +487,7 @@ public class NYUGradesServiceImpl implements NYUGradesService
                                        " FROM nyu_t_student_enrollments" +
                                        " WHERE netid in (%s)" +
                                        " GROUP BY netid",
-                                       placeholders.toString());
+                                       placeholders(subList.size()));
 
             List<Object[]> rows = db.executeQuery(sql , subList.toArray(new Object[0]));
 
@@ -282,7 +505,12 @@ public class NYUGradesServiceImpl implements NYUGradesService
 
     public GradeSet resolveNetIds(Map<String, String> grades)
     {
-        Map<String, String> netIdToEmpId = buildNetIdMap((Set<String>)grades.keySet());
+        return resolveNetIds(grades, buildNetIdMap((Set<String>)grades.keySet()));
+    }
+
+
+    private GradeSet resolveNetIds(Map<String, String> grades, Map<String, String> netIdToEmpId)
+    {
         List<Grade> gradeList = new ArrayList<Grade>();
 
         // getImportCourseGrade returns a Map<String, String> even though it doesn't use generics.
@@ -0,0 +1,386 @@
+package edu.nyu.classes.nyugrades.impl;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import edu.nyu.classes.nyugrades.api.AuditLogException;
+import edu.nyu.classes.nyugrades.api.DBService;
+import edu.nyu.classes.nyugrades.api.Grade;
+import edu.nyu.classes.nyugrades.api.GradeSet;
+import edu.nyu.classes.nyugrades.api.NYUGradesService;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.sakaiproject.coursemanagement.api.CourseManagementService;
+import org.sakaiproject.coursemanagement.api.Membership;
+import org.sakaiproject.exception.IdUnusedException;
+import org.sakaiproject.service.gradebook.shared.GradebookService;
+import org.sakaiproject.site.api.Site;
+import org.sakaiproject.site.api.SiteService;
+
+
+// Compares pulling a term's worth of sections one at a time with
+// getGradesForSections, against an in-memory HSQL copy of the tables both
+// read.  Run with:
+//
+//   mvn test -Dtest=NYUGradesServiceTestPerf
+//
+public class NYUGradesServiceTestPerf
+{
+    private static final Log LOG = LogFactory.getLog(NYUGradesServiceTestPerf.class);
+
+    // HSQL 1.8 doesn't use indexes for IN lists, so both paths slow down
+    // faster than they would against Oracle or MySQL as this grows.  The
+    // query counts are the figures that carry over.
+    private static final int SITES = 100;
+    private static final int SECTIONS_PER_SITE = 2;
+    private static final int STUDENTS_PER_SECTION = 40;
+
+    private Connection connection;
+    private CountingDBService db;
+    private NYUGradesServiceImpl service;
+    private List<String> sectionEids;
+
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Class.forName("org.hsqldb.jdbcDriver");
+        connection = DriverManager.getConnection("jdbc:hsqldb:mem:nyugrades", "sa", "");
+
+        update("CREATE TABLE sakai_realm (realm_key INTEGER, realm_id VARCHAR(255))");
+        update("CREATE TABLE sakai_realm_provider (realm_key INTEGER, provider_id VARCHAR(200))");
+        update("CREATE TABLE sakai_site (site_id VARCHAR(99), published INTEGER)");
+        update("CREATE TABLE cm_member_container_t (member_container_id INTEGER, class_discr VARCHAR(100), enterprise_id VARCHAR(100))");
+        update("CREATE TABLE cm_membership_t (member_id INTEGER, user_id VARCHAR(99), role VARCHAR(255), member_container_id INTEGER)");
+        update("CREATE TABLE nyu_t_student_enrollments (netid VARCHAR(100), emplid VARCHAR(100))");
+        update("CREATE INDEX sakai_realm_provider_idx ON sakai_realm_provider (provider_id)");
+        update("CREATE INDEX cm_member_container_idx ON cm_member_container_t (enterprise_id)");
+        update("CREATE INDEX cm_membership_idx ON cm_membership_t (member_container_id)");
+        update("CREATE INDEX nyu_t_student_enrollments_idx ON nyu_t_student_enrollments (netid)");
+
+        sectionEids = new ArrayList<String>();
+        final Map<String, Map<String, String>> gradebooks = new HashMap<String, Map<String, String>>();
+        int key = 0;
+        int member = 0;
+
+        for (int site = 0; site < SITES; site++) {
+            String siteId = "site-" + site;
+            Map<String, String> gradebook = new HashMap<String, String>();
+
+            // One unpublished site, to check both paths turn it away
+            update("INSERT INTO sakai_site VALUES (?, ?)", siteId, (site == 1) ? 0 : 1);
+            update("INSERT INTO sakai_realm VALUES (?, ?)", ++key, "/site/" + siteId);
+            int siteRealm = key;
+            update("INSERT INTO sakai_realm VALUES (?, ?)", ++key, "/site/" + siteId + "/group/g1");
+            int groupRealm = key;
+
+            for (int section = 0; section < SECTIONS_PER_SITE; section++) {
+                String sectionEid = "SEC-" + site + "-" + section;
+                sectionEids.add(sectionEid);
+
+                update("INSERT INTO sakai_realm_provider VALUES (?, ?)", siteRealm, sectionEid);
+                update("INSERT INTO sakai_realm_provider VALUES (?, ?)", groupRealm, sectionEid);
+                update("INSERT INTO cm_member_container_t VALUES (?, ?, ?)",
+                       ++key, "org.sakaiproject.coursemanagement.impl.SectionCmImpl", sectionEid);
+                int container = key;
+
+                String instructor = "inst-" + site + "-" + section;
+                update("INSERT INTO cm_membership_t VALUES (?, ?, ?, ?)", ++member, instructor, "I", container);
+                gradebook.put(instructor, "A");
+
+                for (int student = 0; student < STUDENTS_PER_SECTION; student++) {
+                    String netId = "st" + site + "x" + section + "x" + student;
+                    update("INSERT INTO cm_membership_t VALUES (?, ?, ?, ?)", ++member, netId, "S", container);
+
+                    // One student per section without an Empl ID
+                    if (student > 0) {
+                        update("INSERT INTO nyu_t_student_enrollments VALUES (?, ?)", netId, "N" + member);
+                    }
+
+                    gradebook.put(netId, (student % 2 == 0) ? "B+" : "A-");
+                }
+            }
+
+            gradebooks.put(siteId, gradebook);
+        }
+
+        // A combined provider list puts SEC-4-0 in a second site
+        update("INSERT INTO sakai_realm_provider VALUES (?, ?)", 1, "SEC-OTHER+SEC-4-0");
+
+        sectionEids.add("SEC-UNKNOWN");
+
+        db = new CountingDBService();
+
+        // The services the single section path uses read the same tables,
+        // so it pays for its queries just as it would against the real ones.
+        SiteService siteService = mock(SiteService.class);
+        when(siteService.getSite(anyString())).thenAnswer(new Answer<Site>() {
+            public Site answer(InvocationOnMock invocation) throws Throwable {
+                String siteId = (String) invocation.getArguments()[0];
+                List<Object[]> rows = db.executeQuery("SELECT published FROM sakai_site WHERE site_id = ?", siteId);
+
+                if (rows.isEmpty()) {
+                    throw new IdUnusedException(siteId);
+                }
+
+                Site site = mock(Site.class);
+                when(site.isPublished()).thenReturn(((Number) rows.get(0)[0]).intValue() == 1);
+                return site;
+            }
+        });
+
+        CourseManagementService courseManagementService = mock(CourseManagementService.class);
+        when(courseManagementService.getSectionMemberships(anyString())).thenAnswer(new Answer<Set<Membership>>() {
+            public Set<Membership> answer(InvocationOnMock invocation) throws Throwable {
+                Set<Membership> result = new HashSet<Membership>();
+
+                for (Object[] row : db.executeQuery("SELECT m.user_id, m.role FROM cm_membership_t m" +
+                                                    " INNER JOIN cm_member_container_t mc ON mc.member_container_id = m.member_container_id" +
+                                                    " WHERE mc.enterprise_id = ?",
+                                                    invocation.getArguments()[0])) {
+                    result.add(new TestMembership((String) row[0], (String) row[1]));
+                }
+
+                return result;
+            }
+        });
+
+        GradebookService gradebookService = mock(GradebookService.class);
+        when(gradebookService.getImportCourseGrade(anyString(), eq(false))).thenAnswer(new Answer<Map<String, String>>() {
+            public Map<String, String> answer(InvocationOnMock invocation) throws Throwable {
+                return new HashMap<String, String>(gradebooks.get(invocation.getArguments()[0]));
+            }
+        });
+
+        service = new NYUGradesServiceImpl();
+        service.setDb(db);
+        service.setSiteService(siteService);
+        service.setCourseManagementService(courseManagementService);
+        service.setGradebookService(gradebookService);
+    }
+
+
+    @After
+    public void tearDown() throws Exception
+    {
+        update("SHUTDOWN");
+        connection.close();
+    }
+
+
+    @Test
+    public void testGradesForSections() throws Exception
+    {
+        // Warm up both paths
+        pullOneAtATime(sectionEids.subList(0, 20));
+        pullTogether(sectionEids.subList(0, 20));
+
+        db.reset();
+        long start = System.currentTimeMillis();
+        Map<String, Map<String, String>> oneAtATime = pullOneAtATime(sectionEids);
+        long oneAtATimeTime = System.currentTimeMillis() - start;
+        int oneAtATimeQueries = db.queries;
+
+        db.reset();
+        start = System.currentTimeMillis();
+        Map<String, Map<String, String>> together = pullTogether(sectionEids);
+        long togetherTime = System.currentTimeMillis() - start;
+        int togetherQueries = db.queries;
+
+        LOG.info("Grades for " + sectionEids.size() + " sections of " + STUDENTS_PER_SECTION + " students: " +
+                 oneAtATimeTime + " ms and " + oneAtATimeQueries + " queries one at a time, " +
+                 togetherTime + " ms and " + togetherQueries + " queries together");
+
+        Assert.assertEquals(oneAtATime, together);
+        Assert.assertEquals(sectionEids.size() - SECTIONS_PER_SITE - 2, db.auditedSections);
+        Assert.assertTrue(together.get("SEC-UNKNOWN").containsKey("SiteNotFoundForSectionException"));
+        Assert.assertTrue(together.get("SEC-4-0").containsKey("MultipleSitesFoundForSectionException"));
+        Assert.assertTrue(together.get("SEC-1-0").containsKey("SiteNotFoundForSectionException"));
+        Assert.assertEquals(STUDENTS_PER_SECTION, together.get("SEC-0-0").size());
+        Assert.assertEquals("N000000000|B+", together.get("SEC-0-0").get("st0x0x0"));
+        Assert.assertTrue(togetherQueries < oneAtATimeQueries / 10);
+    }
+
+
+    // Grades by section and Net ID, recorded as "emplid|gradeletter".  A
+    // section that failed has the exception's class name in place of its
+    // grades.
+    private Map<String, Map<String, String>> pullOneAtATime(List<String> sections) throws Exception
+    {
+        Map<String, Map<String, String>> result = new LinkedHashMap<String, Map<String, String>>();
+
+        for (String sectionEid : sections) {
+            try {
+                result.put(sectionEid, gradesToMap(service.getGradesForSection(sectionEid)));
+            } catch (AuditLogException e) {
+                throw e;
+            } catch (Exception e) {
+                result.put(sectionEid, failureToMap(e));
+            }
+        }
+
+        return result;
+    }
+
+
+    private Map<String, Map<String, String>> pullTogether(List<String> sections) throws Exception
+    {
+        final Map<String, Map<String, String>> result = new LinkedHashMap<String, Map<String, String>>();
+
+        service.getGradesForSections(sections, new NYUGradesService.SectionGradesHandler() {
+            public void grades(String sectionEid, GradeSet grades) {
+                result.put(sectionEid, gradesToMap(grades));
+            }
+
+            public void failed(String sectionEid, Exception reason) {
+                result.put(sectionEid, failureToMap(reason));
+            }
+        });
+
+        return result;
+    }
+
+
+    private Map<String, String> gradesToMap(GradeSet grades)
+    {
+        Map<String, String> result = new TreeMap<String, String>();
+
+        for (Grade grade : grades) {
+            result.put(grade.netId, grade.emplId + "|" + grade.gradeletter);
+        }
+
+        return result;
+    }
+
+
+    private Map<String, String> failureToMap(Exception e)
+    {
+        Map<String, String> result = new TreeMap<String, String>();
+        result.put(e.getClass().getSimpleName(), e.getMessage());
+        return result;
+    }
+
+
+    private void update(String sql, Object... args) throws SQLException
+    {
+        PreparedStatement ps = connection.prepareStatement(sql);
+        try {
+            for (int i = 0; i < args.length; i++) {
+                ps.setObject(i + 1, args[i]);
+            }
+
+            ps.executeUpdate();
+        } finally {
+            ps.close();
+        }
+    }
+
+
+    private class CountingDBService implements DBService
+    {
+        private int queries = 0;
+        private int auditedSections = 0;
+
+        public void reset()
+        {
+            queries = 0;
+            auditedSections = 0;
+        }
+
+        public boolean isOracle()
+        {
+            return false;
+        }
+
+        public int executeUpdate(String sql, Object... args)
+        {
+            try {
+                queries++;
+                update(sql, args);
+                return 1;
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        public List<Object[]> executeQuery(String sql, Object... args)
+        {
+            queries++;
+
+            try {
+                PreparedStatement ps = connection.prepareStatement(sql);
+                try {
+                    for (int i = 0; i < args.length; i++) {
+                        ps.setObject(i + 1, args[i]);
+                    }
+
+                    List<Object[]> result = new ArrayList<Object[]>();
+                    ResultSet rs = ps.executeQuery();
+
+                    while (rs.next()) {
+                        Object[] row = new Object[rs.getMetaData().getColumnCount()];
+                        for (int i = 0; i < row.length; i++) {
+                            row[i] = rs.getObject(i + 1);
+                        }
+
+                        result.add(row);
+                    }
+
+                    rs.close();
+                    return result;
+                } finally {
+                    ps.close();
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        // Both paths write one audit batch per section, so these are counted
+        // separately from the queries.
+        public void writeAuditLog(GradeSet grades) throws AuditLogException
+        {
+            auditedSections++;
+        }
+    }
+
+
+    private static class TestMembership implements Membership
+    {
+        private String userId;
+        private String role;
+
+        public TestMembership(String userId, String role)
+        {
+            this.userId = userId;
+            this.role = role;
+        }
+
+        public String getUserId() { return userId; }
+        public String getRole() { return role; }
+        public String getAuthority() { return null; }
+        public String getStatus() { return null; }
+        public void setStatus(String status) {}
+    }
+}
@@ -29,8 +29,10 @@ import java.io.IOException;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Locale;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -140,6 +142,9 @@ public class NYUGradesWS extends HttpServlet
                     response.setStatus(HttpServletResponse.SC_OK);
                     response.setHeader("Content-Type", "text/xml");
                     respondWithTemplate("logout_response", new String[] { "STATUS", StringEscapeUtils.escapeXml(status) });
+                } else if (action.startsWith("getGradesForSections")) {
+                    respondWithSectionGrades(soapRequest.get("sessionId"),
+                            parseSectionEids(soapRequest.get("sectionEids")));
                 } else if (action.startsWith("getGradesForSite")) {
                     GradeSet grades = getGradesForSite(soapRequest.get("sessionId"),
                             soapRequest.get("courseId"),
@@ -156,7 +161,12 @@ public class NYUGradesWS extends HttpServlet
                 e.printStackTrace();
 
                 try {
-                    response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                    // If we were part way through streaming a response, the
+                    // client gets a document it can't parse rather than a
+                    // partial one that looks complete.
+                    if (!response.isCommitted()) {
+                        response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                    }
                     respondWithTemplate("error_response", new String[] { "ERROR_MESSAGE", StringEscapeUtils.escapeXml(e.getMessage()) });
                 } catch (Exception e2) {
                     LOG.error("Additionally, failed to write an error response with exception: " + e2);
@@ -176,10 +186,16 @@ public class NYUGradesWS extends HttpServlet
         }
 
         private void respondWithGrades(GradeSet grades) throws Exception {
+            String result = fillTemplate("grades_response", new String[] {});
+
+            respondWithString(result.replace("{{LIST_OF_GRADES}}", gradesToXml(grades, loadTemplate("single_grade"))));
+        }
+
+        private String gradesToXml(GradeSet grades, String gradeTemplate) throws Exception {
             StringBuilder gradeString = new StringBuilder();
 
             for (Grade g : grades) {
-                gradeString.append(fillTemplate("single_grade", new String[] {
+                gradeString.append(fillString(gradeTemplate, new String[] {
                             "NETID", StringEscapeUtils.escapeXml(g.netId),
                             "NETID_TYPE", soapTypeFor(g.netId),
                             "EMPLID", StringEscapeUtils.escapeXml(g.emplId),
@@ -189,9 +205,93 @@ public class NYUGradesWS extends HttpServlet
                         }));
             }
 
-            String result = fillTemplate("grades_response", new String[] {});
+            return gradeString.toString();
+        }
+
+        // Write each section's grades as soon as they've been pulled, so a
+        // large request doesn't have to hold every section's grades in memory
+        // (or keep the client waiting for the first byte).
+        private void respondWithSectionGrades(String sessionId, List<String> sectionEids) throws Exception {
+            checkSession(sessionId);
+
+            String[] envelope = fillTemplate("sections_response", new String[] {}).split("\\{\\{LIST_OF_SECTIONS\\}\\}", 2);
+            final String sectionTemplate = loadTemplate("section_grades");
+            final String gradeTemplate = loadTemplate("single_grade");
+
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setHeader("Content-Type", "text/xml");
+            respondWithString(envelope[0]);
+
+            Session sakaiSession = startAdminSession();
+            try {
+                nyuGrades.getGradesForSections(sectionEids, new NYUGradesService.SectionGradesHandler() {
+                    public void grades(String sectionEid, GradeSet grades) throws IOException {
+                        try {
+                            respondWithString(fillString(sectionTemplate, new String[] {
+                                        "SECTION_EID", StringEscapeUtils.escapeXml(sectionEid),
+                                        "ERROR_MESSAGE", null,
+                                        "ERROR_MESSAGE_TYPE", soapTypeFor(null),
+                                        "LIST_OF_GRADES", gradesToXml(grades, gradeTemplate)
+                                    }));
+                            response.flushBuffer();
+                        } catch (IOException e) {
+                            throw e;
+                        } catch (Exception e) {
+                            throw new IOException(e);
+                        }
+                    }
+
+                    public void failed(String sectionEid, Exception reason) throws IOException {
+                        String message = failureMessage(sectionEid, reason);
+
+                        try {
+                            respondWithString(fillString(sectionTemplate, new String[] {
+                                        "SECTION_EID", StringEscapeUtils.escapeXml(sectionEid),
+                                        "ERROR_MESSAGE", StringEscapeUtils.escapeXml(message),
+                                        "ERROR_MESSAGE_TYPE", soapTypeFor(message),
+                                        "LIST_OF_GRADES", null
+                                    }));
+                        } catch (IOException e) {
+                            throw e;
+                        } catch (Exception e) {
+                            throw new IOException(e);
+                        }
+                    }
+                });
+            } finally {
+                sakaiSession.invalidate();
+            }
+
+            respondWithString(envelope[1]);
+        }
+
+        private String failureMessage(String sectionEid, Exception reason) {
+            if (reason instanceof SiteNotFoundForSectionException) {
+                return String.format("Failed to find site for section: %s", sectionEid);
+            } else if (reason instanceof MultipleSitesFoundForSectionException) {
+                return String.format("Multiple sites found for section: %s", sectionEid);
+            } else if (reason instanceof GradePullDisabledException) {
+                return String.format("Grade pull is currently disabled for section: %s", sectionEid);
+            } else {
+                return String.format("Failed to get grades for section: %s: %s", sectionEid, reason);
+            }
+        }
+
+        // Section EIDs may be separated by commas or whitespace
+        private List<String> parseSectionEids(String value) {
+            List<String> result = new ArrayList<String>();
+
+            if (value == null) {
+                return result;
+            }
+
+            for (String sectionEid : value.split("[,\\s]+")) {
+                if (!sectionEid.isEmpty()) {
+                    result.add(sectionEid);
+                }
+            }
 
-            respondWithString(result.replace("{{LIST_OF_GRADES}}", gradeString.toString()));
+            return result;
         }
 
         private String soapTypeFor(String value) {
@@ -199,15 +299,21 @@ public class NYUGradesWS extends HttpServlet
         }
 
         private String fillTemplate(String templateName, String[] keysAndValues) throws Exception {
+            return fillString(loadTemplate(templateName), keysAndValues);
+        }
+
+        private String loadTemplate(String templateName) throws Exception {
             URL templateResource = this.getClass().getResource("/edu/nyu/classes/nyugrades/ws/response_templates/" + templateName + ".xml");
 
             if (templateResource == null) {
                 throw new ServletException("Internal error: failed to load template for: " + templateName);
             }
 
-            String templateContent = new String(Files.readAllBytes(Paths.get(templateResource.toURI())),
+            return new String(Files.readAllBytes(Paths.get(templateResource.toURI())),
                     "UTF-8").trim();
+        }
 
+        private String fillString(String templateContent, String[] keysAndValues) throws Exception {
             if ((keysAndValues.length % 2) != 0) {
                 throw new ServletException("Internal error: keysAndValues should have an even number of elements.");
             }
@@ -288,25 +394,38 @@ public class NYUGradesWS extends HttpServlet
         }
 
 
-        private GradeSet getGradesForSite(String sessionId,
-                                          String courseId,
-                                          String term,
-                                          String sessionCode,
-                                          String classSection)
-            throws RequestFailedException, AuditLogException
+        private void checkSession(String sessionId) throws RequestFailedException
         {
             if (!nyuGradesSessions.checkSession(sessionId)) {
                 LOG.warn("Rejected invalid sessionId");
                 throw new RequestFailedException("Permission denied");
             }
+        }
 
+
+        private Session startAdminSession()
+        {
             Session sakaiSession = sakaiSessionManager.startSession();
-            try {
-                sakaiSessionManager.setCurrentSession(sakaiSession);
+            sakaiSessionManager.setCurrentSession(sakaiSession);
 
-                sakaiSession.setUserId(GRADES_ADMIN_USER);
-                sakaiSession.setUserEid(GRADES_ADMIN_USER);
+            sakaiSession.setUserId(GRADES_ADMIN_USER);
+            sakaiSession.setUserEid(GRADES_ADMIN_USER);
 
+            return sakaiSession;
+        }
+
+
+        private GradeSet getGradesForSite(String sessionId,
+                                          String courseId,
+                                          String term,
+                                          String sessionCode,
+                                          String classSection)
+            throws RequestFailedException, AuditLogException
+        {
+            checkSession(sessionId);
+
+            Session sakaiSession = startAdminSession();
+            try {
                 String sectionEid = null;
                 try {
                     sectionEid = nyuGrades.findSingleSection(courseId, term, sessionCode, classSection);
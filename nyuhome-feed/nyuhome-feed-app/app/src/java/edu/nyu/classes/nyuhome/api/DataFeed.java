@@ -1,7 +1,13 @@
 package edu.nyu.classes.nyuhome.api;
 
+import java.util.Collections;
 import java.util.List;
 
 public interface DataFeed {
     public List<DataFeedEntry> getUserData(QueryUser user, Resolver resolve, int maxAgeDays, int maxResults);
+
+    // The sites left out of the last getUserData because they didn't answer in time
+    public default List<String> getMissedSites() {
+        return Collections.emptyList();
+    }
 }
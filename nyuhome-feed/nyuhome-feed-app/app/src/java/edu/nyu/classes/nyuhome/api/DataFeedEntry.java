@@ -1,5 +1,9 @@
 package edu.nyu.classes.nyuhome.api;
 
+import java.util.Date;
+
 public interface DataFeedEntry {
-    // Empty right now because we only use these to turn into JSON, and Jackson can work with any Object.
+    // We only use these to turn into JSON, and Jackson can work with any Object.  The sort date is what feeds are
+    // merged on.
+    public Date getSortDate();
 }
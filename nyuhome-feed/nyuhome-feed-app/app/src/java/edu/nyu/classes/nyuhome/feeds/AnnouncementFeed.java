@@ -4,6 +4,7 @@ import lombok.*;
 import lombok.experimental.Builder;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
@@ -76,33 +77,19 @@ public class AnnouncementFeed extends SakaiToolFeed {
     }
 
 
-    public List<DataFeedEntry> getUserData(QueryUser user, Resolver resolver, int maxAgeDays, int maxResults) {
+    protected List<DataFeedEntry> getSiteData(String siteId, int maxAgeDays, int maxResults)
+        throws IdUnusedException, PermissionException {
         List<DataFeedEntry> result = new ArrayList<DataFeedEntry>();
 
         AnnouncementService announcementService = (AnnouncementService) ComponentManager.get("org.sakaiproject.announcement.api.AnnouncementService");
 
-        for (String siteId : user.listSites()) {
-            try {
-                String channelId = announcementService.channelReference(siteId, SiteService.MAIN_CONTAINER);
-                AnnouncementChannel channel = announcementService.getAnnouncementChannel(channelId);
-
-                boolean ascending;
-                for (Object msg : channel.getMessages(new NYUHomeFilter(maxAgeDays, maxResults), ascending = false)) {
-                    if (isVisible((AnnouncementMessage) msg)) {
-                        AnnouncementResponse response = prepareMessage((AnnouncementMessage) msg, siteId);
-                        result.add(response);
-
-                        resolver.addUser(response.getFromUser__userid());
-                    }
-                }
-
-                resolver.addSite(siteId);
-            } catch (IdUnusedException ex) {
-                LOG.debug("Exception when operating on " + siteId, ex);
-                // Skip it
-            } catch (PermissionException ex) {
-                LOG.debug("Exception when operating on " + siteId, ex);
-                // Skip it
+        String channelId = announcementService.channelReference(siteId, SiteService.MAIN_CONTAINER);
+        AnnouncementChannel channel = announcementService.getAnnouncementChannel(channelId);
+
+        boolean ascending;
+        for (Object msg : channel.getMessages(new NYUHomeFilter(maxAgeDays, maxResults), ascending = false)) {
+            if (isVisible((AnnouncementMessage) msg)) {
+                result.add(prepareMessage((AnnouncementMessage) msg, siteId));
             }
         }
 
@@ -110,6 +97,20 @@ public class AnnouncementFeed extends SakaiToolFeed {
     }
 
 
+    /**
+     * maxResults limits each site's announcements rather than the whole feed, so every site's newest announcements
+     * are returned.
+     */
+    protected List<DataFeedEntry> merge(Collection<List<DataFeedEntry>> siteEntries, int maxResults) {
+        return mergeNewest(siteEntries, Integer.MAX_VALUE);
+    }
+
+
+    protected void resolve(DataFeedEntry entry, Resolver resolver) {
+        resolver.addUser(((AnnouncementResponse) entry).getFromUser__userid());
+    }
+
+
     private Time getTimeProperty(AnnouncementMessage msg, String property) {
         try {
             return msg.getProperties().getTimeProperty(property);
@@ -5,6 +5,7 @@ import lombok.experimental.Builder;
 
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -53,34 +54,42 @@ class AssignmentResponse implements DataFeedEntry {
 public class AssignmentFeed extends SakaiToolFeed {
     private static final Logger LOG = LoggerFactory.getLogger(AssignmentFeed.class);
 
-    public List<DataFeedEntry> getUserData(QueryUser user, Resolver resolver, int maxAgeDays, int maxResults) {
-        List<DataFeedEntry> result = new ArrayList<DataFeedEntry>();
-        MaxAgeAndCountFilter filter = new MaxAgeAndCountFilter(maxAgeDays, maxResults);
+    protected List<DataFeedEntry> getSiteData(String siteId, int maxAgeDays, int maxResults) {
+        List<DataFeedEntry> visible = new ArrayList<DataFeedEntry>();
 
         AssignmentService assignmentService = (AssignmentService) ComponentManager.get("org.sakaiproject.assignment.api.AssignmentService");
 
-        for (String siteId : user.listSites()) {
-            List<Assignment> assignments = assignmentService.getListAssignmentsForContext(siteId);
+        List<Assignment> assignments = assignmentService.getListAssignmentsForContext(siteId);
 
-            for (Assignment assignment : assignments) {
-                if (isAssignmentVisible(assignment)) {
-                    AssignmentResponse response = prepareAssignment(assignment);
-
-                    if (filter.accept(response.getSortDate())) {
-                        result.add(response);
-                        resolver.addUser(response.getCreator__userid());
-                        resolver.addSite(response.getContext__siteid());
-                    }
-                }
+        for (Assignment assignment : assignments) {
+            if (isAssignmentVisible(assignment)) {
+                visible.add(prepareAssignment(assignment));
             }
+        }
 
-            resolver.addSite(siteId);
+        Collections.sort(visible, NEWEST_FIRST);
+
+        List<DataFeedEntry> result = new ArrayList<DataFeedEntry>();
+        MaxAgeAndCountFilter filter = new MaxAgeAndCountFilter(maxAgeDays, maxResults);
+
+        for (DataFeedEntry response : visible) {
+            if (filter.accept(response.getSortDate())) {
+                result.add(response);
+            }
         }
 
         return result;
     }
 
 
+    protected void resolve(DataFeedEntry entry, Resolver resolver) {
+        AssignmentResponse response = (AssignmentResponse) entry;
+
+        resolver.addUser(response.getCreator__userid());
+        resolver.addSite(response.getContext__siteid());
+    }
+
+
     private AssignmentResponse prepareAssignment(Assignment assignment) {
         AssignmentContent content = assignment.getContent();
 
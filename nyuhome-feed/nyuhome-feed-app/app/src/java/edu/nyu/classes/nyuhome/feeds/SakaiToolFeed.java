@@ -1,8 +1,21 @@
 package edu.nyu.classes.nyuhome.feeds;
 
 import edu.nyu.classes.nyuhome.api.DataFeed;
+import edu.nyu.classes.nyuhome.api.DataFeedEntry;
+import edu.nyu.classes.nyuhome.api.QueryUser;
+import edu.nyu.classes.nyuhome.api.Resolver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 
 import org.sakaiproject.exception.IdUnusedException;
+import org.sakaiproject.exception.PermissionException;
 import org.sakaiproject.site.api.Site;
 import org.sakaiproject.site.api.ToolConfiguration;
 import org.sakaiproject.site.cover.SiteService;
@@ -12,6 +25,101 @@ import org.sakaiproject.time.api.Time;
 
 abstract class SakaiToolFeed implements DataFeed {
 
+    protected static final Comparator<DataFeedEntry> NEWEST_FIRST = (a, b) -> b.getSortDate().compareTo(a.getSortDate());
+
+    private List<String> missedSites = Collections.emptyList();
+
+
+    public List<DataFeedEntry> getUserData(QueryUser user, Resolver resolver, int maxAgeDays, int maxResults) {
+        SiteFeedCache.SiteFeedData data = SiteFeedCache.getInstance().fetch(this, user, maxAgeDays, maxResults);
+        Map<String, List<DataFeedEntry>> siteData = data.getEntries();
+        missedSites = data.getMissedSites();
+
+        for (String siteId : siteData.keySet()) {
+            resolver.addSite(siteId);
+        }
+
+        List<DataFeedEntry> result = merge(siteData.values(), maxResults);
+
+        for (DataFeedEntry entry : result) {
+            resolve(entry, resolver);
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Get a site's entries as seen by the current user.
+     *
+     * @return no more than maxResults entries from the last maxAgeDays, newest first.
+     */
+    protected abstract List<DataFeedEntry> getSiteData(String siteId, int maxAgeDays, int maxResults)
+        throws IdUnusedException, PermissionException;
+
+
+    /**
+     * Add the users and sites an entry refers to.
+     */
+    protected abstract void resolve(DataFeedEntry entry, Resolver resolver);
+
+
+    public List<String> getMissedSites() {
+        return missedSites;
+    }
+
+
+    /**
+     * Combine the sites' entries into the feed's response.  By default that's the newest maxResults across all sites.
+     */
+    protected List<DataFeedEntry> merge(Collection<List<DataFeedEntry>> siteEntries, int maxResults) {
+        return mergeNewest(siteEntries, maxResults);
+    }
+
+
+    /**
+     * Merge lists which are each newest first into the newest maxResults, holding just the head of each list in a heap.
+     */
+    protected static List<DataFeedEntry> mergeNewest(Collection<List<DataFeedEntry>> lists, int maxResults) {
+        PriorityQueue<Head> heads = new PriorityQueue<Head>(Math.max(1, lists.size()));
+
+        for (List<DataFeedEntry> list : lists) {
+            Iterator<DataFeedEntry> it = list.iterator();
+            if (it.hasNext()) {
+                heads.add(new Head(it.next(), it));
+            }
+        }
+
+        List<DataFeedEntry> result = new ArrayList<DataFeedEntry>();
+
+        while (result.size() < maxResults && !heads.isEmpty()) {
+            Head head = heads.poll();
+            result.add(head.entry);
+
+            if (head.rest.hasNext()) {
+                heads.add(new Head(head.rest.next(), head.rest));
+            }
+        }
+
+        return result;
+    }
+
+
+    private static class Head implements Comparable<Head> {
+        private final DataFeedEntry entry;
+        private final Iterator<DataFeedEntry> rest;
+
+        public Head(DataFeedEntry entry, Iterator<DataFeedEntry> rest) {
+            this.entry = entry;
+            this.rest = rest;
+        }
+
+        public int compareTo(Head other) {
+            return NEWEST_FIRST.compare(entry, other.entry);
+        }
+    }
+
+
     protected String buildUrl(String siteId, String toolId) {
         try {
             Site site = SiteService.getSite(siteId);
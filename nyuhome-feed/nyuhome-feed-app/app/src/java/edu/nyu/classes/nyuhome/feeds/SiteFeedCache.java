@@ -0,0 +1,374 @@
+package edu.nyu.classes.nyuhome.feeds;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.nyu.classes.nyuhome.api.DataFeedEntry;
+import edu.nyu.classes.nyuhome.api.QueryUser;
+
+import org.sakaiproject.announcement.api.AnnouncementService;
+import org.sakaiproject.component.cover.ComponentManager;
+import org.sakaiproject.component.cover.ServerConfigurationService;
+import org.sakaiproject.event.api.Event;
+import org.sakaiproject.event.api.EventTrackingService;
+import org.sakaiproject.exception.IdUnusedException;
+import org.sakaiproject.exception.PermissionException;
+import org.sakaiproject.memory.api.Cache;
+import org.sakaiproject.memory.api.MemoryService;
+import org.sakaiproject.thread_local.cover.ThreadLocalManager;
+import org.sakaiproject.tool.api.Session;
+import org.sakaiproject.tool.cover.SessionManager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Fetches a feed's entries for each of a user's sites in parallel, and remembers them so that later requests only go
+ * back to the tool for sites which have changed.
+ *
+ * Announcement and assignment events move their site on to a new version, and entries remembered from an older
+ * version are fetched again.  Release, retract and open dates make things visible without any event, so entries also
+ * expire with the memory.edu.nyu.classes.nyuhome.feeds.SiteFeedCache cache settings.
+ *
+ * nyuhome.data.feed.threads (default 8) workers are shared by all requests, and a request takes no more than
+ * nyuhome.data.feed.request.threads (default 4) of them, so a user with many sites can't hold up everyone else.  The
+ * request's own thread fetches sites too, so a request still gets answers while every worker is busy.
+ *
+ * Sites which haven't answered within nyuhome.data.feed.deadline.ms (default 5000) are left out of the response and
+ * reported as missed.  The workers carry on with them and they are remembered for the next request.  The request's
+ * thread doesn't start on a site after the deadline, but may finish one it has started.
+ */
+public class SiteFeedCache implements Observer {
+    private static final Logger LOG = LoggerFactory.getLogger(SiteFeedCache.class);
+
+    private static final SiteFeedCache instance = new SiteFeedCache();
+
+    private static final String ASSIGNMENT_EVENT_ROOT = "asn.";
+
+    private final Map<String, Long> siteVersions = new ConcurrentHashMap<String, Long>();
+
+    private volatile Cache<String, CachedSiteData> cache;
+    private volatile ExecutorService executor;
+    private long deadlineMs = 5000;
+    private int requestThreads = 4;
+
+
+    private static class CachedSiteData {
+        private final long version;
+        private final List<DataFeedEntry> entries;
+
+        public CachedSiteData(long version, List<DataFeedEntry> entries) {
+            this.version = version;
+            this.entries = entries;
+        }
+    }
+
+
+    /**
+     * A feed's entries for a user's sites, as fetched by fetch().
+     */
+    static class SiteFeedData {
+        private final Map<String, List<DataFeedEntry>> entries;
+        private final List<String> missedSites;
+
+        public SiteFeedData(Map<String, List<DataFeedEntry>> entries, List<String> missedSites) {
+            this.entries = entries;
+            this.missedSites = missedSites;
+        }
+
+        /**
+         * @return entries keyed on site, in the order of user.listSites(), leaving out sites which couldn't be read
+         * or didn't answer in time.
+         */
+        public Map<String, List<DataFeedEntry>> getEntries() {
+            return entries;
+        }
+
+        /**
+         * @return the sites which didn't answer in time.
+         */
+        public List<String> getMissedSites() {
+            return missedSites;
+        }
+    }
+
+
+    public static SiteFeedCache getInstance() {
+        return instance;
+    }
+
+
+    private SiteFeedCache() {
+    }
+
+
+    @SuppressWarnings("unchecked")
+    SiteFeedCache(Cache cache, ExecutorService executor, long deadlineMs, int requestThreads) {
+        this.cache = cache;
+        this.executor = executor;
+        this.deadlineMs = deadlineMs;
+        this.requestThreads = requestThreads;
+    }
+
+
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+
+        int threads = ServerConfigurationService.getInt("nyuhome.data.feed.threads", 8);
+        requestThreads = ServerConfigurationService.getInt("nyuhome.data.feed.request.threads", 4);
+        deadlineMs = ServerConfigurationService.getInt("nyuhome.data.feed.deadline.ms", 5000);
+
+        MemoryService memoryService = (MemoryService) ComponentManager.get("org.sakaiproject.memory.api.MemoryService");
+        cache = memoryService.newCache(SiteFeedCache.class.getName());
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "nyuhome feed " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        EventTrackingService eventTrackingService = (EventTrackingService) ComponentManager.get("org.sakaiproject.event.api.EventTrackingService");
+        eventTrackingService.addObserver(this);
+
+        LOG.info("Fetching feeds on {} threads, {} per request, with a deadline of {} ms", new Object[] {threads, requestThreads, deadlineMs});
+    }
+
+
+    public synchronized void stop() {
+        EventTrackingService eventTrackingService = (EventTrackingService) ComponentManager.get("org.sakaiproject.event.api.EventTrackingService");
+        if (eventTrackingService != null) {
+            eventTrackingService.deleteObserver(this);
+        }
+
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+
+        cache = null;
+        siteVersions.clear();
+    }
+
+
+    public void update(Observable observable, Object o) {
+        if (!(o instanceof Event)) {
+            return;
+        }
+
+        Event event = (Event) o;
+        String name = event.getEvent();
+
+        if (!event.getModify() || name == null ||
+            !(name.startsWith(AnnouncementService.SECURE_ANNC_ROOT) || name.startsWith(ASSIGNMENT_EVENT_ROOT))) {
+            return;
+        }
+
+        String siteId = event.getContext();
+
+        if (siteId == null && event.getResource() != null) {
+            // Both /announcement/msg/<site>/... and /assignment/a/<site>/... have the site third
+            String[] parts = event.getResource().split("/");
+            if (parts.length > 3) {
+                siteId = parts[3];
+            }
+        }
+
+        if (siteId != null) {
+            siteVersions.merge(siteId, 1L, Long::sum);
+        }
+    }
+
+
+    /**
+     * Get the feed's entries for each of the user's sites, as returned by SakaiToolFeed.getSiteData.
+     */
+    SiteFeedData fetch(SakaiToolFeed feed, QueryUser user, int maxAgeDays, int maxResults) {
+        List<String> siteIds = user.listSites();
+        Request request = new Request(feed, maxAgeDays, maxResults, this.cache);
+
+        for (String siteId : siteIds) {
+            String key = feed.getClass().getName() + "|" + user.getId() + "|" + siteId + "|" + maxAgeDays + "|" + maxResults;
+            long version = siteVersions.getOrDefault(siteId, 0L);
+
+            CachedSiteData cached = (request.cache == null) ? null : request.cache.get(key);
+            if (cached != null && cached.version == version) {
+                request.loaded(siteId, cached.entries);
+            } else {
+                request.queue.add(new SiteLoad(siteId, key, version));
+            }
+        }
+
+        // Without workers, the request's thread has to load every site itself
+        ExecutorService executor = this.executor;
+        request.start(executor);
+        request.run(executor != null);
+        request.await();
+
+        SiteFeedData result = request.result(siteIds);
+
+        if (!result.getMissedSites().isEmpty()) {
+            LOG.info("{} of {} sites missed the {} ms deadline for {}",
+                     new Object[] {result.getMissedSites().size(), siteIds.size(), deadlineMs, feed.getClass().getName()});
+        }
+
+        return result;
+    }
+
+
+    private static class SiteLoad {
+        private final String siteId;
+        private final String key;
+        private final long version;
+
+        public SiteLoad(String siteId, String key, long version) {
+            this.siteId = siteId;
+            this.key = key;
+            this.version = version;
+        }
+    }
+
+
+    /**
+     * The sites one call to fetch() still has to load, shared by the request's thread and the workers helping it.
+     */
+    private class Request {
+        private final SakaiToolFeed feed;
+        private final int maxAgeDays;
+        private final int maxResults;
+        private final Cache<String, CachedSiteData> cache;
+        private final long deadline = System.currentTimeMillis() + deadlineMs;
+
+        private final Queue<SiteLoad> queue = new ConcurrentLinkedQueue<SiteLoad>();
+        private final Map<String, List<DataFeedEntry>> entries = new ConcurrentHashMap<String, List<DataFeedEntry>>();
+        // Sites which have been loaded or failed, so aren't missed
+        private final Map<String, Boolean> done = new ConcurrentHashMap<String, Boolean>();
+        private CountDownLatch remaining;
+
+        public Request(SakaiToolFeed feed, int maxAgeDays, int maxResults, Cache<String, CachedSiteData> cache) {
+            this.feed = feed;
+            this.maxAgeDays = maxAgeDays;
+            this.maxResults = maxResults;
+            this.cache = cache;
+        }
+
+
+        /**
+         * Hand the sites to up to requestThreads workers, leaving at least one for the request's thread.
+         */
+        public void start(ExecutorService executor) {
+            remaining = new CountDownLatch(queue.size());
+
+            if (executor == null) {
+                return;
+            }
+
+            Session session = SessionManager.getCurrentSession();
+            int helpers = Math.min(requestThreads, queue.size() - 1);
+
+            try {
+                for (int i = 0; i < helpers; i++) {
+                    executor.execute(() -> {
+                        SessionManager.setCurrentSession(session);
+                        try {
+                            run(false);
+                        } finally {
+                            ThreadLocalManager.clear();
+                        }
+                    });
+                }
+            } catch (RejectedExecutionException ex) {
+                LOG.debug("Feed workers have stopped, fetching on the request's thread", ex);
+            }
+        }
+
+
+        /**
+         * Load sites until there are none left, or the deadline has passed if this is the request's thread.
+         */
+        public void run(boolean untilDeadline) {
+            while (!untilDeadline || System.currentTimeMillis() < deadline) {
+                SiteLoad site = queue.poll();
+                if (site == null) {
+                    return;
+                }
+
+                try {
+                    loaded(site.siteId, load(feed, site.siteId, maxAgeDays, maxResults, cache, site.key, site.version));
+                } catch (IdUnusedException | PermissionException ex) {
+                    LOG.debug("Exception when operating on " + site.siteId, ex);
+                    done.put(site.siteId, Boolean.TRUE);
+                } catch (RuntimeException ex) {
+                    LOG.error("Failed to get data for site " + site.siteId, ex);
+                    done.put(site.siteId, Boolean.TRUE);
+                } finally {
+                    remaining.countDown();
+                }
+            }
+        }
+
+
+        public void loaded(String siteId, List<DataFeedEntry> siteEntries) {
+            entries.put(siteId, siteEntries);
+            done.put(siteId, Boolean.TRUE);
+        }
+
+
+        /**
+         * Wait until the deadline for the workers to finish the sites they've taken.
+         */
+        public void await() {
+            try {
+                remaining.await(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+
+        public SiteFeedData result(List<String> siteIds) {
+            Map<String, List<DataFeedEntry>> result = new LinkedHashMap<String, List<DataFeedEntry>>();
+            List<String> missed = new ArrayList<String>();
+
+            for (String siteId : siteIds) {
+                if (!done.containsKey(siteId)) {
+                    missed.add(siteId);
+                } else if (entries.containsKey(siteId)) {
+                    result.put(siteId, entries.get(siteId));
+                }
+            }
+
+            return new SiteFeedData(result, missed);
+        }
+    }
+
+
+    private List<DataFeedEntry> load(SakaiToolFeed feed, String siteId, int maxAgeDays, int maxResults,
+                                     Cache<String, CachedSiteData> cache, String key, long version)
+        throws IdUnusedException, PermissionException {
+        List<DataFeedEntry> entries = Collections.unmodifiableList(feed.getSiteData(siteId, maxAgeDays, maxResults));
+
+        if (cache != null) {
+            cache.put(key, new CachedSiteData(version, entries));
+        }
+
+        return entries;
+    }
+}
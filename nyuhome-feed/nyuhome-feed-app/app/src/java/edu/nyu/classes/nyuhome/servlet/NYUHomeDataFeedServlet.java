@@ -25,6 +25,8 @@ import edu.nyu.classes.nyuhome.api.Resolver;
 import edu.nyu.classes.nyuhome.servlet.SakaiQueryUser;
 import edu.nyu.classes.nyuhome.servlet.SakaiResolver;
 
+import edu.nyu.classes.nyuhome.feeds.SiteFeedCache;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -83,10 +85,27 @@ public class NYUHomeDataFeedServlet extends HttpServlet {
     }
 
 
-    private List<DataFeedEntry> getDataForFeed(Class dataFeedClass, QueryUser user, Resolver resolver, int maxAgeDays, int maxResults) {
+    public void init() throws ServletException {
+        SiteFeedCache.getInstance().start();
+    }
+
+
+    public void destroy() {
+        SiteFeedCache.getInstance().stop();
+    }
+
+
+    private List<DataFeedEntry> getDataForFeed(Class dataFeedClass, QueryUser user, Resolver resolver, int maxAgeDays, int maxResults,
+                                               Map<String, List<String>> missedSites) {
         try {
             DataFeed instance = (DataFeed)dataFeedClass.newInstance();
-            return instance.getUserData(user, resolver, maxAgeDays, maxResults);
+            List<DataFeedEntry> result = instance.getUserData(user, resolver, maxAgeDays, maxResults);
+
+            if (!instance.getMissedSites().isEmpty()) {
+                missedSites.put(dataFeedClass.getName(), instance.getMissedSites());
+            }
+
+            return result;
         } catch (IllegalAccessException ex) {
             LOG.debug("Failed to get data for feed", ex);
             return new ArrayList<DataFeedEntry>();
@@ -119,12 +138,19 @@ public class NYUHomeDataFeedServlet extends HttpServlet {
             Map<String, Object> result = new HashMap<String, Object>();
             Resolver resolver = new SakaiResolver(userDirectoryService, siteService);
 
+            Map<String, List<String>> missedSites = new HashMap<String, List<String>>();
+
             for (Class dataFeed : dataFeedClasses) {
-                result.put(dataFeed.getName(), getDataForFeed(dataFeed, user, resolver, maxAgeDays, maxResults));
+                result.put(dataFeed.getName(), getDataForFeed(dataFeed, user, resolver, maxAgeDays, maxResults, missedSites));
             }
 
             result.put("_dictionary", resolver.toMap());
 
+            // Feeds which are missing some sites' entries, and the sites they're missing
+            if (!missedSites.isEmpty()) {
+                result.put("_partial", missedSites);
+            }
+
             ObjectMapper mapper = new ObjectMapper();
 
             response.setContentType("text/json");
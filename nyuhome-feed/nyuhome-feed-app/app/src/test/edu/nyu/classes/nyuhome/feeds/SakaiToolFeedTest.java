@@ -0,0 +1,98 @@
+package edu.nyu.classes.nyuhome.feeds;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import edu.nyu.classes.nyuhome.api.DataFeedEntry;
+
+import org.junit.Test;
+
+
+public class SakaiToolFeedTest {
+
+    @Test
+    public void testMergeTakesTheNewestAcrossSites() {
+        List<DataFeedEntry> first = entries(90, 50, 10);
+        List<DataFeedEntry> second = entries(80, 70, 20);
+        List<DataFeedEntry> third = entries(60);
+
+        List<DataFeedEntry> merged = SakaiToolFeed.mergeNewest(Arrays.asList(first, second, third), 4);
+
+        assertEquals(times(90, 80, 70, 60), times(merged));
+    }
+
+
+    @Test
+    public void testMergeKeepsEverythingUnderTheLimit() {
+        List<DataFeedEntry> first = entries(30, 10);
+        List<DataFeedEntry> empty = entries();
+        List<DataFeedEntry> second = entries(20);
+
+        assertEquals(times(30, 20, 10), times(SakaiToolFeed.mergeNewest(Arrays.asList(first, empty, second), 10)));
+        assertTrue(SakaiToolFeed.mergeNewest(Collections.<List<DataFeedEntry>>emptyList(), 10).isEmpty());
+        assertTrue(SakaiToolFeed.mergeNewest(Arrays.asList(first, second), 0).isEmpty());
+    }
+
+
+    @Test
+    public void testAnnouncementsLimitedPerSite() {
+        // each site has already been cut to its newest maxResults, and all of them are returned
+        List<DataFeedEntry> first = entries(90, 50);
+        List<DataFeedEntry> second = entries(80, 70);
+
+        List<DataFeedEntry> merged = new AnnouncementFeed().merge(Arrays.asList(first, second), 2);
+
+        assertEquals(times(90, 80, 70, 50), times(merged));
+    }
+
+
+    @Test
+    public void testOtherFeedsLimitedOverall() {
+        List<DataFeedEntry> first = entries(90, 50);
+        List<DataFeedEntry> second = entries(80, 70);
+
+        List<DataFeedEntry> merged = new AssignmentFeed().merge(Arrays.asList(first, second), 2);
+
+        assertEquals(times(90, 80), times(merged));
+    }
+
+
+    private static List<DataFeedEntry> entries(long... times) {
+        List<DataFeedEntry> result = new ArrayList<DataFeedEntry>();
+
+        for (long time : times) {
+            Date date = new Date(time);
+            result.add(() -> date);
+        }
+
+        return result;
+    }
+
+
+    private static List<Long> times(long... times) {
+        List<Long> result = new ArrayList<Long>();
+
+        for (long time : times) {
+            result.add(time);
+        }
+
+        return result;
+    }
+
+
+    private static List<Long> times(List<DataFeedEntry> entries) {
+        List<Long> result = new ArrayList<Long>();
+
+        for (DataFeedEntry entry : entries) {
+            result.add(entry.getSortDate().getTime());
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,211 @@
+package edu.nyu.classes.nyuhome.feeds;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.nyu.classes.nyuhome.api.DataFeedEntry;
+import edu.nyu.classes.nyuhome.api.QueryUser;
+import edu.nyu.classes.nyuhome.api.Resolver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.event.api.Event;
+import org.sakaiproject.memory.api.Cache;
+
+
+public class SiteFeedCacheTest {
+
+    private final Map<String, Object> cached = new ConcurrentHashMap<String, Object>();
+    private Cache cache;
+    private ExecutorService executor;
+    private CountingFeed feed;
+
+    @Before
+    public void setUp() {
+        cache = mock(Cache.class);
+        when(cache.get(anyString())).thenAnswer(invocation -> cached.get(invocation.getArguments()[0]));
+        doAnswer(invocation -> {
+            cached.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+            return null;
+        }).when(cache).put(anyString(), any());
+
+        feed = new CountingFeed();
+    }
+
+
+    @After
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+
+    @Test
+    public void testSitesFetchedAgainOnlyWhenTheyChange() {
+        SiteFeedCache siteFeedCache = new SiteFeedCache(cache, null, 5000, 4);
+        QueryUser user = user("site1", "site2");
+
+        assertEquals(Arrays.asList("site1", "site2"), new ArrayList<String>(siteFeedCache.fetch(feed, user, 7, 10).getEntries().keySet()));
+        siteFeedCache.fetch(feed, user, 7, 10);
+        assertEquals(1, feed.loads("site1"));
+        assertEquals(1, feed.loads("site2"));
+
+        // reads, and events for other tools, change nothing
+        siteFeedCache.update(null, event("annc.read", "site1", "/announcement/msg/site1/main/1", false));
+        siteFeedCache.update(null, event("content.revise", "site1", "/content/group/site1/file", true));
+        siteFeedCache.fetch(feed, user, 7, 10);
+        assertEquals(1, feed.loads("site1"));
+
+        siteFeedCache.update(null, event("annc.revise.any", "site1", "/announcement/msg/site1/main/1", true));
+        siteFeedCache.fetch(feed, user, 7, 10);
+        assertEquals(2, feed.loads("site1"));
+        assertEquals(1, feed.loads("site2"));
+
+        // the site is taken from the resource when the event has no context
+        siteFeedCache.update(null, event("asn.new.assignment", null, "/assignment/a/site2/1", true));
+        siteFeedCache.fetch(feed, user, 7, 10);
+        assertEquals(2, feed.loads("site1"));
+        assertEquals(2, feed.loads("site2"));
+
+        // each age and count is remembered on its own
+        siteFeedCache.fetch(feed, user, 7, 5);
+        assertEquals(3, feed.loads("site1"));
+    }
+
+
+    @Test
+    public void testRequestFetchesItselfWhenWorkersAreBusy() throws Exception {
+        executor = Executors.newSingleThreadExecutor();
+        CountDownLatch busy = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                busy.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        SiteFeedCache siteFeedCache = new SiteFeedCache(cache, executor, 5000, 4);
+        SiteFeedCache.SiteFeedData data = siteFeedCache.fetch(feed, user("site1", "site2", "site3"), 7, 10);
+        busy.countDown();
+
+        assertEquals(Arrays.asList("site1", "site2", "site3"), new ArrayList<String>(data.getEntries().keySet()));
+        assertTrue(data.getMissedSites().isEmpty());
+        assertEquals(Collections.singleton(Thread.currentThread()), feed.loadedOn);
+    }
+
+
+    @Test
+    public void testSlowSiteMissedAndRememberedForNextTime() throws Exception {
+        executor = Executors.newFixedThreadPool(2);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread requestThread = Thread.currentThread();
+
+        // a worker's site holds until released, the request's own site just takes longer than the deadline
+        feed.onLoad = siteId -> {
+            if (Thread.currentThread() == requestThread) {
+                Thread.sleep(300);
+            } else {
+                release.await(5, TimeUnit.SECONDS);
+            }
+        };
+
+        SiteFeedCache siteFeedCache = new SiteFeedCache(cache, executor, 100, 1);
+        QueryUser user = user("site1", "site2");
+        SiteFeedCache.SiteFeedData data = siteFeedCache.fetch(feed, user, 7, 10);
+
+        assertEquals(1, data.getEntries().size());
+        assertEquals(1, data.getMissedSites().size());
+        assertTrue(!data.getEntries().containsKey(data.getMissedSites().get(0)));
+
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+        feed.onLoad = null;
+        data = siteFeedCache.fetch(feed, user, 7, 10);
+        assertEquals(2, data.getEntries().size());
+        assertTrue(data.getMissedSites().isEmpty());
+        assertEquals(1, feed.loads("site1"));
+        assertEquals(1, feed.loads("site2"));
+    }
+
+
+    private interface LoadAction {
+        void run(String siteId) throws Exception;
+    }
+
+
+    private static class CountingFeed extends SakaiToolFeed {
+        private final Map<String, AtomicInteger> loads = new ConcurrentHashMap<String, AtomicInteger>();
+        private final Set<Thread> loadedOn = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+        private volatile LoadAction onLoad;
+
+        protected List<DataFeedEntry> getSiteData(String siteId, int maxAgeDays, int maxResults) {
+            loads.computeIfAbsent(siteId, k -> new AtomicInteger()).incrementAndGet();
+            loadedOn.add(Thread.currentThread());
+
+            LoadAction action = onLoad;
+            if (action != null) {
+                try {
+                    action.run(siteId);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            return new ArrayList<DataFeedEntry>();
+        }
+
+        protected void resolve(DataFeedEntry entry, Resolver resolver) {
+        }
+
+        public int loads(String siteId) {
+            AtomicInteger count = loads.get(siteId);
+            return (count == null) ? 0 : count.get();
+        }
+    }
+
+
+    private static QueryUser user(String... siteIds) {
+        return new QueryUser() {
+            public String getId() {
+                return "user1";
+            }
+
+            public List<String> listSites() {
+                return Arrays.asList(siteIds);
+            }
+        };
+    }
+
+
+    private static Event event(String name, String context, String resource, boolean modify) {
+        Event event = mock(Event.class);
+        when(event.getEvent()).thenReturn(name);
+        when(event.getContext()).thenReturn(context);
+        when(event.getResource()).thenReturn(resource);
+        when(event.getModify()).thenReturn(modify);
+        return event;
+    }
+}
@@ -46,6 +46,15 @@ public interface PortalSiteHelper
 	 */
 	Site getSiteVisit(String siteId) throws IdUnusedException, PermissionException;
 
+	/**
+	 * As getSiteVisit(), but a read only view of the site (see SiteService.getSiteVisitSnapshot()), which is much
+	 * cheaper for the portal's rendering, which only reads the site.
+	 * 
+	 * @param siteId
+	 * @return
+	 */
+	Site getSiteVisitSnapshot(String siteId) throws IdUnusedException, PermissionException;
+
 	/**
 	 * @param session
 	 * @return
@@ -435,7 +435,7 @@ public class SkinnableCharonPortal extends HttpServlet implements Portal
 		Site site = null;
 		try
 		{
-			site = siteHelper.getSiteVisit(siteId);
+			site = siteHelper.getSiteVisitSnapshot(siteId);
 		}
 		catch (Exception e)
 		{
@@ -482,7 +482,7 @@ public class SkinnableCharonPortal extends HttpServlet implements Portal
 		Site site = null;
 		try
 		{
-			site = siteHelper.getSiteVisit(siteId);
+			site = siteHelper.getSiteVisitSnapshot(siteId);
 		}
 		catch (IdUnusedException e)
 		{
@@ -654,7 +654,7 @@ public class SkinnableCharonPortal extends HttpServlet implements Portal
 		Site site = null;
 		try
 		{
-			site = SiteService.getSiteVisit(siteId);
+			site = SiteService.getSiteVisitSnapshot(siteId);
 		}
 		catch (IdUnusedException e)
 		{
@@ -1344,7 +1344,7 @@ public class SkinnableCharonPortal extends HttpServlet implements Portal
 		Site site = null;
 		try
 		{
-			site = getSiteHelper().getSiteVisit(siteId);
+			site = getSiteHelper().getSiteVisitSnapshot(siteId);
 		}
 		catch (IdUnusedException e)
 		{
@@ -1430,7 +1430,7 @@ public class SkinnableCharonPortal extends HttpServlet implements Portal
         {
             Site site;
             try {
-                site = SiteService.getSiteVisit(siteId);
+                site = SiteService.getSiteVisitSnapshot(siteId);
             }
             catch (IdUnusedException e) {
                 site = null;
@@ -1500,7 +1500,7 @@ public class SkinnableCharonPortal extends HttpServlet implements Portal
 			headJs.append("<script type=\"text/javascript\">\n");
 			headJs.append("sakai.editor.siteId = '" + siteId + "';\n");
 			try {
-				Site site = siteHelper.getSiteVisit(siteId);
+				Site site = siteHelper.getSiteVisitSnapshot(siteId);
 				if (site != null) {
 					ResourceProperties rp = site.getProperties();
 					String ckeditorTemplates = (String) rp.getProperty("ckeditor_templates");
@@ -29,7 +29,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.sakaiproject.entity.api.ResourcePropertiesEdit;
+import org.sakaiproject.entity.api.ResourceProperties;
 import org.sakaiproject.portal.api.Portal;
 import org.sakaiproject.portal.api.PortalHandler;
 import org.sakaiproject.portal.api.PortalHandlerException;
@@ -162,7 +162,7 @@ public abstract class BasePortalHandler implements PortalHandler
 		String locale_string = null;
 		if(site != null)
 		{
-			ResourcePropertiesEdit props = site.getPropertiesEdit();
+			ResourceProperties props = site.getProperties();
 
 			locale_string = props.getProperty("locale_string");
 
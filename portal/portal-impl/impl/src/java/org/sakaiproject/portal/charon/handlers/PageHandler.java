@@ -130,7 +130,7 @@ public class PageHandler extends BasePortalHandler
 		Site site = null;
 		try
 		{
-			site = SiteService.getSiteVisit(page.getSiteId());
+			site = SiteService.getSiteVisitSnapshot(page.getSiteId());
 		}
 		catch (IdUnusedException e)
 		{
@@ -227,7 +227,7 @@ public class SiteHandler extends WorksiteHandler
 			try
 			{
 				// This should understand aliases as well as IDs
-				site = portal.getSiteHelper().getSiteVisit(siteId);
+				site = portal.getSiteHelper().getSiteVisitSnapshot(siteId);
 			}
 			catch (Exception e)
 			{
@@ -331,7 +331,7 @@ public class SiteHandler extends WorksiteHandler
 		try
 		{
 			// This should understand aliases as well as IDs
-			site = portal.getSiteHelper().getSiteVisit(siteId);
+			site = portal.getSiteHelper().getSiteVisitSnapshot(siteId);
 			
 			// SAK-20509 remap the siteId from the Site object we now have, since it may have originally been an alias, but has since been translated.
 			siteId = site.getId();
@@ -869,7 +869,7 @@ public class SiteHandler extends WorksiteHandler
 				Site activeSite = null;
 	            try
 	            {
-	            	activeSite = portal.getSiteHelper().getSiteVisit(siteId); // active site
+	            	activeSite = portal.getSiteHelper().getSiteVisitSnapshot(siteId); // active site
 	            }
             	catch(IdUnusedException ie)
 	            {
@@ -154,7 +154,7 @@ public class ToolHandler extends BasePortalHandler
 		{
 			try
 			{
-				site = SiteService.getSiteVisit(siteTool.getSiteId());
+				site = SiteService.getSiteVisitSnapshot(siteTool.getSiteId());
 			}
 			catch (IdUnusedException e)
 			{
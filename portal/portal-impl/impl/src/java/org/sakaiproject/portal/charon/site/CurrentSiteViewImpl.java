@@ -94,7 +94,7 @@ public class CurrentSiteViewImpl implements SiteView
 		if (initDone) return;
 		try
 		{
-			Site site = siteHelper.getSiteVisit(currentSiteId);
+			Site site = siteHelper.getSiteVisitSnapshot(currentSiteId);
 			siteMap = siteHelper
 					.convertSiteToMap(request, site, prefix, currentSiteId,
 							myWorkspaceSiteId, includeSummary,
@@ -95,7 +95,7 @@ public class DefaultSiteViewImpl extends AbstractSiteViewImpl
 		{
 			if (!siteFound)
 			{
-				mySites.add(siteService.getSite(currentSiteId));
+				mySites.add(siteService.getSiteSnapshot(currentSiteId));
 			}
 		}
 		catch (IdUnusedException e)
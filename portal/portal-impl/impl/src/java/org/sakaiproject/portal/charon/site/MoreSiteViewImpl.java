@@ -113,7 +113,7 @@ public class MoreSiteViewImpl extends AbstractSiteViewImpl
 		{
 			if (!siteFound)
 			{
-				mySites.add(siteService.getSite(currentSiteId));
+				mySites.add(siteService.getSiteSnapshot(currentSiteId));
 			}
 		}
 		catch (IdUnusedException e)
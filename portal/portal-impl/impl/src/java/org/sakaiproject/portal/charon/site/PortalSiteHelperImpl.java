@@ -192,7 +192,7 @@ public class PortalSiteHelperImpl implements PortalSiteHelper
 			Site site = null;
 			try
 			{
-				site = getSiteVisit(siteId);
+				site = getSiteVisitSnapshot(siteId);
 			}
 			catch (IdUnusedException e)
 			{
@@ -935,7 +935,7 @@ public class PortalSiteHelperImpl implements PortalSiteHelper
 		Site site = null;
 		try
 		{
-			site = getSiteVisit(siteId);
+			site = getSiteVisitSnapshot(siteId);
 		}
 		catch (IdUnusedException e)
 		{
@@ -1133,10 +1133,23 @@ public class PortalSiteHelperImpl implements PortalSiteHelper
 	 *         If not found.
 	 */
 	public Site getSiteVisit(String siteId) throws PermissionException, IdUnusedException
+	{
+		return getSiteVisit(siteId, false);
+	}
+
+	/**
+	 * @see org.sakaiproject.portal.api.PortalSiteHelper#getSiteVisitSnapshot(java.lang.String)
+	 */
+	public Site getSiteVisitSnapshot(String siteId) throws PermissionException, IdUnusedException
+	{
+		return getSiteVisit(siteId, true);
+	}
+
+	private Site getSiteVisit(String siteId, boolean snapshot) throws PermissionException, IdUnusedException
 	{
 		try
 		{
-			return SiteService.getSiteVisit(siteId);
+			return visitSite(siteId, snapshot);
 		}
 		catch (IdUnusedException e)
 		{
@@ -1147,7 +1160,7 @@ public class PortalSiteHelperImpl implements PortalSiteHelper
 					String userEid = SiteService.getSiteUserId(siteId);
 					String userId = UserDirectoryService.getUserId(userEid);
 					String alternateSiteId = SiteService.getUserSiteId(userId);
-					return SiteService.getSiteVisit(alternateSiteId);
+					return visitSite(alternateSiteId, snapshot);
 				}
 				catch (UserNotDefinedException ee)
 				{
@@ -1160,7 +1173,7 @@ public class PortalSiteHelperImpl implements PortalSiteHelper
 				{
 					Reference ref = EntityManager.getInstance().newReference(reference);
 					try {
-						return SiteService.getSiteVisit(ref.getId());
+						return visitSite(ref.getId(), snapshot);
 					} catch (IdUnusedException iue) {
 					}
 				}
@@ -1171,6 +1184,10 @@ public class PortalSiteHelperImpl implements PortalSiteHelper
 		}
 	}
 
+	private Site visitSite(String siteId, boolean snapshot) throws PermissionException, IdUnusedException
+	{
+		return snapshot ? SiteService.getSiteVisitSnapshot(siteId) : SiteService.getSiteVisit(siteId);
+	}
 
 
 	/**
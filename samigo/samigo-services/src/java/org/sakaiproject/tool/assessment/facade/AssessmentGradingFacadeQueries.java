@@ -102,7 +102,6 @@ import org.sakaiproject.tool.assessment.integration.context.IntegrationContextFa
 import org.sakaiproject.tool.assessment.integration.helper.ifc.GradebookServiceHelper;
 import org.sakaiproject.tool.assessment.services.ItemService;
 import org.sakaiproject.tool.assessment.services.PersistenceHelper;
-import org.sakaiproject.tool.assessment.services.assessment.EventLogService;
 import org.sakaiproject.tool.assessment.services.assessment.PublishedAssessmentService;
 import org.sakaiproject.tool.assessment.services.AutoSubmitAssessmentsJob;
 import org.sakaiproject.user.api.UserDirectoryService;
@@ -3512,181 +3511,248 @@ public class AssessmentGradingFacadeQueries extends HibernateDaoSupport implemen
 		return list;
 	}
 	
-	public void autoSubmitAssessments() {
-        String hql = "select new AssessmentGradingData(a.assessmentGradingId, a.publishedAssessmentId, " +
-                "a.agentId, a.submittedDate, a.isLate, a.forGrade, a.totalAutoScore, a.totalOverrideScore, " +
-                "a.finalScore, a.comments, a.status, a.gradedBy, a.gradedDate, a.attemptDate, a.timeElapsed) " +
-                "from AssessmentGradingData a, PublishedAccessControl c " +
-                "where a.publishedAssessmentId = c.assessment.publishedAssessmentId " +
-                "and c.retractDate <= :now " +
-                "and a.status != 5 " +
-                "and (a.hasAutoSubmissionRun = 0 or a.hasAutoSubmissionRun is null) " +
-                "and c.autoSubmit = 1 " +
-                "and a.attemptDate is not null " +
-                "and (a.attemptDate <= c.retractDate or (c.dueDate <= :now and c.lateHandling = 2)) " +
-                "order by a.publishedAssessmentId, a.agentId, a.forGrade desc, a.assessmentGradingId";
-
-        Session session = getHibernateTemplate().getSessionFactory().getCurrentSession();
-
-        List<AssessmentGradingData> list = session.createQuery(hql).setTimestamp("now", new Date()).list();
-        log.info("AutoSubmit found {} submissions to process", list.size());
-
-	    Iterator iter = list.iterator();
-	    String lastAgentId = "";
-	    Long lastPublishedAssessmentId = Long.valueOf(0);
-	    AssessmentGradingData adata = null;
-	    HashMap sectionSetMap = new HashMap();
-	    
-	    // SAM-1088 getting the assessment so we can check to see if last user attempt was after due date
-	    PublishedAssessmentFacade assessment = null;
-	    
-	    EventLogService eventService = new EventLogService();
-	    EventLogFacade eventLogFacade = new EventLogFacade();
-	    PublishedAssessmentService publishedAssessmentService = new PublishedAssessmentService();
-	    
-		GradebookExternalAssessmentService g = null;
-		boolean updateGrades = false;
-		HashMap toGradebookPublishedAssessmentSiteIdMap = null;
-		GradebookServiceHelper gbsHelper = null;
-		if (IntegrationContextFactory.getInstance() != null) {
-			boolean integrated = IntegrationContextFactory.getInstance().isIntegrated();
-			if (integrated) {
-				g = (GradebookExternalAssessmentService) SpringBeanLocator.getInstance().getBean("org.sakaiproject.service.gradebook.GradebookExternalAssessmentService");
+	private static final int MAX_IN_CLAUSE_SIZE = 1000;
+
+	private static final String AUTO_SUBMIT_CONDITIONS = "from AssessmentGradingData a, PublishedAccessControl c " +
+			"where a.publishedAssessmentId = c.assessment.publishedAssessmentId " +
+			"and c.retractDate <= :now " +
+			"and a.status != 5 " +
+			"and (a.hasAutoSubmissionRun = 0 or a.hasAutoSubmissionRun is null) " +
+			"and c.autoSubmit = 1 " +
+			"and a.attemptDate is not null " +
+			"and (a.attemptDate <= c.retractDate or (c.dueDate <= :now and c.lateHandling = 2)) ";
+
+	public List<Long> getAutoSubmitPublishedAssessmentIds(final Date now) {
+		final String hql = "select distinct a.publishedAssessmentId " + AUTO_SUBMIT_CONDITIONS +
+				"order by a.publishedAssessmentId";
+
+		final HibernateCallback hcb = new HibernateCallback() {
+			public Object doInHibernate(Session session) throws HibernateException, SQLException {
+				return session.createQuery(hql).setTimestamp("now", now).list();
+			}
+		};
+		return (List<Long>) getHibernateTemplate().executeFind(hcb);
+	}
+
+	public List<String> getAutoSubmitAgentIds(final Long publishedAssessmentId, final Date now, final String afterAgentId, final int pageSize) {
+		final String hql = "select distinct a.agentId " + AUTO_SUBMIT_CONDITIONS +
+				"and a.publishedAssessmentId = :publishedAssessmentId " +
+				(afterAgentId != null ? "and a.agentId > :afterAgentId " : "") +
+				"order by a.agentId";
+
+		final HibernateCallback hcb = new HibernateCallback() {
+			public Object doInHibernate(Session session) throws HibernateException, SQLException {
+				Query q = session.createQuery(hql);
+				q.setTimestamp("now", now);
+				q.setLong("publishedAssessmentId", publishedAssessmentId);
+				if (afterAgentId != null) {
+					q.setString("afterAgentId", afterAgentId);
+				}
+				q.setMaxResults(pageSize);
+				return q.list();
 			}
-			toGradebookPublishedAssessmentSiteIdMap = publishedAssessmentService.getToGradebookPublishedAssessmentSiteIdMap();
-			gbsHelper = IntegrationContextFactory.getInstance().getGradebookServiceHelper();
-			updateGrades = true;
+		};
+		return (List<String>) getHibernateTemplate().executeFind(hcb);
+	}
+
+	public int autoSubmitAssessments(final Long publishedAssessmentId, final List<String> agentIds, final Date now) {
+		if (agentIds == null || agentIds.isEmpty()) {
+			return 0;
 		}
-		boolean updateCurrentGrade;
-	    while (iter.hasNext()) {
-	    	updateCurrentGrade = false;
-            Map<String, Object> notiValues = new HashMap<>();
-	    	try{
-	    		adata = (AssessmentGradingData) iter.next();
-	    		adata.setHasAutoSubmissionRun(Boolean.TRUE);
-	    		
+
+		final String hql = "select new AssessmentGradingData(a.assessmentGradingId, a.publishedAssessmentId, " +
+				"a.agentId, a.submittedDate, a.isLate, a.forGrade, a.totalAutoScore, a.totalOverrideScore, " +
+				"a.finalScore, a.comments, a.status, a.gradedBy, a.gradedDate, a.attemptDate, a.timeElapsed) " +
+				AUTO_SUBMIT_CONDITIONS +
+				"and a.publishedAssessmentId = :publishedAssessmentId " +
+				"and a.agentId in (:agentIds) " +
+				"order by a.agentId, a.forGrade desc, a.assessmentGradingId";
+
+		Session session = getHibernateTemplate().getSessionFactory().getCurrentSession();
+		List<AssessmentGradingData> list = session.createQuery(hql)
+				.setTimestamp("now", now)
+				.setLong("publishedAssessmentId", publishedAssessmentId)
+				.setParameterList("agentIds", agentIds)
+				.list();
+		if (list.isEmpty()) {
+			return 0;
+		}
+
+		// everything about the assessment is loaded once for the page rather than once per submission
+		PublishedAssessmentService publishedAssessmentService = new PublishedAssessmentService();
+		// SAM-1088 getting the assessment so we can check to see if last user attempt was after due date
+		PublishedAssessmentFacade assessment = (PublishedAssessmentFacade) publishedAssessmentService.getAssessment(publishedAssessmentId);
+		boolean highestScore = assessment.getEvaluationModel() != null
+				&& EvaluationModel.HIGHEST_SCORE.equals(assessment.getEvaluationModel().getScoringType());
+		HashMap sectionSetMap = new HashMap();
+		Map<Long, EventLogData> eventLogs = getLatestEventLogData(list);
+
+		String lastAgentId = "";
+		int submitted = 0;
+		Map<String, Double> studentScores = new HashMap<>();
+		for (AssessmentGradingData adata : list) {
+			boolean updateCurrentGrade = false;
+			Map<String, Object> notiValues = new HashMap<>();
+			try {
+				adata.setHasAutoSubmissionRun(Boolean.TRUE);
+
 				Date endDate = new Date();
-				if (Boolean.FALSE.equals(adata.getForGrade())){
+				if (Boolean.FALSE.equals(adata.getForGrade())) {
 
-						adata.setForGrade(Boolean.TRUE);
-						if (adata.getTotalAutoScore() == null) {
-								adata.setTotalAutoScore(0d);
-						}
-						if (adata.getFinalScore() == null) {
-								adata.setFinalScore(0d);
-						}
-						if (adata.getAttemptDate() != null && assessment != null && assessment.getDueDate() != null &&
-										adata.getAttemptDate().after(assessment.getDueDate())) {
-								adata.setIsLate(true);
-						}
-						// SAM-1088
-						else if (adata.getSubmittedDate() != null && assessment != null && assessment.getDueDate() != null &&
-										adata.getSubmittedDate().after(assessment.getDueDate())) {
-								adata.setIsLate(true);
+					adata.setForGrade(Boolean.TRUE);
+					if (adata.getTotalAutoScore() == null) {
+						adata.setTotalAutoScore(0d);
+					}
+					if (adata.getFinalScore() == null) {
+						adata.setFinalScore(0d);
+					}
+					if (adata.getAttemptDate() != null && assessment.getDueDate() != null &&
+							adata.getAttemptDate().after(assessment.getDueDate())) {
+						adata.setIsLate(true);
+					}
+					// SAM-1088
+					else if (adata.getSubmittedDate() != null && assessment.getDueDate() != null &&
+							adata.getSubmittedDate().after(assessment.getDueDate())) {
+						adata.setIsLate(true);
+					}
+					// SAM-2729 user probably opened assessment and then never submitted a question
+					if (adata.getSubmittedDate() == null && adata.getAttemptDate() != null) {
+						adata.setSubmittedDate(endDate);
+					}
+
+					updateCurrentGrade = true;
+					adata.setIsAutoSubmitted(Boolean.TRUE);
+					if (lastAgentId.equals(adata.getAgentId())) {
+						adata.setStatus(AssessmentGradingData.AUTOSUBMIT_UPDATED);
+
+						// Check: needed updating gradebook
+						// If the assessment is configured with highest score and exists a previous submission with higher score 
+						// this submission doesn't have to be sent to gradebook
+						if (highestScore) {
+							AssessmentGradingData assessmentGrading = 
+									getHighestSubmittedAssessmentGrading(adata.getPublishedAssessmentId(), adata.getAgentId(), null);
+							if (assessmentGrading.getTotalAutoScore() > adata.getTotalAutoScore()) {
+								updateCurrentGrade = false;
+							}
 						}
-						// SAM-2729 user probably opened assessment and then never submitted a question
-						if (adata.getSubmittedDate() == null && adata.getAttemptDate() != null) {
-								adata.setSubmittedDate(endDate);
+					}
+					else {
+						adata.setStatus(AssessmentGradingData.SUBMITTED);
+					}
+					completeItemGradingData(adata, sectionSetMap);
+
+					EventLogData eventLogData = eventLogs.get(adata.getAssessmentGradingId());
+					if (eventLogData != null) {
+						//will do the i18n issue later.
+						eventLogData.setErrorMsg("No Errors (Auto submit)");
+						eventLogData.setEndDate(endDate);
+						if(eventLogData.getStartDate() != null) {
+							double minute= 1000*60;
+							int eclipseTime = (int)Math.ceil(((endDate.getTime() - eventLogData.getStartDate().getTime())/minute));
+							eventLogData.setEclipseTime(eclipseTime); 
+						} else {
+							eventLogData.setEclipseTime(null); 
+							eventLogData.setErrorMsg("Error during auto submit");
 						}
+						getHibernateTemplate().saveOrUpdate(eventLogData);
+					}
 
-    				updateCurrentGrade = true;
-    				adata.setIsAutoSubmitted(Boolean.TRUE);
-    				if (lastPublishedAssessmentId.equals(adata.getPublishedAssessmentId()) 
-    						&& lastAgentId.equals(adata.getAgentId())) {
-    					adata.setStatus(AssessmentGradingData.AUTOSUBMIT_UPDATED);
-
-        				// Check: needed updating gradebook
-        				// If the assessment is configured with highest score and exists a previous submission with higher score 
-        				// this submission doesn't have to be sent to gradebook
-        				assessment = (PublishedAssessmentFacade)publishedAssessmentService.getAssessment(adata.getPublishedAssessmentId());
-        				
-        				if (assessment.getEvaluationModel().getScoringType().equals(EvaluationModel.HIGHEST_SCORE)) {
-        					AssessmentGradingData assessmentGrading = 
-        							getHighestSubmittedAssessmentGrading(adata.getPublishedAssessmentId(), adata.getAgentId(), null);
-        					if (assessmentGrading.getTotalAutoScore() > adata.getTotalAutoScore()) {
-        						updateCurrentGrade = false;
-        					}
-        				}
-    				}
-    				else {
-    					adata.setStatus(AssessmentGradingData.SUBMITTED);
-    				}
-    				completeItemGradingData(adata, sectionSetMap);
-
-    				List eventLogDataList = eventService.getEventLogData(adata.getAssessmentGradingId());
-    				if (!eventLogDataList.isEmpty()) {
-    					EventLogData eventLogData= (EventLogData) eventLogDataList.get(0);
-    					//will do the i18n issue later.
-    					eventLogData.setErrorMsg("No Errors (Auto submit)");
-    					eventLogData.setEndDate(endDate);
-    					if(eventLogData.getStartDate() != null) {
-    						double minute= 1000*60;
-    						int eclipseTime = (int)Math.ceil(((endDate.getTime() - eventLogData.getStartDate().getTime())/minute));
-    						eventLogData.setEclipseTime(eclipseTime); 
-    					} else {
-    						eventLogData.setEclipseTime(null); 
-    						eventLogData.setErrorMsg("Error during auto submit");
-    					}
-    					eventLogFacade.setData(eventLogData);
-    					eventService.saveOrUpdateEventLog(eventLogFacade);
-    				}
+					EventTrackingService.post(EventTrackingService.newEvent("sam.auto-submit.job", 
+							AutoSubmitAssessmentsJob.safeEventLength("publishedAssessmentId=" + adata.getPublishedAssessmentId() + 
+									", assessmentGradingId=" + adata.getAssessmentGradingId()), true));
 
-    				EventTrackingService.post(EventTrackingService.newEvent("sam.auto-submit.job", 
-    						AutoSubmitAssessmentsJob.safeEventLength("publishedAssessmentId=" + adata.getPublishedAssessmentId() + 
-    								", assessmentGradingId=" + adata.getAssessmentGradingId()), true));
-    				
-    				notiValues.put("publishedAssessmentID", adata.getPublishedAssessmentId());
-    				notiValues.put("assessmentGradingID", adata.getAssessmentGradingId());
-    				notiValues.put("userID", adata.getAgentId());
-    				notiValues.put("submissionDate", adata.getSubmittedDate());
-
-    				PublishedAssessmentFacade publishedAssessment = publishedAssessmentService.getPublishedAssessment( adata.getPublishedAssessmentId().toString() );
-    				String confirmationNumber = adata.getAssessmentGradingId() + "-" + publishedAssessment.getPublishedAssessmentId() + "-"
-    					+ adata.getAgentId() + "-" + adata.getSubmittedDate().toString();
-    				notiValues.put( "confirmationNumber", confirmationNumber );
-
-    				EventTrackingService.post(EventTrackingService.newEvent(SamigoConstants.EVENT_ASSESSMENT_AUTO_SUBMITTED, notiValues.toString(), AgentFacade.getCurrentSiteId(), false, SamigoConstants.NOTI_EVENT_ASSESSMENT_SUBMITTED));
-    			}
+					notiValues.put("publishedAssessmentID", adata.getPublishedAssessmentId());
+					notiValues.put("assessmentGradingID", adata.getAssessmentGradingId());
+					notiValues.put("userID", adata.getAgentId());
+					notiValues.put("submissionDate", adata.getSubmittedDate());
 
-	    		lastPublishedAssessmentId = adata.getPublishedAssessmentId();
-    			lastAgentId = adata.getAgentId();
-
-	    		//we only want to save one at a time to help the job continue when there's an error 
-    			getHibernateTemplate().saveOrUpdate(adata);
-    			//update grades
-    			if(updateGrades && updateCurrentGrade && toGradebookPublishedAssessmentSiteIdMap.containsKey(adata.getPublishedAssessmentId())) {
-    				String currentSiteId = (String) toGradebookPublishedAssessmentSiteIdMap.get(adata.getPublishedAssessmentId());
-    				if (gbsHelper.gradebookExists(GradebookFacade.getGradebookUId(currentSiteId), g)){
-    					int retryCount = persistenceHelper.getRetryCount();
-    					while (retryCount > 0){
-    						try {
-    							Map<String, Double> studentScore = new HashMap<>();
-    							studentScore.put(adata.getAgentId(),adata.getFinalScore());
-    							gbsHelper.updateExternalAssessmentScores(adata.getPublishedAssessmentId(), studentScore, g);
-    							retryCount = 0;
-    						}
-    						catch (Exception e) {
-    							if(adata != null){
-    				    			log.error("Error while updating external assessment score during auto submitting assessment grade data id: " + adata.getAssessmentGradingId(), e);
-    				    		}else{
-    				    			log.error(e.getMessage(), e);
-    				    		}
-    							retryCount = persistenceHelper.retryDeadlock(e, retryCount);
-    						}
-    					}
-    				}
-    			}
+					String confirmationNumber = adata.getAssessmentGradingId() + "-" + publishedAssessmentId + "-"
+							+ adata.getAgentId() + "-" + adata.getSubmittedDate().toString();
+					notiValues.put( "confirmationNumber", confirmationNumber );
 
-    			adata = null;
-	    	}catch (Exception e) {
-	    		if(adata != null){
-	    			log.error("Error while auto submitting assessment grade data id: " + adata.getAssessmentGradingId(), e);
-	    		}else{
-	    			log.error(e.getMessage(), e);
-	    		}
+					EventTrackingService.post(EventTrackingService.newEvent(SamigoConstants.EVENT_ASSESSMENT_AUTO_SUBMITTED, notiValues.toString(), AgentFacade.getCurrentSiteId(), false, SamigoConstants.NOTI_EVENT_ASSESSMENT_SUBMITTED));
+				}
+
+				lastAgentId = adata.getAgentId();
+
+				getHibernateTemplate().saveOrUpdate(adata);
+				submitted++;
+				if (updateCurrentGrade) {
+					studentScores.put(adata.getAgentId(), adata.getFinalScore());
+				}
+			} catch (Exception e) {
+				log.error("Error while auto submitting assessment grade data id: " + adata.getAssessmentGradingId(), e);
 			}
-	    }
-	    
+		}
+
+		if (!studentScores.isEmpty()) {
+			updateAutoSubmittedScores(assessment, studentScores);
+		}
+		return submitted;
+	}
+
+	/**
+	 * The most recent event log entry of each submission, without the user lookups getEventLogData does for display.
+	 */
+	private Map<Long, EventLogData> getLatestEventLogData(List<AssessmentGradingData> gradings) {
+		final List<Long> gradingIds = new ArrayList<>(gradings.size());
+		for (AssessmentGradingData grading : gradings) {
+			gradingIds.add(grading.getAssessmentGradingId());
+		}
+
+		final HibernateCallback hcb = new HibernateCallback() {
+			public Object doInHibernate(Session session) throws HibernateException, SQLException {
+				List rtn = new ArrayList();
+				Query q = session.createQuery("select eld from EventLogData as eld where eld.processId in (:processIds) order by eld.id desc");
+				for (int i = 0; i < gradingIds.size(); i += MAX_IN_CLAUSE_SIZE) {
+					q.setParameterList("processIds", gradingIds.subList(i, Math.min(i + MAX_IN_CLAUSE_SIZE, gradingIds.size())));
+					rtn.addAll(q.list());
+				}
+				return rtn;
+			}
+		};
+
+		Map<Long, EventLogData> latest = new HashMap<>();
+		for (Object o : getHibernateTemplate().executeFind(hcb)) {
+			EventLogData eventLogData = (EventLogData) o;
+			Long processId = eventLogData.getProcessId();
+			if (!latest.containsKey(processId) || latest.get(processId).getEventLogId() < eventLogData.getEventLogId()) {
+				latest.put(processId, eventLogData);
+			}
+		}
+		return latest;
+	}
+
+	/**
+	 * Send the scores of a page of auto submitted students to the gradebook in one update.
+	 */
+	private void updateAutoSubmittedScores(PublishedAssessmentFacade assessment, Map<String, Double> studentScores) {
+		if (IntegrationContextFactory.getInstance() == null || assessment.getEvaluationModel() == null
+				|| !EvaluationModelIfc.TO_DEFAULT_GRADEBOOK.toString().equals(assessment.getEvaluationModel().getToGradeBook())) {
+			return;
+		}
+
+		GradebookExternalAssessmentService g = null;
+		if (IntegrationContextFactory.getInstance().isIntegrated()) {
+			g = (GradebookExternalAssessmentService) SpringBeanLocator.getInstance().getBean("org.sakaiproject.service.gradebook.GradebookExternalAssessmentService");
+		}
+		GradebookServiceHelper gbsHelper = IntegrationContextFactory.getInstance().getGradebookServiceHelper();
+		String currentSiteId = new PublishedAssessmentService().getPublishedAssessmentOwner(assessment.getPublishedAssessmentId());
+		if (currentSiteId == null || !gbsHelper.gradebookExists(GradebookFacade.getGradebookUId(currentSiteId), g)) {
+			return;
+		}
+
+		int retryCount = persistenceHelper.getRetryCount();
+		while (retryCount > 0) {
+			try {
+				gbsHelper.updateExternalAssessmentScores(assessment.getPublishedAssessmentId(), studentScores, g);
+				retryCount = 0;
+			}
+			catch (Exception e) {
+				log.error("Error while updating external assessment scores during auto submit of published assessment id: " + assessment.getPublishedAssessmentId(), e);
+				retryCount = persistenceHelper.retryDeadlock(e, retryCount);
+			}
+		}
 	}
 
 	private String makeHeader(String section, int sectionNumber, String question, String headerType, int questionNumber, String pool, String poolName) {
@@ -259,7 +259,22 @@ public interface AssessmentGradingFacadeQueriesAPI
   
   public List getSiteNeedResubmitList(String siteId);
   
-  public void autoSubmitAssessments();
+  /**
+   * @return the published assessments that have submissions due to be auto submitted
+   */
+  public List<Long> getAutoSubmitPublishedAssessmentIds(Date now);
+
+  /**
+   * Page through the students with submissions due to be auto submitted, in agent id order.
+   * @param afterAgentId the last agent of the previous page, or null for the first page
+   */
+  public List<String> getAutoSubmitAgentIds(Long publishedAssessmentId, Date now, String afterAgentId, int pageSize);
+
+  /**
+   * Auto submit the due submissions of a page of students and send their scores to the gradebook in one update.
+   * @return the number of submissions saved
+   */
+  public int autoSubmitAssessments(Long publishedAssessmentId, List<String> agentIds, Date now);
   
   public ItemGradingAttachment createItemGradingtAttachment(ItemGradingData itemGrading, String resourceId, String filename, String protocol);
   
@@ -56,6 +56,7 @@ import org.apache.commons.math3.exception.MathParseException;
 import org.apache.commons.math3.util.Precision;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.sakaiproject.component.cover.ServerConfigurationService;
 import org.sakaiproject.event.cover.EventTrackingService;
 import org.sakaiproject.service.gradebook.shared.GradebookExternalAssessmentService;
 import org.sakaiproject.spring.SpringBeanLocator;
@@ -74,6 +75,7 @@ import org.sakaiproject.tool.assessment.data.ifc.assessment.PublishedAssessmentI
 import org.sakaiproject.tool.assessment.data.ifc.grading.StudentGradingSummaryIfc;
 import org.sakaiproject.tool.assessment.data.ifc.shared.TypeIfc;
 import org.sakaiproject.tool.assessment.facade.AgentFacade;
+import org.sakaiproject.tool.assessment.facade.AssessmentGradingFacadeQueriesAPI;
 import org.sakaiproject.tool.assessment.facade.GradebookFacade;
 import org.sakaiproject.tool.assessment.facade.TypeFacade;
 import org.sakaiproject.tool.assessment.facade.TypeFacadeQueriesAPI;
@@ -3385,13 +3387,54 @@ Here are the definition and 12 cases I came up with (lydia, 01/2006):
 	    return list;
   }
   
+  /**
+   * Auto submit everything that is due, one published assessment at a time and a page of students at a time. Each
+   * page is its own transaction, so a long run keeps what it has done if it stops, and the next run carries on from
+   * the submissions that haven't been marked as auto submitted.
+   */
   public void autoSubmitAssessments() {
+	  AssessmentGradingFacadeQueriesAPI queries = PersistenceService.getInstance().getAssessmentGradingFacadeQueries();
+	  int pageSize = Math.min(Math.max(ServerConfigurationService.getInt("samigo.autoSubmit.pageSize", 100), 1), 1000);
+	  Date now = new Date();
+	  long start = System.currentTimeMillis();
+	  int assessments = 0;
+	  int pages = 0;
+	  int failedPages = 0;
+	  int submitted = 0;
 	  try {
-		  PersistenceService.getInstance().
-		  getAssessmentGradingFacadeQueries().autoSubmitAssessments();
+		  List<Long> publishedAssessmentIds = queries.getAutoSubmitPublishedAssessmentIds(now);
+		  log.info("AutoSubmit found {} published assessments with submissions to process", publishedAssessmentIds.size());
+
+		  for (Long publishedAssessmentId : publishedAssessmentIds) {
+			  int assessmentSubmitted = 0;
+			  String lastAgentId = null;
+			  List<String> agentIds;
+			  do {
+				  agentIds = queries.getAutoSubmitAgentIds(publishedAssessmentId, now, lastAgentId, pageSize);
+				  if (agentIds.isEmpty()) {
+					  break;
+				  }
+				  pages++;
+				  try {
+					  assessmentSubmitted += queries.autoSubmitAssessments(publishedAssessmentId, agentIds, now);
+				  } catch (Exception e) {
+					  // the page was rolled back, its submissions will be picked up again by the next run
+					  failedPages++;
+					  log.error("AutoSubmit failed for a page of " + agentIds.size() + " students in published assessment " + publishedAssessmentId, e);
+				  }
+				  lastAgentId = agentIds.get(agentIds.size() - 1);
+			  } while (agentIds.size() == pageSize);
+
+			  assessments++;
+			  submitted += assessmentSubmitted;
+			  log.info("AutoSubmit submitted {} in published assessment {} ({} of {} assessments, {} submitted so far)",
+					  assessmentSubmitted, publishedAssessmentId, assessments, publishedAssessmentIds.size(), submitted);
+		  }
 	  } catch (Exception e) {
 		  log.error(e.getMessage(), e);
 	  }
+	  log.info("AutoSubmit finished: {} submitted in {} assessments, {} pages ({} failed), took {}ms",
+			  submitted, assessments, pages, failedPages, System.currentTimeMillis() - start);
   }
   
   public ItemGradingAttachment createItemGradingAttachment(
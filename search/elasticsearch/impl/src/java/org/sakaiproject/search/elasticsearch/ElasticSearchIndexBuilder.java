@@ -25,6 +25,7 @@ import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.admin.indices.create.CreateIndexRequest;
 import org.elasticsearch.action.admin.indices.create.CreateIndexResponse;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
@@ -71,6 +72,15 @@ import java.lang.Exception;
 import java.lang.String;
 import java.lang.System;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 import static org.elasticsearch.index.query.FilterBuilders.*;
@@ -100,12 +110,37 @@ public class ElasticSearchIndexBuilder implements SearchIndexBuilder {
     private int contentIndexBatchSize = 500;
 
     /**
-     * Number of actions to send in one elasticsearch bulk index call
-     * defaults to 10.  Setting this
-     * to too high a number will have memory implications as you'll be keeping
-     * more content in memory until the request is executed.
+     * Most actions to send in one elasticsearch bulk index call (defaults to 100).
+     * A bulk call is sent as soon as it reaches either this or bulkRequestMaxBytes,
+     * so large documents go out in smaller batches.
      */
-    private int bulkRequestSize = 10;
+    private int bulkRequestSize = 100;
+
+    /**
+     * Most bytes of documents to send in one elasticsearch bulk index call (defaults to 5MB).  This bounds
+     * how much content is kept in memory until the request is executed.
+     */
+    private long bulkRequestMaxBytes = 5 * 1024 * 1024;
+
+    /**
+     * Number of threads digesting content from the EntityContentProducers (defaults to 4).
+     */
+    private int contentExtractionThreads = 4;
+
+    /**
+     * Most bulk index calls in flight at once (defaults to 2).  When this many are waiting on elasticsearch
+     * the indexing thread stops handing out more work until one of them returns.
+     */
+    private int maxConcurrentBulkRequests = 2;
+
+    private ExecutorService contentExtractionExecutor;
+    private Semaphore bulkRequestPermits;
+
+    private final AtomicLong indexedDocuments = new AtomicLong();
+    private final AtomicLong failedDocuments = new AtomicLong();
+    private final AtomicLong bulkRequests = new AtomicLong();
+    private final AtomicLong bulkRequestTime = new AtomicLong();
+    private volatile double lastRunDocumentsPerSecond = 0;
 
     /**
      * by default the mapping in configured in the mapping.json file.  This can be overridden by injecting
@@ -200,6 +235,16 @@ public class ElasticSearchIndexBuilder implements SearchIndexBuilder {
             ignoredSitesList.add("PortfolioAdmin");
         }
 
+        final AtomicInteger extractorCount = new AtomicInteger();
+        contentExtractionExecutor = Executors.newFixedThreadPool(contentExtractionThreads, r -> {
+            Thread thread = new Thread(r, "[elasticsearch content extractor " + extractorCount.incrementAndGet() + "]");
+            thread.setDaemon(true);
+            // let's not hog the whole CPU, digesting content can take a while
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+        bulkRequestPermits = new Semaphore(maxConcurrentBulkRequests);
+
          // if there is a value here its been overridden by injection, we will use the overridden configuration
         if (org.apache.commons.lang.StringUtils.isEmpty(mapping)) {
             try {
@@ -456,39 +501,29 @@ public class ElasticSearchIndexBuilder implements SearchIndexBuilder {
             deleteAllDocumentForSite(siteId);
 
             long start = System.currentTimeMillis();
-            int numberOfDocs = 0;
 
-            BulkRequestBuilder bulkRequest = client.prepareBulk();
+            BulkIndexer indexer = new BulkIndexer();
+            int numberOfDocs;
 
-            for (final EntityContentProducer ecp : getProducers()) {
-
-                for (Iterator<String> i = ecp.getSiteContentIterator(siteId); i.hasNext(); ) {
+            try {
+                for (final EntityContentProducer ecp : getProducers()) {
 
-                    if (bulkRequest.numberOfActions() < bulkRequestSize) {
-                        String reference = i.next();
+                    for (Iterator<String> i = ecp.getSiteContentIterator(siteId); i.hasNext(); ) {
+                        final String reference = i.next();
 
-                        if (StringUtils.isNotBlank(ecp.getContent(reference))) {
-                            //updating was causing issues without a _source, so doing delete and re-add
-                            try {
-                                deleteDocument(ecp.getId(reference), ecp.getSiteId(reference));
-                                bulkRequest.add(prepareIndex(reference, ecp, false));
-                                numberOfDocs++;
-                            } catch (Exception e) {
-                                log.error(e.getMessage(), e);
+                        indexer.add(() -> {
+                            if (StringUtils.isBlank(ecp.getContent(reference))) {
+                                return null;
                             }
-                        }
-
-                    } else {
-                        executeBulkRequest(bulkRequest);
-                        bulkRequest = client.prepareBulk();
+                            //updating was causing issues without a _source, so doing delete and re-add
+                            deleteDocument(ecp.getId(reference), ecp.getSiteId(reference));
+                            return prepareIndex(reference, ecp, false);
+                        });
                     }
                 }
-
-                // execute any remaining bulks requests not executed yet
-                if (bulkRequest.numberOfActions() > 0) {
-                    executeBulkRequest(bulkRequest);
-                }
-
+            } finally {
+                // even if a producer failed, don't leave extractions running or bulk requests unsent
+                numberOfDocs = indexer.finish();
             }
 
             log.info("Queued " + numberOfDocs + " docs for indexing from site: " + siteId + " in " + (System.currentTimeMillis() - start) + " ms");
@@ -602,46 +637,46 @@ public class ElasticSearchIndexBuilder implements SearchIndexBuilder {
                 .execute().actionGet();
 
         SearchHit[] hits = response.getHits().hits();
-        List<NoContentException> noContentExceptions = new ArrayList();
+        final Collection<NoContentException> noContentExceptions = new ConcurrentLinkedQueue<NoContentException>();
         log.debug(getPendingDocuments() + " pending docs.");
 
-        BulkRequestBuilder bulkRequest = client.prepareBulk();
+        BulkIndexer indexer = new BulkIndexer();
+        int numberOfDocs = 0;
 
-        for (SearchHit hit : hits) {
-
-            if (bulkRequest.numberOfActions() < bulkRequestSize) {
-                String reference = getFieldFromSearchHit(SearchService.FIELD_REFERENCE, hit);
-                String siteId = getFieldFromSearchHit(SearchService.FIELD_SITEID, hit);
+        try {
+            try {
+                for (final SearchHit hit : hits) {
+                    final String reference = getFieldFromSearchHit(SearchService.FIELD_REFERENCE, hit);
+                    final String siteId = getFieldFromSearchHit(SearchService.FIELD_SITEID, hit);
 
-                EntityContentProducer ecp = getContentProducerForReference(reference);
+                    final EntityContentProducer ecp = getContentProducerForReference(reference);
 
-                if (ecp != null) {
-                    //updating was causing issues without a _source, so doing delete and re-add
-                    try {
-                        deleteDocument(hit.getId(), siteId);
-                        bulkRequest.add(prepareIndex(reference, ecp, true));
-                    } catch (NoContentException e) {
+                    if (ecp != null) {
+                        indexer.add(() -> {
+                            //updating was causing issues without a _source, so doing delete and re-add
+                            try {
+                                deleteDocument(hit.getId(), siteId);
+                                return prepareIndex(reference, ecp, true);
+                            } catch (NoContentException e) {
+                                noContentExceptions.add(new NoContentException(hit.getId(), reference, siteId));
+                                return null;
+                            }
+                        });
+                    } else {
+                        // if there is no content to index remove the doc, its pointless to have it included in the index
+                        // and we will just waste cycles looking at it again everytime this thread runs, and will probably
+                        // never finish because of it.
                         noContentExceptions.add(new NoContentException(hit.getId(), reference, siteId));
-                    } catch (Exception e) {
-                        log.error(e.getMessage(), e);
-                     }
-                } else {
-                    // if there is no content to index remove the doc, its pointless to have it included in the index
-                    // and we will just waste cycles looking at it again everytime this thread runs, and will probably
-                    // never finish because of it.
-                    noContentExceptions.add(new NoContentException(hit.getId(), reference, siteId));
 
+                    }
                 }
-
-            } else {
-                executeBulkRequest(bulkRequest);
-                bulkRequest = client.prepareBulk();
+            } finally {
+                // even if digesting a hit failed, don't leave extractions running or bulk requests unsent
+                numberOfDocs = indexer.finish();
             }
-        }
-
-        // execute any remaining bulks requests not executed yet
-        if (bulkRequest.numberOfActions() > 0) {
-            executeBulkRequest(bulkRequest);
+        } catch (InterruptedException e) {
+            log.warn("content indexing interrupted");
+            Thread.currentThread().interrupt();
         }
 
         // remove any docs without content, so we don't try to index them again
@@ -654,8 +689,9 @@ public class ElasticSearchIndexBuilder implements SearchIndexBuilder {
         lastLoad = System.currentTimeMillis();
 
         if (hits.length > 0) {
-            log.info("Finished indexing " + hits.length + " docs in " +
-                    ((lastLoad - startTime)) + " ms");
+            lastRunDocumentsPerSecond = numberOfDocs * 1000d / Math.max(1, lastLoad - startTime);
+            log.info("Finished indexing " + numberOfDocs + " of " + hits.length + " docs in " +
+                    ((lastLoad - startTime)) + " ms (" + Math.round(lastRunDocumentsPerSecond) + " docs/s)");
         }
 
     }
@@ -676,36 +712,152 @@ public class ElasticSearchIndexBuilder implements SearchIndexBuilder {
         deleteDocument(noContentException.getId(), noContentException.getSiteId());
     }
 
+    /**
+     * Sends the bulk request to elasticsearch without waiting for the response, unless maxConcurrentBulkRequests
+     * are already in flight, in which case this waits for one of those to return first.
+     */
     protected void executeBulkRequest(BulkRequestBuilder bulkRequest) {
-        BulkResponse bulkResponse = bulkRequest.execute().actionGet();
+        final int numberOfActions = bulkRequest.numberOfActions();
+        final long sizeInBytes = bulkRequest.request().estimatedSizeInBytes();
+
+        bulkRequestPermits.acquireUninterruptibly();
+        final long start = System.currentTimeMillis();
+        try {
+            bulkRequest.execute(new ActionListener<BulkResponse>() {
+                public void onResponse(BulkResponse bulkResponse) {
+                    try {
+                        bulkRequests.incrementAndGet();
+                        bulkRequestTime.addAndGet(System.currentTimeMillis() - start);
+                        log.info("bulk request of batch size: " + numberOfActions + " (" + sizeInBytes + " bytes) took " + bulkResponse.getTookInMillis() + " ms");
+                        processBulkResponse(bulkResponse);
+                    } finally {
+                        bulkRequestPermits.release();
+                    }
+                }
 
-        log.info("bulk request of batch size: " + bulkRequest.numberOfActions() + " took " + bulkResponse.getTookInMillis() + " ms");
+                public void onFailure(Throwable t) {
+                    bulkRequestPermits.release();
+                    failedDocuments.addAndGet(numberOfActions);
+                    log.error("bulk request of batch size: " + numberOfActions + " failed: " + t.getMessage(), t);
+                }
+            });
+        } catch (RuntimeException e) {
+            bulkRequestPermits.release();
+            throw e;
+        }
+    }
 
+    /**
+     * Waits until none of the bulk requests sent by {@link #executeBulkRequest(BulkRequestBuilder)} are in flight.
+     */
+    protected void awaitBulkRequests() {
+        bulkRequestPermits.acquireUninterruptibly(maxConcurrentBulkRequests);
+        bulkRequestPermits.release(maxConcurrentBulkRequests);
+    }
+
+    protected void processBulkResponse(BulkResponse bulkResponse) {
         for (BulkItemResponse response : bulkResponse.getItems()) {
 
-            if (response.getResponse() instanceof DeleteResponse) {
+            if (response.isFailed()) {
+                if ("delete".equals(response.getOpType())) {
+                    log.error("problem deleting doc: " + response.getId() + " error: " + response.getFailureMessage());
+                } else {
+                    failedDocuments.incrementAndGet();
+                    log.error("problem updating content for doc: " + response.getId() + " error: " + response.getFailureMessage());
+                }
+            } else if (response.getResponse() instanceof DeleteResponse) {
                 DeleteResponse deleteResponse = (DeleteResponse) response.getResponse();
 
-                if (response.isFailed()) {
-                    log.error("problem deleting doc: " + response.getId() + " error: " + response.getFailureMessage());
-                } else if (!deleteResponse.isFound()) {
+                if (!deleteResponse.isFound()) {
                     log.debug("ES could not find a doc with id: " + deleteResponse.getId() + " to delete.");
                 } else {
                     log.debug("ES deleted a doc with id: " + deleteResponse.getId());
                 }
-            }
-            if (response.getResponse() instanceof IndexResponse) {
+            } else if (response.getResponse() instanceof IndexResponse) {
                 IndexResponse indexResponse = (IndexResponse) response.getResponse();
+                indexedDocuments.incrementAndGet();
+                log.debug("ES indexed content for doc with id: " + indexResponse.getId());
+            }
 
-                if (response.isFailed()) {
-                    log.error("problem updating content for doc: " + response.getId() + " error: " + response.getFailureMessage());
-                } else {
-                    log.debug("ES indexed content for doc with id: " + indexResponse.getId());
+        }
+
+    }
+
+    /**
+     * Digests content on the content extraction threads and hands the results to bulk requests in the order they
+     * were added.  No more than two documents per extraction thread are held at once, so a site with a lot of
+     * content is never all in memory, and a bulk request is sent as soon as it holds bulkRequestSize documents or
+     * bulkRequestMaxBytes of them.
+     */
+    protected class BulkIndexer {
+        private final Deque<Future<IndexRequestBuilder>> extractions = new ArrayDeque<Future<IndexRequestBuilder>>();
+        private BulkRequestBuilder bulkRequest = client.prepareBulk();
+        private int numberOfDocs = 0;
+
+        /**
+         * @param extraction builds the index request for one document, or returns null if there is nothing to index
+         */
+        public void add(final Callable<IndexRequestBuilder> extraction) throws InterruptedException {
+            extractions.add(contentExtractionExecutor.submit(() -> {
+                enableAzgSecurityAdvisor();
+                try {
+                    return extraction.call();
+                } finally {
+                    disableAzgSecurityAdvisor();
                 }
+            }));
+
+            while (extractions.size() >= contentExtractionThreads * 2) {
+                collect(extractions.poll());
             }
+        }
 
+        /**
+         * Waits for the documents still being digested and sends them, then waits for all the bulk requests.
+         *
+         * @return the number of documents sent to elasticsearch
+         */
+        public int finish() throws InterruptedException {
+            try {
+                while (!extractions.isEmpty()) {
+                    collect(extractions.poll());
+                }
+
+                // execute any remaining bulks requests not executed yet
+                if (bulkRequest.numberOfActions() > 0) {
+                    executeBulkRequest(bulkRequest);
+                    bulkRequest = client.prepareBulk();
+                }
+            } finally {
+                for (Future<IndexRequestBuilder> extraction : extractions) {
+                    extraction.cancel(true);
+                }
+                extractions.clear();
+                awaitBulkRequests();
+            }
+            return numberOfDocs;
         }
 
+        private void collect(Future<IndexRequestBuilder> extraction) throws InterruptedException {
+            try {
+                IndexRequestBuilder indexRequest = extraction.get();
+                if (indexRequest == null) {
+                    return;
+                }
+
+                bulkRequest.add(indexRequest);
+                numberOfDocs++;
+
+                if (bulkRequest.numberOfActions() >= bulkRequestSize
+                        || bulkRequest.request().estimatedSizeInBytes() >= bulkRequestMaxBytes) {
+                    executeBulkRequest(bulkRequest);
+                    bulkRequest = client.prepareBulk();
+                }
+            } catch (ExecutionException e) {
+                failedDocuments.incrementAndGet();
+                log.error(e.getCause().getMessage(), e.getCause());
+            }
+        }
     }
 
     /**
@@ -770,6 +922,10 @@ public class ElasticSearchIndexBuilder implements SearchIndexBuilder {
     }
 
     public void destroy() {
+        contentIndexTimer.cancel();
+        if (contentExtractionExecutor != null) {
+            contentExtractionExecutor.shutdownNow();
+        }
     }
 
     @Override
@@ -1208,6 +1364,48 @@ public class ElasticSearchIndexBuilder implements SearchIndexBuilder {
         this.bulkRequestSize = bulkRequestSize;
     }
 
+    public void setBulkRequestMaxBytes(long bulkRequestMaxBytes) {
+        this.bulkRequestMaxBytes = bulkRequestMaxBytes;
+    }
+
+    public void setContentExtractionThreads(int contentExtractionThreads) {
+        this.contentExtractionThreads = contentExtractionThreads;
+    }
+
+    public void setMaxConcurrentBulkRequests(int maxConcurrentBulkRequests) {
+        this.maxConcurrentBulkRequests = maxConcurrentBulkRequests;
+    }
+
+    /**
+     * @return the number of documents elasticsearch has accepted from bulk requests since startup
+     */
+    public long getIndexedDocuments() {
+        return indexedDocuments.get();
+    }
+
+    /**
+     * @return the number of documents which failed to be digested or indexed since startup
+     */
+    public long getFailedDocuments() {
+        return failedDocuments.get();
+    }
+
+    public long getBulkRequestCount() {
+        return bulkRequests.get();
+    }
+
+    public long getAverageBulkRequestTime() {
+        long count = bulkRequests.get();
+        return (count == 0) ? 0 : bulkRequestTime.get() / count;
+    }
+
+    /**
+     * @return the documents indexed per second by the last run of the content indexing task
+     */
+    public double getLastRunDocumentsPerSecond() {
+        return lastRunDocumentsPerSecond;
+    }
+
     public void setIgnoredSites(String ignoredSites) {
         this.ignoredSites = ignoredSites;
     }
@@ -429,6 +429,22 @@ public class ElasticSearchTest {
         assertTrue(elasticSearchService.getNDocs() == 106);
     }
 
+    @Test
+    public void testBulkRequestsAreSplitByActionsAndBytes() {
+        // every doc holds more than 2k of content, so no bulk request can carry more than a few of them
+        elasticSearchIndexBuilder.setBulkRequestSize(400);
+        elasticSearchIndexBuilder.setBulkRequestMaxBytes(8 * 1024);
+
+        elasticSearchIndexBuilder.rebuildIndex(siteId);
+        elasticSearchIndexBuilder.refreshIndex();
+
+        assertEquals(106, elasticSearchService.getNDocs());
+        assertEquals(106, elasticSearchIndexBuilder.getIndexedDocuments());
+        assertEquals(0, elasticSearchIndexBuilder.getFailedDocuments());
+        assertTrue("bulk requests=" + elasticSearchIndexBuilder.getBulkRequestCount() + ", expecting at least 106/4",
+                elasticSearchIndexBuilder.getBulkRequestCount() >= 106 / 4);
+    }
+
     @Test
     public void testRefreshSite(){
         elasticSearchIndexBuilder.setContentIndexBatchSize(200);
@@ -214,6 +214,9 @@ public interface StatsManager {
 	/** Get summary information for chart draw about site activity. */
 	public SummaryActivityChartData getSummaryActivityChartData(String siteId, String viewType, String chartType);
 	
+	/** Stop using the report results cached for a site (and for all sites) on every server, as its statistics for past days have changed. */
+	public void clearReportResults(String siteId);
+	
 	
 	// ################################################################
 	// Event statistics related methods
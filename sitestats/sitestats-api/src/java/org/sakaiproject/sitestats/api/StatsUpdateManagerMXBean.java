@@ -18,4 +18,15 @@ public interface StatsUpdateManagerMXBean {
     double getNumberOfEventsGeneratedPerSec();
 
     long getAverageTimeInEventProcessingPerEvent();
+
+    /** Events waiting for the update thread. */
+    int getQueueSize();
+
+    /** Events thrown away since the last reset because the queue was full. */
+    long getNumberOfEventsDropped();
+
+    /** How long (ms) the last update of the db took. */
+    long getLastDbUpdateTime();
+
+    long getAverageDbUpdateTime();
 }
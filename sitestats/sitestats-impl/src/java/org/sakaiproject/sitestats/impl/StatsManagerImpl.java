@@ -23,7 +23,9 @@ import java.io.InputStream;
 import java.lang.reflect.Method;
 import java.math.BigDecimal;
 import java.sql.SQLException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
@@ -34,6 +36,10 @@ import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 import org.apache.commons.digester.Digester;
 import org.apache.commons.lang.StringEscapeUtils;
@@ -120,6 +126,9 @@ public class StatsManagerImpl extends HibernateDaoSupport implements StatsManage
 	private boolean						isEventContextSupported					= false;
 	private boolean						enableReportExport						= true;
 	private boolean						sortUsersByDisplayName					= false;
+	private boolean						enableReportRollups						= true;
+	private boolean						reportResultsCacheEnabled				= true;
+	private int							reportResultsCurrentSeconds				= 60;
 
 	/** Controller fields */
 	private boolean						showAnonymousAccessEvents				= true;
@@ -142,6 +151,14 @@ public class StatsManagerImpl extends HibernateDaoSupport implements StatsManage
 	
 	/** Caching */
 	private Cache						cachePrefsData							= null;
+	private Cache						cacheReportResults						= null;
+	/** Bumped when a site's statistics change, so that its cached report results are no longer used (key "" is for all sites) */
+	private final ConcurrentMap<String, AtomicLong>	reportResultsGenerations	= new ConcurrentHashMap<String, AtomicLong>();
+	/** Posted when a site's statistics change, so that every server stops using its cached report results */
+	private static final String			REPORT_RESULTS_CLEAR_EVENTID			= LOG_APP + ".reportresults.clear";
+	
+	/** Breakdowns kept by the per site daily totals (SST_SITEACTIVITY) */
+	private static final List<String>	SITE_ACTIVITY_TOTALSBY					= Arrays.asList(T_SITE, T_EVENT, T_TOOL, T_DATE, T_LASTDATE, T_DATEMONTH, T_DATEYEAR);
 	
 	
 
@@ -257,6 +274,30 @@ public class StatsManagerImpl extends HibernateDaoSupport implements StatsManage
 		return lastJobRunDateVisible;
 	}
 	
+	public void setEnableReportRollups(boolean enableReportRollups) {
+		this.enableReportRollups = enableReportRollups;
+	}
+	
+	public boolean isEnableReportRollups() {
+		return enableReportRollups;
+	}
+	
+	public void setReportResultsCacheEnabled(boolean reportResultsCacheEnabled) {
+		this.reportResultsCacheEnabled = reportResultsCacheEnabled;
+	}
+	
+	public boolean isReportResultsCacheEnabled() {
+		return reportResultsCacheEnabled;
+	}
+	
+	public void setReportResultsCurrentSeconds(int reportResultsCurrentSeconds) {
+		this.reportResultsCurrentSeconds = reportResultsCurrentSeconds;
+	}
+	
+	public int getReportResultsCurrentSeconds() {
+		return reportResultsCurrentSeconds;
+	}
+	
 	public void setSortUsersByDisplayName(boolean sortUsersByDisplayName) {
 		this.sortUsersByDisplayName = sortUsersByDisplayName;
 	}
@@ -339,9 +380,10 @@ public class StatsManagerImpl extends HibernateDaoSupport implements StatsManage
 		// Initialize cacheReportDef and event observer for preferences invalidation across cluster
 		M_ets.addPriorityObserver(this);
 		cachePrefsData = M_ms.newCache(PrefsData.class.getName());
+		cacheReportResults = M_ms.newCache(StatsManager.class.getName() + ".reportResults");
 		
-		logger.info("init(): - (Event.getContext()?, site visits enabled, charts background color, charts in 3D, charts transparency, item labels visible on bar charts) : " +
-							isEventContextSupported+','+enableSiteVisits+','+chartBackgroundColor+','+chartIn3D+','+chartTransparency+','+itemLabelsVisible);
+		logger.info("init(): - (Event.getContext()?, site visits enabled, charts background color, charts in 3D, charts transparency, item labels visible on bar charts, report rollups, report results cache) : " +
+							isEventContextSupported+','+enableSiteVisits+','+chartBackgroundColor+','+chartIn3D+','+chartTransparency+','+itemLabelsVisible+','+enableReportRollups+','+reportResultsCacheEnabled);
 	}
 	
 	public void checkAndSetDefaultPropertiesIfNotSet() {
@@ -385,6 +427,10 @@ public class StatsManagerImpl extends HibernateDaoSupport implements StatsManage
 				String siteId = e.getResource().split("/")[2];
 				cachePrefsData.remove(siteId);
 				LOG.debug("Expiring preferences cache for site: "+siteId);
+			}else if(REPORT_RESULTS_CLEAR_EVENTID.equals(e.getEvent())) {
+				// the server that posted it has already, once more does no harm
+				bumpReportResultsGenerations(e.getContext());
+				LOG.debug("Expiring report results cache for site: "+e.getContext());
 			}
 		}
 	}
@@ -1336,6 +1382,26 @@ public class StatsManagerImpl extends HibernateDaoSupport implements StatsManage
 			final String sortBy, 
 			boolean sortAscending,
 			final int maxResults) {
+		String key = getReportResultsKey("events", siteId, iDate, fDate, events, userIds, inverseUserSelection, page, totalsBy, sortBy, sortAscending, maxResults);
+		return new ArrayList<Stat>(getCachedReportResults(key, () -> {
+			if(isSiteActivityReport(siteId, events, userIds, inverseUserSelection, totalsBy, sortBy)) {
+				return doGetActivityTotalsStats(siteId, events, iDate, fDate, page, totalsBy, sortBy, sortAscending, maxResults);
+			}
+			return doGetEventStats(siteId, events, iDate, fDate, userIds, inverseUserSelection, page, totalsBy, sortBy, sortAscending, maxResults);
+		}));
+	}
+	
+	private List<Stat> doGetEventStats(
+			final String siteId,
+			final List<String> events,
+			final Date iDate, final Date fDate,
+			final List<String> userIds,
+			final boolean inverseUserSelection,
+			final PagingPosition page, 
+			final List<String> totalsBy, 
+			final String sortBy, 
+			boolean sortAscending,
+			final int maxResults) {
 		
 		final Set<String> anonymousEvents = M_ers.getAnonymousEventIds();
 		StatsSqlBuilder sqlBuilder = new StatsSqlBuilder(getDbVendor(),
@@ -1561,10 +1627,22 @@ public class StatsManagerImpl extends HibernateDaoSupport implements StatsManage
 			final List<String> userIds,
 			final boolean inverseUserSelection,
 			final List<String> totalsBy) {
+		String key = getReportResultsKey("eventsRowCount", siteId, iDate, fDate, events, userIds, inverseUserSelection, totalsBy);
+		return getCachedReportResults(key, () -> doGetEventStatsRowCount(siteId, events, iDate, fDate, userIds, inverseUserSelection, totalsBy));
+	}
+	
+	private int doGetEventStatsRowCount(
+			final String siteId,
+			final List<String> events,
+			final Date iDate, final Date fDate,
+			final List<String> userIds,
+			final boolean inverseUserSelection,
+			final List<String> totalsBy) {
 		
 		final Set<String> anonymousEvents = M_ers.getAnonymousEventIds();
+		int queryType = isSiteActivityReport(siteId, events, userIds, inverseUserSelection, totalsBy, null) ? Q_TYPE_ACTIVITYTOTALS : Q_TYPE_EVENT;
 		StatsSqlBuilder sqlBuilder = new StatsSqlBuilder(getDbVendor(),
-				Q_TYPE_EVENT, totalsBy,
+				queryType, totalsBy,
 				siteId, events, anonymousEvents, showAnonymousAccessEvents, null, null, 
 				iDate, fDate, userIds, inverseUserSelection, null, true);
 		final String hql = sqlBuilder.getHQL();
@@ -1905,6 +1983,21 @@ public class StatsManagerImpl extends HibernateDaoSupport implements StatsManage
 			final String sortBy, 
 			final boolean sortAscending,
 			final int maxResults) {
+		String key = getReportResultsKey("resources", siteId, iDate, fDate, resourceAction, resourceIds, userIds, inverseUserSelection, page, totalsBy, sortBy, sortAscending, maxResults);
+		return new ArrayList<Stat>(getCachedReportResults(key, () -> doGetResourceStats(siteId, resourceAction, resourceIds, iDate, fDate, userIds, inverseUserSelection, page, totalsBy, sortBy, sortAscending, maxResults)));
+	}
+	
+	private List<Stat> doGetResourceStats(
+			final String siteId,
+			final String resourceAction, final List<String> resourceIds,
+			final Date iDate, final Date fDate,
+			final List<String> userIds,
+			final boolean inverseUserSelection,
+			final PagingPosition page, 
+			final List<String> totalsBy,
+			final String sortBy, 
+			final boolean sortAscending,
+			final int maxResults) {
 		
 		StatsSqlBuilder sqlBuilder = new StatsSqlBuilder(getDbVendor(),
 				Q_TYPE_RESOURCE, totalsBy, 
@@ -2260,6 +2353,17 @@ public class StatsManagerImpl extends HibernateDaoSupport implements StatsManage
 			final List<String> userIds,
 			final boolean inverseUserSelection,
 			final List<String> totalsBy) {
+		String key = getReportResultsKey("resourcesRowCount", siteId, iDate, fDate, resourceAction, resourceIds, userIds, inverseUserSelection, totalsBy);
+		return getCachedReportResults(key, () -> doGetResourceStatsRowCount(siteId, resourceAction, resourceIds, iDate, fDate, userIds, inverseUserSelection, totalsBy));
+	}
+	
+	private int doGetResourceStatsRowCount(
+			final String siteId,
+			final String resourceAction, final List<String> resourceIds,
+			final Date iDate, final Date fDate,
+			final List<String> userIds,
+			final boolean inverseUserSelection,
+			final List<String> totalsBy) {
 
 		StatsSqlBuilder sqlBuilder = new StatsSqlBuilder(getDbVendor(),
 				Q_TYPE_RESOURCE, totalsBy, 
@@ -2326,6 +2430,18 @@ public class StatsManagerImpl extends HibernateDaoSupport implements StatsManage
 			final String sortBy, 
 			final boolean sortAscending, 
 			final int maxResults) {
+		String key = getReportResultsKey("visitsTotals", siteId, iDate, fDate, page, totalsBy, sortBy, sortAscending, maxResults);
+		return new ArrayList<Stat>(getCachedReportResults(key, () -> doGetVisitsTotalsStats(siteId, iDate, fDate, page, totalsBy, sortBy, sortAscending, maxResults)));
+	}
+	
+	private List<Stat> doGetVisitsTotalsStats(
+			final String siteId, 
+			final Date iDate, final Date fDate, 
+			final PagingPosition page, 
+			final List<String> totalsBy, 
+			final String sortBy, 
+			final boolean sortAscending, 
+			final int maxResults) {
 		
 		StatsSqlBuilder sqlBuilder = new StatsSqlBuilder(getDbVendor(),
 				Q_TYPE_VISITSTOTALS, totalsBy, siteId, 
@@ -2434,6 +2550,19 @@ public class StatsManagerImpl extends HibernateDaoSupport implements StatsManage
 			final String sortBy, 
 			final boolean sortAscending, 
 			final int maxResults) {
+		String key = getReportResultsKey("activityTotals", siteId, iDate, fDate, events, page, totalsBy, sortBy, sortAscending, maxResults);
+		return new ArrayList<Stat>(getCachedReportResults(key, () -> doGetActivityTotalsStats(siteId, events, iDate, fDate, page, totalsBy, sortBy, sortAscending, maxResults)));
+	}
+	
+	private List<Stat> doGetActivityTotalsStats(
+			final String siteId, 
+			final List<String> events, 
+			final Date iDate, final Date fDate, 
+			final PagingPosition page, 
+			final List<String> totalsBy, 
+			final String sortBy, 
+			final boolean sortAscending, 
+			final int maxResults) {
 		
 		final Set<String> anonymousEvents = M_ers.getAnonymousEventIds();
 		StatsSqlBuilder sqlBuilder = new StatsSqlBuilder(getDbVendor(),
@@ -2566,6 +2695,108 @@ public class StatsManagerImpl extends HibernateDaoSupport implements StatsManage
 	}
 	
 	
+	/**
+	 * Whether an event report can be answered from the per site daily totals (SST_SITEACTIVITY) rather than the per
+	 * user daily totals (SST_EVENTS): a report on a single site, for all users, not about visits, and broken down by
+	 * nothing the site totals do not keep. Both are updated together by StatsUpdateManager, so they agree, and the
+	 * site totals have one row where the user totals have one per active user.
+	 */
+	private boolean isSiteActivityReport(String siteId, List<String> events, List<String> userIds, boolean inverseUserSelection, List<String> totalsBy, String sortBy) {
+		if(!enableReportRollups || siteId == null || events == null || events.isEmpty()
+				|| userIds != null || inverseUserSelection || totalsBy == null || !showAnonymousAccessEvents) {
+			return false;
+		}
+		if(events.contains(SITEVISIT_EVENTID) || events.contains(SITEVISITEND_EVENTID)) {
+			// site visits are not part of the site activity
+			return false;
+		}
+		return SITE_ACTIVITY_TOTALSBY.containsAll(totalsBy)
+				&& (sortBy == null || T_TOTAL.equals(sortBy) || SITE_ACTIVITY_TOTALSBY.contains(sortBy));
+	}
+	
+	/**
+	 * Key a report query by its parameters. Queries only look at whole days, so the dates are keyed by day. A report
+	 * over days that are over always gives the same result; one that includes today is only reused for
+	 * reportResultsCurrentSeconds.
+	 */
+	private String getReportResultsKey(String query, String siteId, Date iDate, Date fDate, Object... params) {
+		SimpleDateFormat day = new SimpleDateFormat("yyyyMMdd");
+		StringBuilder key = new StringBuilder(query);
+		key.append('|').append(siteId).append('#').append(getReportResultsGeneration(siteId).get());
+		key.append('|').append(iDate != null ? day.format(iDate) : null);
+		key.append('|').append(fDate != null ? day.format(fDate) : null);
+		if(fDate == null || !fDate.before(getToday())) {
+			key.append("|current:").append(System.currentTimeMillis() / (Math.max(1, reportResultsCurrentSeconds) * 1000L));
+		}
+		for(Object param : params) {
+			key.append('|');
+			if(param instanceof PagingPosition) {
+				key.append(((PagingPosition) param).getFirst()).append('-').append(((PagingPosition) param).getLast());
+			}else{
+				key.append(param);
+			}
+		}
+		return key.toString();
+	}
+	
+	private AtomicLong getReportResultsGeneration(String siteId) {
+		String key = siteId == null ? "" : siteId;
+		AtomicLong generation = reportResultsGenerations.get(key);
+		if(generation == null) {
+			AtomicLong created = new AtomicLong();
+			generation = reportResultsGenerations.putIfAbsent(key, created);
+			if(generation == null) {
+				generation = created;
+			}
+		}
+		return generation;
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.sakaiproject.sitestats.api.StatsManager#clearReportResults(java.lang.String)
+	 */
+	public void clearReportResults(String siteId) {
+		bumpReportResultsGenerations(siteId);
+		// the generations are kept per server, so tell the others
+		M_ets.post(M_ets.newEvent(REPORT_RESULTS_CLEAR_EVENTID, "/site/" + siteId + "/reportresults", siteId, false, NotificationService.NOTI_NONE));
+	}
+	
+	private void bumpReportResultsGenerations(String siteId) {
+		// entries under the old keys are never read again and age out of the cache
+		if(siteId != null) {
+			getReportResultsGeneration(siteId).incrementAndGet();
+		}
+		getReportResultsGeneration(null).incrementAndGet();
+	}
+	
+	@SuppressWarnings("unchecked")
+	private <T> T getCachedReportResults(String key, Supplier<T> query) {
+		if(!reportResultsCacheEnabled || cacheReportResults == null) {
+			return query.get();
+		}
+		T results = (T) cacheReportResults.get(key);
+		if(results == null) {
+			results = query.get();
+			if(results != null) {
+				cacheReportResults.put(key, results);
+			}
+		}else if(LOG.isDebugEnabled()) {
+			LOG.debug("Report results from cache: " + key);
+		}
+		return results;
+	}
+	
+	/** Start of the current day. */
+	private Date getToday() {
+		Calendar c = Calendar.getInstance();
+		c.set(Calendar.HOUR_OF_DAY, 0);
+		c.set(Calendar.MINUTE, 0);
+		c.set(Calendar.SECOND, 0);
+		c.set(Calendar.MILLISECOND, 0);
+		return c.getTime();
+	}
+	
+	
 	// ################################################################
 	//  Statistics SQL builder class
 	// ################################################################
@@ -26,17 +26,35 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Supplier;
 
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.hibernate.Criteria;
+import org.hibernate.FlushMode;
 import org.hibernate.HibernateException;
 import org.hibernate.Query;
 import org.hibernate.Session;
@@ -72,6 +90,8 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 	/** Spring bean members */
 	private boolean							collectThreadEnabled				= true;
 	public long								collectThreadUpdateInterval			= 4000L;
+	private int								collectThreadQueueCapacity			= 100000;
+	private int								flushThreads						= 4;
 	private boolean							collectAdminEvents					= false;
 	private boolean							collectEventsForSiteWithToolOnly	= true;
 
@@ -86,22 +106,19 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 
 	/** Collect Thread and Semaphore */
 	private Thread							collectThread;
-	private List<Event>						collectThreadQueue					= new ArrayList<Event>();
+	private final ConcurrentLinkedQueue<Event>	collectThreadQueue				= new ConcurrentLinkedQueue<Event>();
+	private final AtomicInteger				collectThreadQueueSize				= new AtomicInteger();
 	private Object							collectThreadSemaphore				= new Object();
 	private boolean							collectThreadRunning				= false;
 
-	/** Collect thread queue maps */
-	private Map<String, EventStat>					eventStatMap			= Collections.synchronizedMap(new HashMap<String, EventStat>());
-	private Map<String, ResourceStat>				resourceStatMap			= Collections.synchronizedMap(new HashMap<String, ResourceStat>());
-	private Map<String, LessonBuilderStat>			lessonBuilderStatMap	= Collections.synchronizedMap(new HashMap<String, LessonBuilderStat>());
-	private Map<String, SiteActivity>				activityMap				= Collections.synchronizedMap(new HashMap<String, SiteActivity>());
-	private Map<String, SiteVisits>					visitsMap				= Collections.synchronizedMap(new HashMap<String, SiteVisits>());
-	private Map<String, SitePresenceConsolidation>	presencesMap			= Collections.synchronizedMap(new HashMap<String, SitePresenceConsolidation>());
-	private Map<UniqueVisitsKey, Integer>			uniqueVisitsMap			= Collections.synchronizedMap(new HashMap<UniqueVisitsKey, Integer>());
-	private Map<String, ServerStat>					serverStatMap			= Collections.synchronizedMap(new HashMap<String, ServerStat>());
-	private Map<String, UserStat>					userStatMap				= Collections.synchronizedMap(new HashMap<String, UserStat>());
+	/** Events aggregated since the last db update; replaced as a whole by each update */
+	private Aggregates						aggregates							= new Aggregates();
+	/** Held (shared) while aggregating, and (exclusively) to take the aggregates for a db update */
+	private final ReentrantReadWriteLock	aggregatesLock						= new ReentrantReadWriteLock();
+	/** Writes the different stat tables in parallel */
+	private ExecutorService					flushExecutor;
 
-	private Map<String, String>				lessonPageCreateEventMap		=  new HashMap<String, String>();
+	private Map<String, String>				lessonPageCreateEventMap		=  new ConcurrentHashMap<String, String>();
 
 	private boolean							initialized							= false;
 	
@@ -112,6 +129,10 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 	private long							totalEventsProcessed				= 0;
 	private long							totalTimeInEventProcessing			= 0;
 	private long							resetTime					= System.currentTimeMillis();
+	private final AtomicLong				totalEventsDropped					= new AtomicLong();
+	private final AtomicLong				totalDbUpdates						= new AtomicLong();
+	private final AtomicLong				totalTimeInDbUpdates				= new AtomicLong();
+	private volatile long					lastDbUpdateTime					= 0;
 
 	
 	// ################################################################
@@ -148,6 +169,22 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 		return collectThreadUpdateInterval;
 	}	
 	
+	public void setCollectThreadQueueCapacity(int capacity){
+		this.collectThreadQueueCapacity = capacity;
+	}
+	
+	public int getCollectThreadQueueCapacity(){
+		return collectThreadQueueCapacity;
+	}
+	
+	public void setFlushThreads(int flushThreads){
+		this.flushThreads = flushThreads;
+	}
+	
+	public int getFlushThreads(){
+		return flushThreads;
+	}
+	
 	public void setCollectAdminEvents(boolean value){
 		this.collectAdminEvents = value;
 	}
@@ -201,10 +238,17 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 			buff.append(collectThreadUpdateInterval);
 			buff.append(" ms");
 		}
+		buff.append(", queue capacity: " + collectThreadQueueCapacity);
+		buff.append(", db update threads: " + flushThreads);
 		buff.append(", collect administrator events: " + collectAdminEvents);
 		buff.append(", collect events only for sites with SiteStats: " + collectEventsForSiteWithToolOnly);			
 		logger.info(buff.toString());
 		
+		flushExecutor = Executors.newFixedThreadPool(Math.max(1, flushThreads), r -> {
+			Thread t = new Thread(r, "org.sakaiproject.sitestats.impl.StatsUpdateManagerImpl.flush");
+			t.setDaemon(true);
+			return t;
+		});
 		initialized = true;
 		setCollectThreadEnabled(collectThreadEnabled);
 	}
@@ -217,6 +261,9 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 			// stop update thread
 			stopUpdateThread();
 		}
+		if(flushExecutor != null) {
+			flushExecutor.shutdown();
+		}
 	}
 
 	
@@ -366,7 +413,7 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 	// Metrics related methods
 	// ################################################################	
 	public int getQueueSize() {
-		return collectThreadQueue.size();
+		return collectThreadQueueSize.get();
 	}
 	
 	public boolean isIdle() {
@@ -376,9 +423,28 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 	public void resetMetrics() {
 		totalEventsProcessed = 0;
 		totalTimeInEventProcessing = 0;
+		totalEventsDropped.set(0);
+		totalDbUpdates.set(0);
+		totalTimeInDbUpdates.set(0);
 		resetTime = System.currentTimeMillis();
 	}
 	
+	@Override
+	public long getNumberOfEventsDropped() {
+		return totalEventsDropped.get();
+	}
+	
+	@Override
+	public long getLastDbUpdateTime() {
+		return lastDbUpdateTime;
+	}
+	
+	@Override
+	public long getAverageDbUpdateTime() {
+		long updates = totalDbUpdates.get();
+		return updates > 0 ? totalTimeInDbUpdates.get() / updates : 0;
+	}
+	
 	@Override
 	public long getNumberOfEventsProcessed() {
 		return totalEventsProcessed;
@@ -439,6 +505,8 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 			sb.append("\t\tNumber of events genereated in Sakai per sec: ").append(getNumberOfEventsGeneratedPerSec()).append("\n");
 			sb.append("\t\tAverage time spent in event processing per event: ").append(getAverageTimeInEventProcessingPerEvent()).append(" ms\n");
 			sb.append("\t\tEvent queue size: ").append(getQueueSize()).append("\n");
+			sb.append("\t\tNumber of events dropped (queue full): ").append(getNumberOfEventsDropped()).append("\n");
+			sb.append("\t\tLast / average time spent updating the db: ").append(getLastDbUpdateTime()).append(" / ").append(getAverageDbUpdateTime()).append(" ms\n");
 			sb.append("\t\tIdle: ").append(isIdle());
 		}else{
 			sb.append("#Events processed: ").append(getNumberOfEventsProcessed()).append(", ");
@@ -447,6 +515,8 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 			sb.append("#Events processed/sec: ").append(getNumberOfEventsProcessedPerSec()).append(", ");
 			sb.append("Avg. Time/event: ").append(getAverageTimeInEventProcessingPerEvent()).append(" ms, ");
 			sb.append("Event queue size: ").append(getQueueSize()).append(", ");
+			sb.append("#Events dropped: ").append(getNumberOfEventsDropped()).append(", ");
+			sb.append("Last/avg. db update: ").append(getLastDbUpdateTime()).append("/").append(getAverageDbUpdateTime()).append(" ms, ");
 			sb.append("Idle: ").append(isIdle());
 		}
 		return sb.toString();
@@ -458,9 +528,16 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 	// ################################################################	
 	/** Method called whenever an new event is generated from EventTrackingService: do not call this method! */
 	public void update(Observable obs, Object o) {
-		// At the moment this isn't threadsafe, but as sakai event handling is single threaded this shoudn't be a problem,
-		// but it's not a formal contract.
 		if(o instanceof Event){
+			// never hold up the thread posting the event: when the collect thread is too far behind, drop the event
+			if(collectThreadQueueSize.incrementAndGet() > collectThreadQueueCapacity) {
+				collectThreadQueueSize.decrementAndGet();
+				long dropped = totalEventsDropped.incrementAndGet();
+				if(dropped % 1000 == 1) {
+					LOG.warn("Statistics event queue is full (" + collectThreadQueueCapacity + " events), " + dropped + " events dropped since reset");
+				}
+				return;
+			}
 			Event e = (Event) o;
 			Event eventWithPreciseDate = buildEvent(getToday(), e.getEvent(), e.getResource(), e.getContext(), e.getUserId(), e.getSessionId());
 			collectThreadQueue.add(eventWithPreciseDate);
@@ -475,14 +552,9 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 				// do update job
 				isIdle = false;
 				long startTime = System.currentTimeMillis();
-				int eventCount = collectThreadQueue.size();
-				if(eventCount > 0) {
-					//long startTime2 = System.currentTimeMillis();
-					while(collectThreadQueue.size() > 0){
-						preProcessEvent(collectThreadQueue.remove(0));
-					}
-					//long endTime2 = System.currentTimeMillis();
-					//LOG.debug("Time spent pre-processing " + eventCount + " event(s): " + (endTime2-startTime2) + " ms");
+				for(Event e = collectThreadQueue.poll(); e != null; e = collectThreadQueue.poll()){
+					collectThreadQueueSize.decrementAndGet();
+					preProcessEvent(e);
 				}
 				doUpdateConsolidatedEvents();
 				isIdle = true;
@@ -631,40 +703,32 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 		Date date = getTruncatedDate(dateTime);
 		// update		
 		if(isRegisteredEvent(eventId) && !StatsManager.SITEVISITEND_EVENTID.equals(eventId)){
-			// add to eventStatMap
+			// add to eventStats
 			String key = userId+siteId+eventId+date;
-			synchronized(eventStatMap){
-				EventStat e1 = eventStatMap.get(key);
-				if(e1 == null){
-					e1 = new EventStatImpl();
-					e1.setUserId(userId);
-					e1.setSiteId(siteId);
-					e1.setEventId(eventId);
-					e1.setDate(date);
-				}
-				e1.setCount(e1.getCount() + 1);
-				eventStatMap.put(key, e1);
-			}
+			count(a -> a.eventStats, key, () -> {
+				EventStat e1 = new EventStatImpl();
+				e1.setUserId(userId);
+				e1.setSiteId(siteId);
+				e1.setEventId(eventId);
+				e1.setDate(date);
+				return e1;
+			});
 			
 			if(!StatsManager.SITEVISIT_EVENTID.equals(eventId)){
-				// add to activityMap
+				// add to activities
 				String key2 = siteId+date+eventId;
-				synchronized(activityMap){
-					SiteActivity e2 = activityMap.get(key2);
-					if(e2 == null){
-						e2 = new SiteActivityImpl();
-						e2.setSiteId(siteId);
-						e2.setDate(date);
-						e2.setEventId(eventId);
-					}
-					e2.setCount(e2.getCount() + 1);
-					activityMap.put(key2, e2);
-				}
+				count(a -> a.activities, key2, () -> {
+					SiteActivity e2 = new SiteActivityImpl();
+					e2.setSiteId(siteId);
+					e2.setDate(date);
+					e2.setEventId(eventId);
+					return e2;
+				});
 			}
 		}	
 
 		if(eventId.startsWith(StatsManager.RESOURCE_EVENTID_PREFIX)){
-			// add to resourceStatMap
+			// add to resourceStats
 			String resourceAction = null;
 			try{
 				resourceAction = eventId.split("\\.")[1];
@@ -672,19 +736,16 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 				resourceAction = eventId;
 			}
 			String key = userId+siteId+resourceRef+resourceAction+date;
-			synchronized(resourceStatMap){
-				ResourceStat e1 = resourceStatMap.get(key);
-				if(e1 == null){
-					e1 = new ResourceStatImpl();
-					e1.setUserId(userId);
-					e1.setSiteId(siteId);
-					e1.setResourceRef(resourceRef);
-					e1.setResourceAction(resourceAction);
-					e1.setDate(date);
-				}
-				e1.setCount(e1.getCount() + 1);
-				resourceStatMap.put(key, e1);
-			}
+			final String action = resourceAction;
+			count(a -> a.resourceStats, key, () -> {
+				ResourceStat e1 = new ResourceStatImpl();
+				e1.setUserId(userId);
+				e1.setSiteId(siteId);
+				e1.setResourceRef(resourceRef);
+				e1.setResourceAction(action);
+				e1.setDate(date);
+				return e1;
+			});
 		} else if (eventId.startsWith(StatsManager.LESSONS_EVENTID_PREFIX)) {
 			String[] resourceParts = resourceRef.split("/");
 			if (resourceParts.length > 3 && "page".equals(resourceParts[2])) {
@@ -753,10 +814,13 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 				}
 			}
 		} else if(StatsManager.SITEVISIT_EVENTID.equals(eventId)){
-			// add to visitsMap
+			// add to visits
 			String key = siteId+date;
+			aggregatesLock.readLock().lock();
 			lock.lock();
 			try{
+				Map<String, SiteVisits> visitsMap = aggregates.visits;
+				Map<String, SitePresenceConsolidation> presencesMap = aggregates.presences;
 				SiteVisits e1 = visitsMap.get(key);
 				if(e1 == null){
 					e1 = new SiteVisitsImpl();
@@ -769,7 +833,7 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 				visitsMap.put(key, e1);
 				// place entry on map so we can update unique visits later
 				UniqueVisitsKey keyUniqueVisits = new UniqueVisitsKey(siteId, date);
-				uniqueVisitsMap.put(keyUniqueVisits, Integer.valueOf(1));
+				aggregates.uniqueVisits.put(keyUniqueVisits, Integer.valueOf(1));
 				
 				// site presence started
 				if(M_sm.isEnableSitePresences()) {
@@ -787,14 +851,17 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 				}
 			}finally{
 				lock.unlock();
+				aggregatesLock.readLock().unlock();
 			}
 			
 		}else if(StatsManager.SITEVISITEND_EVENTID.equals(eventId)){
 			// site presence ended
 			if(M_sm.isEnableSitePresences()) {
 				String pKey = siteId+userId+date;
+				aggregatesLock.readLock().lock();
 				lock.lock();
 				try{
+					Map<String, SitePresenceConsolidation> presencesMap = aggregates.presences;
 					SitePresenceConsolidation spc = presencesMap.get(pKey);
 					if(spc == null) {
 						SitePresence sp = new SitePresenceImpl();
@@ -818,6 +885,7 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 					presencesMap.put(pKey, spc);
 				}finally{
 					lock.unlock();
+					aggregatesLock.readLock().unlock();
 				}
 			}
 		} 
@@ -826,20 +894,16 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 
 	private void addToLessonBuilderStatMap(String key, String userId, String siteId, String pageRef, long pageId, String action, Date date) {
 
-		synchronized (lessonBuilderStatMap) {
-			LessonBuilderStat e1 = lessonBuilderStatMap.get(key);
-			if (e1 == null) {
-				e1 = new LessonBuilderStatImpl();
-				e1.setUserId(userId);
-				e1.setSiteId(siteId);
-				e1.setPageRef(pageRef);
-				e1.setPageId(pageId);
-				e1.setPageAction(action);
-				e1.setDate(date);
-			}
-			e1.setCount(e1.getCount() + 1);
-			lessonBuilderStatMap.put(key, e1);
-		}
+		count(a -> a.lessonBuilderStats, key, () -> {
+			LessonBuilderStat e1 = new LessonBuilderStatImpl();
+			e1.setUserId(userId);
+			e1.setSiteId(siteId);
+			e1.setPageRef(pageRef);
+			e1.setPageId(pageId);
+			e1.setPageAction(action);
+			e1.setDate(date);
+			return e1;
+		});
 	}
 
 	protected boolean isRegisteredEvent(String eventId) {
@@ -851,18 +915,14 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 		
 		Date date = getTruncatedDate(dateTime);
 				
-		// add to serverStatMap
+		// add to serverStats
 		String key = eventId+date;
-		synchronized(serverStatMap){
-			ServerStat s = serverStatMap.get(key);
-			if(s == null){
-				s = new ServerStatImpl();
-				s.setEventId(eventId);
-				s.setDate(date);
-			}
-			s.setCount(s.getCount() + 1);
-			serverStatMap.put(key, s);
-		}
+		count(a -> a.serverStats, key, () -> {
+			ServerStat s = new ServerStatImpl();
+			s.setEventId(eventId);
+			s.setDate(date);
+			return s;
+		});
 		
 	}
 	
@@ -871,144 +931,147 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 		
 		Date date = getTruncatedDate(dateTime);
 				
-		// add to userStatMap
+		// add to userStats
 		String key = userId+date;
-		synchronized(userStatMap){
-			UserStat s = userStatMap.get(key);
-			if(s == null){
-				s = new UserStatImpl();
-				s.setUserId(userId);
-				s.setDate(date);
-			}
-			s.setCount(s.getCount() + 1);
-			userStatMap.put(key, s);
-		}
+		count(a -> a.userStats, key, () -> {
+			UserStat s = new UserStatImpl();
+			s.setUserId(userId);
+			s.setDate(date);
+			return s;
+		});
 		
 	}
 	
+	/**
+	 * Add one to the count kept under the given key in one of the current aggregates, creating the stat if this is the
+	 * first event for it. Threads only contend when they count the same key.
+	 */
+	private <T> void count(Function<Aggregates, ConcurrentMap<String, Counted<T>>> table, String key, Supplier<T> stat) {
+		aggregatesLock.readLock().lock();
+		try{
+			table.apply(aggregates).computeIfAbsent(key, k -> new Counted<T>(stat.get())).count.increment();
+		}finally{
+			aggregatesLock.readLock().unlock();
+		}
+	}
+	
 
 	// ################################################################
 	// Db update methods
 	// ################################################################	
-	@SuppressWarnings("unchecked")
 	private synchronized boolean doUpdateConsolidatedEvents() {
 		long startTime = System.currentTimeMillis();
-		if(eventStatMap.size() > 0 || resourceStatMap.size() > 0
-				|| activityMap.size() > 0 || uniqueVisitsMap.size() > 0 
-				|| visitsMap.size() > 0 || presencesMap.size() > 0
-				|| serverStatMap.size() > 0 || userStatMap.size() > 0) {
-			Object r = getHibernateTemplate().execute(new HibernateCallback() {			
-				public Object doInHibernate(Session session) throws HibernateException, SQLException {
-					Transaction tx = null;
-					try{
-						tx = session.beginTransaction();
-						// do: EventStat
-						if(eventStatMap.size() > 0) {
-							Collection<EventStat> tmp1 = null;
-							synchronized(eventStatMap){
-								tmp1 = eventStatMap.values();
-								eventStatMap = Collections.synchronizedMap(new HashMap<String, EventStat>());
-							}
-							doUpdateEventStatObjects(session, tmp1);
-						}
+		final Aggregates a;
+		aggregatesLock.writeLock().lock();
+		try{
+			if(aggregates.isEmpty()) {
+				return true;
+			}
+			a = aggregates;
+			aggregates = new Aggregates();
+		}finally{
+			aggregatesLock.writeLock().unlock();
+		}
 
-						// do: ResourceStat
-						if(resourceStatMap.size() > 0) {
-							Collection<ResourceStat> tmp2 = null;
-							synchronized(resourceStatMap){
-								tmp2 = resourceStatMap.values();
-								resourceStatMap = Collections.synchronizedMap(new HashMap<String, ResourceStat>());
-							}
-							doUpdateResourceStatObjects(session, tmp2);
-						}
+		// each table is updated in its own transaction, the tables in parallel
+		List<Callable<Boolean>> updates = new ArrayList<Callable<Boolean>>();
+		if(!a.eventStats.isEmpty() || !a.visits.isEmpty()) {
+			updates.add(() -> {
+				// do: EventStat
+				boolean success = doUpdateInTransaction(true, session -> doUpdateEventStatObjects(session, counted(a.eventStats.values(), EventStat::setCount)));
+				// do: SiteVisits (unique visits are counted from the site visit event stats, so these go in after them)
+				if(!a.visits.isEmpty()) {
+					success &= doUpdateInTransaction(true, session -> doUpdateSiteVisitsObjects(session, a.visits.values(), doGetSiteUniqueVisits(session, a.uniqueVisits)));
+				}
+				return success;
+			});
+		}
+		if(!a.resourceStats.isEmpty()) {
+			updates.add(() -> doUpdateInTransaction(true, session -> doUpdateResourceStatObjects(session, counted(a.resourceStats.values(), ResourceStat::setCount))));
+		}
+		if(!a.lessonBuilderStats.isEmpty()) {
+			updates.add(() -> doUpdateInTransaction(true, session -> doUpdateLessonBuilderStatObjects(session, counted(a.lessonBuilderStats.values(), LessonBuilderStat::setCount))));
+		}
+		if(!a.activities.isEmpty()) {
+			updates.add(() -> doUpdateInTransaction(true, session -> doUpdateSiteActivityObjects(session, counted(a.activities.values(), SiteActivity::setCount))));
+		}
+		if(!a.presences.isEmpty()) {
+			// presence totals are read back per user, so they must be flushed as they go
+			updates.add(() -> doUpdateInTransaction(false, session -> doUpdateSitePresencesObjects(session, a.presences.values())));
+		}
+		if(!a.serverStats.isEmpty()) {
+			updates.add(() -> doUpdateInTransaction(true, session -> doUpdateServerStatObjects(session, counted(a.serverStats.values(), ServerStat::setCount))));
+		}
+		if(!a.userStats.isEmpty()) {
+			updates.add(() -> doUpdateInTransaction(true, session -> doUpdateUserStatObjects(session, counted(a.userStats.values(), UserStat::setCount))));
+		}
 
-						// do: Lessons ResourceStat
-						if (lessonBuilderStatMap.size() > 0) {
-							Collection<LessonBuilderStat> tmp3 = null;
-							synchronized (lessonBuilderStatMap) {
-								tmp3 = lessonBuilderStatMap.values();
-								lessonBuilderStatMap = Collections.synchronizedMap(new HashMap<String, LessonBuilderStat>());
-							}
-							doUpdateLessonBuilderStatObjects(session, tmp3);
-						}
-						
-						// do: SiteActivity
-						if(activityMap.size() > 0) {
-							Collection<SiteActivity> tmp3 = null;
-							synchronized(activityMap){
-								tmp3 = activityMap.values();
-								activityMap = Collections.synchronizedMap(new HashMap<String, SiteActivity>());
-							}
-							doUpdateSiteActivityObjects(session, tmp3);
-						}
-	
-						// do: SiteVisits
-						if(uniqueVisitsMap.size() > 0 || visitsMap.size() > 0) {	
-							// determine unique visits for event related sites
-							Map<UniqueVisitsKey, Integer> tmp4;
-							synchronized(uniqueVisitsMap){
-								tmp4 = uniqueVisitsMap;
-								uniqueVisitsMap = Collections.synchronizedMap(new HashMap<UniqueVisitsKey, Integer>());
-							}
-							tmp4 = doGetSiteUniqueVisits(session, tmp4);
-						
-							// do: SiteVisits
-							if(visitsMap.size() > 0) {
-								Collection<SiteVisits> tmp5 = null;
-								synchronized(visitsMap){
-									tmp5 = visitsMap.values();
-									visitsMap = Collections.synchronizedMap(new HashMap<String, SiteVisits>());
-								}
-								doUpdateSiteVisitsObjects(session, tmp5, tmp4);
-							}
-						}
-						
-						// do: SitePresences
-						if(presencesMap.size() > 0) {
-							Collection<SitePresenceConsolidation> tmp6 = null;
-							synchronized(presencesMap){
-								tmp6 = presencesMap.values();
-								presencesMap = Collections.synchronizedMap(new HashMap<String, SitePresenceConsolidation>());
-							}
-							doUpdateSitePresencesObjects(session, tmp6);
-						}
-						
-						// do: ServerStats
-						if(serverStatMap.size() > 0) {
-							Collection<ServerStat> tmp7 = null;
-							synchronized(serverStatMap){
-								tmp7 = serverStatMap.values();
-								serverStatMap = Collections.synchronizedMap(new HashMap<String, ServerStat>());
-							}
-							doUpdateServerStatObjects(session, tmp7);
-						}
-						
-						// do: UserStats
-						if(userStatMap.size() > 0) {
-							Collection<UserStat> tmp8 = null;
-							synchronized(userStatMap){
-								tmp8 = userStatMap.values();
-								userStatMap = Collections.synchronizedMap(new HashMap<String, UserStat>());
-							}
-							doUpdateUserStatObjects(session, tmp8);
-						}
+		boolean success = true;
+		try{
+			if(flushExecutor == null || updates.size() == 1) {
+				for(Callable<Boolean> update : updates) {
+					success &= update.call();
+				}
+			}else{
+				for(Future<Boolean> update : flushExecutor.invokeAll(updates)) {
+					success &= update.get();
+				}
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			success = false;
+		}catch(Exception e){
+			LOG.warn("Unable to update statistics: ", e);
+			success = false;
+		}
+		// even a failed update may have committed some of the tables; reports that include today are only reused
+		// for a short while anyway, so only those over days that were over already need to be dropped
+		for(String siteId : a.siteIdsBefore(getStartOfToday())) {
+			M_sm.clearReportResults(siteId);
+		}
+		long time = System.currentTimeMillis() - startTime;
+		lastDbUpdateTime = time;
+		totalDbUpdates.incrementAndGet();
+		totalTimeInDbUpdates.addAndGet(time);
+		LOG.debug("Time spent in doUpdateConsolidatedEvents(): " + time + " ms");
+		return success;
+	}
 	
-						// commit ALL
-						tx.commit();
-					}catch(Exception e){
-						if(tx != null) tx.rollback();
-						LOG.warn("Unable to commit transaction: ", e);
-						return Boolean.FALSE;
+	/**
+	 * Run an update in a transaction of its own. When batched, the session is only flushed on commit, so that all the
+	 * rows are written together (in JDBC batches when hibernate.jdbc.batch_size is set) rather than one by one ahead of
+	 * each of the lookups.
+	 */
+	private boolean doUpdateInTransaction(final boolean batched, final Consumer<Session> update) {
+		Object r = getHibernateTemplate().execute(new HibernateCallback() {			
+			public Object doInHibernate(Session session) throws HibernateException, SQLException {
+				Transaction tx = null;
+				try{
+					if(batched) {
+						session.setFlushMode(FlushMode.COMMIT);
 					}
-					return Boolean.TRUE;
-				}			
-			});
-			long endTime = System.currentTimeMillis();
-			LOG.debug("Time spent in doUpdateConsolidatedEvents(): " + (endTime-startTime) + " ms");
-			return ((Boolean) r).booleanValue();
-		}else{
-			return true;
+					tx = session.beginTransaction();
+					update.accept(session);
+					tx.commit();
+				}catch(Exception e){
+					if(tx != null) tx.rollback();
+					LOG.warn("Unable to commit transaction: ", e);
+					return Boolean.FALSE;
+				}
+				return Boolean.TRUE;
+			}			
+		});
+		return ((Boolean) r).booleanValue();
+	}
+	
+	/** Set the aggregated counts on the stats they belong to. */
+	private static <T> Collection<T> counted(Collection<Counted<T>> values, ObjLongConsumer<T> setCount) {
+		List<T> stats = new ArrayList<T>(values.size());
+		for(Counted<T> value : values) {
+			setCount.accept(value.stat, value.count.sum());
+			stats.add(value.stat);
 		}
+		return stats;
 	}
 	
 	private void doUpdateEventStatObjects(Session session, Collection<EventStat> o) {
@@ -1708,6 +1771,15 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 		return new Date();
 	}
 	
+	private Date getStartOfToday() {
+		Calendar c = Calendar.getInstance();
+		c.set(Calendar.HOUR_OF_DAY, 0);
+		c.set(Calendar.MINUTE, 0);
+		c.set(Calendar.SECOND, 0);
+		c.set(Calendar.MILLISECOND, 0);
+		return c.getTime();
+	}
+	
 	private boolean isUserLoginEvent(Event e) {
 		return StringUtils.equals(StatsManager.LOGIN_EVENTID, e.getEvent()) || StringUtils.equals(StatsManager.CONTAINER_LOGIN_EVENTID, e.getEvent());
 	}
@@ -1726,6 +1798,58 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 		return c.getTime();
 	}
 
+	/**
+	 * A stat and the number of events counted against it. The count is kept apart from the stat so that threads
+	 * counting the same key do not need a lock.
+	 */
+	private static class Counted<T> {
+		final T stat;
+		final LongAdder count = new LongAdder();
+		
+		Counted(T stat) {
+			this.stat = stat;
+		}
+	}
+	
+	/** Everything aggregated between two db updates. */
+	private static class Aggregates {
+		final ConcurrentMap<String, Counted<EventStat>>				eventStats			= new ConcurrentHashMap<String, Counted<EventStat>>();
+		final ConcurrentMap<String, Counted<ResourceStat>>			resourceStats		= new ConcurrentHashMap<String, Counted<ResourceStat>>();
+		final ConcurrentMap<String, Counted<LessonBuilderStat>>		lessonBuilderStats	= new ConcurrentHashMap<String, Counted<LessonBuilderStat>>();
+		final ConcurrentMap<String, Counted<SiteActivity>>			activities			= new ConcurrentHashMap<String, Counted<SiteActivity>>();
+		final ConcurrentMap<String, Counted<ServerStat>>			serverStats			= new ConcurrentHashMap<String, Counted<ServerStat>>();
+		final ConcurrentMap<String, Counted<UserStat>>				userStats			= new ConcurrentHashMap<String, Counted<UserStat>>();
+		/** Site visits and presences depend on each other and are only changed while holding the lock */
+		final Map<String, SiteVisits>								visits				= new HashMap<String, SiteVisits>();
+		final Map<String, SitePresenceConsolidation>				presences			= new HashMap<String, SitePresenceConsolidation>();
+		final Map<UniqueVisitsKey, Integer>							uniqueVisits		= new HashMap<UniqueVisitsKey, Integer>();
+		
+		boolean isEmpty() {
+			return eventStats.isEmpty() && resourceStats.isEmpty() && lessonBuilderStats.isEmpty()
+					&& activities.isEmpty() && serverStats.isEmpty() && userStats.isEmpty()
+					&& visits.isEmpty() && presences.isEmpty() && uniqueVisits.isEmpty();
+		}
+		
+		/** The sites with statistics for days before the given one, whose report results over past days change with these aggregates. */
+		Set<String> siteIdsBefore(Date day) {
+			Set<String> siteIds = new HashSet<String>();
+			for(Counted<EventStat> c : eventStats.values()) addIfBefore(siteIds, c.stat.getSiteId(), c.stat.getDate(), day);
+			for(Counted<ResourceStat> c : resourceStats.values()) addIfBefore(siteIds, c.stat.getSiteId(), c.stat.getDate(), day);
+			for(Counted<LessonBuilderStat> c : lessonBuilderStats.values()) addIfBefore(siteIds, c.stat.getSiteId(), c.stat.getDate(), day);
+			for(Counted<SiteActivity> c : activities.values()) addIfBefore(siteIds, c.stat.getSiteId(), c.stat.getDate(), day);
+			for(SiteVisits v : visits.values()) addIfBefore(siteIds, v.getSiteId(), v.getDate(), day);
+			for(SitePresenceConsolidation p : presences.values()) addIfBefore(siteIds, p.sitePresence.getSiteId(), p.sitePresence.getDate(), day);
+			siteIds.remove(null);
+			return siteIds;
+		}
+		
+		private static void addIfBefore(Set<String> siteIds, String siteId, Date date, Date day) {
+			if(date != null && date.before(day)) {
+				siteIds.add(siteId);
+			}
+		}
+	}
+	
 	private static class UniqueVisitsKey {
 		public String siteId;
 		public Date date;
@@ -0,0 +1,151 @@
+/**
+ * $URL$
+ * $Id$
+ *
+ * Copyright (c) 2006-2009 The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.sitestats.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sakaiproject.sitestats.api.EventStat;
+import org.sakaiproject.sitestats.api.SiteActivity;
+import org.sakaiproject.sitestats.api.Stat;
+import org.sakaiproject.sitestats.api.StatsManager;
+import org.sakaiproject.sitestats.impl.EventStatImpl;
+import org.sakaiproject.sitestats.impl.SiteActivityImpl;
+import org.sakaiproject.sitestats.impl.StatsManagerImpl;
+import org.sakaiproject.sitestats.test.data.FakeData;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.AbstractJUnit4SpringContextTests;
+
+/**
+ * Times a site wide event report over a million events (250 users, 5 events, 60 days) read from the per user totals,
+ * from the per site totals, and from the report results cache.
+ */
+@ContextConfiguration(locations={
+		"/hbm-db.xml",
+		"/hibernate-test.xml"})
+public class ReportQueryTestPerf extends AbstractJUnit4SpringContextTests {
+	private static final int		USERS				= 250;
+	private static final int		DAYS				= 60;
+	private static final int		EVENTS_PER_DAY		= 14;
+
+	private Logger					LOG					= LoggerFactory.getLogger(ReportQueryTestPerf.class);
+
+	@Autowired
+	private StatsManager			M_sm;
+	@Autowired
+	private DB						db;
+
+	private String					siteId				= FakeData.SITE_A_ID;
+	private List<String>			events				= new ArrayList<String>(FakeData.EVENTIDS);
+	private Date					iDate;
+	private Date					fDate;
+
+	@Before
+	public void onSetUp() throws Exception {
+		db.deleteAll();
+		Calendar c = Calendar.getInstance();
+		c.set(Calendar.HOUR_OF_DAY, 0);
+		c.set(Calendar.MINUTE, 0);
+		c.set(Calendar.SECOND, 0);
+		c.set(Calendar.MILLISECOND, 0);
+		c.add(Calendar.DATE, -DAYS);
+		iDate = c.getTime();
+		for(int d=0; d<DAYS; d++) {
+			Date date = c.getTime();
+			for(String eventId : events) {
+				for(int u=0; u<USERS; u++) {
+					EventStat es = new EventStatImpl();
+					es.setSiteId(siteId);
+					es.setUserId("user-" + u);
+					es.setEventId(eventId);
+					es.setDate(date);
+					es.setCount(EVENTS_PER_DAY);
+					db.insertObject(es);
+				}
+				SiteActivity sa = new SiteActivityImpl();
+				sa.setSiteId(siteId);
+				sa.setEventId(eventId);
+				sa.setDate(date);
+				sa.setCount(USERS * EVENTS_PER_DAY);
+				db.insertObject(sa);
+			}
+			c.add(Calendar.DATE, 1);
+		}
+		c.add(Calendar.DATE, -1);
+		fDate = c.getTime();
+	}
+
+	@After
+	public void onTearDown() throws Exception {
+		((StatsManagerImpl)M_sm).setEnableReportRollups(false);
+		((StatsManagerImpl)M_sm).setReportResultsCacheEnabled(false);
+		db.deleteAll();
+	}
+
+	@Test
+	public void testSiteWideEventReport() {
+		List<String> totalsBy = Arrays.asList(StatsManager.T_EVENT, StatsManager.T_DATE);
+
+		((StatsManagerImpl)M_sm).setEnableReportRollups(false);
+		((StatsManagerImpl)M_sm).setReportResultsCacheEnabled(false);
+		long start = System.currentTimeMillis();
+		List<Stat> fromUserTotals = M_sm.getEventStats(siteId, events, iDate, fDate, null, false, null, totalsBy, null, true, 0);
+		long userTotalsTime = System.currentTimeMillis() - start;
+
+		((StatsManagerImpl)M_sm).setEnableReportRollups(true);
+		start = System.currentTimeMillis();
+		List<Stat> fromSiteTotals = M_sm.getEventStats(siteId, events, iDate, fDate, null, false, null, totalsBy, null, true, 0);
+		long siteTotalsTime = System.currentTimeMillis() - start;
+
+		((StatsManagerImpl)M_sm).setReportResultsCacheEnabled(true);
+		M_sm.getEventStats(siteId, events, iDate, fDate, null, false, null, totalsBy, null, true, 0);
+		start = System.currentTimeMillis();
+		List<Stat> fromCache = M_sm.getEventStats(siteId, events, iDate, fDate, null, false, null, totalsBy, null, true, 0);
+		long cacheTime = System.currentTimeMillis() - start;
+
+		LOG.info("Site wide report over " + ((long) USERS * DAYS * EVENTS_PER_DAY * events.size()) + " events: "
+				+ userTotalsTime + " ms from the user totals, " + siteTotalsTime + " ms from the site totals, " + cacheTime + " ms from the cache");
+
+		Assert.assertEquals(DAYS * events.size(), fromUserTotals.size());
+		Assert.assertEquals(totals(fromUserTotals), totals(fromSiteTotals));
+		Assert.assertEquals(totals(fromUserTotals), totals(fromCache));
+		Assert.assertEquals(fromSiteTotals.size(), M_sm.getEventStatsRowCount(siteId, events, iDate, fDate, null, false, totalsBy));
+	}
+
+	private Map<String, Long> totals(List<Stat> stats) {
+		Map<String, Long> totals = new HashMap<String, Long>();
+		for(Stat s : stats) {
+			EventStat es = (EventStat) s;
+			totals.put(es.getEventId() + es.getDate().getTime(), es.getCount());
+		}
+		return totals;
+	}
+}
@@ -0,0 +1,204 @@
+/**
+ * $URL$
+ * $Id$
+ *
+ * Copyright (c) 2006-2009 The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.sitestats.test;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.exception.IdUnusedException;
+import org.sakaiproject.site.api.SiteService;
+import org.sakaiproject.sitestats.api.EventStat;
+import org.sakaiproject.sitestats.api.SiteActivity;
+import org.sakaiproject.sitestats.api.Stat;
+import org.sakaiproject.sitestats.api.StatsManager;
+import org.sakaiproject.sitestats.api.StatsUpdateManager;
+import org.sakaiproject.sitestats.impl.EventStatImpl;
+import org.sakaiproject.sitestats.impl.SiteActivityImpl;
+import org.sakaiproject.sitestats.impl.StatsManagerImpl;
+import org.sakaiproject.sitestats.impl.StatsUpdateManagerImpl;
+import org.sakaiproject.sitestats.test.data.FakeData;
+import org.sakaiproject.sitestats.test.mocks.FakeEventRegistryService;
+import org.sakaiproject.sitestats.test.mocks.FakeSite;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.AbstractJUnit4SpringContextTests;
+
+/**
+ * Event reports with the report rollups and the report results cache on, as they are outside of the other tests.
+ */
+@ContextConfiguration(locations={
+		"/hbm-db.xml",
+		"/hibernate-test.xml"})
+public class ReportResultsTest extends AbstractJUnit4SpringContextTests {
+	private static final List<String>	TOTALSBY	= Arrays.asList(StatsManager.T_EVENT, StatsManager.T_DATE);
+	private static final List<String>	EVENTS		= Arrays.asList(FakeData.EVENT_CHATNEW);
+
+	@Autowired
+	private StatsManager				M_sm;
+	@Autowired
+	private StatsUpdateManager			M_sum;
+	@Autowired
+	private DB							db;
+	@Autowired
+	private FakeEventRegistryService	M_ers;
+
+	/** Four days, all over, ending yesterday */
+	private Date						iDate;
+	private Date						fDate;
+
+	@Before
+	public void onSetUp() throws Exception {
+		db.deleteAll();
+
+		SiteService M_ss = createMock(SiteService.class);
+		for(String siteId : Arrays.asList(FakeData.SITE_A_ID, FakeData.SITE_B_ID)) {
+			FakeSite site = new FakeSite(siteId, FakeData.TOOL_CHAT);
+			site.setUsers(new HashSet<String>(Arrays.asList(FakeData.USER_A_ID, FakeData.USER_B_ID)));
+			site.setMembers(new HashSet<String>(Arrays.asList(FakeData.USER_A_ID, FakeData.USER_B_ID)));
+			expect(M_ss.getSite(siteId)).andStubReturn(site);
+			expect(M_ss.isUserSite(siteId)).andStubReturn(false);
+			expect(M_ss.isSpecialSite(siteId)).andStubReturn(false);
+		}
+		expect(M_ss.getSite(null)).andThrow(new IdUnusedException("null")).anyTimes();
+		replay(M_ss);
+		((StatsManagerImpl)M_sm).setSiteService(M_ss);
+		((StatsUpdateManagerImpl)M_sum).setSiteService(M_ss);
+		((StatsUpdateManagerImpl)M_sum).setStatsManager(M_sm);
+		M_ers.setStatsManager(M_sm);
+
+		Calendar c = Calendar.getInstance();
+		c.set(Calendar.HOUR_OF_DAY, 0);
+		c.set(Calendar.MINUTE, 0);
+		c.set(Calendar.SECOND, 0);
+		c.set(Calendar.MILLISECOND, 0);
+		c.add(Calendar.DATE, -4);
+		iDate = c.getTime();
+		for(int d=0; d<4; d++) {
+			// site A: both users chat twice a day, site B: user A chats once a day
+			insertChats(FakeData.SITE_A_ID, c.getTime(), 2, FakeData.USER_A_ID, FakeData.USER_B_ID);
+			insertChats(FakeData.SITE_B_ID, c.getTime(), 1, FakeData.USER_A_ID);
+			c.add(Calendar.DATE, 1);
+		}
+		c.add(Calendar.DATE, -1);
+		fDate = c.getTime();
+
+		((StatsManagerImpl)M_sm).setEnableReportRollups(true);
+		((StatsManagerImpl)M_sm).setReportResultsCacheEnabled(true);
+	}
+
+	@After
+	public void onTearDown() throws Exception {
+		((StatsManagerImpl)M_sm).setEnableReportRollups(false);
+		((StatsManagerImpl)M_sm).setReportResultsCacheEnabled(false);
+		db.deleteAll();
+	}
+
+	@Test
+	public void testSiteTotalsReportMatchesUserTotals() {
+		List<Stat> fromSiteTotals = report(FakeData.SITE_A_ID);
+		int rowCount = M_sm.getEventStatsRowCount(FakeData.SITE_A_ID, EVENTS, iDate, fDate, null, false, TOTALSBY);
+
+		((StatsManagerImpl)M_sm).setEnableReportRollups(false);
+		((StatsManagerImpl)M_sm).setReportResultsCacheEnabled(false);
+		List<Stat> fromUserTotals = report(FakeData.SITE_A_ID);
+
+		Assert.assertEquals(4, fromUserTotals.size());
+		Assert.assertEquals(totals(fromUserTotals), totals(fromSiteTotals));
+		Assert.assertEquals(fromUserTotals.size(), rowCount);
+		Assert.assertEquals(Long.valueOf(4), totals(fromSiteTotals).get(FakeData.EVENT_CHATNEW + iDate.getTime()));
+	}
+
+	@Test
+	public void testCachedReportIsReused() {
+		Assert.assertEquals(4, sum(report(FakeData.SITE_B_ID)));
+
+		// not through the update manager, so nothing tells the cache
+		insertChats(FakeData.SITE_B_ID, iDate, 1, FakeData.USER_B_ID);
+
+		Assert.assertEquals(4, sum(report(FakeData.SITE_B_ID)));
+	}
+
+	@Test
+	public void testBackfillClearsCachedReportsOfItsSite() {
+		Assert.assertEquals(16, sum(report(FakeData.SITE_A_ID)));
+		Assert.assertEquals(4, sum(report(FakeData.SITE_B_ID)));
+		insertChats(FakeData.SITE_B_ID, iDate, 1, FakeData.USER_B_ID);
+
+		// a past event, as collectPastSiteEvents() would send it
+		Date twoDaysBefore = new Date(iDate.getTime() + 2*24*60*60*1000 + 12*60*60*1000);
+		Assert.assertTrue(M_sum.collectEvents(Arrays.asList(
+				M_sum.buildEvent(twoDaysBefore, FakeData.EVENT_CHATNEW, "/chat/msg/"+FakeData.SITE_A_ID, FakeData.SITE_A_ID, FakeData.USER_A_ID, "session-id-a"))));
+
+		Assert.assertEquals(17, sum(report(FakeData.SITE_A_ID)));
+		// site B had no new events, so its report is still the cached one
+		Assert.assertEquals(4, sum(report(FakeData.SITE_B_ID)));
+	}
+
+	private List<Stat> report(String siteId) {
+		return M_sm.getEventStats(siteId, EVENTS, iDate, fDate, null, false, null, TOTALSBY, null, true, 0);
+	}
+
+	private void insertChats(String siteId, Date date, long count, String... userIds) {
+		for(String userId : userIds) {
+			EventStat es = new EventStatImpl();
+			es.setSiteId(siteId);
+			es.setUserId(userId);
+			es.setEventId(FakeData.EVENT_CHATNEW);
+			es.setDate(date);
+			es.setCount(count);
+			db.insertObject(es);
+		}
+		SiteActivity sa = new SiteActivityImpl();
+		sa.setSiteId(siteId);
+		sa.setEventId(FakeData.EVENT_CHATNEW);
+		sa.setDate(date);
+		sa.setCount(count * userIds.length);
+		db.insertObject(sa);
+	}
+
+	private Map<String, Long> totals(List<Stat> stats) {
+		Map<String, Long> totals = new HashMap<String, Long>();
+		for(Stat s : stats) {
+			EventStat es = (EventStat) s;
+			totals.put(es.getEventId() + es.getDate().getTime(), es.getCount());
+		}
+		return totals;
+	}
+
+	private long sum(List<Stat> stats) {
+		long sum = 0;
+		for(Stat s : stats) {
+			sum += s.getCount();
+		}
+		return sum;
+	}
+}
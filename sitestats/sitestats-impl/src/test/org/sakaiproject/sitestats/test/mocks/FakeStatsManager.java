@@ -204,6 +204,9 @@ public class FakeStatsManager implements StatsManager {
 		return null;
 	}
 
+	public void clearReportResults(String siteId) {
+	}
+
 	public SummaryActivityTotals getSummaryActivityTotals(String siteId) {
 		// TODO Auto-generated method stub
 		return null;
@@ -211,6 +211,9 @@ public class MockStatsManager implements StatsManager {
 		return null;
 	}
 
+	public void clearReportResults(String siteId) {
+	}
+
 	@Override
 	public List<Stat> getEventStats(String siteId, List<String> events) {
 		// TODO Auto-generated method stub